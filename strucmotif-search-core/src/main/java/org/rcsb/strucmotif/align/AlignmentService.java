@@ -2,6 +2,7 @@ package org.rcsb.strucmotif.align;
 
 import org.rcsb.strucmotif.domain.AlignmentResult;
 import org.rcsb.strucmotif.domain.AtomPairingScheme;
+import org.rcsb.strucmotif.domain.AtomPairingTemplate;
 import org.rcsb.strucmotif.domain.structure.Residue;
 
 import java.util.List;
@@ -18,4 +19,19 @@ public interface AlignmentService {
      * @return an Alignment instance which provides the aligned instances, transformation operations and scores
      */
     AlignmentResult align(List<Residue> reference, List<Residue> candidate, AtomPairingScheme atomPairingScheme);
+
+    /**
+     * Aligns a set of residues to the reference described by a precompiled pairing template.
+     * @param atomPairingTemplate the template which describes the reference set of residues and how atoms are paired
+     * @param candidate the candidate set of residues to evaluate
+     * @return an Alignment instance which provides the aligned instances, transformation operations and scores
+     */
+    AlignmentResult align(AtomPairingTemplate atomPairingTemplate, List<Residue> candidate);
+
+    /**
+     * Prepares a fixed reference for repeated alignments. The reference is centered once and its invariants are cached.
+     * @param referencePoints the reference coordinates
+     * @return a {@link PreparedReference} which aligns candidates in the same order
+     */
+    PreparedReference prepare(List<double[]> referencePoints);
 }
@@ -0,0 +1,126 @@
+package org.rcsb.strucmotif.align;
+
+import org.rcsb.strucmotif.domain.Pair;
+import org.rcsb.strucmotif.domain.Transformation;
+import org.rcsb.strucmotif.math.Kernels;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A reference for which the centered coordinates, centroid and self inner product (G1) are computed once. Candidates are
+ * provided as flat coordinate blocks of 3 * size values: all x-coordinates, then all y-coordinates, then all
+ * z-coordinates. Candidates do not need to be centered. A batch of candidates is a sequence of such blocks in a single
+ * array, keeping the inner loops free of indirection.
+ */
+public class PreparedReference {
+    private final Kernels kernels;
+    private final int size;
+    // centered reference block
+    private final double[] reference;
+    private final double[] centroid;
+    private final double g1;
+
+    /**
+     * Prepare a reference.
+     * @param referencePoints the (uncentered) reference coordinates
+     */
+    PreparedReference(List<double[]> referencePoints) {
+        if (referencePoints.isEmpty()) {
+            throw new IllegalArgumentException("cannot prepare empty reference");
+        }
+
+        this.kernels = Kernels.getInstance();
+        this.size = referencePoints.size();
+        this.reference = new double[3 * size];
+        for (int i = 0; i < size; i++) {
+            double[] point = referencePoints.get(i);
+            reference[i] = point[0];
+            reference[size + i] = point[1];
+            reference[2 * size + i] = point[2];
+        }
+        this.centroid = new double[3];
+        kernels.center(reference, 0, size, centroid);
+
+        double g = 0;
+        for (int i = 0; i < size; i++) {
+            double x = reference[i];
+            double y = reference[size + i];
+            double z = reference[2 * size + i];
+            g += x * x + y * y + z * z;
+        }
+        this.g1 = g;
+    }
+
+    /**
+     * The number of points of this reference.
+     * @return the size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The centroid of the reference.
+     * @return a 3D vector
+     */
+    public double[] getCentroid() {
+        return centroid;
+    }
+
+    /**
+     * Aligns a single candidate.
+     * @param candidates the array holding the candidate block
+     * @param offset the start of the candidate block
+     * @param computeTransformation false if only the RMSD is needed (the transformation will be null)
+     * @return the transformation and RMSD
+     */
+    public Pair<Transformation, Double> align(double[] candidates, int offset, boolean computeTransformation) {
+        // reference is centered: cross terms do not require centering of candidate
+        double[] products = new double[13];
+        kernels.innerProduct(reference, candidates, offset, size, products);
+
+        double[] candidateCentroid = new double[] { products[9] / size, products[10] / size, products[11] / size };
+        double g2 = products[12] - size * (candidateCentroid[0] * candidateCentroid[0] +
+                candidateCentroid[1] * candidateCentroid[1] +
+                candidateCentroid[2] * candidateCentroid[2]);
+        // first 9 values are the inner product matrix
+        return QuaternionAlignmentService.solve(products, g1, g2, size, centroid, candidateCentroid, computeTransformation);
+    }
+
+    /**
+     * Aligns a batch of candidates.
+     * @param candidates consecutive candidate blocks
+     * @return the transformation and RMSD of each candidate
+     */
+    public List<Pair<Transformation, Double>> align(double[] candidates) {
+        int blockSize = blockSize(candidates);
+        List<Pair<Transformation, Double>> alignments = new ArrayList<>(candidates.length / blockSize);
+        for (int offset = 0; offset < candidates.length; offset += blockSize) {
+            alignments.add(align(candidates, offset, true));
+        }
+        return alignments;
+    }
+
+    /**
+     * Computes the RMSD of a batch of candidates. Skips computation of transformations.
+     * @param candidates consecutive candidate blocks
+     * @return the RMSD of each candidate
+     */
+    public double[] rootMeanSquareDeviations(double[] candidates) {
+        int blockSize = blockSize(candidates);
+        double[] rootMeanSquareDeviations = new double[candidates.length / blockSize];
+        for (int i = 0; i < rootMeanSquareDeviations.length; i++) {
+            rootMeanSquareDeviations[i] = align(candidates, i * blockSize, false).getSecond();
+        }
+        return rootMeanSquareDeviations;
+    }
+
+    private int blockSize(double[] candidates) {
+        int blockSize = 3 * size;
+        if (candidates.length % blockSize != 0) {
+            throw new IllegalArgumentException("candidate coordinates must be a multiple of " + blockSize + " - found " + candidates.length);
+        }
+        return blockSize;
+    }
+}
@@ -4,11 +4,13 @@ import org.rcsb.strucmotif.domain.AlignmentResult;
 import org.rcsb.strucmotif.domain.AlignmentResultImpl;
 import org.rcsb.strucmotif.domain.AtomCorrespondence;
 import org.rcsb.strucmotif.domain.AtomPairingScheme;
+import org.rcsb.strucmotif.domain.AtomPairingTemplate;
 import org.rcsb.strucmotif.domain.Pair;
 import org.rcsb.strucmotif.domain.Transformation;
 import org.rcsb.strucmotif.domain.score.RootMeanSquareDeviation;
 import org.rcsb.strucmotif.domain.structure.Residue;
 import org.rcsb.strucmotif.math.Algebra;
+import org.rcsb.strucmotif.math.Kernels;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
@@ -41,6 +43,38 @@ public class QuaternionAlignmentService implements AlignmentService {
         return align(atomCorrespondence);
     }
 
+    @Override
+    public AlignmentResult align(AtomPairingTemplate atomPairingTemplate, List<Residue> candidate) {
+        List<Residue> reference = atomPairingTemplate.getReference();
+        // validate parameters
+        if (reference.size() != candidate.size()) {
+            throw new IllegalArgumentException("cannot align containers of unequal size - " + reference.size()
+                    + " vs " + candidate.size() + " : " + reference + " vs " + candidate);
+        }
+
+        // common case: candidate provides all atoms - reuse centered reference
+        PreparedReference preparedReference = atomPairingTemplate.getPreparedReference(candidate, this::prepare);
+        if (preparedReference != null) {
+            double[] candidatePoints = new double[3 * preparedReference.size()];
+            if (atomPairingTemplate.collectCandidateCoordinates(candidate, candidatePoints)) {
+                Pair<Transformation, Double> alignment = preparedReference.align(candidatePoints, 0, true);
+                return new AlignmentResultImpl(reference,
+                        candidate,
+                        alignment.getFirst(),
+                        new RootMeanSquareDeviation(alignment.getSecond()));
+            }
+        }
+
+        // fallback if some atoms are missing: pairing (and therefore reference centroid) depends on candidate
+        AtomCorrespondence atomCorrespondence = new AtomCorrespondence(candidate, atomPairingTemplate);
+        return align(atomCorrespondence);
+    }
+
+    @Override
+    public PreparedReference prepare(List<double[]> referencePoints) {
+        return new PreparedReference(referencePoints);
+    }
+
     /**
      * Aligns 2 lists of 3D vectors by quaternion-based characteristic polynomial. Both lists of reference and candidate
      * points are expected to be equal of size. Furthermore, centroids have to be computed externally and points must be
@@ -103,41 +137,48 @@ public class QuaternionAlignmentService implements AlignmentService {
                 new RootMeanSquareDeviation(alignment.getSecond()));
     }
 
-    @SuppressWarnings("Duplicates")
     public static Pair<Transformation, Double> align(List<double[]> referencePoints, double[] referenceCentroid, List<double[]> candidatePoints, double[] candidateCentroid) {
-        double[][] rot = new double[3][3];
-
-        // inner product
-        double G1 = 0.0;
-        double G2 = 0.0;
-        double[] A = new double[9];
-
-        for (int i = 0; i < referencePoints.size(); i++) {
-            double[] r = referencePoints.get(i);
-            double[] c = candidatePoints.get(i);
-
-            double x1 = r[0];
-            double y1 = r[1];
-            double z1 = r[2];
-            G1 += x1 * x1 + y1 * y1 + z1 * z1;
-
-            double x2 = c[0];
-            double y2 = c[1];
-            double z2 = c[2];
-            G2 += (x2 * x2 + y2 * y2 + z2 * z2);
-
-            A[0] +=  (x1 * x2);
-            A[1] +=  (x1 * y2);
-            A[2] +=  (x1 * z2);
-
-            A[3] +=  (y1 * x2);
-            A[4] +=  (y1 * y2);
-            A[5] +=  (y1 * z2);
+        // inner product: both point sets are centered
+        int size = referencePoints.size();
+        double[] reference = toBlock(referencePoints);
+        double[] candidate = toBlock(candidatePoints);
+        Kernels kernels = Kernels.getInstance();
+        double[] A = new double[13];
+        kernels.innerProduct(reference, candidate, 0, size, A);
+        double G2 = A[12];
+        double[] referenceProducts = new double[13];
+        kernels.innerProduct(reference, reference, 0, size, referenceProducts);
+        double G1 = referenceProducts[12];
+
+        return solve(A, G1, G2, size, referenceCentroid, candidateCentroid, true);
+    }
 
-            A[6] +=  (z1 * x2);
-            A[7] +=  (z1 * y2);
-            A[8] +=  (z1 * z2);
+    private static double[] toBlock(List<double[]> points) {
+        int size = points.size();
+        double[] block = new double[3 * size];
+        for (int i = 0; i < size; i++) {
+            double[] point = points.get(i);
+            block[i] = point[0];
+            block[size + i] = point[1];
+            block[2 * size + i] = point[2];
         }
+        return block;
+    }
+
+    /**
+     * Determines RMSD and (optionally) the transformation based on the inner products of centered point sets.
+     * @param A the 3x3 inner product matrix (row-major), further values are ignored
+     * @param G1 the inner product of the reference with itself
+     * @param G2 the inner product of the candidate with itself
+     * @param size the number of points
+     * @param referenceCentroid the reference centroid
+     * @param candidateCentroid the candidate centroid
+     * @param computeTransformation false if only the RMSD is needed (the transformation will be null)
+     * @return the transformation and RMSD
+     */
+    @SuppressWarnings("Duplicates")
+    static Pair<Transformation, Double> solve(double[] A, double G1, double G2, int size, double[] referenceCentroid, double[] candidateCentroid, boolean computeTransformation) {
+        double[][] rot = new double[3][3];
         double E0 = (G1 + G2) * 0.5;
 
         // fast calc RMSD and rotation
@@ -214,7 +255,10 @@ public class QuaternionAlignmentService implements AlignmentService {
         }
 
         /* the abs() is to guard against extremely small, but *negative* numbers due to floating point error */
-        rms = Math.sqrt(Math.abs(2.0 * (E0 - mxEigenV) / referencePoints.size()));
+        rms = Math.sqrt(Math.abs(2.0 * (E0 - mxEigenV) / size));
+        if (!computeTransformation) {
+            return new Pair<>(null, rms);
+        }
 
         a11 = SxxpSyy + Szz - mxEigenV;
         a12 = SyzmSzy;
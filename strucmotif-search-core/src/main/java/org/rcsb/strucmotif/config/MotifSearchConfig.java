@@ -28,6 +28,16 @@ public class MotifSearchConfig {
      * How many threads should be used during multi-threaded operations (update, path assembly, structure reading).
      */
     private int numberThreads = Runtime.getRuntime().availableProcessors();
+    /**
+     * How many threads should read structure data of hits while others align them. Raise this value if structure data
+     * resides on network storage.
+     */
+    private int prefetchThreads = Runtime.getRuntime().availableProcessors();
+    /**
+     * The maximum number of hits whose structure data is read ahead of alignment. Bounds the memory used for
+     * structures that have been read but not yet aligned.
+     */
+    private int prefetchSize = 128;
     /**
      * Hard limit on the number of results returned. Will stop jobs when this number of hits has been accepted. Acts as
      * a safeguard against too simple queries that will return an overwhelming number of results.
@@ -43,9 +53,34 @@ public class MotifSearchConfig {
     private int decimalPlacesMatrix = 3;
     /**
      * The batch size during update. Writing to the inverted index is expensive, therefore doing so in batches increases
-     * speed substantially. A value of 400 works good with 12GB of heap, the higher the faster.
+     * speed substantially. A value of 400 works good with 12GB of heap, the higher the faster. Structures of the next
+     * batch are processed while a batch is written.
      */
     private int updateChunkSize = 400;
+    /**
+     * How many threads should fetch and parse structure data during update.
+     */
+    private int updateParseThreads = Runtime.getRuntime().availableProcessors();
+    /**
+     * How many threads should determine residue graphs during update.
+     */
+    private int updateGraphThreads = Runtime.getRuntime().availableProcessors();
+    /**
+     * The capacity of the queues between the stages of the update. Stages wait for their successor once its queue is
+     * full, this bounds the number of structures held in memory.
+     */
+    private int updateQueueSize = 64;
+    /**
+     * The maximum number of bytes of residue pairs that a batch holds in memory during update. Additional residue pairs
+     * are sorted and spilled to <code>root-path</code>, which bounds the heap required regardless of
+     * <code>update-chunk-size</code>.
+     */
+    private long updateBufferSize = 512L * 1024 * 1024;
+    /**
+     * The number of shards the entry list is split into for a distributed build. Each shard is built by one of the
+     * worker processes which share <code>root-path</code>.
+     */
+    private int updateShardCount = 16;
     /**
      * The maximum motif size, any larger user input will be rejected.
      */
@@ -55,6 +90,15 @@ public class MotifSearchConfig {
      * PDB-ID, <code>{middle}</code> can be used to represent the middle hash of an ID (e.g. 'ab' for '1abc').
      */
     private String cifFetchUrl = "https://models.rcsb.org/{id}.bcif";
+    /**
+     * The maximum number of bytes of fetched (Binary)CIF data retained in <code>root-path</code>. Least recently used
+     * files are evicted first. Set to 0 to disable caching.
+     */
+    private long fetchCacheSize = 1024L * 1024 * 1024;
+    /**
+     * The maximum number of concurrent downloads from one host.
+     */
+    private int maxFetchesPerHost = 4;
     /**
      * What precision to use to write renumbered structure data.
      */
@@ -63,6 +107,12 @@ public class MotifSearchConfig {
      * Gzip renumbered files? Yields smaller files that are slower to read.
      */
     private boolean renumberedGzip = true;
+    /**
+     * How to compress renumbered files: NONE is fastest to read, GZIP yields the smallest files, LZ4 is in between.
+     * Supersedes <code>renumbered-gzip</code> if set. Use the MIGRATE operation of the update module to re-encode
+     * existing files after changing this value.
+     */
+    private RenumberedCompression renumberedCompression;
     /**
      * List of all identifiers ever registered.
      */
@@ -71,14 +121,42 @@ public class MotifSearchConfig {
      * List of all identifiers needed to recover if update operation fails.
      */
     public static final String STATE_DIRTY_LIST = "dirty.list";
+    /**
+     * Log of state modifications since the known and dirty lists were written.
+     */
+    public static final String STATE_LOG = "state.log";
     /**
      * Name of the renumbered directory.
      */
     public static final String RENUMBERED_DIRECTORY = "renumbered";
+    /**
+     * Name of the directory of the bins which reference each indexed structure.
+     */
+    public static final String BIN_KEYS_DIRECTORY = "bin-keys";
     /**
      * Name of the inverted index directory.
      */
     public static final String INDEX_DIRECTORY = "index";
+    /**
+     * Name of the directory of residue pairs spilled during update.
+     */
+    public static final String RUN_DIRECTORY = "runs";
+    /**
+     * Name of the directory of the journal of index writes during update.
+     */
+    public static final String JOURNAL_DIRECTORY = "journal";
+    /**
+     * Name of the directory of shards and segments of a distributed build.
+     */
+    public static final String BUILD_DIRECTORY = "build";
+    /**
+     * Name of the report of update metrics.
+     */
+    public static final String UPDATE_METRICS_FILE = "update-metrics.json";
+    /**
+     * Name of the fetch cache directory.
+     */
+    public static final String FETCH_CACHE_DIRECTORY = "fetch-cache";
     /**
      * RCSB URL that reports currently identifiers in archive.
      */
@@ -116,6 +194,22 @@ public class MotifSearchConfig {
         this.numberThreads = numberThreads;
     }
 
+    public int getPrefetchThreads() {
+        return prefetchThreads;
+    }
+
+    public void setPrefetchThreads(int prefetchThreads) {
+        this.prefetchThreads = prefetchThreads;
+    }
+
+    public int getPrefetchSize() {
+        return prefetchSize;
+    }
+
+    public void setPrefetchSize(int prefetchSize) {
+        this.prefetchSize = prefetchSize;
+    }
+
     public int getMaxResults() {
         return maxResults;
     }
@@ -148,6 +242,46 @@ public class MotifSearchConfig {
         this.updateChunkSize = updateChunkSize;
     }
 
+    public int getUpdateParseThreads() {
+        return updateParseThreads;
+    }
+
+    public void setUpdateParseThreads(int updateParseThreads) {
+        this.updateParseThreads = updateParseThreads;
+    }
+
+    public int getUpdateGraphThreads() {
+        return updateGraphThreads;
+    }
+
+    public void setUpdateGraphThreads(int updateGraphThreads) {
+        this.updateGraphThreads = updateGraphThreads;
+    }
+
+    public int getUpdateQueueSize() {
+        return updateQueueSize;
+    }
+
+    public void setUpdateQueueSize(int updateQueueSize) {
+        this.updateQueueSize = updateQueueSize;
+    }
+
+    public long getUpdateBufferSize() {
+        return updateBufferSize;
+    }
+
+    public void setUpdateBufferSize(long updateBufferSize) {
+        this.updateBufferSize = updateBufferSize;
+    }
+
+    public int getUpdateShardCount() {
+        return updateShardCount;
+    }
+
+    public void setUpdateShardCount(int updateShardCount) {
+        this.updateShardCount = updateShardCount;
+    }
+
     public int getMaxMotifSize() {
         return maxMotifSize;
     }
@@ -164,6 +298,22 @@ public class MotifSearchConfig {
         this.cifFetchUrl = cifFetchUrl;
     }
 
+    public long getFetchCacheSize() {
+        return fetchCacheSize;
+    }
+
+    public void setFetchCacheSize(long fetchCacheSize) {
+        this.fetchCacheSize = fetchCacheSize;
+    }
+
+    public int getMaxFetchesPerHost() {
+        return maxFetchesPerHost;
+    }
+
+    public void setMaxFetchesPerHost(int maxFetchesPerHost) {
+        this.maxFetchesPerHost = maxFetchesPerHost;
+    }
+
     public double getSquaredDistanceCutoff() {
         return distanceCutoff * distanceCutoff;
     }
@@ -183,4 +333,15 @@ public class MotifSearchConfig {
     public void setRenumberedGzip(boolean renumberedGzip) {
         this.renumberedGzip = renumberedGzip;
     }
+
+    public RenumberedCompression getRenumberedCompression() {
+        if (renumberedCompression != null) {
+            return renumberedCompression;
+        }
+        return renumberedGzip ? RenumberedCompression.GZIP : RenumberedCompression.NONE;
+    }
+
+    public void setRenumberedCompression(RenumberedCompression renumberedCompression) {
+        this.renumberedCompression = renumberedCompression;
+    }
 }
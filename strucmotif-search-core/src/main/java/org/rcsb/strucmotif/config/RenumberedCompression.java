@@ -0,0 +1,17 @@
+package org.rcsb.strucmotif.config;
+
+public enum RenumberedCompression {
+    /**
+     * Plain BinaryCIF. Largest files, fastest to read.
+     */
+    NONE,
+    /**
+     * Gzipped BinaryCIF. Smallest files, slowest to read.
+     */
+    GZIP,
+    /**
+     * BinaryCIF compressed by an LZ4-style block codec. Somewhat larger than gzipped files but considerably faster to
+     * read.
+     */
+    LZ4
+}
@@ -15,7 +15,24 @@ public interface HitScorer {
      * @param simpleHit the original hit that should be scored
      * @return a {@link Hit} instance
      */
-    TransformedHit score(SimpleHit simpleHit);
+    default TransformedHit score(SimpleHit simpleHit) {
+        return score(simpleHit, readTargetStructure(simpleHit));
+    }
+
+    /**
+     * Reads the residues of a hit. This is the I/O-bound part of scoring.
+     * @param simpleHit the hit
+     * @return the structure, containing (at least) the residues of this hit
+     */
+    Structure readTargetStructure(SimpleHit simpleHit);
+
+    /**
+     * Scores a hit whose residues have already been read. This is the CPU-bound part of scoring.
+     * @param simpleHit the original hit that should be scored
+     * @param targetStructure the structure as reported by {@link #readTargetStructure(SimpleHit)}
+     * @return a {@link Hit} instance
+     */
+    TransformedHit score(SimpleHit simpleHit, Structure targetStructure);
 
     /**
      * The reference structure with respect to which hits will be aligned.
@@ -0,0 +1,155 @@
+package org.rcsb.strucmotif.core;
+
+import org.rcsb.strucmotif.domain.result.SimpleHit;
+import org.rcsb.strucmotif.domain.result.TransformedHit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Scores hits in two stages: target structures are read on the I/O threads of the {@link ThreadPool} and aligned on
+ * its CPU threads as soon as they are available. This way, reading and aligning overlap. At most
+ * <code>prefetchSize</code> structures are in flight (being read, waiting, or being aligned) at any time.
+ */
+class HitScoringPipeline {
+    private final ThreadPool threadPool;
+    private final HitScorer hitScorer;
+    private final int prefetchSize;
+
+    /**
+     * Construct a pipeline.
+     * @param threadPool the threads to use
+     * @param hitScorer how to read and score hits
+     * @param prefetchSize the maximum number of structures in flight
+     */
+    HitScoringPipeline(ThreadPool threadPool, HitScorer hitScorer, int prefetchSize) {
+        if (prefetchSize < 1) {
+            throw new IllegalArgumentException("prefetch size must be positive");
+        }
+
+        this.threadPool = threadPool;
+        this.hitScorer = hitScorer;
+        this.prefetchSize = prefetchSize;
+    }
+
+    /**
+     * Scores candidates. Behaves like an ordered stream of the candidates which is scored, filtered by RMSD, and
+     * limited: hits are reported in the order of the candidates and no further structures are read once the first
+     * <code>limit</code> accepted hits are known.
+     * @param candidates the hits to score
+     * @param rmsdCutoff hits must have a lower RMSD to be accepted
+     * @param limit the maximum number of hits to report
+     * @return the accepted hits
+     * @throws InterruptedException if interrupted while waiting
+     * @throws ExecutionException if reading or scoring any hit failed
+     */
+    List<TransformedHit> score(List<? extends SimpleHit> candidates, double rmsdCutoff, int limit) throws InterruptedException, ExecutionException {
+        Progress progress = new Progress(candidates.size(), rmsdCutoff, limit);
+        Semaphore permits = new Semaphore(prefetchSize);
+        try {
+            for (int i = 0; i < candidates.size() && !progress.stop; i++) {
+                permits.acquire();
+                if (progress.stop) {
+                    permits.release();
+                    break;
+                }
+
+                int index = i;
+                SimpleHit candidate = candidates.get(i);
+                try {
+                    CompletableFuture.supplyAsync(() -> hitScorer.readTargetStructure(candidate), threadPool::executeIo)
+                            .thenApplyAsync(targetStructure -> hitScorer.score(candidate, targetStructure), threadPool::execute)
+                            .whenComplete((transformedHit, throwable) -> {
+                                try {
+                                    if (throwable != null) {
+                                        progress.fail(throwable);
+                                    } else {
+                                        progress.complete(index, transformedHit);
+                                    }
+                                } finally {
+                                    permits.release();
+                                }
+                            });
+                } catch (RuntimeException e) {
+                    // the task was never submitted (e.g. rejected by the executor)
+                    permits.release();
+                    throw e;
+                }
+            }
+        } finally {
+            // wait for hits in flight
+            permits.acquireUninterruptibly(prefetchSize);
+        }
+
+        Throwable failure = progress.getFailure();
+        if (failure != null) {
+            throw new ExecutionException(failure instanceof CompletionException ? failure.getCause() : failure);
+        }
+        return progress.getAccepted();
+    }
+
+    /**
+     * Tracks which candidates have been scored. The limit is satisfied once the contiguous prefix of scored candidates
+     * contains enough accepted hits.
+     */
+    private static class Progress {
+        private final TransformedHit[] hits;
+        private final boolean[] scored;
+        private final double rmsdCutoff;
+        private final int limit;
+        private int prefix;
+        private int acceptedInPrefix;
+        private Throwable failure;
+        private volatile boolean stop;
+
+        Progress(int size, double rmsdCutoff, int limit) {
+            this.hits = new TransformedHit[size];
+            this.scored = new boolean[size];
+            this.rmsdCutoff = rmsdCutoff;
+            this.limit = limit;
+            this.stop = limit <= 0;
+        }
+
+        synchronized void complete(int index, TransformedHit transformedHit) {
+            if (transformedHit.getRootMeanSquareDeviation().value() < rmsdCutoff) {
+                hits[index] = transformedHit;
+            }
+            scored[index] = true;
+
+            while (prefix < scored.length && scored[prefix]) {
+                if (hits[prefix] != null) {
+                    acceptedInPrefix++;
+                }
+                prefix++;
+            }
+            if (acceptedInPrefix >= limit) {
+                stop = true;
+            }
+        }
+
+        synchronized void fail(Throwable throwable) {
+            if (failure == null) {
+                failure = throwable;
+            }
+            stop = true;
+        }
+
+        synchronized Throwable getFailure() {
+            return failure;
+        }
+
+        synchronized List<TransformedHit> getAccepted() {
+            List<TransformedHit> accepted = new ArrayList<>();
+            for (int i = 0; i < hits.length && accepted.size() < limit; i++) {
+                if (hits[i] != null) {
+                    accepted.add(hits[i]);
+                }
+            }
+            return accepted;
+        }
+    }
+}
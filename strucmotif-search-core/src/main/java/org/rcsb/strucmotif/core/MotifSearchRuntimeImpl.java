@@ -9,20 +9,28 @@ import org.rcsb.strucmotif.domain.query.QueryStructure;
 import org.rcsb.strucmotif.domain.query.ScoringStrategy;
 import org.rcsb.strucmotif.domain.result.Hit;
 import org.rcsb.strucmotif.domain.result.MotifSearchResult;
+import org.rcsb.strucmotif.domain.result.SimpleHit;
 import org.rcsb.strucmotif.domain.result.TargetStructure;
+import org.rcsb.strucmotif.domain.result.TransformedHit;
 import org.rcsb.strucmotif.io.StructureDataProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 @Service
 public class MotifSearchRuntimeImpl implements MotifSearchRuntime {
     private static final Logger logger = LoggerFactory.getLogger(MotifSearchRuntimeImpl.class);
+    private static final int TOP_HITS_BATCH_SIZE_PER_THREAD = 8;
     private final TargetAssembler targetAssembler;
     private final ThreadPool threadPool;
     private final MotifSearchConfig motifSearchConfig;
@@ -88,31 +96,42 @@ public class MotifSearchRuntimeImpl implements MotifSearchRuntime {
         List<? extends Hit> hits;
         switch (parameters.getScoringStrategy()) {
             case ALIGNMENT:
-                HitScorer hitScorer = new RootMeanSquareDeviationHitScorer(result.getQuery().getQueryStructure().getStructure(),
-                        parameters.getAtomPairingScheme(), alignmentService, structureDataProvider);
-                hits = threadPool.submit(() -> result.getTargetStructures()
+                HitScorer hitScorer = new RootMeanSquareDeviationHitScorer(result.getQuery(), alignmentService, structureDataProvider);
+                RootMeanSquareDeviationLowerBound lowerBound = new RootMeanSquareDeviationLowerBound(result.getQuery());
+                double rmsdCutoff = parameters.getRmsdCutoff();
+                if (parameters.hasLimit()) {
+                    hits = scoreTopHits(parameters, result, hitScorer, lowerBound, limit);
+                    break;
+                }
+
+                List<SimpleHit> candidates = threadPool.submit(() -> result.getTargetStructures()
                         .values()
                         .parallelStream()
                         .flatMap(TargetStructure::paths)
                         // filtered hits if desired
                         .filter(simpleHit -> simpleHit.getGeometricDescriptorScore().value() < parameters.getScoreCutoff())
-                        // align
-                        .map(hitScorer::score)
-                        .filter(transformedHit -> transformedHit.getRootMeanSquareDeviation().value() < parameters.getRmsdCutoff())
-                        .limit(limit)
+                        // skip hits which cannot pass the RMSD cutoff - avoids reading their structure
+                        .filter(simpleHit -> rmsdCutoff == Double.MAX_VALUE || lowerBound.estimate(simpleHit) < rmsdCutoff)
                         .collect(Collectors.toList()))
                         .get();
+                // read and align
+                hits = createPipeline(hitScorer).score(candidates, rmsdCutoff, limit);
                 break;
             case DESCRIPTOR:
-                hits = threadPool.submit(() -> result.getTargetStructures()
-                        .values()
-                        .parallelStream()
-                        .flatMap(TargetStructure::paths)
-                        // filtered hits if desired
-                        .filter(simpleHit -> simpleHit.getGeometricDescriptorScore().value() < parameters.getScoreCutoff())
-                        .limit(limit)
-                        .collect(Collectors.toList()))
-                        .get();
+                hits = threadPool.submit(() -> {
+                    Stream<SimpleHit> simpleHits = result.getTargetStructures()
+                            .values()
+                            .parallelStream()
+                            .flatMap(TargetStructure::paths)
+                            // filtered hits if desired
+                            .filter(simpleHit -> simpleHit.getGeometricDescriptorScore().value() < parameters.getScoreCutoff());
+                    // report best hits if limited
+                    if (parameters.hasLimit()) {
+                        simpleHits = simpleHits.sorted(Comparator.comparingDouble(simpleHit -> simpleHit.getGeometricDescriptorScore().value()));
+                    }
+                    return simpleHits.limit(limit)
+                            .collect(Collectors.toList());
+                }).get();
                 break;
             default:
                 throw new IllegalArgumentException("Unknown scoring strategy: " + parameters.getScoringStrategy());
@@ -120,4 +139,78 @@ public class MotifSearchRuntimeImpl implements MotifSearchRuntime {
         result.getTimings().scoreHitsStop();
         return hits;
     }
+
+    private HitScoringPipeline createPipeline(HitScorer hitScorer) {
+        return new HitScoringPipeline(threadPool, hitScorer, motifSearchConfig.getPrefetchSize());
+    }
+
+    /**
+     * Determines the hits with the lowest RMSD. Candidates are aligned best-first (by their geometric descriptor score)
+     * in parallel batches while a bounded heap keeps the best hits observed so far. Candidates are skipped if their RMSD
+     * lower bound cannot beat the k-th RMSD and the search terminates once this holds for all remaining candidates.
+     * @param parameters the parameters
+     * @param result the result container
+     * @param hitScorer how to align hits
+     * @param lowerBound the RMSD lower bound estimator
+     * @param limit how many hits to report
+     * @return the best hits, sorted by RMSD
+     */
+    private List<TransformedHit> scoreTopHits(Parameters parameters, MotifSearchResult result, HitScorer hitScorer, RootMeanSquareDeviationLowerBound lowerBound, int limit) throws ExecutionException, InterruptedException {
+        double rmsdCutoff = parameters.getRmsdCutoff();
+        List<SimpleHit> candidates = threadPool.submit(() -> result.getTargetStructures()
+                .values()
+                .parallelStream()
+                .flatMap(TargetStructure::paths)
+                .filter(simpleHit -> simpleHit.getGeometricDescriptorScore().value() < parameters.getScoreCutoff())
+                .sorted(Comparator.comparingDouble(simpleHit -> simpleHit.getGeometricDescriptorScore().value()))
+                .collect(Collectors.toList()))
+                .get();
+
+        // suffix minimum of lower bounds: no candidate at or after index i can be better than this value
+        double[] lowerBounds = threadPool.submit(() -> candidates.parallelStream()
+                .mapToDouble(lowerBound::estimate)
+                .toArray())
+                .get();
+        double[] remainingLowerBounds = new double[candidates.size() + 1];
+        remainingLowerBounds[candidates.size()] = Double.POSITIVE_INFINITY;
+        for (int i = candidates.size() - 1; i >= 0; i--) {
+            remainingLowerBounds[i] = Math.min(lowerBounds[i], remainingLowerBounds[i + 1]);
+        }
+
+        // max-heap: head is the worst of the best hits
+        PriorityQueue<TransformedHit> heap = new PriorityQueue<>(limit, Comparator.comparingDouble((TransformedHit transformedHit) -> transformedHit.getRootMeanSquareDeviation().value()).reversed());
+        int batchSize = Math.max(limit, TOP_HITS_BATCH_SIZE_PER_THREAD * motifSearchConfig.getNumberThreads());
+        int evaluated = 0;
+        HitScoringPipeline pipeline = createPipeline(hitScorer);
+        for (int offset = 0; offset < candidates.size(); offset += batchSize) {
+            // current threshold a candidate has to beat
+            double threshold = heap.size() < limit ? rmsdCutoff : Math.min(rmsdCutoff, heap.peek().getRootMeanSquareDeviation().value());
+            if (remainingLowerBounds[offset] >= threshold) {
+                break;
+            }
+
+            int from = offset;
+            int to = Math.min(offset + batchSize, candidates.size());
+            List<SimpleHit> batchCandidates = IntStream.range(from, to)
+                    .filter(i -> lowerBounds[i] < threshold)
+                    .mapToObj(candidates::get)
+                    .collect(Collectors.toList());
+            List<TransformedHit> batch = pipeline.score(batchCandidates, rmsdCutoff, Integer.MAX_VALUE);
+            evaluated += to - from;
+
+            for (TransformedHit transformedHit : batch) {
+                if (heap.size() < limit) {
+                    heap.add(transformedHit);
+                } else if (transformedHit.getRootMeanSquareDeviation().value() < heap.peek().getRootMeanSquareDeviation().value()) {
+                    heap.poll();
+                    heap.add(transformedHit);
+                }
+            }
+        }
+        logger.debug("Top {} hits: evaluated {} of {} candidates", limit, evaluated, candidates.size());
+
+        List<TransformedHit> hits = new ArrayList<>(heap);
+        hits.sort(Comparator.comparingDouble(transformedHit -> transformedHit.getRootMeanSquareDeviation().value()));
+        return hits;
+    }
 }
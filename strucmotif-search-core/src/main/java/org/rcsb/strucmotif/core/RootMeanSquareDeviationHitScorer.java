@@ -3,15 +3,18 @@ package org.rcsb.strucmotif.core;
 import org.rcsb.strucmotif.align.AlignmentService;
 import org.rcsb.strucmotif.domain.AlignmentResult;
 import org.rcsb.strucmotif.domain.AtomPairingScheme;
+import org.rcsb.strucmotif.domain.AtomPairingTemplate;
 import org.rcsb.strucmotif.domain.identifier.ResidueIdentifier;
+import org.rcsb.strucmotif.domain.query.MotifSearchQuery;
 import org.rcsb.strucmotif.domain.result.SimpleHit;
 import org.rcsb.strucmotif.domain.result.TransformedHit;
-import org.rcsb.strucmotif.domain.structure.Chain;
+import org.rcsb.strucmotif.domain.selection.LabelSelection;
+import org.rcsb.strucmotif.domain.selection.LabelSelectionResolver;
 import org.rcsb.strucmotif.domain.structure.Residue;
 import org.rcsb.strucmotif.domain.structure.Structure;
 import org.rcsb.strucmotif.io.StructureDataProvider;
 
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -20,26 +23,20 @@ import java.util.stream.Collectors;
  */
 public class RootMeanSquareDeviationHitScorer implements HitScorer {
     private final Structure queryStructure;
-    private final List<Residue> queryResidues;
-    private final AtomPairingScheme atomPairingScheme;
+    private final AtomPairingTemplate atomPairingTemplate;
     private final AlignmentService alignmentService;
     private final StructureDataProvider structureDataProvider;
 
-    public RootMeanSquareDeviationHitScorer(Structure queryStructure, AtomPairingScheme atomPairingScheme, AlignmentService alignmentService, StructureDataProvider structureDataProvider) {
-        this.queryStructure = queryStructure;
-        this.queryResidues = queryStructure.getChains()
-                .stream()
-                .map(Chain::getResidues)
-                .flatMap(Collection::stream)
-                .collect(Collectors.toList());
-        this.atomPairingScheme = atomPairingScheme;
+    public RootMeanSquareDeviationHitScorer(MotifSearchQuery query, AlignmentService alignmentService, StructureDataProvider structureDataProvider) {
+        this.queryStructure = query.getQueryStructure().getStructure();
+        this.atomPairingTemplate = query.getAtomPairingTemplate();
         this.alignmentService = alignmentService;
         this.structureDataProvider = structureDataProvider;
     }
 
     @Override
     public AtomPairingScheme getAtomPairingScheme() {
-        return atomPairingScheme;
+        return atomPairingTemplate.getAtomPairingScheme();
     }
 
     @Override
@@ -48,14 +45,24 @@ public class RootMeanSquareDeviationHitScorer implements HitScorer {
     }
 
     @Override
-    public TransformedHit score(SimpleHit simpleHit) {
-        Structure targetStructure = structureDataProvider.readRenumbered(simpleHit.getStructureIdentifier(), simpleHit.getSelection());
-        List<Residue> targetResidues = targetStructure.getChains()
-                .stream()
-                .map(Chain::getResidues)
-                .flatMap(Collection::stream)
-                .collect(Collectors.toList());
-        AlignmentResult alignmentResult = alignmentService.align(queryResidues, targetResidues, atomPairingScheme);
+    public Structure readTargetStructure(SimpleHit simpleHit) {
+        return structureDataProvider.readRenumbered(simpleHit.getStructureIdentifier(), simpleHit.getSelection());
+    }
+
+    @Override
+    public TransformedHit score(SimpleHit simpleHit, Structure targetStructure) {
+        // selection of the hit is in path order - this provides correspondence to the residues of the query
+        LabelSelectionResolver labelSelectionResolver = new LabelSelectionResolver(targetStructure);
+        List<Residue> targetResidues = new ArrayList<>(simpleHit.getSelection().size());
+        for (LabelSelection labelSelection : simpleHit.getSelection()) {
+            Residue residue = labelSelectionResolver.resolve(labelSelection);
+            // a missing residue would break the correspondence to the query
+            if (residue == null) {
+                throw new IllegalStateException("Residue " + labelSelection + " of hit is missing from renumbered structure " + simpleHit.getStructureIdentifier().getPdbId());
+            }
+            targetResidues.add(residue);
+        }
+        AlignmentResult alignmentResult = alignmentService.align(atomPairingTemplate, targetResidues);
 
         return new TransformedHit(simpleHit,
                 targetResidues.stream().map(Residue::getResidueIdentifier).map(ResidueIdentifier::getResidueType).collect(Collectors.toList()),
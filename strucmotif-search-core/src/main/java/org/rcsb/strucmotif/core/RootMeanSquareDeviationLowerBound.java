@@ -0,0 +1,192 @@
+package org.rcsb.strucmotif.core;
+
+import org.rcsb.strucmotif.domain.AtomPairingTemplate;
+import org.rcsb.strucmotif.domain.identifier.AtomNameRegistry;
+import org.rcsb.strucmotif.domain.motif.DistanceType;
+import org.rcsb.strucmotif.domain.motif.ResiduePairDescriptor;
+import org.rcsb.strucmotif.domain.motif.ResiduePairIdentifier;
+import org.rcsb.strucmotif.domain.query.MotifSearchQuery;
+import org.rcsb.strucmotif.domain.query.QueryStructure;
+import org.rcsb.strucmotif.domain.result.SimpleHit;
+import org.rcsb.strucmotif.domain.structure.Residue;
+import org.rcsb.strucmotif.domain.structure.ResidueType;
+import org.rcsb.strucmotif.math.Algebra;
+
+import java.util.List;
+
+/**
+ * Estimates a lower bound of the RMSD of a hit without reading its structure. Each step of a path reports the binned
+ * backbone and side-chain distances of the target. Together with the exact distances in the query, this yields a
+ * minimum deviation of the distance between the anchor atoms (CA/CB or C4'/C1') of both residues.
+ * <p>
+ * For any superposition, the difference of 2 distances is bounded by the sum of the deviations of both atoms, i.e.
+ * δ(i,j) ≤ e(i) + e(j). Summed over all steps, Σ(e(i) + e(j))² = eᵀQe where Q is the signless Laplacian of the graph
+ * formed by the steps. Its largest eigenvalue is bounded by the maximum of d(i) + d(j) over all edges (d being the
+ * degree), so Σδ² ≤ max(d(i) + d(j)) · Σe² ≤ max(d(i) + d(j)) · n · RMSD², where n is an upper bound on the number of
+ * paired atoms. Anchor atoms are only considered when they are guaranteed to be part of the pairing (and not virtual,
+ * as the CB of glycine).
+ */
+public class RootMeanSquareDeviationLowerBound {
+    private static final int NUMBER_OF_BINS = DistanceType.values().length;
+    private final double[] backboneDistances;
+    private final double[] sideChainDistances;
+    private final double normalization;
+
+    /**
+     * Construct the lower bound estimator for a query.
+     * @param query the query
+     */
+    public RootMeanSquareDeviationLowerBound(MotifSearchQuery query) {
+        QueryStructure queryStructure = query.getQueryStructure();
+        AtomPairingTemplate atomPairingTemplate = query.getAtomPairingTemplate();
+        List<ResiduePairIdentifier> residuePairIdentifiers = queryStructure.getResiduePairIdentifiers();
+        List<Residue> residues = queryStructure.getResidues();
+
+        int steps = residuePairIdentifiers.size();
+        this.backboneDistances = new double[steps];
+        this.sideChainDistances = new double[steps];
+        int[] backboneDegree = new int[residues.size()];
+        int[] sideChainDegree = new int[residues.size()];
+
+        for (int k = 0; k < steps; k++) {
+            ResiduePairIdentifier residuePairIdentifier = residuePairIdentifiers.get(k);
+            int i = queryStructure.getLabelSelections().indexOf(residuePairIdentifier.getLabelSelection1());
+            int j = queryStructure.getLabelSelections().indexOf(residuePairIdentifier.getLabelSelection2());
+
+            // NaN marks steps that cannot contribute
+            backboneDistances[k] = Double.NaN;
+            sideChainDistances[k] = Double.NaN;
+
+            if (pairsAnchor(atomPairingTemplate, residues, i, true) && pairsAnchor(atomPairingTemplate, residues, j, true)) {
+                backboneDistances[k] = Algebra.distance3d(residues.get(i).getBackboneCoordinates(), residues.get(j).getBackboneCoordinates());
+                backboneDegree[i]++;
+                backboneDegree[j]++;
+            }
+
+            if (pairsAnchor(atomPairingTemplate, residues, i, false) && pairsAnchor(atomPairingTemplate, residues, j, false)) {
+                sideChainDistances[k] = Algebra.distance3d(residues.get(i).getSideChainCoordinates(), residues.get(j).getSideChainCoordinates());
+                sideChainDegree[i]++;
+                sideChainDegree[j]++;
+            }
+        }
+
+        int maximumEdgeDegree = 0;
+        for (int k = 0; k < steps; k++) {
+            ResiduePairIdentifier residuePairIdentifier = residuePairIdentifiers.get(k);
+            int i = queryStructure.getLabelSelections().indexOf(residuePairIdentifier.getLabelSelection1());
+            int j = queryStructure.getLabelSelections().indexOf(residuePairIdentifier.getLabelSelection2());
+            if (!Double.isNaN(backboneDistances[k])) {
+                maximumEdgeDegree = Math.max(maximumEdgeDegree, backboneDegree[i] + backboneDegree[j]);
+            }
+            if (!Double.isNaN(sideChainDistances[k])) {
+                maximumEdgeDegree = Math.max(maximumEdgeDegree, sideChainDegree[i] + sideChainDegree[j]);
+            }
+        }
+        this.normalization = (double) maximumEdgeDegree * atomPairingTemplate.getMaximumNumberOfPairs();
+    }
+
+    /**
+     * Determines whether the anchor atom of a position is paired for all residue types that may occur at this position.
+     * @param atomPairingTemplate the template
+     * @param residues the query residues
+     * @param position the position
+     * @param backbone true for the backbone anchor, false for the side-chain anchor
+     * @return true if the anchor atom can be used for the lower bound
+     */
+    private static boolean pairsAnchor(AtomPairingTemplate atomPairingTemplate, List<Residue> residues, int position, boolean backbone) {
+        if (position < 0) {
+            return false;
+        }
+
+        Residue residue = residues.get(position);
+        int referenceCode = anchor(residue.getResidueIdentifier().getResidueType(), backbone);
+        if (referenceCode == AtomNameRegistry.UNKNOWN) {
+            return false;
+        }
+
+        for (ResidueType residueType : atomPairingTemplate.getResidueTypes(position)) {
+            // target descriptors must be based on the same atom name which must be paired
+            if (anchor(residueType, backbone) != referenceCode || !atomPairingTemplate.pairsAtom(position, residueType, referenceCode)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * The atom used to compute descriptors for a certain residue type.
+     * @param residueType the residue type
+     * @param backbone true for the backbone anchor, false for the side-chain anchor
+     * @return the code of the atom name, or {@link AtomNameRegistry#UNKNOWN} if there is no 'real' atom
+     */
+    private static int anchor(ResidueType residueType, boolean backbone) {
+        if (residueType.getPolymerType() == null) {
+            return AtomNameRegistry.UNKNOWN;
+        }
+
+        switch (residueType.getPolymerType()) {
+            case AMINO_ACID:
+                if (backbone) {
+                    return AtomNameRegistry.CA;
+                }
+                // CB of glycine is virtual and never part of an alignment
+                return residueType == ResidueType.GLYCINE ? AtomNameRegistry.UNKNOWN : AtomNameRegistry.CB;
+            case NUCLEOTIDE:
+                return backbone ? AtomNameRegistry.C4_PRIME : AtomNameRegistry.C1_PRIME;
+            default:
+                return AtomNameRegistry.UNKNOWN;
+        }
+    }
+
+    /**
+     * Computes a lower bound of the RMSD this hit can have after alignment.
+     * @param simpleHit the hit to evaluate
+     * @return a lower bound of the RMSD, 0 if nothing is known
+     */
+    public double estimate(SimpleHit simpleHit) {
+        if (normalization == 0) {
+            return 0;
+        }
+
+        ResiduePairIdentifier[] path = simpleHit.getResiduePairIdentifiers();
+        double sum = 0;
+        for (int k = 0; k < path.length; k++) {
+            ResiduePairDescriptor residuePairDescriptor = path[k].getResiduePairDescriptor();
+            if (residuePairDescriptor == null) {
+                continue;
+            }
+
+            if (!Double.isNaN(backboneDistances[k])) {
+                double deviation = deviation(backboneDistances[k], residuePairDescriptor.getBackboneDistance());
+                sum += deviation * deviation;
+            }
+            if (!Double.isNaN(sideChainDistances[k])) {
+                double deviation = deviation(sideChainDistances[k], residuePairDescriptor.getSideChainDistance());
+                sum += deviation * deviation;
+            }
+        }
+
+        return Math.sqrt(sum / normalization);
+    }
+
+    /**
+     * The minimum difference between the query distance and any distance that falls into the bin of the target.
+     * @param distance the exact query distance
+     * @param distanceType the bin of the target
+     * @return the minimum absolute difference of distances
+     */
+    static double deviation(double distance, DistanceType distanceType) {
+        // bin b covers [b - 0.5, b + 0.5) - the last bin is open-ended
+        int bin = distanceType.ordinal();
+        double lower = (bin - 0.5) * DistanceType.BIN_SIZE;
+        if (distance < lower) {
+            return lower - distance;
+        }
+        double upper = (bin + 0.5) * DistanceType.BIN_SIZE;
+        if (bin < NUMBER_OF_BINS - 1 && distance > upper) {
+            return distance - upper;
+        }
+        return 0;
+    }
+}
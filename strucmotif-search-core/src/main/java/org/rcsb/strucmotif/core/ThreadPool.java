@@ -9,4 +9,17 @@ import java.util.concurrent.Future;
  */
 public interface ThreadPool {
     <R> Future<R> submit(Callable<R> task);
+
+    /**
+     * Execute a CPU-bound task on the shared pool.
+     * @param task the task
+     */
+    void execute(Runnable task);
+
+    /**
+     * Execute an I/O-bound task (e.g. reading structure data). These tasks run on a separate pool of
+     * <code>prefetch-threads</code> threads and don't occupy the threads of CPU-bound tasks while they wait.
+     * @param task the task
+     */
+    void executeIo(Runnable task);
 }
@@ -5,20 +5,41 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Service
 public class ThreadPoolImpl implements ThreadPool {
     private final ForkJoinPool pool;
+    private final ExecutorService ioPool;
 
     @Autowired
     public ThreadPoolImpl(MotifSearchConfig motifSearchConfig) {
         this.pool = new ForkJoinPool(motifSearchConfig.getNumberThreads());
+        AtomicInteger ioThreadCount = new AtomicInteger();
+        this.ioPool = Executors.newFixedThreadPool(motifSearchConfig.getPrefetchThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "strucmotif-io-" + ioThreadCount.incrementAndGet());
+            // never keep the application alive
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     @Override
     public <R> Future<R> submit(Callable<R> task) {
         return pool.submit(task);
     }
+
+    @Override
+    public void execute(Runnable task) {
+        pool.execute(task);
+    }
+
+    @Override
+    public void executeIo(Runnable task) {
+        ioPool.execute(task);
+    }
 }
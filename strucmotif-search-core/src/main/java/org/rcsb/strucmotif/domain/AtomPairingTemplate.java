@@ -0,0 +1,354 @@
+package org.rcsb.strucmotif.domain;
+
+import org.rcsb.strucmotif.align.PreparedReference;
+import org.rcsb.strucmotif.domain.identifier.AtomIdentifier;
+import org.rcsb.strucmotif.domain.structure.Atom;
+import org.rcsb.strucmotif.domain.structure.Residue;
+import org.rcsb.strucmotif.domain.structure.ResidueType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * A precompiled pairing plan for a reference collection of residues. The reference side of an alignment does not change
+ * during a query, so all name-based filtering (ambiguous atoms, {@link AtomPairingScheme}) is done once. For each
+ * position and each residue type a candidate may have at this position, the plan lists the indices of the reference
+ * atoms to use and the atom names to fetch from the candidate residue. Candidates are then paired by a single pass over
+ * their atoms, which are looked up by the interned code of their name.
+ */
+public class AtomPairingTemplate {
+    private final List<Residue> reference;
+    private final AtomPairingScheme atomPairingScheme;
+    private final List<Map<ResidueType, ResidueTemplate>> residueTemplates;
+    private final Map<List<ResidueType>, PreparedReference> preparedReferences;
+
+    /**
+     * Construct a pairing template which expects candidates to have the same residue types as the reference.
+     * @param reference the reference residues
+     * @param atomPairingScheme how to pair atoms
+     */
+    public AtomPairingTemplate(List<Residue> reference, AtomPairingScheme atomPairingScheme) {
+        this(reference, Collections.emptyList(), atomPairingScheme);
+    }
+
+    /**
+     * Construct a pairing template which honors position-specific exchanges.
+     * @param reference the reference residues
+     * @param exchanges additional residue types allowed at each position (same order as reference, may be shorter or
+     *                  empty if there are no exchanges)
+     * @param atomPairingScheme how to pair atoms
+     */
+    public AtomPairingTemplate(List<Residue> reference, List<Set<ResidueType>> exchanges, AtomPairingScheme atomPairingScheme) {
+        this.reference = reference;
+        this.atomPairingScheme = atomPairingScheme;
+        this.residueTemplates = new ArrayList<>(reference.size());
+        this.preparedReferences = new ConcurrentHashMap<>();
+
+        for (int i = 0; i < reference.size(); i++) {
+            Residue referenceResidue = reference.get(i);
+            ResidueType referenceResidueType = referenceResidue.getResidueIdentifier().getResidueType();
+            Map<ResidueType, ResidueTemplate> templates = new EnumMap<>(ResidueType.class);
+            templates.put(referenceResidueType, new ResidueTemplate(referenceResidue, referenceResidueType, atomPairingScheme));
+            if (i < exchanges.size()) {
+                for (ResidueType candidateResidueType : exchanges.get(i)) {
+                    templates.computeIfAbsent(candidateResidueType, t -> new ResidueTemplate(referenceResidue, t, atomPairingScheme));
+                }
+            }
+            residueTemplates.add(templates);
+        }
+    }
+
+    /**
+     * The reference residues of this template.
+     * @return a collection of residues
+     */
+    public List<Residue> getReference() {
+        return reference;
+    }
+
+    /**
+     * The pairing scheme used to create this template.
+     * @return the atom pairing scheme
+     */
+    public AtomPairingScheme getAtomPairingScheme() {
+        return atomPairingScheme;
+    }
+
+    /**
+     * All residue types a candidate may have at a certain position (i.e. the reference type and all exchanges).
+     * @param position the position in the reference
+     * @return a collection of residue types
+     */
+    public Set<ResidueType> getResidueTypes(int position) {
+        return residueTemplates.get(position).keySet();
+    }
+
+    /**
+     * Determine whether an atom will always be paired at a certain position if the candidate residue provides it.
+     * @param position the position in the reference
+     * @param residueType the type of the candidate residue
+     * @param code the interned code of the atom name
+     * @return true if this atom is part of the pairing
+     */
+    public boolean pairsAtom(int position, ResidueType residueType, int code) {
+        ResidueTemplate residueTemplate = residueTemplates.get(position).get(residueType);
+        return residueTemplate != null && code >= 0 && code < residueTemplate.slots.length && residueTemplate.slots[code] != -1;
+    }
+
+    /**
+     * Reports the maximum number of atom pairs any candidate can contribute. Candidates may provide fewer atoms.
+     * @return an upper bound on the number of paired atoms
+     */
+    public int getMaximumNumberOfPairs() {
+        int count = 0;
+        for (Map<ResidueType, ResidueTemplate> templates : residueTemplates) {
+            count += templates.values()
+                    .stream()
+                    .mapToInt(residueTemplate -> residueTemplate.atomNames.length)
+                    .max()
+                    .orElse(0);
+        }
+        return count;
+    }
+
+    /**
+     * Pairs the atoms of a candidate with the reference atoms of this template.
+     * @param candidate the candidate residues, must be in the same order as the reference
+     * @param referenceAtoms paired reference atoms will be added to this collection
+     * @param candidateAtoms paired candidate atoms will be added to this collection (in the same order)
+     */
+    public void pair(List<Residue> candidate, List<Atom> referenceAtoms, List<Atom> candidateAtoms) {
+        for (int i = 0; i < reference.size(); i++) {
+            Residue referenceResidue = reference.get(i);
+            Residue candidateResidue = candidate.get(i);
+            ResidueTemplate residueTemplate = getResidueTemplate(i, candidateResidue.getResidueIdentifier().getResidueType());
+
+            Atom[] matched = residueTemplate.match(candidateResidue);
+            List<Atom> atoms = referenceResidue.getAtoms();
+            for (int slot = 0; slot < matched.length; slot++) {
+                if (matched[slot] == null) {
+                    continue;
+                }
+                referenceAtoms.add(atoms.get(residueTemplate.referenceAtomIndices[slot]));
+                candidateAtoms.add(matched[slot]);
+            }
+        }
+    }
+
+    /**
+     * Reports the prepared reference for candidates of certain residue types. The reference covers all atoms of the
+     * pairing, i.e. it is applicable when {@link #collectCandidateCoordinates(List, double[])} succeeds.
+     * @param candidate the candidate residues
+     * @param factory how to prepare a reference from its coordinates
+     * @return the prepared reference, computed once for each combination of residue types - null if no atoms are paired
+     */
+    public PreparedReference getPreparedReference(List<Residue> candidate, Function<List<double[]>, PreparedReference> factory) {
+        List<ResidueType> residueTypes = new ArrayList<>(candidate.size());
+        for (Residue residue : candidate) {
+            residueTypes.add(residue.getResidueIdentifier().getResidueType());
+        }
+
+        // ConcurrentHashMap does not store null values: empty pairings are recomputed, they are not valid anyway
+        return preparedReferences.computeIfAbsent(residueTypes, k -> {
+            List<double[]> referencePoints = new ArrayList<>();
+            for (int i = 0; i < reference.size(); i++) {
+                ResidueTemplate residueTemplate = getResidueTemplate(i, k.get(i));
+                List<Atom> atoms = reference.get(i).getAtoms();
+                for (int referenceAtomIndex : residueTemplate.referenceAtomIndices) {
+                    referencePoints.add(atoms.get(referenceAtomIndex).getCoord());
+                }
+            }
+            return referencePoints.isEmpty() ? null : factory.apply(referencePoints);
+        });
+    }
+
+    /**
+     * Collects the coordinates of all candidate atoms required by this template, in the layout of a
+     * {@link PreparedReference} (all x, all y, all z).
+     * @param candidate the candidate residues, must be in the same order as the reference
+     * @param coordinates the output array, must have a length of 3 times the number of pairs
+     * @return false if the candidate misses at least one atom of the pairing (the output is incomplete then)
+     */
+    public boolean collectCandidateCoordinates(List<Residue> candidate, double[] coordinates) {
+        int size = coordinates.length / 3;
+        int index = 0;
+        for (int i = 0; i < reference.size(); i++) {
+            Residue candidateResidue = candidate.get(i);
+            ResidueTemplate residueTemplate = getResidueTemplate(i, candidateResidue.getResidueIdentifier().getResidueType());
+
+            int[] matched = residueTemplate.matchIndices(candidateResidue);
+            for (int atom : matched) {
+                if (atom == -1 || index == size) {
+                    return false;
+                }
+                coordinates[index] = candidateResidue.getCoordinate(atom, 0);
+                coordinates[size + index] = candidateResidue.getCoordinate(atom, 1);
+                coordinates[2 * size + index] = candidateResidue.getCoordinate(atom, 2);
+                index++;
+            }
+        }
+        return index == size;
+    }
+
+    private ResidueTemplate getResidueTemplate(int position, ResidueType candidateResidueType) {
+        ResidueTemplate residueTemplate = residueTemplates.get(position).get(candidateResidueType);
+        if (residueTemplate != null) {
+            return residueTemplate;
+        }
+
+        // candidate type not anticipated by this template - compile ad hoc
+        return new ResidueTemplate(reference.get(position), candidateResidueType, atomPairingScheme);
+    }
+
+    /**
+     * The plan for a single reference residue and a certain candidate residue type.
+     */
+    static class ResidueTemplate {
+        private final int[] referenceAtomIndices;
+        private final String[] atomNames;
+        // slot of each atom name (by interned code), -1 if not paired
+        private final int[] slots;
+
+        ResidueTemplate(Residue referenceResidue, ResidueType candidateResidueType, AtomPairingScheme atomPairingScheme) {
+            ResidueType referenceResidueType = referenceResidue.getResidueIdentifier().getResidueType();
+            boolean schemeRequiresSubset = atomPairingScheme != AtomPairingScheme.ALL;
+            boolean exchange = referenceResidueType != candidateResidueType;
+            List<Atom> atoms = referenceResidue.getAtoms();
+
+            List<Integer> indices = new ArrayList<>();
+            List<String> names = new ArrayList<>();
+            Map<Integer, Integer> slotsByCode = new HashMap<>();
+            for (int i = 0; i < atoms.size(); i++) {
+                AtomIdentifier atomIdentifier = atoms.get(i).getAtomIdentifier();
+                String label = atomIdentifier.getLabelAtomId();
+                if (!mappableAtom(referenceResidueType, label)) {
+                    continue;
+                }
+                // if using a subset and if this is not an allowed name: continue
+                if (schemeRequiresSubset && !atomPairingScheme.test(label)) {
+                    continue;
+                }
+                // atom names may be ambiguous in the candidate residue type only
+                if (exchange && !mappableAtom(candidateResidueType, label)) {
+                    continue;
+                }
+                if (slotsByCode.containsKey(atomIdentifier.getCode())) {
+                    continue;
+                }
+
+                slotsByCode.put(atomIdentifier.getCode(), names.size());
+                indices.add(i);
+                names.add(label);
+            }
+
+            this.referenceAtomIndices = indices.stream().mapToInt(Integer::intValue).toArray();
+            this.atomNames = names.toArray(String[]::new);
+            this.slots = new int[slotsByCode.keySet().stream().mapToInt(Integer::intValue).max().orElse(-1) + 1];
+            Arrays.fill(slots, -1);
+            slotsByCode.forEach((code, slot) -> slots[code] = slot);
+        }
+
+        /**
+         * Find the candidate atoms for this template.
+         * @param candidateResidue the candidate residue
+         * @return an array which holds the matching candidate atom for each slot (or null if absent)
+         */
+        Atom[] match(Residue candidateResidue) {
+            int[] matchedIndices = matchIndices(candidateResidue);
+            Atom[] matched = new Atom[matchedIndices.length];
+            List<Atom> atoms = candidateResidue.getAtoms();
+            for (int slot = 0; slot < matchedIndices.length; slot++) {
+                if (matchedIndices[slot] != -1) {
+                    matched[slot] = atoms.get(matchedIndices[slot]);
+                }
+            }
+            return matched;
+        }
+
+        /**
+         * Find the candidate atoms for this template without creating atom instances.
+         * @param candidateResidue the candidate residue
+         * @return an array which holds the index of the matching candidate atom for each slot (or -1 if absent)
+         */
+        int[] matchIndices(Residue candidateResidue) {
+            int[] matched = new int[atomNames.length];
+            Arrays.fill(matched, -1);
+            for (int i = 0; i < candidateResidue.getAtomCount(); i++) {
+                int code = candidateResidue.getAtomCode(i);
+                if (code >= slots.length) {
+                    continue;
+                }
+                int slot = slots[code];
+                // report first occurrence only
+                if (slot != -1 && matched[slot] == -1) {
+                    matched[slot] = i;
+                }
+            }
+            return matched;
+        }
+
+        /**
+         * The indices of the reference atoms of this template.
+         * @return an int[]
+         */
+        int[] getReferenceAtomIndices() {
+            return referenceAtomIndices;
+        }
+
+        /**
+         * The atom names to fetch from the candidate.
+         * @return a String[]
+         */
+        String[] getAtomNames() {
+            return atomNames;
+        }
+    }
+
+    /**
+     * Determine if atoms of a certain name are useful to find the best alignment. Ambiguous atom names cause serious
+     * problems. Strategy: Ignore them!
+     * @param residueType residue type
+     * @param label the atom name
+     * @return true if both are compatible and should be assessed for RMSD calculation
+     */
+    static boolean mappableAtom(ResidueType residueType, String label) {
+        // see Coutsias, 2019
+        switch (residueType) {
+            case ARGININE:
+                if (label.equals("NH1") || label.equals("NH2")) {
+                    return false;
+                }
+            case ASPARTIC_ACID:
+                if (label.equals("OD1") || label.equals("OD2")) {
+                    return false;
+                }
+            case GLUTAMIC_ACID:
+                if (label.equals("OE1") || label.equals("OE2")) {
+                    return false;
+                }
+            case LEUCINE:
+                if (label.equals("OD1") || label.equals("OD2")) {
+                    return false;
+                }
+            case PHENYLALANINE: case TYROSINE:
+                if (label.equals("CD1") || label.equals("CD2") || label.equals("CE1") ||
+                        label.equals("CE2")) {
+                    return false;
+                }
+            case  VALINE:
+                if (label.equals("OG1") || label.equals("OG2")) {
+                    return false;
+                }
+            default:
+                return true;
+        }
+    }
+}
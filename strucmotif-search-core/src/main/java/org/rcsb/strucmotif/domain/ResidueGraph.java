@@ -8,15 +8,17 @@ import org.rcsb.strucmotif.domain.motif.ResiduePairIdentifier;
 import org.rcsb.strucmotif.domain.motif.ResiduePairOccurrence;
 import org.rcsb.strucmotif.domain.selection.LabelSelection;
 import org.rcsb.strucmotif.domain.structure.Chain;
+import org.rcsb.strucmotif.domain.structure.ChainColumns;
 import org.rcsb.strucmotif.domain.structure.Residue;
 import org.rcsb.strucmotif.domain.structure.ResidueType;
 import org.rcsb.strucmotif.domain.structure.Structure;
+import org.rcsb.strucmotif.math.Kernels;
 
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Set;
+import java.util.function.DoubleToIntFunction;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static org.rcsb.strucmotif.math.Algebra.*;
@@ -24,90 +26,178 @@ import static org.rcsb.strucmotif.math.Algebra.*;
 /**
  * Represents the pseudo-graph defined by all residues. Some tricks to efficiently report distances and angles between
  * residues.
+ * <p>Residues are referenced by index, equal residues (e.g. when an assembly operator is the identity) share an index.
+ * Pairs are stored in flat arrays, grouped by their first residue, and their metrics are stored as floats. Each float
+ * is guaranteed to fall into the same {@link DistanceType} or {@link AngleType} bin as the exact value.
  */
 public class ResidueGraph {
-    private final Map<Residue, Map<Residue, Double>> backboneDistances;
-    private final Map<Residue, Map<Residue, Double>> sideChainDistances;
-    private final Map<Residue, Map<Residue, Double>> angles;
+    static final DoubleToIntFunction DISTANCE_BIN = value -> DistanceType.ofDistance(value).ordinal();
+    static final DoubleToIntFunction ANGLE_BIN = value -> AngleType.ofAngle(value).ordinal();
+
+    // distinct residues and their label selections
+    private final Residue[] residues;
+    private final LabelSelection[] labelSelections;
+    private final Map<Residue, Integer> residueIndices;
+    private final boolean merged;
+
+    // pairs of residue indices and their metrics
+    private final int[] residues1;
+    private final int[] residues2;
+    private final float[] backboneDistances;
+    private final float[] sideChainDistances;
+    private final float[] angles;
+
+    // pairs of each group share the first residue, groups are ordered by first occurrence of that residue
+    private final int[] groupOffsets;
+    private final int[] groupOfResidue;
     private final int numberOfPairings;
-    private final Map<Residue, LabelSelection> labelSelectionResolver;
 
     public ResidueGraph(Structure structure, double squaredCutoff) {
-        this.labelSelectionResolver = new HashMap<>();
-
-        this.backboneDistances = new LinkedHashMap<>();
-        this.sideChainDistances = new LinkedHashMap<>();
-        this.angles = new LinkedHashMap<>();
-
-        // temporary collection of residues in 'original' chains (i.e. not transformed as the result of a bioassembly)
-        Set<Residue> originalResidues = new HashSet<>();
-        Map<Residue, double[]> normalVectorLookup = new HashMap<>();
+        // temporary ResidueGrid to efficient distance calculation - provides flat coordinates of all relevant residues
+        ResidueGrid residueGrid = new ResidueGrid(structure, squaredCutoff);
+        double[] backboneCoordinates = residueGrid.getBackboneCoordinates();
+        double[] sideChainCoordinates = residueGrid.getSideChainCoordinates();
+        int gridSize = backboneCoordinates.length / 3;
+        double[] normalVectors = new double[sideChainCoordinates.length];
+        Kernels.getInstance().normalVectors(backboneCoordinates, sideChainCoordinates, normalVectors, gridSize);
+
+        // assign indices to distinct residues, traversal order matches that of the grid
+        Residue[] residues = new Residue[gridSize];
+        LabelSelection[] labelSelections = new LabelSelection[gridSize];
+        // 'original' residues are those not transformed as the result of a bioassembly
+        boolean[] original = new boolean[gridSize];
+        int[] indexOfGridResidue = new int[gridSize];
+        this.residueIndices = new HashMap<>();
+        int gridIndex = 0;
         for (Chain chain : structure.getChains()) {
             ChainIdentifier chainIdentifier = chain.getChainIdentifier();
             String labelAsymId = chainIdentifier.getLabelAsymId();
             String structOperId = chainIdentifier.getStructOperId();
+            ChainColumns chainColumns = chain.getChainColumns();
             for (Residue residue : chain.getResidues()) {
-                if (!chain.isTransformed()) {
-                    originalResidues.add(residue);
-                }
-
-                double[] backboneCoordinates = residue.getBackboneCoordinates();
-                double[] sideChainCoordinates = residue.getSideChainCoordinates();
                 // nothing to do if either representative is missing - this also implicitly omits stuff which is neither amino acid nor nucleotide
-                if (backboneCoordinates == null || sideChainCoordinates == null) {
+                if (!chainColumns.hasRepresentatives(residue.getPosition())) {
                     continue;
                 }
 
-                normalVectorLookup.put(residue, normalVector(backboneCoordinates, sideChainCoordinates));
-                labelSelectionResolver.put(residue, new LabelSelection(labelAsymId, structOperId, residue.getResidueIdentifier().getLabelSeqId()));
+                int index = residueIndices.computeIfAbsent(residue, key -> residueIndices.size());
+                if (residues[index] == null) {
+                    residues[index] = residue;
+                }
+                labelSelections[index] = new LabelSelection(labelAsymId, structOperId, residue.getResidueIdentifier().getLabelSeqId());
+                original[index] |= !chain.isTransformed();
+                indexOfGridResidue[gridIndex++] = index;
             }
         }
-
-        // temporary ResidueGrid to efficient distance calculation
-        ResidueGrid residueGrid = new ResidueGrid(structure, squaredCutoff);
-
-        int size = 0;
-        for (ResidueGrid.ResidueContact residueContact : residueGrid.getIndicesContacts()) {
-            // avoid symmetry/duplicates
-            if (residueContact.getI() >= residueContact.getJ()) {
-                continue;
-            }
-
-            Residue residue1 = residueGrid.getResidue(residueContact.getI());
+        int residueCount = residueIndices.size();
+        this.residues = Arrays.copyOf(residues, residueCount);
+        this.labelSelections = Arrays.copyOf(labelSelections, residueCount);
+        this.merged = residueCount < gridSize;
+
+        // collect pairs in order of the grid
+        PairBuffer buffer = new PairBuffer();
+        this.groupOfResidue = new int[residueCount];
+        Arrays.fill(groupOfResidue, -1);
+        int groupCount = 0;
+        residueGrid.forEachContact((i, j, distance) -> {
             // 'dominant' residue has to be original by contract
-            if (!originalResidues.contains(residue1)) {
-                continue;
+            int residue1 = indexOfGridResidue[i];
+            if (!original[residue1]) {
+                return;
             }
 
-            double distance = residueContact.getDistance();
-            Residue residue2 = residueGrid.getResidue(residueContact.getJ());
-            double[] normalVector1 = normalVectorLookup.get(residue1);
-            double[] normalVector2 = normalVectorLookup.get(residue2);
-
-            // ensure that side-chain atoms are available
-            double[] sideChainCoordinates1 = residue1.getSideChainCoordinates();
-            double[] sideChainCoordinates2 = residue2.getSideChainCoordinates();
-            if (sideChainCoordinates1 == null || sideChainCoordinates2 == null) {
-                continue;
+            // side-chain atoms are guaranteed to be available for all residues of the grid
+            buffer.add(residue1,
+                    indexOfGridResidue[j],
+                    compact(distance, DISTANCE_BIN),
+                    compact(Math.sqrt(squaredDistance(sideChainCoordinates, i, j)), DISTANCE_BIN),
+                    compact(angle(normalVectors, i, j), ANGLE_BIN));
+        });
+        for (int pair = 0; pair < buffer.size; pair++) {
+            int residue1 = buffer.residues1[pair];
+            if (groupOfResidue[residue1] == -1) {
+                groupOfResidue[residue1] = groupCount++;
             }
+        }
+        this.numberOfPairings = buffer.size;
 
-            Map<Residue, Double> innerPolymerAnchorMap = backboneDistances.computeIfAbsent(residue1, key -> new HashMap<>());
-            innerPolymerAnchorMap.put(residue2, distance);
-
-            Map<Residue, Double> innerInteractionCenterMap = sideChainDistances.computeIfAbsent(residue1, key -> new HashMap<>());
-            innerInteractionCenterMap.put(residue2, distance3d(sideChainCoordinates1, sideChainCoordinates2));
+        // stable sort by group
+        this.groupOffsets = new int[groupCount + 1];
+        for (int pair = 0; pair < buffer.size; pair++) {
+            groupOffsets[groupOfResidue[buffer.residues1[pair]] + 1]++;
+        }
+        for (int group = 0; group < groupCount; group++) {
+            groupOffsets[group + 1] += groupOffsets[group];
+        }
+        int[] sorted = new int[buffer.size];
+        int[] position = Arrays.copyOf(groupOffsets, groupCount);
+        for (int pair = 0; pair < buffer.size; pair++) {
+            sorted[position[groupOfResidue[buffer.residues1[pair]]]++] = pair;
+        }
 
-            Map<Residue, Double> innerAngleMap = angles.computeIfAbsent(residue1, key -> new HashMap<>());
-            innerAngleMap.put(residue2, angle(normalVector1, normalVector2));
+        // a residue pair that occurs repeatedly (only possible for merged residues) keeps its first position and the
+        // metrics of its last occurrence
+        int[] lastGroup = new int[residueCount];
+        Arrays.fill(lastGroup, -1);
+        int[] slot = new int[residueCount];
+        this.residues1 = new int[buffer.size];
+        this.residues2 = new int[buffer.size];
+        this.backboneDistances = new float[buffer.size];
+        this.sideChainDistances = new float[buffer.size];
+        this.angles = new float[buffer.size];
+        int size = 0;
+        for (int group = 0; group < groupCount; group++) {
+            int from = groupOffsets[group];
+            int to = groupOffsets[group + 1];
+            groupOffsets[group] = size;
+            for (int k = from; k < to; k++) {
+                int pair = sorted[k];
+                int residue2 = buffer.residues2[pair];
+                int target;
+                if (lastGroup[residue2] == group) {
+                    target = slot[residue2];
+                } else {
+                    lastGroup[residue2] = group;
+                    slot[residue2] = size;
+                    target = size++;
+                    residues1[target] = buffer.residues1[pair];
+                    residues2[target] = residue2;
+                }
+                backboneDistances[target] = buffer.backboneDistances[pair];
+                sideChainDistances[target] = buffer.sideChainDistances[pair];
+                angles[target] = buffer.angles[pair];
+            }
+        }
+        groupOffsets[groupCount] = size;
+    }
 
-            size++;
+    /**
+     * Convert a metric to a float which falls into the same bin.
+     * @param value the exact value
+     * @param bin the binning function
+     * @return a float
+     */
+    static float compact(double value, DoubleToIntFunction bin) {
+        float compact = (float) value;
+        if (bin.applyAsInt(compact) != bin.applyAsInt(value)) {
+            // rounding crossed a bin boundary, the adjacent float lies on the other side of the exact value
+            compact = compact > value ? Math.nextDown(compact) : Math.nextUp(compact);
         }
-        this.numberOfPairings = size;
+        return compact;
     }
 
-    private static double[] normalVector(double[] a, double[] b) {
-        double[] ba = subtract3d(b, a);
-        return normalize3d(ba);
+    private static double squaredDistance(double[] coordinates, int i, int j) {
+        double dx = coordinates[3 * i] - coordinates[3 * j];
+        double dy = coordinates[3 * i + 1] - coordinates[3 * j + 1];
+        double dz = coordinates[3 * i + 2] - coordinates[3 * j + 2];
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private static double angle(double[] normalVectors, int i, int j) {
+        double vDot = normalVectors[3 * i] * normalVectors[3 * j] +
+                normalVectors[3 * i + 1] * normalVectors[3 * j + 1] +
+                normalVectors[3 * i + 2] * normalVectors[3 * j + 2];
+        return Math.toDegrees(Math.acos(capToInterval(-1, vDot, 1)));
     }
 
     /**
@@ -122,6 +212,40 @@ public class ResidueGraph {
         return Math.toDegrees(Math.acos(capToInterval(-1, vDot, 1)));
     }
 
+    /**
+     * Find the pair of 2 residues. Pairs of the first residue take precedence.
+     * @param residue1 index of the first residue
+     * @param residue2 index of the second residue
+     * @return the index of the pair, -1 if there is none
+     */
+    private int find(int residue1, int residue2) {
+        int pair = findInGroup(residue1, residue2);
+        return pair != -1 ? pair : findInGroup(residue2, residue1);
+    }
+
+    private int findInGroup(int residue1, int residue2) {
+        int group = groupOfResidue[residue1];
+        if (group == -1) {
+            return -1;
+        }
+
+        for (int pair = groupOffsets[group]; pair < groupOffsets[group + 1]; pair++) {
+            if (residues2[pair] == residue2) {
+                return pair;
+            }
+        }
+        return -1;
+    }
+
+    private int find(Residue residue1, Residue residue2) {
+        Integer index1 = residueIndices.get(residue1);
+        Integer index2 = residueIndices.get(residue2);
+        if (index1 == null || index2 == null) {
+            return -1;
+        }
+        return find(index1, index2);
+    }
+
     /**
      * Reports the distance of backbone of 2 residues.
      * @param residue1 first
@@ -129,15 +253,8 @@ public class ResidueGraph {
      * @return the distance
      */
     public double getBackboneDistance(Residue residue1, Residue residue2) {
-        try {
-            return backboneDistances.get(residue1).get(residue2);
-        } catch (NullPointerException e1) {
-            try {
-                return backboneDistances.get(residue2).get(residue1);
-            } catch (NullPointerException e2) {
-                return Double.MAX_VALUE;
-            }
-        }
+        int pair = find(residue1, residue2);
+        return pair != -1 ? backboneDistances[pair] : Double.MAX_VALUE;
     }
 
     /**
@@ -147,15 +264,8 @@ public class ResidueGraph {
      * @return the distance
      */
     public double getSideChainDistance(Residue residue1, Residue residue2) {
-        try {
-            return sideChainDistances.get(residue1).get(residue2);
-        } catch (NullPointerException e1) {
-            try {
-                return sideChainDistances.get(residue2).get(residue1);
-            } catch (NullPointerException e2) {
-                return Double.MAX_VALUE;
-            }
-        }
+        int pair = find(residue1, residue2);
+        return pair != -1 ? sideChainDistances[pair] : Double.MAX_VALUE;
     }
 
     /**
@@ -165,15 +275,8 @@ public class ResidueGraph {
      * @return the angle
      */
     public double getAngle(Residue residue1, Residue residue2) {
-        try {
-            return angles.get(residue1).get(residue2);
-        } catch (NullPointerException e1) {
-            try {
-                return angles.get(residue2).get(residue1);
-            } catch (NullPointerException e2) {
-                return Double.MAX_VALUE;
-            }
-        }
+        int pair = find(residue1, residue2);
+        return pair != -1 ? angles[pair] : Double.MAX_VALUE;
     }
 
     /**
@@ -189,10 +292,7 @@ public class ResidueGraph {
      * @return a stream of residue pairs
      */
     public Stream<Pair<Residue, Residue>> pairingsSequential() {
-        // parallel streaming here will cause shuffling of motif descriptors and lead to alignment errors because correspondence cannot be asserted
-        return backboneDistances.keySet()
-                .stream()
-                .flatMap(e -> pairs(e, false));
+        return pairsSequential().mapToObj(this::toPair);
     }
 
     /**
@@ -200,9 +300,7 @@ public class ResidueGraph {
      * @return a stream of residue pairs
      */
     public Stream<Pair<Residue, Residue>> pairingsParallel() {
-        return backboneDistances.keySet()
-                .parallelStream()
-                .flatMap(e -> pairs(e, true));
+        return pairsParallel().mapToObj(this::toPair);
     }
 
     /**
@@ -210,31 +308,60 @@ public class ResidueGraph {
      * @return a stream of {@link ResiduePairOccurrence} instances
      */
     public Stream<ResiduePairOccurrence> residuePairOccurrencesParallel() {
-        return pairingsParallel()
-                .map(this::createMotifOccurrence);
+        return pairsParallel().mapToObj(this::createMotifOccurrence);
     }
 
     public Stream<ResiduePairOccurrence> residuePairOccurrencesSequential() {
-        return pairingsSequential()
-                .map(this::createMotifOccurrence);
+        return pairsSequential().mapToObj(this::createMotifOccurrence);
+    }
+
+    private IntStream pairsSequential() {
+        // parallel streaming here will cause shuffling of motif descriptors and lead to alignment errors because
+        // correspondence cannot be asserted - within a group, pairs are reported in hash order of their second residue
+        // like previous versions did, which keeps query construction stable
+        return IntStream.range(0, groupOffsets.length - 1)
+                .flatMap(group -> {
+                    Map<Residue, Integer> hashOrder = new HashMap<>();
+                    for (int pair = groupOffsets[group]; pair < groupOffsets[group + 1]; pair++) {
+                        hashOrder.put(residues[residues2[pair]], pair);
+                    }
+                    return hashOrder.values().stream().mapToInt(Integer::intValue);
+                });
+    }
+
+    private IntStream pairsParallel() {
+        return IntStream.range(0, groupOffsets[groupOffsets.length - 1]).parallel();
+    }
+
+    private Pair<Residue, Residue> toPair(int pair) {
+        return new Pair<>(residues[residues1[pair]], residues[residues2[pair]]);
     }
 
-    private ResiduePairOccurrence createMotifOccurrence(Pair<Residue, Residue> pair) {
-        Residue residue1 = pair.getFirst();
-        Residue residue2 = pair.getSecond();
+    private ResiduePairOccurrence createMotifOccurrence(int pair) {
+        int residue1 = residues1[pair];
+        int residue2 = residues2[pair];
 
-        ResidueType residueType1 = residue1.getResidueIdentifier().getResidueType();
-        ResidueType residueType2 = residue2.getResidueIdentifier().getResidueType();
+        ResidueType residueType1 = residues[residue1].getResidueIdentifier().getResidueType();
+        ResidueType residueType2 = residues[residue2].getResidueIdentifier().getResidueType();
 
         // first residue has lower one-letter code - if not flip
         if (residueType1.getOneLetterCode().compareTo(residueType2.getOneLetterCode()) > 0) {
-            return createMotifOccurrence(new Pair<>(residue2, residue1));
+            int tmp = residue1;
+            residue1 = residue2;
+            residue2 = tmp;
+            ResidueType tmpType = residueType1;
+            residueType1 = residueType2;
+            residueType2 = tmpType;
+            // flipped pair can only be registered separately if residues were merged
+            if (merged) {
+                pair = find(residue1, residue2);
+            }
         }
 
         // determine values
-        DistanceType backboneDistance = DistanceType.ofDistance(getBackboneDistance(residue1, residue2));
-        DistanceType sideChainDistance = DistanceType.ofDistance(getSideChainDistance(residue1, residue2));
-        AngleType angle = AngleType.ofAngle(getAngle(residue1, residue2));
+        DistanceType backboneDistance = DistanceType.ofDistance(backboneDistances[pair]);
+        DistanceType sideChainDistance = DistanceType.ofDistance(sideChainDistances[pair]);
+        AngleType angle = AngleType.ofAngle(angles[pair]);
 
         ResiduePairDescriptor residuePairDescriptor = new ResiduePairDescriptor(residueType1,
                 residueType2,
@@ -244,28 +371,37 @@ public class ResidueGraph {
                 null);
         // IndexSelection is needed to build and match to lookup
         // LabelSelection is needed to be able to map position-specific exchanges accurately
-        ResiduePairIdentifier residuePairIdentifier = new ResiduePairIdentifier(labelSelectionResolver.get(residue1),
-                labelSelectionResolver.get(residue2));
+        ResiduePairIdentifier residuePairIdentifier = new ResiduePairIdentifier(labelSelections[residue1],
+                labelSelections[residue2]);
         return new ResiduePairOccurrence(residuePairDescriptor, residuePairIdentifier);
     }
 
-    private Stream<Pair<Residue, Residue>> pairs(Residue residue1, boolean parallel) {
-        try {
-            // retrieve all neighbors for id
-            if (parallel) {
-                return backboneDistances.get(residue1)
-                        .keySet()
-                        .parallelStream()
-                        .map(entity2 -> new Pair<>(residue1, entity2));
-            } else {
-                return backboneDistances.get(residue1)
-                        .keySet()
-                        .stream()
-                        .map(entity2 -> new Pair<>(residue1, entity2));
+    /**
+     * Growable columns of pairs in order of discovery.
+     */
+    private static class PairBuffer {
+        private int[] residues1 = new int[1024];
+        private int[] residues2 = new int[1024];
+        private float[] backboneDistances = new float[1024];
+        private float[] sideChainDistances = new float[1024];
+        private float[] angles = new float[1024];
+        private int size;
+
+        void add(int residue1, int residue2, float backboneDistance, float sideChainDistance, float angle) {
+            if (size == residues1.length) {
+                int capacity = 2 * size;
+                residues1 = Arrays.copyOf(residues1, capacity);
+                residues2 = Arrays.copyOf(residues2, capacity);
+                backboneDistances = Arrays.copyOf(backboneDistances, capacity);
+                sideChainDistances = Arrays.copyOf(sideChainDistances, capacity);
+                angles = Arrays.copyOf(angles, capacity);
             }
-        } catch (NullPointerException e) {
-            // value can be empty
-            return Stream.empty();
+            residues1[size] = residue1;
+            residues2[size] = residue2;
+            backboneDistances[size] = backboneDistance;
+            sideChainDistances[size] = sideChainDistance;
+            angles[size] = angle;
+            size++;
         }
     }
 }
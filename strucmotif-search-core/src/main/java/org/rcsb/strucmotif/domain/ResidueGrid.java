@@ -1,18 +1,20 @@
 package org.rcsb.strucmotif.domain;
 
 import org.rcsb.strucmotif.domain.structure.Chain;
+import org.rcsb.strucmotif.domain.structure.ChainColumns;
 import org.rcsb.strucmotif.domain.structure.Residue;
 import org.rcsb.strucmotif.domain.structure.Structure;
-import org.rcsb.strucmotif.math.Algebra;
+import org.rcsb.strucmotif.math.Kernels;
 
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * Efficiently determine residues in contacts by a spatial hashing approach. Adapted to code to be inline with other
  * classes, removed support for 2nd set of atoms, only consider alpha carbons (and equivalents) for computation.
+ * <p>Cells are not materialized: residues are sorted by the key of their cell, so each occupied cell is a contiguous
+ * range of residues with their coordinates. Scratch space is reused by subsequent grids created on the same thread.
  *
  * see: https://github.com/biojava/biojava/blob/master/biojava-structure/src/main/java/org/biojava/nbio/structure/contact/Grid.java
  * original author: Jose M. Duarte &lt;jose.duarte@rcsb.org&gt;
@@ -22,237 +24,236 @@ public class ResidueGrid {
      * The scale: we use units of hundredths of Angstroms (thus cutoffs can be specified with a maximum precision of 0.01A)
      */
     private static final int SCALE = 100;
+    /**
+     * Scratch space of larger grids (in residues) is not retained.
+     */
+    private static final int MAX_RETAINED_SIZE = 1 << 18;
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
     private final double squaredCutoff;
     private final int cellSize;
 
     private final List<Residue> residues;
-    private final BoundingBox boundingBox;
-    private final int[] intBounds;
-    private final ResidueGridCell[][][] gridCells;
-
-    public ResidueGrid(Structure structure, double squaredCutoff) {
-        this.squaredCutoff = squaredCutoff;
-        this.cellSize = (int) Math.floor(Math.sqrt(squaredCutoff) * SCALE);
-
-        this.residues = structure.getChains()
-                .stream()
-                .map(Chain::getResidues)
-                .flatMap(Collection::stream)
-                // explicitly force CA/CB to be present - otherwise useless anyway
-                .filter(residue -> residue.getBackboneCoordinates() != null && residue.getSideChainCoordinates() != null)
-                .collect(Collectors.toList());
-        this.boundingBox = new BoundingBox();
-
-        this.intBounds = boundingBox.getIntBounds();
-        this.gridCells = new ResidueGridCell
-                [1 + (intBounds[3] - intBounds[0]) / cellSize]
-                [1 + (intBounds[4] - intBounds[1]) / cellSize]
-                [1 + (intBounds[5] - intBounds[2]) / cellSize];
-
-        fillGrid();
-    }
+    // flat coordinates of all residues (x, y, z interleaved)
+    private final double[] backboneCoordinates;
+    private final double[] sideChainCoordinates;
 
     /**
-     * Creates the grid based on the {@link BoundingBox} defined by all atoms and places the atoms into their
-     * corresponding grid cells.
+     * Consumes contacts between residues.
      */
-    private void fillGrid() {
-        int i = 0;
-        for (Residue residue : residues) {
-            double[] backboneCoordinates = residue.getBackboneCoordinates();
-            assignCoordsToGridCell(backboneCoordinates, i);
-            i++;
-        }
+    @FunctionalInterface
+    public interface ContactConsumer {
+        /**
+         * Called for each pair of residues in contact.
+         * @param i index of the first residue
+         * @param j index of the second residue, always greater than i
+         * @param distance the distance between both backbone representatives
+         */
+        void accept(int i, int j, double distance);
     }
 
-    private void assignCoordsToGridCell(double[] coords, int i) {
-        int xind = xintgrid2xgridindex(getFloor(coords[0]));
-        int yind = yintgrid2ygridindex(getFloor(coords[1]));
-        int zind = zintgrid2zgridindex(getFloor(coords[2]));
-        if (gridCells[xind][yind][zind] == null) {
-            gridCells[xind][yind][zind] = new ResidueGridCell();
-        }
-        this.gridCells[xind][yind][zind].addIndex(i);
-    }
+    public ResidueGrid(Structure structure, double squaredCutoff) {
+        this.squaredCutoff = squaredCutoff;
+        this.cellSize = (int) Math.floor(Math.sqrt(squaredCutoff) * SCALE);
 
-    private int xintgrid2xgridindex(int x) {
-        return (x - intBounds[0]) / cellSize;
-    }
+        this.residues = new ArrayList<>();
+        int size = 0;
+        for (Chain chain : structure.getChains()) {
+            size += chain.getChainColumns().getResidueCount();
+        }
 
-    private int yintgrid2ygridindex(int y) {
-        return (y - intBounds[1]) / cellSize;
-    }
+        // read representatives directly from the chain columns
+        double[] backboneCoordinates = new double[3 * size];
+        double[] sideChainCoordinates = new double[3 * size];
+        for (Chain chain : structure.getChains()) {
+            ChainColumns chainColumns = chain.getChainColumns();
+            List<Residue> chainResidues = chain.getResidues();
+            for (int i = 0; i < chainColumns.getResidueCount(); i++) {
+                // explicitly force CA/CB to be present - otherwise useless anyway
+                if (!chainColumns.hasRepresentatives(i)) {
+                    continue;
+                }
 
-    private int zintgrid2zgridindex(int z) {
-        return (z - intBounds[2]) / cellSize;
+                int offset = 3 * residues.size();
+                System.arraycopy(chainColumns.getBackboneCoordinates(), 3 * i, backboneCoordinates, offset, 3);
+                System.arraycopy(chainColumns.getSideChainCoordinates(), 3 * i, sideChainCoordinates, offset, 3);
+                residues.add(chainResidues.get(i));
+            }
+        }
+        this.backboneCoordinates = Arrays.copyOf(backboneCoordinates, 3 * residues.size());
+        this.sideChainCoordinates = Arrays.copyOf(sideChainCoordinates, 3 * residues.size());
     }
 
     private int getFloor(double number) {
         return cellSize * ((int) Math.floor(number * ResidueGrid.SCALE / cellSize));
     }
 
-    public List<ResidueContact> getIndicesContacts() {
-        List<ResidueContact> contacts = new ArrayList<>();
-
-        for (int xind = 0; xind < gridCells.length; xind++) {
-            for (int yind = 0; yind < gridCells[xind].length; yind++) {
-                for (int zind = 0; zind < gridCells[xind][yind].length; zind++) {
-                    // distances of points within this cell
-                    ResidueGridCell thisCell = gridCells[xind][yind][zind];
-                    if (thisCell == null) {
-                        continue;
-                    }
+    /**
+     * Reports all pairs of residues whose backbone representatives are closer than the cutoff. Each pair is reported
+     * once, ordered by cell (x, then y, then z), and by residue index within each cell.
+     * @param consumer receives the contacts, must not create grids itself
+     */
+    public void forEachContact(ContactConsumer consumer) {
+        int n = residues.size();
+        if (n == 0) {
+            return;
+        }
 
-                    contacts.addAll(thisCell.getContactsWithinGridCell());
+        // bounds of the grid
+        int[] intBounds = new int[] { Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE };
+        for (int i = 0; i < n; i++) {
+            for (int dimension = 0; dimension < 3; dimension++) {
+                int floor = getFloor(backboneCoordinates[3 * i + dimension]);
+                intBounds[dimension] = Math.min(intBounds[dimension], floor);
+                intBounds[dimension + 3] = Math.max(intBounds[dimension + 3], floor);
+            }
+        }
+        int nx = 1 + (intBounds[3] - intBounds[0]) / cellSize;
+        int ny = 1 + (intBounds[4] - intBounds[1]) / cellSize;
+        int nz = 1 + (intBounds[5] - intBounds[2]) / cellSize;
+
+        Scratch scratch = SCRATCH.get();
+        scratch.ensureCapacity(n);
+        try {
+            // sort residues by cell key, stable with respect to residue index
+            long[] packed = scratch.packed;
+            for (int i = 0; i < n; i++) {
+                long xind = (getFloor(backboneCoordinates[3 * i]) - intBounds[0]) / cellSize;
+                long yind = (getFloor(backboneCoordinates[3 * i + 1]) - intBounds[1]) / cellSize;
+                long zind = (getFloor(backboneCoordinates[3 * i + 2]) - intBounds[2]) / cellSize;
+                packed[i] = ((xind * ny + yind) * nz + zind) * n + i;
+            }
+            Arrays.sort(packed, 0, n);
+
+            // sorted coordinates and ranges of occupied cells
+            int[] order = scratch.order;
+            double[] x = scratch.x;
+            double[] y = scratch.y;
+            double[] z = scratch.z;
+            long[] cellKeys = scratch.cellKeys;
+            int[] cellStarts = scratch.cellStarts;
+            int cellCount = 0;
+            for (int k = 0; k < n; k++) {
+                long key = packed[k] / n;
+                int i = (int) (packed[k] % n);
+                order[k] = i;
+                x[k] = backboneCoordinates[3 * i];
+                y[k] = backboneCoordinates[3 * i + 1];
+                z[k] = backboneCoordinates[3 * i + 2];
+                if (cellCount == 0 || cellKeys[cellCount - 1] != key) {
+                    cellKeys[cellCount] = key;
+                    cellStarts[cellCount] = k;
+                    cellCount++;
+                }
+            }
+            cellStarts[cellCount] = n;
+
+            Kernels kernels = Kernels.getInstance();
+            for (int cell = 0; cell < cellCount; cell++) {
+                long key = cellKeys[cell];
+                int xind = (int) (key / ((long) ny * nz));
+                int yind = (int) (key / nz % ny);
+                int zind = (int) (key % nz);
+
+                // distances of points within this cell
+                addContacts(scratch, cell, cell, kernels, consumer);
+
+                // distances of points from this box to all neighbouring boxes: 26 iterations (26 neighbouring boxes)
+                for (int xo = xind - 1; xo <= xind + 1; xo++) {
+                    for (int yo = yind - 1; yo <= yind + 1; yo++) {
+                        for (int zo = zind - 1; zo <= zind + 1; zo++) {
+                            if (xo == xind && yo == yind && zo == zind) {
+                                continue;
+                            }
 
-                    // distances of points from this box to all neighbouring boxes: 26 iterations (26 neighbouring boxes)
-                    for (int x = xind - 1; x <= xind + 1; x++) {
-                        for (int y = yind - 1; y <= yind + 1; y++) {
-                            for (int z = zind - 1; z <= zind + 1; z++) {
-                                if (x == xind && y == yind && z == zind) {
+                            if (xo >= 0 && xo < nx && yo >= 0 && yo < ny && zo >= 0 && zo < nz) {
+                                int other = Arrays.binarySearch(cellKeys, 0, cellCount, ((long) xo * ny + yo) * nz + zo);
+                                if (other < 0) {
                                     continue;
                                 }
 
-                                if (x >= 0 && x < gridCells.length && y >= 0 && y < gridCells[x].length && z >= 0 && z < gridCells[x][y].length) {
-                                    if (gridCells[x][y][z] == null) {
-                                        continue;
-                                    }
-
-                                    contacts.addAll(thisCell.getContactsToGridCell(gridCells[x][y][z]));
-                                }
+                                addContacts(scratch, cell, other, kernels, consumer);
                             }
                         }
                     }
                 }
             }
-        }
-
-        return contacts;
-    }
-
-    public Residue getResidue(int index) {
-        return residues.get(index);
-    }
-
-    class BoundingBox {
-        final double xmin;
-        final double xmax;
-        final double ymin;
-        final double ymax;
-        final double zmin;
-        final double zmax;
-
-        public BoundingBox() {
-            double xmin = Double.MAX_VALUE;
-            double xmax = -Double.MAX_VALUE;
-            double ymin = Double.MAX_VALUE;
-            double ymax = -Double.MAX_VALUE;
-            double zmin = Double.MAX_VALUE;
-            double zmax = -Double.MAX_VALUE;
-
-            for (Residue residue : residues) {
-                double[] coords = residue.getBackboneCoordinates();
-
-                if (coords[0] > xmax) {
-                    xmax = coords[0];
-                }
-                if (coords[0] < xmin) {
-                    xmin = coords[0];
-                }
-
-                if (coords[1] > ymax) {
-                    ymax = coords[1];
-                }
-                if (coords[1] < ymin) {
-                    ymin = coords[1];
-                }
-
-                if (coords[2] > zmax) {
-                    zmax = coords[2];
-                }
-                if (coords[2] < zmin) {
-                    zmin = coords[2];
-                }
+        } finally {
+            if (n > MAX_RETAINED_SIZE) {
+                SCRATCH.remove();
             }
-
-            this.xmin = xmin;
-            this.xmax = xmax;
-            this.ymin = ymin;
-            this.ymax = ymax;
-            this.zmin = zmin;
-            this.zmax = zmax;
-        }
-
-        /**
-         * Calculates the member variable bounds:
-         * - elements 0, 1, 2: minimum x, y, z
-         * - elements 3, 4, 5: maximum x, y, z
-         * @return an int[]
-         */
-        public int[] getIntBounds() {
-            return new int[] {
-                    getFloor(boundingBox.xmin),
-                    getFloor(boundingBox.ymin),
-                    getFloor(boundingBox.zmin),
-                    getFloor(boundingBox.xmax),
-                    getFloor(boundingBox.ymax),
-                    getFloor(boundingBox.zmax)
-            };
         }
     }
 
-    class ResidueGridCell {
-        private final List<Integer> indices;
-
-        public ResidueGridCell() {
-            this.indices = new ArrayList<>();
-        }
-
-        public void addIndex(int index) {
-            indices.add(index);
-        }
-
-        public List<ResidueContact> getContactsWithinGridCell() {
-            return getContactsToGridCell(this);
-        }
-
-        private List<ResidueContact> getContactsToGridCell(ResidueGridCell other) {
-            List<ResidueContact> contacts = new ArrayList<>();
-            for (int i : indices) {
-                for (int j : other.indices) {
-                    if (j > i) {
-                        double squaredDistance = Algebra.distanceSquared3d(residues.get(i).getBackboneCoordinates(), residues.get(j).getBackboneCoordinates());
-                        if (squaredDistance < squaredCutoff) {
-                            contacts.add(new ResidueContact(i, j, Math.sqrt(squaredDistance)));
-                        }
-                    }
+    private void addContacts(Scratch scratch, int cell, int other, Kernels kernels, ContactConsumer consumer) {
+        int[] order = scratch.order;
+        double[] x = scratch.x;
+        double[] y = scratch.y;
+        double[] z = scratch.z;
+        int[] cellStarts = scratch.cellStarts;
+        double[] distances = scratch.distances;
+        int otherFrom = cellStarts[other];
+        int otherTo = cellStarts[other + 1];
+        for (int k = cellStarts[cell]; k < cellStarts[cell + 1]; k++) {
+            int i = order[k];
+            kernels.squaredDistances(x, y, z, x[k], y[k], z[k], otherFrom, otherTo, distances);
+            for (int l = otherFrom; l < otherTo; l++) {
+                int j = order[l];
+                double squaredDistance = distances[l - otherFrom];
+                if (j > i && squaredDistance < squaredCutoff) {
+                    consumer.accept(i, j, Math.sqrt(squaredDistance));
                 }
             }
-            return contacts;
         }
     }
 
-    static class ResidueContact {
-        private final int i;
-        private final int j;
-        private final double distance;
+    public Residue getResidue(int index) {
+        return residues.get(index);
+    }
 
-        public ResidueContact(int i, int j, double distance) {
-            this.i = i;
-            this.j = j;
-            this.distance = distance;
-        }
+    /**
+     * Flat backbone coordinates of all residues in this grid (x, y, z interleaved), indexed like
+     * {@link #getResidue(int)}.
+     * @return a double[] - must not be modified
+     */
+    public double[] getBackboneCoordinates() {
+        return backboneCoordinates;
+    }
 
-        public int getI() {
-            return i;
-        }
+    /**
+     * Flat side-chain coordinates of all residues in this grid (x, y, z interleaved), indexed like
+     * {@link #getResidue(int)}.
+     * @return a double[] - must not be modified
+     */
+    public double[] getSideChainCoordinates() {
+        return sideChainCoordinates;
+    }
 
-        public int getJ() {
-            return j;
-        }
+    /**
+     * Per-thread buffers that grow as needed.
+     */
+    private static class Scratch {
+        private long[] packed = new long[0];
+        private int[] order = new int[0];
+        private double[] x = new double[0];
+        private double[] y = new double[0];
+        private double[] z = new double[0];
+        private double[] distances = new double[0];
+        private long[] cellKeys = new long[0];
+        private int[] cellStarts = new int[0];
+
+        void ensureCapacity(int n) {
+            if (packed.length >= n) {
+                return;
+            }
 
-        public double getDistance() {
-            return distance;
+            packed = new long[n];
+            order = new int[n];
+            x = new double[n];
+            y = new double[n];
+            z = new double[n];
+            distances = new double[n];
+            cellKeys = new long[n];
+            cellStarts = new int[n + 1];
         }
     }
 }
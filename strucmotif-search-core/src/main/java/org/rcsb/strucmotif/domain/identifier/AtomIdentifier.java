@@ -7,10 +7,22 @@ import java.util.Objects;
  */
 public class AtomIdentifier {
     private final String labelAtomId;
+    private final int code;
     private final int id;
 
     public AtomIdentifier(String labelAtomId, int id) {
+        this(labelAtomId, AtomNameRegistry.register(labelAtomId), id);
+    }
+
+    /**
+     * Construct an atom identifier with an already interned name.
+     * @param labelAtomId the atom name
+     * @param code the code of this name as reported by {@link AtomNameRegistry}
+     * @param id the atom id
+     */
+    public AtomIdentifier(String labelAtomId, int code, int id) {
         this.labelAtomId = labelAtomId;
+        this.code = code;
         this.id = id;
     }
 
@@ -18,6 +30,14 @@ public class AtomIdentifier {
         return labelAtomId;
     }
 
+    /**
+     * The interned code of this atom name.
+     * @return an int as reported by {@link AtomNameRegistry}
+     */
+    public int getCode() {
+        return code;
+    }
+
     public int getId() {
         return id;
     }
@@ -42,6 +62,6 @@ public class AtomIdentifier {
     }
 
     public boolean describeSameAtom(AtomIdentifier other) {
-        return labelAtomId.equals(other.getLabelAtomId());
+        return code == other.getCode();
     }
 }
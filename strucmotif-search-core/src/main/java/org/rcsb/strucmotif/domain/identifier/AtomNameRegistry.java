@@ -0,0 +1,81 @@
+package org.rcsb.strucmotif.domain.identifier;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns atom names (label_atom_id) into a compact code space. Names frequently needed during indexing and scoring are
+ * registered with fixed codes, all other names receive the next free code when encountered for the first time. Codes
+ * are stable for the lifetime of the JVM and are never persisted.
+ */
+public class AtomNameRegistry {
+    private static final Map<String, Integer> CODES = new ConcurrentHashMap<>();
+    private static final Object LOCK = new Object();
+    // copy-on-write, names are registered rarely but read for every atom
+    private static volatile String[] names = new String[0];
+
+    /**
+     * Code of an atom name not (yet) registered.
+     */
+    public static final int UNKNOWN = -1;
+    public static final int N = register("N");
+    public static final int CA = register("CA");
+    public static final int C = register("C");
+    public static final int O = register("O");
+    public static final int CB = register("CB");
+    public static final int P = register("P");
+    public static final int C4_PRIME = register("C4'");
+    public static final int C1_PRIME = register("C1'");
+
+    private AtomNameRegistry() {
+        // deny instantiation
+    }
+
+    /**
+     * Report the code of an atom name, registers it if necessary.
+     * @param labelAtomId the atom name
+     * @return the code of this name
+     */
+    public static int register(String labelAtomId) {
+        Integer code = CODES.get(labelAtomId);
+        if (code != null) {
+            return code;
+        }
+
+        synchronized (LOCK) {
+            return CODES.computeIfAbsent(labelAtomId, k -> {
+                String[] extended = Arrays.copyOf(names, names.length + 1);
+                extended[names.length] = k;
+                names = extended;
+                return extended.length - 1;
+            });
+        }
+    }
+
+    /**
+     * Report the code of an atom name without registering it.
+     * @param labelAtomId the atom name
+     * @return the code of this name or {@link #UNKNOWN}
+     */
+    public static int lookup(String labelAtomId) {
+        return CODES.getOrDefault(labelAtomId, UNKNOWN);
+    }
+
+    /**
+     * Report the canonical instance of the name associated to a code.
+     * @param code the code
+     * @return the atom name
+     */
+    public static String getName(int code) {
+        return names[code];
+    }
+
+    /**
+     * The number of codes issued so far.
+     * @return the size of the code space
+     */
+    public static int size() {
+        return names.length;
+    }
+}
@@ -13,6 +13,7 @@ public class ResiduePairIdentifier {
     private final LabelSelection labelSelection1;
     private final LabelSelection labelSelection2;
     private final GeometricDescriptorScore score;
+    private final ResiduePairDescriptor residuePairDescriptor;
 
     public ResiduePairIdentifier(LabelSelection labelSelection1, LabelSelection labelSelection2) {
         this(labelSelection1, labelSelection2, null);
@@ -22,6 +23,7 @@ public class ResiduePairIdentifier {
         this.labelSelection1 = labelSelection1;
         this.labelSelection2 = labelSelection2;
         this.score = original != null ? original.getScore() : null;
+        this.residuePairDescriptor = original;
     }
 
     public LabelSelection getLabelSelection1() {
@@ -40,6 +42,14 @@ public class ResiduePairIdentifier {
         return Stream.of(labelSelection1, labelSelection2);
     }
 
+    /**
+     * The descriptor this identifier was retrieved for (if any).
+     * @return the descriptor, null if not known
+     */
+    public ResiduePairDescriptor getResiduePairDescriptor() {
+        return residuePairDescriptor;
+    }
+
     public boolean providesScore() {
         return score != null;
     }
@@ -1,6 +1,7 @@
 package org.rcsb.strucmotif.domain.query;
 
 import org.rcsb.strucmotif.core.MotifSearchRuntime;
+import org.rcsb.strucmotif.domain.AtomPairingTemplate;
 import org.rcsb.strucmotif.domain.identifier.StructureIdentifier;
 import org.rcsb.strucmotif.domain.motif.ResiduePairOccurrence;
 import org.rcsb.strucmotif.domain.result.MotifSearchResult;
@@ -12,6 +13,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * The immutable container for a structural motif query.
@@ -23,6 +25,7 @@ public class MotifSearchQuery {
     private final Map<LabelSelection, Set<ResidueType>> exchanges;
     private final Collection<StructureIdentifier> whitelist;
     private final Collection<StructureIdentifier> blacklist;
+    private final AtomPairingTemplate atomPairingTemplate;
 
     MotifSearchQuery(MotifSearchRuntime motifSearchRuntime,
                      Structure structure,
@@ -37,6 +40,12 @@ public class MotifSearchQuery {
         this.exchanges = exchanges;
         this.whitelist = whitelist;
         this.blacklist = blacklist;
+        // the query side of all alignments is static: compile pairing of atoms once
+        List<Set<ResidueType>> allowedExchanges = queryStructure.getLabelSelections()
+                .stream()
+                .map(labelSelection -> exchanges.getOrDefault(labelSelection, Set.of()))
+                .collect(Collectors.toList());
+        this.atomPairingTemplate = new AtomPairingTemplate(queryStructure.getResidues(), allowedExchanges, parameters.getAtomPairingScheme());
     }
 
     /**
@@ -63,6 +72,14 @@ public class MotifSearchQuery {
         return exchanges;
     }
 
+    /**
+     * The precompiled pairing of atoms of the query with those of candidates.
+     * @return the atom pairing template of this query
+     */
+    public AtomPairingTemplate getAtomPairingTemplate() {
+        return atomPairingTemplate;
+    }
+
     public Collection<StructureIdentifier> getWhitelist() {
         return whitelist;
     }
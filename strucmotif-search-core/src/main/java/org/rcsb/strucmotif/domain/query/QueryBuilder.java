@@ -233,7 +233,8 @@ public class QueryBuilder {
         }
 
         /**
-         * Stop after a certain number of accepted hits.
+         * Report only a certain number of hits. These will be the best hits: lowest RMSD when aligning, lowest geometric
+         * descriptor score otherwise.
          * @param limit the maximum number of hits below the RMSD threshold
          * @return this builder
          */
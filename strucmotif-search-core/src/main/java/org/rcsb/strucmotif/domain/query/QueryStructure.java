@@ -23,6 +23,7 @@ public class QueryStructure {
     private final List<ResiduePairOccurrence> residuePairOccurrences;
     private final List<ResiduePairIdentifier> residuePairIdentifiers;
     private final List<ResiduePairDescriptor> residuePairDescriptors;
+    private final List<LabelSelection> labelSelections;
     private final List<Residue> residues;
 
     QueryStructure(Structure structure, List<ResiduePairOccurrence> residuePairOccurrences) {
@@ -45,14 +46,14 @@ public class QueryStructure {
 
         // explode query into motifs and get entities by that - this provides the correct order of entities so that the
         // alignment routine does not have to care about finding correspondence
-        List<LabelSelection> residueIdentifiers = residuePairIdentifiers.stream()
+        this.labelSelections = residuePairIdentifiers.stream()
                 .flatMap(lookupTargetIdentifier -> Stream.of(lookupTargetIdentifier.getLabelSelection1(), lookupTargetIdentifier.getLabelSelection2()))
                 .distinct()
                 .collect(Collectors.toList());
 
         // we do this to ensure correct ordering
         SelectionResolver<LabelSelection> labelSelectionResolver = new LabelSelectionResolver(structure);
-        this.residues = residueIdentifiers.stream()
+        this.residues = labelSelections.stream()
                 .map(labelSelectionResolver::resolve)
                 .collect(Collectors.toList());
     }
@@ -130,6 +131,14 @@ public class QueryStructure {
         return residuePairDescriptors;
     }
 
+    /**
+     * The label selections of all components of this query structure, in the same order as {@link #getResidues()}.
+     * @return a collection of label selections
+     */
+    public List<LabelSelection> getLabelSelections() {
+        return labelSelections;
+    }
+
     /**
      * All components of this query structure.
      * @return a collection of components
@@ -1,6 +1,7 @@
 package org.rcsb.strucmotif.domain.result;
 
 import org.rcsb.strucmotif.domain.identifier.StructureIdentifier;
+import org.rcsb.strucmotif.domain.motif.ResiduePairIdentifier;
 import org.rcsb.strucmotif.domain.score.GeometricDescriptorScore;
 import org.rcsb.strucmotif.domain.selection.LabelSelection;
 
@@ -10,11 +11,13 @@ public class SimpleHit implements Hit {
     private final StructureIdentifier structureIdentifier;
     private final List<LabelSelection> selection;
     private final GeometricDescriptorScore geometricDescriptorScore;
+    private final ResiduePairIdentifier[] residuePairIdentifiers;
 
-    public SimpleHit(StructureIdentifier structureIdentifier, List<LabelSelection> selection, GeometricDescriptorScore geometricDescriptorScore) {
+    public SimpleHit(StructureIdentifier structureIdentifier, List<LabelSelection> selection, GeometricDescriptorScore geometricDescriptorScore, ResiduePairIdentifier[] residuePairIdentifiers) {
         this.structureIdentifier = structureIdentifier;
         this.selection = selection;
         this.geometricDescriptorScore = geometricDescriptorScore;
+        this.residuePairIdentifiers = residuePairIdentifiers;
     }
 
     @Override
@@ -31,4 +34,12 @@ public class SimpleHit implements Hit {
     public GeometricDescriptorScore getGeometricDescriptorScore() {
         return geometricDescriptorScore;
     }
+
+    /**
+     * The path of this hit, i.e. the residue pairs matching each residue pair of the query (in query order).
+     * @return an array of residue pair identifiers
+     */
+    public ResiduePairIdentifier[] getResiduePairIdentifiers() {
+        return residuePairIdentifiers;
+    }
 }
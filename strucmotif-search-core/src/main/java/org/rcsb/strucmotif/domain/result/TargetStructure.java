@@ -130,6 +130,7 @@ public class TargetStructure {
                 .collect(Collectors.toList());
         return new SimpleHit(structureIdentifier,
                 labelSelections,
-                score);
+                score,
+                identifiers);
     }
 }
@@ -1,38 +1,24 @@
 package org.rcsb.strucmotif.domain.structure;
 
-import org.rcsb.strucmotif.align.QuaternionAlignmentService;
-import org.rcsb.strucmotif.domain.Transformation;
 import org.rcsb.strucmotif.domain.identifier.AtomIdentifier;
+import org.rcsb.strucmotif.domain.identifier.AtomNameRegistry;
 import org.rcsb.strucmotif.domain.identifier.ResidueIdentifier;
-import org.rcsb.strucmotif.math.Algebra;
-
-import java.util.List;
 
 /**
  * An amino acid in a structure.
  */
 public class AminoAcid extends Residue {
-    // already centered coordinates to save operations
-    private static final List<double[]> REFERENCE_BACKBONE = List.of(new double[] { -0.698, 0.184, 1.008 }, // N
-            new double[] { 0.525, 0.109, 0.200 }, // CA
-            new double[] { 0.174, -0.292, -1.208 }); // C
-    private static final double[] REFERENCE_CB = new double[] { 1.472, -0.929, 0.804 };
-    private static final double[] REFERENCE_CENTROID = new double[3];
-
-    private final Atom ca;
-    private final Atom cb;
+    // virtual CB of glycine, created on first access
+    private Atom virtualCb;
 
     /**
      * Construct a new amino acid.
      * @param residueIdentifier its identifier
-     * @param atoms associated atoms
-     * @param transformation transformation to apply
+     * @param chainColumns the data of the chain
+     * @param position the position of this residue in the chain
      */
-    AminoAcid(ResidueIdentifier residueIdentifier, List<Atom> atoms, double[][] transformation) {
-        super(residueIdentifier, atoms, transformation);
-        this.ca = findAtomUnsafe("CA");
-        // will be null if glycine and no virtual CB created before (i.e. currently being center or used to create assembly)
-        this.cb = findAtomUnsafe("CB");
+    AminoAcid(ResidueIdentifier residueIdentifier, ChainColumns chainColumns, int position) {
+        super(residueIdentifier, chainColumns, position);
     }
 
     /**
@@ -40,7 +26,7 @@ public class AminoAcid extends Residue {
      * @return an atom
      */
     public Atom getCA() {
-        return ca;
+        return findAtomUnsafe(AtomNameRegistry.CA);
     }
 
     /**
@@ -48,40 +34,21 @@ public class AminoAcid extends Residue {
      * @return an atom
      */
     public Atom getCB() {
+        Atom cb = findAtomUnsafe(AtomNameRegistry.CB);
         if (cb != null) {
             return cb;
         } else {
-            // CB will not be present for glycine - so we can't rely on the constructor to create virtual CB
+            // CB will not be present for glycine - virtual CB is determined by the chain columns
             if (getResidueIdentifier().getResidueType() == ResidueType.GLYCINE) {
-                return calculateVirtualBetaCarbon();
+                // benign race: concurrent callers compute the same value
+                if (virtualCb == null) {
+                    double[] sideChainCoordinates = getSideChainCoordinates();
+                    virtualCb = sideChainCoordinates != null ? StructureFactory.createAtom(new AtomIdentifier("CB", AtomNameRegistry.CB, -1), sideChainCoordinates) : null;
+                }
+                return virtualCb;
             } else {
                 return null;
             }
         }
     }
-
-    private Atom calculateVirtualBetaCarbon() {
-        try {
-            List<double[]> coordList = List.of(findAtomUnsafe("N").getCoord(),
-                    ca.getCoord(),
-                    findAtomUnsafe("C").getCoord());
-            double[] centroid = Algebra.centroid3d(coordList);
-
-            // TODO better way to access alignment functionality?
-            Transformation transformation = QuaternionAlignmentService.align(coordList, centroid, REFERENCE_BACKBONE, REFERENCE_CENTROID).getFirst();
-            return StructureFactory.createAtom(new AtomIdentifier("CB", -1), transformation.transformVector(REFERENCE_CB));
-        } catch (NullPointerException e) {
-            return null;
-        }
-    }
-
-    @Override
-    public double[] getSideChainCoordinates() {
-        return coord(getCB());
-    }
-
-    @Override
-    public double[] getBackboneCoordinates() {
-        return coord(getCA());
-    }
 }
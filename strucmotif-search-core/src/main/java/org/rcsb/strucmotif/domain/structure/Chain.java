@@ -5,33 +5,33 @@ import org.rcsb.strucmotif.domain.identifier.ChainIdentifier;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
- * A chain of a structure.
+ * A chain of a structure. All data is stored in {@link ChainColumns}, residues are views on this data.
  */
 public class Chain {
     private final ChainIdentifier chainIdentifier;
-    private final List<Residue> residues;
-    private final List<Residue> transformedResidues;
+    private final ChainColumns originalColumns;
     private final double[][] transformation;
     private final boolean neutral;
+    private ChainColumns chainColumns;
+    private List<Residue> residues;
 
     /**
-     * Construct a new chain. Lazily, applies a given transformation on the chain. This makes creation lightweight but
-     * will require time when the residues are accessed for the first time.
+     * Construct a new chain. Lazily, applies a given transformation on the chain. This makes creation lightweight:
+     * backbone and side-chain coordinates are determined when the chain is accessed for the first time, all other
+     * coordinates are only transformed when they are requested.
      * @param chainIdentifier its identifier
-     * @param residues all residues present in this chain
-     * @param transformation the transformation: <code>null</code> to do 'nothing'
+     * @param chainColumns all residues and atoms present in this chain
+     * @param transformation the transformation: neutral to do 'nothing'
      */
-    Chain(ChainIdentifier chainIdentifier, List<Residue> residues, double[][] transformation) {
+    Chain(ChainIdentifier chainIdentifier, ChainColumns chainColumns, double[][] transformation) {
         this.chainIdentifier = chainIdentifier;
-        this.residues = residues;
-
-        this.neutral = Arrays.deepEquals(Transformation.IDENTITY_MATRIX_4D, transformation);
-        this.transformedResidues = neutral ? residues : new ArrayList<>(residues.size());
+        this.originalColumns = chainColumns;
         this.transformation = transformation;
-
+        this.neutral = Arrays.deepEquals(Transformation.IDENTITY_MATRIX_4D, transformation);
     }
 
     /**
@@ -43,21 +43,33 @@ public class Chain {
     }
 
     /**
-     * Be lazy: this allows to create chains without instantly transforming all atoms - will be transformed and
-     * instantiated upon first every access - not thread-safe
+     * The data of this chain, with the transformation applied. Be lazy: the transformed view will be created upon first
+     * access - not thread-safe.
+     * @return the columns of this chain
+     */
+    public ChainColumns getChainColumns() {
+        if (chainColumns == null) {
+            chainColumns = neutral ? originalColumns : originalColumns.transform(transformation);
+        }
+        return chainColumns;
+    }
+
+    /**
+     * Be lazy: this allows to create chains without instantly transforming all atoms - residue views will be
+     * instantiated upon first access, atoms are transformed when requested - not thread-safe
      * @return residues in this chain
      */
     public List<Residue> getResidues() {
-        // not yet transformed and non-neutral operation
-        if (transformedResidues.size() != residues.size()) {
-            for (Residue residue : residues) {
-                transformedResidues.add(StructureFactory.createResidue(residue.getResidueIdentifier(),
-                        residue.getAtoms(),
-                        transformation));
+        if (residues == null) {
+            ChainColumns chainColumns = getChainColumns();
+            List<Residue> residues = new ArrayList<>(chainColumns.getResidueCount());
+            for (int i = 0; i < chainColumns.getResidueCount(); i++) {
+                residues.add(StructureFactory.createResidue(chainColumns, i));
             }
+            this.residues = Collections.unmodifiableList(residues);
         }
 
-        return transformedResidues;
+        return residues;
     }
 
     /**
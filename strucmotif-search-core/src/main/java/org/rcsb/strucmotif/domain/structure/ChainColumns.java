@@ -0,0 +1,520 @@
+package org.rcsb.strucmotif.domain.structure;
+
+import org.rcsb.strucmotif.align.QuaternionAlignmentService;
+import org.rcsb.strucmotif.domain.Transformation;
+import org.rcsb.strucmotif.domain.identifier.AtomNameRegistry;
+import org.rcsb.strucmotif.math.Algebra;
+import org.rcsb.strucmotif.math.Kernels;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Columnar storage of all residues and atoms of a chain. Coordinates of all atoms are kept in a single flat array (x, y,
+ * z interleaved), residues are described by offsets into the atom columns. {@link Chain}, {@link Residue} and
+ * {@link Atom} are views on this data - atom instances are only created when requested. Backbone and side-chain
+ * coordinates of all residues are determined once and exposed as flat arrays, absent representatives are reported as
+ * NaN.
+ * <p>
+ * Columns of a transformed chain (e.g. as part of an assembly) share all arrays of the original chain and only retain
+ * the 4x4 operator. Atom coordinates are transformed on demand ({@link #getCoordinate(int, int)}) or in bulk into a
+ * reusable buffer ({@link #getCoordinates(double[])}), only backbone and side-chain coordinates are stored for each
+ * operator.
+ */
+public class ChainColumns {
+    // already centered coordinates to save operations
+    private static final List<double[]> REFERENCE_BACKBONE = List.of(new double[] { -0.698, 0.184, 1.008 }, // N
+            new double[] { 0.525, 0.109, 0.200 }, // CA
+            new double[] { 0.174, -0.292, -1.208 }); // C
+    private static final double[] REFERENCE_CB = new double[] { 1.472, -0.929, 0.804 };
+    private static final double[] REFERENCE_CENTROID = new double[3];
+
+    private final double[] coordinates;
+    private final int[] atomCodes;
+    private final int[] atomIds;
+    private final int[] residueOffsets;
+    private final ResidueType[] residueTypes;
+    private final int[] labelSeqIds;
+    private final int[] residueIndices;
+    // null if coordinates are used as they are
+    private final double[][] transformation;
+    private final double[] backboneCoordinates;
+    private final double[] sideChainCoordinates;
+
+    /**
+     * Construct columns and determine backbone and side-chain coordinates.
+     * @param coordinates x, y, z of each atom
+     * @param atomCodes the interned names of each atom
+     * @param atomIds the id of each atom
+     * @param residueOffsets the index of the first atom of each residue, terminated by the number of atoms
+     * @param residueTypes the type of each residue
+     * @param labelSeqIds the label_seq_id of each residue
+     * @param residueIndices the index of each residue
+     */
+    ChainColumns(double[] coordinates, int[] atomCodes, int[] atomIds, int[] residueOffsets, ResidueType[] residueTypes, int[] labelSeqIds, int[] residueIndices) {
+        this(coordinates, atomCodes, atomIds, residueOffsets, residueTypes, labelSeqIds, residueIndices, null, null, null);
+    }
+
+    private ChainColumns(double[] coordinates, int[] atomCodes, int[] atomIds, int[] residueOffsets, ResidueType[] residueTypes, int[] labelSeqIds, int[] residueIndices, double[][] transformation, double[] backboneCoordinates, double[] sideChainCoordinates) {
+        this.coordinates = coordinates;
+        this.atomCodes = atomCodes;
+        this.atomIds = atomIds;
+        this.residueOffsets = residueOffsets;
+        this.residueTypes = residueTypes;
+        this.labelSeqIds = labelSeqIds;
+        this.residueIndices = residueIndices;
+        this.transformation = transformation;
+
+        if (backboneCoordinates != null && sideChainCoordinates != null) {
+            this.backboneCoordinates = backboneCoordinates;
+            this.sideChainCoordinates = sideChainCoordinates;
+        } else {
+            this.backboneCoordinates = new double[3 * residueTypes.length];
+            this.sideChainCoordinates = new double[3 * residueTypes.length];
+            for (int residue = 0; residue < residueTypes.length; residue++) {
+                determineRepresentatives(residue);
+            }
+        }
+    }
+
+    /**
+     * Determine the backbone (CA or C4') and side-chain (CB or C1') coordinates of a residue. Glycine will report a
+     * virtual CB.
+     * @param residue the residue index
+     */
+    private void determineRepresentatives(int residue) {
+        ResidueType residueType = residueTypes[residue];
+        PolymerType polymerType = residueType != null ? residueType.getPolymerType() : null;
+
+        int backbone;
+        int sideChain;
+        if (polymerType == PolymerType.AMINO_ACID) {
+            backbone = findAtom(residue, AtomNameRegistry.CA);
+            sideChain = findAtom(residue, AtomNameRegistry.CB);
+        } else if (polymerType == PolymerType.NUCLEOTIDE) {
+            backbone = findAtom(residue, AtomNameRegistry.C4_PRIME);
+            sideChain = findAtom(residue, AtomNameRegistry.C1_PRIME);
+        } else {
+            // type unknown: just try to find CA/C4' and CB/C1'
+            backbone = findAtom(residue, AtomNameRegistry.CA);
+            if (backbone == -1) {
+                backbone = findAtom(residue, AtomNameRegistry.C4_PRIME);
+            }
+            sideChain = findAtom(residue, AtomNameRegistry.CB);
+            if (sideChain == -1) {
+                sideChain = findAtom(residue, AtomNameRegistry.C1_PRIME);
+            }
+        }
+
+        copyAtom(backbone, backboneCoordinates, residue);
+        if (sideChain == -1 && residueType == ResidueType.GLYCINE) {
+            double[] virtualBetaCarbon = calculateVirtualBetaCarbon(residue, backbone);
+            if (virtualBetaCarbon != null) {
+                System.arraycopy(virtualBetaCarbon, 0, sideChainCoordinates, 3 * residue, 3);
+                return;
+            }
+        }
+        copyAtom(sideChain, sideChainCoordinates, residue);
+    }
+
+    private void copyAtom(int atom, double[] target, int residue) {
+        if (atom == -1) {
+            Arrays.fill(target, 3 * residue, 3 * residue + 3, Double.NaN);
+        } else {
+            target[3 * residue] = getCoordinate(atom, 0);
+            target[3 * residue + 1] = getCoordinate(atom, 1);
+            target[3 * residue + 2] = getCoordinate(atom, 2);
+        }
+    }
+
+    private double[] calculateVirtualBetaCarbon(int residue, int ca) {
+        int n = findAtom(residue, AtomNameRegistry.N);
+        int c = findAtom(residue, AtomNameRegistry.C);
+        if (n == -1 || ca == -1 || c == -1) {
+            return null;
+        }
+
+        List<double[]> coordList = List.of(getAtomCoordinates(n), getAtomCoordinates(ca), getAtomCoordinates(c));
+        double[] centroid = Algebra.centroid3d(coordList);
+        Transformation transformation = QuaternionAlignmentService.align(coordList, centroid, REFERENCE_BACKBONE, REFERENCE_CENTROID).getFirst();
+        return transformation.transformVector(REFERENCE_CB);
+    }
+
+    /**
+     * Find the first atom of a residue with a certain name.
+     * @param residue the residue index
+     * @param code the interned name
+     * @return the atom index, -1 if absent
+     */
+    public int findAtom(int residue, int code) {
+        for (int atom = residueOffsets[residue]; atom < residueOffsets[residue + 1]; atom++) {
+            if (atomCodes[atom] == code) {
+                return atom;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Apply a transformation. No coordinates are copied, all columns are shared with this instance - atom coordinates
+     * are transformed upon access. Backbone and side-chain coordinates are determined anew (rather than transformed)
+     * so that they are identical to those of a chain read with transformed coordinates.
+     * @param transformation the 4x4 transformation matrix
+     * @return a transformed view
+     */
+    public ChainColumns transform(double[][] transformation) {
+        // compose with an existing transformation: apply this one first
+        double[][] composed = this.transformation == null ? transformation : Algebra.multiply4d(transformation, this.transformation);
+        return new ChainColumns(coordinates,
+                atomCodes,
+                atomIds,
+                residueOffsets,
+                residueTypes,
+                labelSeqIds,
+                residueIndices,
+                composed,
+                null,
+                null);
+    }
+
+    /**
+     * Reports whether coordinates are transformed upon access.
+     * @return true if this is a transformed view
+     */
+    public boolean isTransformed() {
+        return transformation != null;
+    }
+
+    /**
+     * Create columns that only contain a subset of all residues.
+     * @param residues the indices of all residues to retain (in ascending order)
+     * @return new columns
+     */
+    public ChainColumns subset(int[] residues) {
+        int atomCount = 0;
+        for (int residue : residues) {
+            atomCount += getAtomCount(residue);
+        }
+
+        double[] coordinates = new double[3 * atomCount];
+        int[] atomCodes = new int[atomCount];
+        int[] atomIds = new int[atomCount];
+        int[] residueOffsets = new int[residues.length + 1];
+        ResidueType[] residueTypes = new ResidueType[residues.length];
+        int[] labelSeqIds = new int[residues.length];
+        int[] residueIndices = new int[residues.length];
+        double[] backboneCoordinates = new double[3 * residues.length];
+        double[] sideChainCoordinates = new double[3 * residues.length];
+
+        int offset = 0;
+        for (int i = 0; i < residues.length; i++) {
+            int residue = residues[i];
+            int from = this.residueOffsets[residue];
+            int length = getAtomCount(residue);
+            // subsets retain the transformation: untransformed coordinates are copied
+            System.arraycopy(this.coordinates, 3 * from, coordinates, 3 * offset, 3 * length);
+            System.arraycopy(this.atomCodes, from, atomCodes, offset, length);
+            System.arraycopy(this.atomIds, from, atomIds, offset, length);
+            residueOffsets[i] = offset;
+            residueTypes[i] = this.residueTypes[residue];
+            labelSeqIds[i] = this.labelSeqIds[residue];
+            residueIndices[i] = this.residueIndices[residue];
+            System.arraycopy(this.backboneCoordinates, 3 * residue, backboneCoordinates, 3 * i, 3);
+            System.arraycopy(this.sideChainCoordinates, 3 * residue, sideChainCoordinates, 3 * i, 3);
+            offset += length;
+        }
+        residueOffsets[residues.length] = offset;
+
+        return new ChainColumns(coordinates, atomCodes, atomIds, residueOffsets, residueTypes, labelSeqIds, residueIndices, transformation, backboneCoordinates, sideChainCoordinates);
+    }
+
+    /**
+     * The number of residues.
+     * @return an int
+     */
+    public int getResidueCount() {
+        return residueTypes.length;
+    }
+
+    /**
+     * The number of atoms in all residues.
+     * @return an int
+     */
+    public int getAtomCount() {
+        return atomCodes.length;
+    }
+
+    /**
+     * The number of atoms of a residue.
+     * @param residue the residue index
+     * @return an int
+     */
+    public int getAtomCount(int residue) {
+        return residueOffsets[residue + 1] - residueOffsets[residue];
+    }
+
+    /**
+     * The index of the first atom of a residue.
+     * @param residue the residue index
+     * @return an int
+     */
+    public int getAtomOffset(int residue) {
+        return residueOffsets[residue];
+    }
+
+    /**
+     * The type of a residue.
+     * @param residue the residue index
+     * @return a {@link ResidueType}
+     */
+    public ResidueType getResidueType(int residue) {
+        return residueTypes[residue];
+    }
+
+    /**
+     * The label_seq_id of a residue.
+     * @param residue the residue index
+     * @return an int
+     */
+    public int getLabelSeqId(int residue) {
+        return labelSeqIds[residue];
+    }
+
+    /**
+     * The index of a residue (in the whole structure).
+     * @param residue the residue index (in this chain)
+     * @return an int
+     */
+    public int getResidueIndex(int residue) {
+        return residueIndices[residue];
+    }
+
+    /**
+     * The interned name of an atom.
+     * @param atom the atom index
+     * @return a code as reported by {@link AtomNameRegistry}
+     */
+    public int getAtomCode(int atom) {
+        return atomCodes[atom];
+    }
+
+    /**
+     * The id of an atom.
+     * @param atom the atom index
+     * @return an int
+     */
+    public int getAtomId(int atom) {
+        return atomIds[atom];
+    }
+
+    /**
+     * A single coordinate of an atom.
+     * @param atom the atom index
+     * @param dimension 0, 1, or 2 for x, y, or z
+     * @return the value
+     */
+    public double getCoordinate(int atom, int dimension) {
+        if (transformation == null) {
+            return coordinates[3 * atom + dimension];
+        }
+
+        double[] row = transformation[dimension];
+        return row[0] * coordinates[3 * atom] + row[1] * coordinates[3 * atom + 1] + row[2] * coordinates[3 * atom + 2] + row[3];
+    }
+
+    /**
+     * The position of an atom.
+     * @param atom the atom index
+     * @return a new double[]
+     */
+    public double[] getAtomCoordinates(int atom) {
+        return new double[] { getCoordinate(atom, 0), getCoordinate(atom, 1), getCoordinate(atom, 2) };
+    }
+
+    /**
+     * Flat coordinates of all atoms (x, y, z interleaved). Transformations are applied in bulk.
+     * @param buffer the array to write to - will be reused if large enough, may be null
+     * @return the buffer (or a new array if the buffer was too small), the first 3 * atom count values are set
+     */
+    public double[] getCoordinates(double[] buffer) {
+        int length = coordinates.length;
+        double[] target = buffer != null && buffer.length >= length ? buffer : new double[length];
+        if (transformation == null) {
+            System.arraycopy(coordinates, 0, target, 0, length);
+            return target;
+        }
+
+        Kernels.getInstance().transform(transformation, coordinates, target, length / 3);
+        return target;
+    }
+
+    /**
+     * Flat backbone coordinates of all residues (x, y, z interleaved), NaN if absent. Must not be modified.
+     * @return a double[] of length 3 * residue count
+     */
+    public double[] getBackboneCoordinates() {
+        return backboneCoordinates;
+    }
+
+    /**
+     * Flat side-chain coordinates of all residues (x, y, z interleaved), NaN if absent. Must not be modified.
+     * @return a double[] of length 3 * residue count
+     */
+    public double[] getSideChainCoordinates() {
+        return sideChainCoordinates;
+    }
+
+    /**
+     * Reports whether a residue has backbone and side-chain coordinates.
+     * @param residue the residue index
+     * @return true if both representatives are present
+     */
+    public boolean hasRepresentatives(int residue) {
+        return !Double.isNaN(backboneCoordinates[3 * residue]) && !Double.isNaN(sideChainCoordinates[3 * residue]);
+    }
+
+    /**
+     * Incrementally creates {@link ChainColumns}. Atoms are always added to the last residue that was started. Not
+     * thread-safe.
+     */
+    public static class Builder {
+        private double[] coordinates;
+        private int[] atomCodes;
+        private int[] atomIds;
+        private int atomCount;
+        private int[] residueOffsets;
+        private ResidueType[] residueTypes;
+        private int[] labelSeqIds;
+        private int[] residueIndices;
+        private int residueCount;
+        // deduplication of atom names: the residue generation in which a code was last seen
+        private int[] seenInGeneration;
+        private int generation;
+
+        /**
+         * Start a new builder.
+         * @param expectedAtomCount the initial capacity of atom columns
+         */
+        public Builder(int expectedAtomCount) {
+            int atomCapacity = Math.max(16, expectedAtomCount);
+            int residueCapacity = Math.max(4, atomCapacity / 8);
+            this.coordinates = new double[3 * atomCapacity];
+            this.atomCodes = new int[atomCapacity];
+            this.atomIds = new int[atomCapacity];
+            this.residueOffsets = new int[residueCapacity + 1];
+            this.residueTypes = new ResidueType[residueCapacity];
+            this.labelSeqIds = new int[residueCapacity];
+            this.residueIndices = new int[residueCapacity];
+            this.seenInGeneration = new int[64];
+            this.generation = 1;
+        }
+
+        /**
+         * Start a new residue.
+         * @param residueType its type
+         * @param labelSeqId its label_seq_id
+         * @param index its index
+         * @return this builder
+         */
+        public Builder addResidue(ResidueType residueType, int labelSeqId, int index) {
+            // an empty residue is replaced
+            if (residueCount > 0 && residueOffsets[residueCount - 1] == atomCount) {
+                residueCount--;
+            }
+
+            if (residueCount == residueTypes.length) {
+                int capacity = 2 * residueTypes.length;
+                residueOffsets = Arrays.copyOf(residueOffsets, capacity + 1);
+                residueTypes = Arrays.copyOf(residueTypes, capacity);
+                labelSeqIds = Arrays.copyOf(labelSeqIds, capacity);
+                residueIndices = Arrays.copyOf(residueIndices, capacity);
+            }
+
+            residueOffsets[residueCount] = atomCount;
+            residueTypes[residueCount] = residueType;
+            labelSeqIds[residueCount] = labelSeqId;
+            residueIndices[residueCount] = index;
+            residueCount++;
+            // invalidates all names seen so far
+            generation++;
+            return this;
+        }
+
+        /**
+         * Adds an atom to the current residue. Atoms whose name is already present in the current residue are ignored.
+         * @param code the interned name
+         * @param id the atom id
+         * @param x the x-coordinate
+         * @param y the y-coordinate
+         * @param z the z-coordinate
+         * @return true if the atom was added
+         */
+        public boolean addAtom(int code, int id, double x, double y, double z) {
+            if (residueCount == 0) {
+                throw new IllegalStateException("cannot add atom before residue");
+            }
+
+            if (code >= seenInGeneration.length) {
+                seenInGeneration = Arrays.copyOf(seenInGeneration, Math.max(code + 1, 2 * seenInGeneration.length));
+            }
+            if (seenInGeneration[code] == generation) {
+                return false;
+            }
+            seenInGeneration[code] = generation;
+
+            if (atomCount == atomCodes.length) {
+                int capacity = 2 * atomCodes.length;
+                coordinates = Arrays.copyOf(coordinates, 3 * capacity);
+                atomCodes = Arrays.copyOf(atomCodes, capacity);
+                atomIds = Arrays.copyOf(atomIds, capacity);
+            }
+
+            coordinates[3 * atomCount] = x;
+            coordinates[3 * atomCount + 1] = y;
+            coordinates[3 * atomCount + 2] = z;
+            atomCodes[atomCount] = code;
+            atomIds[atomCount] = id;
+            atomCount++;
+            return true;
+        }
+
+        /**
+         * Reports whether no atoms were added.
+         * @return true if empty
+         */
+        public boolean isEmpty() {
+            return atomCount == 0;
+        }
+
+        /**
+         * Remove all residues and atoms. Allocated capacity is retained so that a builder can be reused.
+         */
+        public void clear() {
+            atomCount = 0;
+            residueCount = 0;
+            generation++;
+        }
+
+        /**
+         * Create the columns. Trailing residues without atoms are omitted. Data is copied, the builder can be reused
+         * afterwards.
+         * @return a new {@link ChainColumns} instance
+         */
+        public ChainColumns build() {
+            int residueCount = this.residueCount;
+            if (residueCount > 0 && residueOffsets[residueCount - 1] == atomCount) {
+                residueCount--;
+            }
+
+            int[] offsets = Arrays.copyOf(residueOffsets, residueCount + 1);
+            offsets[residueCount] = atomCount;
+            return new ChainColumns(Arrays.copyOf(coordinates, 3 * atomCount),
+                    Arrays.copyOf(atomCodes, atomCount),
+                    Arrays.copyOf(atomIds, atomCount),
+                    offsets,
+                    Arrays.copyOf(residueTypes, residueCount),
+                    Arrays.copyOf(labelSeqIds, residueCount),
+                    Arrays.copyOf(residueIndices, residueCount));
+        }
+    }
+}
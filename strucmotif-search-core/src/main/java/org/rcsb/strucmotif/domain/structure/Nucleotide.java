@@ -1,26 +1,20 @@
 package org.rcsb.strucmotif.domain.structure;
 
+import org.rcsb.strucmotif.domain.identifier.AtomNameRegistry;
 import org.rcsb.strucmotif.domain.identifier.ResidueIdentifier;
 
-import java.util.List;
-
 /**
  * A nucleotide in a structure.
  */
 public class Nucleotide extends Residue {
-    private final Atom c1prime;
-    private final Atom c4prime;
-
     /**
      * Construct a new nucleotide.
      * @param residueIdentifier its identifier
-     * @param atoms associated atoms
-     * @param transformation transformation to apply
+     * @param chainColumns the data of the chain
+     * @param position the position of this residue in the chain
      */
-    Nucleotide(ResidueIdentifier residueIdentifier, List<Atom> atoms, double[][] transformation) {
-        super(residueIdentifier, atoms, transformation);
-        this.c1prime = findAtomUnsafe("C1'");
-        this.c4prime = findAtomUnsafe("C4'");
+    Nucleotide(ResidueIdentifier residueIdentifier, ChainColumns chainColumns, int position) {
+        super(residueIdentifier, chainColumns, position);
     }
 
     /**
@@ -28,7 +22,7 @@ public class Nucleotide extends Residue {
      * @return an atom
      */
     public Atom getC4prime() {
-        return c4prime;
+        return findAtomUnsafe(AtomNameRegistry.C4_PRIME);
     }
 
     /**
@@ -36,16 +30,6 @@ public class Nucleotide extends Residue {
      * @return an atom
      */
     public Atom getC1prime() {
-        return c1prime;
-    }
-
-    @Override
-    public double[] getBackboneCoordinates() {
-        return coord(getC4prime());
-    }
-
-    @Override
-    public double[] getSideChainCoordinates() {
-        return coord(getC1prime());
+        return findAtomUnsafe(AtomNameRegistry.C1_PRIME);
     }
 }
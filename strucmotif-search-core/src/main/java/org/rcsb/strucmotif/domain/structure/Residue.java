@@ -1,111 +1,143 @@
 package org.rcsb.strucmotif.domain.structure;
 
-import org.rcsb.strucmotif.domain.Transformation;
+import org.rcsb.strucmotif.domain.identifier.AtomIdentifier;
+import org.rcsb.strucmotif.domain.identifier.AtomNameRegistry;
 import org.rcsb.strucmotif.domain.identifier.ResidueIdentifier;
-import org.rcsb.strucmotif.math.Algebra;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 
 /**
- * A residue in a chain. Basically either an amino acid or nucleotide (represented by a subclass). Just like a
- * {@link Chain}, the corresponding {@link Atom} instances are constructed lazily until they are requested for the first
- * time.
+ * A residue in a chain. Basically either an amino acid or nucleotide (represented by a subclass). This is a view on the
+ * {@link ChainColumns} of a chain: the corresponding {@link Atom} instances are only constructed when they are
+ * requested.
  */
 public class Residue {
     private final ResidueIdentifier residueIdentifier;
-    private final List<Atom> atoms;
+    private final ChainColumns chainColumns;
+    private final int position;
+    private final int from;
+    private final int to;
+    private int hash;
 
     /**
      * Construct a new residue.
      * @param residueIdentifier its identifier
-     * @param atoms all atoms in this residue
-     * @param transformation the transformation (may be identity/neutral)
+     * @param chainColumns the data of the chain
+     * @param position the position of this residue in the chain
      */
-    Residue(ResidueIdentifier residueIdentifier, List<Atom> atoms, double[][] transformation) {
+    Residue(ResidueIdentifier residueIdentifier, ChainColumns chainColumns, int position) {
         this.residueIdentifier = residueIdentifier;
+        this.chainColumns = chainColumns;
+        this.position = position;
+        this.from = chainColumns.getAtomOffset(position);
+        this.to = from + chainColumns.getAtomCount(position);
+    }
 
-        boolean neutral = Arrays.deepEquals(Transformation.IDENTITY_MATRIX_4D, transformation);
-        if (neutral) {
-            this.atoms = atoms;
-        } else {
-            this.atoms = new ArrayList<>(atoms.size());
-            for (Atom atom : atoms) {
-                this.atoms.add(new Atom(atom.getAtomIdentifier(), Algebra.multiply4d(transformation, atom.getCoord())));
-            }
-        }
+    /**
+     * Report the identifier of this component.
+     * @return the {@link ResidueIdentifier}
+     */
+    public ResidueIdentifier getResidueIdentifier() {
+        return residueIdentifier;
     }
 
     /**
-     * Address coordinates of an atom in a safe fashion.
-     * @param atom the atom to handle
-     * @return its coords or null if atom was null
+     * The data this residue is a view on.
+     * @return the columns of the chain
      */
-    double[] coord(Atom atom) {
-        return atom != null ? atom.getCoord() : null;
+    public ChainColumns getChainColumns() {
+        return chainColumns;
     }
 
     /**
-     * Report the identifier of this component.
-     * @return the {@link ResidueIdentifier}
+     * The position of this residue in its {@link ChainColumns}.
+     * @return an int
      */
-    public ResidueIdentifier getResidueIdentifier() {
-        return residueIdentifier;
+    public int getPosition() {
+        return position;
     }
 
     /**
-     * Access to the coordinates of the backbone.
+     * Access to the coordinates of the backbone (CA or C4').
      * @return a double[] on success, otherwise null
      */
     public double[] getBackboneCoordinates() {
-        /*
-        This implementation is 'generic'. Will succeed even when polymorphism cannot be used because the residue type
-        doesnt point to the correct subclass. Achieved by just trying to return CA or C4' by crossing our fingers. Will
-        return null if this fails. Subclasses will override for better performance and more precise control.
-         */
-        Atom ca = findAtomUnsafe("CA");
-        if (ca != null) {
-            return ca.getCoord();
-        }
-        Atom c4 = findAtomUnsafe("C4'");
-        if (c4 != null) {
-            return c4.getCoord();
-        }
-
-        return null;
+        return representative(chainColumns.getBackboneCoordinates());
     }
 
     /**
-     * Access to the coordinates of the side-chain.
+     * Access to the coordinates of the side-chain (CB or C1'). Glycine will report a virtual CB.
      * @return a double[] on success, otherwise null
      */
     public double[] getSideChainCoordinates() {
-        /*
-        This implementation is 'generic'. Will succeed even when polymorphism cannot be used because the residue type
-        doesnt point to the correct subclass. Achieved by just trying to return CB or C1' by crossing our fingers. Will
-        return null if this fails. Subclasses will override for better performance and more precise control.
-         */
-        Atom cb = findAtomUnsafe("CB");
-        if (cb != null) {
-            return cb.getCoord();
-        }
-        Atom c1 = findAtomUnsafe("C1'");
-        if (c1 != null) {
-            return c1.getCoord();
-        }
+        return representative(chainColumns.getSideChainCoordinates());
+    }
 
-        return null;
+    private double[] representative(double[] coordinates) {
+        int offset = 3 * position;
+        if (Double.isNaN(coordinates[offset])) {
+            return null;
+        }
+        return new double[] { coordinates[offset], coordinates[offset + 1], coordinates[offset + 2] };
     }
 
     /**
-     * All atoms associated to this residue.
+     * All atoms associated to this residue. Atoms are views too: they are created upon each call and not retained by
+     * this residue. Prefer {@link #getAtomCode(int)} and {@link #getCoordinate(int, int)} in performance-critical code.
      * @return a list of atoms
      */
     public List<Atom> getAtoms() {
-        return atoms;
+        Atom[] atoms = new Atom[to - from];
+        for (int atom = from; atom < to; atom++) {
+            atoms[atom - from] = createAtom(atom);
+        }
+        return Arrays.asList(atoms);
+    }
+
+    private Atom createAtom(int atom) {
+        int code = chainColumns.getAtomCode(atom);
+        AtomIdentifier atomIdentifier = new AtomIdentifier(AtomNameRegistry.getName(code), code, chainColumns.getAtomId(atom));
+        return new Atom(atomIdentifier, chainColumns.getAtomCoordinates(atom));
+    }
+
+    /**
+     * The number of atoms of this residue.
+     * @return an int
+     */
+    public int getAtomCount() {
+        return to - from;
+    }
+
+    /**
+     * The interned name of an atom, in the same order as {@link #getAtoms()}.
+     * @param atom the index of the atom in this residue
+     * @return a code as reported by {@link AtomNameRegistry}
+     */
+    public int getAtomCode(int atom) {
+        return chainColumns.getAtomCode(from + atom);
+    }
+
+    /**
+     * A single coordinate of an atom, in the same order as {@link #getAtoms()}.
+     * @param atom the index of the atom in this residue
+     * @param dimension 0, 1, or 2 for x, y, or z
+     * @return the value
+     */
+    public double getCoordinate(int atom, int dimension) {
+        return chainColumns.getCoordinate(from + atom, dimension);
+    }
+
+    /**
+     * Access an atom by its interned name.
+     * @param code the code of the name to look for
+     * @return this first atom matching this code, null if absent
+     */
+    Atom findAtomUnsafe(int code) {
+        int atom = chainColumns.findAtom(position, code);
+        return atom == -1 ? null : createAtom(atom);
     }
 
     /**
@@ -114,22 +146,13 @@ public class Residue {
      * @return this first atom matching this name, null if absent
      */
     Atom findAtomUnsafe(String atomName) {
-        // stream-based approach is called heavily and seems to degenerate performance during lookup generation
-        for (Atom atom : atoms) {
-            if (atom.getAtomIdentifier().getLabelAtomId().equals(atomName)) {
-                return atom;
-            }
-        }
-        return null;
+        int code = AtomNameRegistry.lookup(atomName);
+        // names never registered cannot be present
+        return code == AtomNameRegistry.UNKNOWN ? null : findAtomUnsafe(code);
     }
 
     public Optional<Atom> findAtom(String atomName) {
-        for (Atom atom : atoms) {
-            if (atom.getAtomIdentifier().getLabelAtomId().equals(atomName)) {
-                return Optional.of(atom);
-            }
-        }
-        return Optional.empty();
+        return Optional.ofNullable(findAtomUnsafe(atomName));
     }
 
     @Override
@@ -137,13 +160,39 @@ public class Residue {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Residue residue = (Residue) o;
-        return Objects.equals(residueIdentifier, residue.residueIdentifier) &&
-                Objects.equals(atoms, residue.atoms);
+        if (!Objects.equals(residueIdentifier, residue.residueIdentifier) || getAtomCount() != residue.getAtomCount()) {
+            return false;
+        }
+
+        // compare atoms without creating them
+        for (int atom = 0; atom < getAtomCount(); atom++) {
+            if (getAtomCode(atom) != residue.getAtomCode(atom) ||
+                    chainColumns.getAtomId(from + atom) != residue.chainColumns.getAtomId(residue.from + atom)) {
+                return false;
+            }
+            for (int dimension = 0; dimension < 3; dimension++) {
+                if (Double.compare(getCoordinate(atom, dimension), residue.getCoordinate(atom, dimension)) != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(residueIdentifier, atoms);
+        // benign race: concurrent callers compute the same value
+        if (hash == 0) {
+            int result = Objects.hash(residueIdentifier);
+            for (int atom = 0; atom < getAtomCount(); atom++) {
+                result = 31 * result + chainColumns.getAtomId(from + atom);
+                for (int dimension = 0; dimension < 3; dimension++) {
+                    result = 31 * result + Double.hashCode(getCoordinate(atom, dimension));
+                }
+            }
+            hash = result;
+        }
+        return hash;
     }
 
     @Override
@@ -1,10 +1,12 @@
 package org.rcsb.strucmotif.domain.structure;
 
+import org.rcsb.strucmotif.domain.Transformation;
 import org.rcsb.strucmotif.domain.identifier.AtomIdentifier;
 import org.rcsb.strucmotif.domain.identifier.ChainIdentifier;
 import org.rcsb.strucmotif.domain.identifier.ResidueIdentifier;
 import org.rcsb.strucmotif.domain.identifier.StructureIdentifier;
 
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -26,6 +28,20 @@ public class StructureFactory {
         return new Structure(structureIdentifier, chains);
     }
 
+    /**
+     * Construct a new chain. Lazily, applies a given transformation on the chain. This makes creation lightweight but
+     * will require time when the residues are accessed for the first time.
+     * @param chainIdentifier its identifier
+     * @param chainColumns all residues and atoms present in this chain
+     * @param transformation the transformation: neutral to do 'nothing'
+     * @return the constructed Chain instance
+     */
+    public static Chain createChain(ChainIdentifier chainIdentifier,
+                                    ChainColumns chainColumns,
+                                    double[][] transformation) {
+        return new Chain(chainIdentifier, chainColumns, transformation);
+    }
+
     /**
      * Construct a new chain. Lazily, applies a given transformation on the chain. This makes creation lightweight but
      * will require time when the residues are accessed for the first time.
@@ -37,40 +53,84 @@ public class StructureFactory {
     public static Chain createChain(ChainIdentifier chainIdentifier,
                                     List<Residue> residues,
                                     double[][] transformation) {
-        return new Chain(chainIdentifier, residues, transformation);
+        ChainColumns.Builder builder = new ChainColumns.Builder(residues.stream().mapToInt(Residue::getAtomCount).sum());
+        for (Residue residue : residues) {
+            ResidueIdentifier residueIdentifier = residue.getResidueIdentifier();
+            builder.addResidue(residueIdentifier.getResidueType(), residueIdentifier.getLabelSeqId(), residueIdentifier.getIndex());
+            ChainColumns chainColumns = residue.getChainColumns();
+            int offset = chainColumns.getAtomOffset(residue.getPosition());
+            for (int atom = offset; atom < offset + residue.getAtomCount(); atom++) {
+                builder.addAtom(chainColumns.getAtomCode(atom),
+                        chainColumns.getAtomId(atom),
+                        chainColumns.getCoordinate(atom, 0),
+                        chainColumns.getCoordinate(atom, 1),
+                        chainColumns.getCoordinate(atom, 2));
+            }
+        }
+        return new Chain(chainIdentifier, builder.build(), transformation);
     }
 
     /**
-     * Construct residues.
-     * @param residueIdentifier the original identifier
-     * @param atoms the atoms to associate
-     * @param transformation the transformation to apply (may be neutral)
+     * Construct a residue view on chain data.
+     * @param chainColumns the data of the chain
+     * @param position the position of the residue in the chain
      * @return the constructed residue
      */
-    public static Residue createResidue(ResidueIdentifier residueIdentifier,
-                                        List<Atom> atoms,
-                                        double[][] transformation) {
-        // cannot infer assembly id by residue itself - this method is used to create new assemblies with diverging assembly ids
-        ResidueIdentifier updatedResidueIdentifier = new ResidueIdentifier(residueIdentifier.getResidueType(),
-                residueIdentifier.getLabelSeqId(),
-                residueIdentifier.getIndex());
+    public static Residue createResidue(ChainColumns chainColumns, int position) {
+        ResidueType residueType = chainColumns.getResidueType(position);
+        ResidueIdentifier residueIdentifier = new ResidueIdentifier(residueType,
+                chainColumns.getLabelSeqId(position),
+                chainColumns.getResidueIndex(position));
 
         // fallback to generic impl if cannot determine type
-        if (residueIdentifier.getResidueType() == null || residueIdentifier.getResidueType().getPolymerType() == null) {
-            return new Residue(updatedResidueIdentifier, atoms, transformation);
+        if (residueType == null || residueType.getPolymerType() == null) {
+            return new Residue(residueIdentifier, chainColumns, position);
         }
 
         // otherwise use concrete impl
-        switch (residueIdentifier.getResidueType().getPolymerType()) {
+        switch (residueType.getPolymerType()) {
             case AMINO_ACID:
-                return new AminoAcid(updatedResidueIdentifier, atoms, transformation);
+                return new AminoAcid(residueIdentifier, chainColumns, position);
             case NUCLEOTIDE:
-                return new Nucleotide(updatedResidueIdentifier, atoms, transformation);
+                return new Nucleotide(residueIdentifier, chainColumns, position);
             default:
-                throw new UnsupportedOperationException("cannot handle case " + residueIdentifier.getResidueType().getPolymerType());
+                throw new UnsupportedOperationException("cannot handle case " + residueType.getPolymerType());
         }
     }
 
+    /**
+     * Construct residues.
+     * @param residueIdentifier the original identifier
+     * @param atoms the atoms to associate
+     * @param transformation the transformation to apply (may be neutral)
+     * @return the constructed residue
+     */
+    public static Residue createResidue(ResidueIdentifier residueIdentifier,
+                                        List<Atom> atoms,
+                                        double[][] transformation) {
+        // atoms are taken as they are - no check for duplicate names
+        double[] coordinates = new double[3 * atoms.size()];
+        int[] atomCodes = new int[atoms.size()];
+        int[] atomIds = new int[atoms.size()];
+        for (int i = 0; i < atoms.size(); i++) {
+            Atom atom = atoms.get(i);
+            System.arraycopy(atom.getCoord(), 0, coordinates, 3 * i, 3);
+            atomCodes[i] = atom.getAtomIdentifier().getCode();
+            atomIds[i] = atom.getAtomIdentifier().getId();
+        }
+
+        ChainColumns chainColumns = new ChainColumns(coordinates,
+                atomCodes,
+                atomIds,
+                new int[] { 0, atoms.size() },
+                new ResidueType[] { residueIdentifier.getResidueType() },
+                new int[] { residueIdentifier.getLabelSeqId() },
+                new int[] { residueIdentifier.getIndex() });
+        boolean neutral = Arrays.deepEquals(Transformation.IDENTITY_MATRIX_4D, transformation);
+        // cannot infer assembly id by residue itself - this method is used to create new assemblies with diverging assembly ids
+        return createResidue(neutral ? chainColumns : chainColumns.transform(transformation), 0);
+    }
+
     /**
      * Construct a new atom.
      * @param atomIdentifier its identifier
@@ -0,0 +1,254 @@
+package org.rcsb.strucmotif.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A local on-disk cache for remote structure data. Files are addressed by the SHA-256 hash of their URL, the total
+ * size is capped and the least recently used files are evicted first. Simultaneous requests for the same URL are
+ * collapsed into a single download and the number of concurrent downloads per host is limited. Thread-safe.
+ */
+class FetchCache {
+    private static final Logger logger = LoggerFactory.getLogger(FetchCache.class);
+    private static final String TEMP_SUFFIX = ".part";
+    private final Path directory;
+    private final long maxSize;
+    private final int maxFetchesPerHost;
+    // access-ordered: iteration starts with the least recently used entry, guarded by 'this'
+    private final LinkedHashMap<String, Long> entries;
+    private final Map<String, CompletableFuture<Void>> inFlight;
+    private final Map<String, Semaphore> hostPermits;
+    private long size;
+
+    /**
+     * Construct a fetch cache. Files already present in the directory are picked up, ordered by their modification
+     * time.
+     * @param directory where to store files
+     * @param maxSize the maximum number of bytes to retain
+     * @param maxFetchesPerHost the maximum number of concurrent downloads per host
+     */
+    FetchCache(Path directory, long maxSize, int maxFetchesPerHost) {
+        if (maxFetchesPerHost < 1) {
+            throw new IllegalArgumentException("maximum number of concurrent fetches per host must be positive");
+        }
+
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.maxFetchesPerHost = maxFetchesPerHost;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.inFlight = new ConcurrentHashMap<>();
+        this.hostPermits = new ConcurrentHashMap<>();
+
+        try {
+            Files.createDirectories(directory);
+            List<Path> present;
+            try (Stream<Path> files = Files.list(directory)) {
+                present = files.filter(Files::isRegularFile).collect(Collectors.toList());
+            }
+            // sort by modification time, so that the least recently written file will be evicted first
+            present.sort(Comparator.comparing(FetchCache::getLastModifiedTime));
+            for (Path path : present) {
+                String name = path.getFileName().toString();
+                if (name.endsWith(TEMP_SUFFIX)) {
+                    // remainder of an interrupted download
+                    Files.deleteIfExists(path);
+                    continue;
+                }
+                long fileSize = Files.size(path);
+                entries.put(name, fileSize);
+                size += fileSize;
+            }
+            evict(null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        logger.info("Fetch cache at {} holds {} files ({} bytes) - capacity: {} bytes - concurrent fetches per host: {}",
+                directory,
+                entries.size(),
+                size,
+                maxSize,
+                maxFetchesPerHost);
+    }
+
+    private static long getLastModifiedTime(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Open a stream to the data of a URL. Served from disk if present, otherwise the URL is fetched and retained.
+     * @param url the URL
+     * @return an input stream
+     * @throws IOException if the data can neither be read from disk nor fetched
+     */
+    InputStream open(URL url) throws IOException {
+        String key = key(url);
+        InputStream cached = openCached(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        CompletableFuture<Void> flight = new CompletableFuture<>();
+        CompletableFuture<Void> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            // someone else is fetching this URL: wait for them
+            await(existing);
+            cached = openCached(key);
+            if (cached != null) {
+                return cached;
+            }
+            // file didn't make it into the cache (e.g. because it is larger than the capacity): fetch without sharing
+            return download(url, key, false);
+        }
+
+        try {
+            // might have been completed since the first lookup
+            cached = openCached(key);
+            InputStream inputStream = cached != null ? cached : download(url, key, true);
+            flight.complete(null);
+            return inputStream;
+        } catch (IOException | RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * The number of bytes currently retained.
+     * @return a long
+     */
+    synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Whether a URL is currently cached.
+     * @param url the URL
+     * @return true if the data of this URL is present
+     */
+    synchronized boolean contains(URL url) {
+        return entries.containsKey(key(url));
+    }
+
+    private synchronized InputStream openCached(String key) throws IOException {
+        // get updates access order
+        if (entries.get(key) == null) {
+            return null;
+        }
+
+        try {
+            return Files.newInputStream(directory.resolve(key));
+        } catch (NoSuchFileException e) {
+            // removed by someone else: forget about it
+            size -= entries.remove(key);
+            return null;
+        }
+    }
+
+    private InputStream download(URL url, String key, boolean retain) throws IOException {
+        Path temp = Files.createTempFile(directory, key, TEMP_SUFFIX);
+        try {
+            Semaphore permits = hostPermits.computeIfAbsent(url.getHost(), h -> new Semaphore(maxFetchesPerHost, true));
+            permits.acquireUninterruptibly();
+            try (InputStream inputStream = url.openStream()) {
+                Files.copy(inputStream, temp, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                permits.release();
+            }
+
+            long fileSize = Files.size(temp);
+            if (retain && fileSize <= maxSize) {
+                synchronized (this) {
+                    Path path = directory.resolve(key);
+                    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    Long previous = entries.put(key, fileSize);
+                    size += fileSize - (previous != null ? previous : 0);
+                    // open before evicting so that the stream stays valid regardless of capacity
+                    InputStream inputStream = Files.newInputStream(path);
+                    evict(key);
+                    return inputStream;
+                }
+            }
+
+            // not retained: file is removed as soon as the caller is done
+            return Files.newInputStream(temp, StandardOpenOption.READ, StandardOpenOption.DELETE_ON_CLOSE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    private synchronized void evict(String keep) throws IOException {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (entry.getKey().equals(keep)) {
+                continue;
+            }
+
+            // open streams on Unix-like systems remain valid when the file is deleted
+            Files.deleteIfExists(directory.resolve(entry.getKey()));
+            size -= entry.getValue();
+            iterator.remove();
+        }
+    }
+
+    private static void await(CompletableFuture<Void> flight) throws IOException {
+        try {
+            flight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for concurrent fetch", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("concurrent fetch failed", cause);
+        }
+    }
+
+    private static String key(URL url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(url.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder(2 * digest.length);
+            for (byte b : digest) {
+                key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
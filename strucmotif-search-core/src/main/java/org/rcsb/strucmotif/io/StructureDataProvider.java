@@ -30,6 +30,23 @@ public interface StructureDataProvider {
         return readFromInputStream(inputStream, null);
     }
 
+    /**
+     * Read a selected range of {@link Residue} instances from structure data that has already been parsed.
+     * @param mmCifFile the source of data
+     * @param selection a collection of {@link ResidueSelection} instances - null will return whole structure
+     * @return the corresponding {@link Structure}
+     */
+    Structure readFromMmCifFile(MmCifFile mmCifFile, Collection<? extends ResidueSelection> selection);
+
+    /**
+     * Read everything from structure data that has already been parsed.
+     * @param mmCifFile the source of data
+     * @return the corresponding {@link Structure}
+     */
+    default Structure readFromMmCifFile(MmCifFile mmCifFile) {
+        return readFromMmCifFile(mmCifFile, null);
+    }
+
     /**
      * Read a selected range from a renumbered structure.
      * @param structureIdentifier the structure to read
@@ -73,12 +90,34 @@ public interface StructureDataProvider {
      */
     void writeRenumbered(StructureIdentifier structureIdentifier, MmCifFile mmCifFile);
 
+    /**
+     * Create the sparse representation of a structure that is written as renumbered file, without writing it. Reading
+     * the result yields the same {@link Structure} as reading the renumbered file.
+     * @param mmCifFile the data source
+     * @return the renumbered structure data
+     */
+    MmCifFile renumber(MmCifFile mmCifFile);
+
+    /**
+     * Write structure data that has already been renumbered.
+     * @param structureIdentifier the structure identifier to write
+     * @param renumbered data obtained by {@link #renumber(MmCifFile)}
+     */
+    void writeRenumberedData(StructureIdentifier structureIdentifier, MmCifFile renumbered);
+
     /**
      * Drop information on a renumbered structure.
      * @param structureIdentifier the structure identifier to remove
      */
     void deleteRenumbered(StructureIdentifier structureIdentifier);
 
+    /**
+     * Re-encode a renumbered structure that was written with another compression than the configured one.
+     * @param structureIdentifier the structure identifier to migrate
+     * @return true if data was re-encoded, false if it already used the configured compression or is missing
+     */
+    boolean migrateRenumbered(StructureIdentifier structureIdentifier);
+
     /**
      * Acquire the input stream of an original structure.
      * @param structureIdentifier the structure identifier to read
@@ -2,9 +2,11 @@ package org.rcsb.strucmotif.io;
 
 import org.rcsb.cif.schema.mm.MmCifFile;
 import org.rcsb.strucmotif.config.MotifSearchConfig;
+import org.rcsb.strucmotif.config.RenumberedCompression;
 import org.rcsb.strucmotif.domain.identifier.StructureIdentifier;
 import org.rcsb.strucmotif.domain.selection.ResidueSelection;
 import org.rcsb.strucmotif.domain.structure.Structure;
+import org.rcsb.strucmotif.io.codec.Codec;
 import org.rcsb.strucmotif.io.read.StructureReader;
 import org.rcsb.strucmotif.io.write.RenumberedStructureWriter;
 import org.slf4j.Logger;
@@ -14,12 +16,14 @@ import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UncheckedIOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.Collection;
 
 @Service
@@ -30,7 +34,9 @@ public class StructureDataProviderImpl implements StructureDataProvider {
     private final MotifSearchConfig motifSearchConfig;
     private final String dataSource;
     private final Path renumberedPath;
+    private final Codec codec;
     private final String extension;
+    private final FetchCache fetchCache;
 
     @Autowired
     public StructureDataProviderImpl(StructureReader structureReader,
@@ -41,7 +47,15 @@ public class StructureDataProviderImpl implements StructureDataProvider {
         this.motifSearchConfig = motifSearchConfig;
         this.dataSource = motifSearchConfig.getDataSource();
         this.renumberedPath = Paths.get(motifSearchConfig.getRootPath()).resolve(MotifSearchConfig.RENUMBERED_DIRECTORY);
-        this.extension = motifSearchConfig.isRenumberedGzip() ? ".bcif.gz" : ".bcif";
+        this.codec = Codec.of(motifSearchConfig.getRenumberedCompression());
+        this.extension = codec.getExtension();
+        if (motifSearchConfig.getFetchCacheSize() > 0) {
+            this.fetchCache = new FetchCache(Paths.get(motifSearchConfig.getRootPath()).resolve(MotifSearchConfig.FETCH_CACHE_DIRECTORY),
+                    motifSearchConfig.getFetchCacheSize(),
+                    motifSearchConfig.getMaxFetchesPerHost());
+        } else {
+            this.fetchCache = null;
+        }
 
         // ensure directories exist
         try {
@@ -50,11 +64,12 @@ public class StructureDataProviderImpl implements StructureDataProvider {
             throw new UncheckedIOException(e);
         }
 
-        logger.info("BinaryCIF data source is {} - CIF fetch URL: {} - precision: {} - gzipping: {}",
+        logger.info("BinaryCIF data source is {} - CIF fetch URL: {} - fetch cache size: {} - precision: {} - compression: {}",
                 motifSearchConfig.getDataSource(),
                 motifSearchConfig.getCifFetchUrl(),
+                motifSearchConfig.getFetchCacheSize(),
                 motifSearchConfig.getRenumberedCoordinatePrecision(),
-                motifSearchConfig.isRenumberedGzip());
+                codec.getCompression());
     }
 
     private String prepareUri(String raw, StructureIdentifier structureIdentifier) {
@@ -76,6 +91,11 @@ public class StructureDataProviderImpl implements StructureDataProvider {
         }
     }
 
+    private InputStream fetch(StructureIdentifier structureIdentifier) throws IOException {
+        URL url = getCifFetchUrl(structureIdentifier);
+        return fetchCache != null ? fetchCache.open(url) : url.openStream();
+    }
+
     private Path getOriginalStructurePath(StructureIdentifier structureIdentifier) {
         return Paths.get(prepareUri(dataSource, structureIdentifier));
     }
@@ -84,9 +104,13 @@ public class StructureDataProviderImpl implements StructureDataProvider {
         return renumberedPath.resolve(structureIdentifier.getPdbId().toLowerCase() + extension);
     }
 
+    private Path getRenumberedStructurePath(StructureIdentifier structureIdentifier, Codec codec) {
+        return renumberedPath.resolve(structureIdentifier.getPdbId().toLowerCase() + codec.getExtension());
+    }
+
     private InputStream getRenumberedInputStream(StructureIdentifier structureIdentifier) {
         try {
-            return Files.newInputStream(getRenumberedStructurePath(structureIdentifier));
+            return codec.decode(Files.newInputStream(getRenumberedStructurePath(structureIdentifier)));
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
@@ -99,7 +123,7 @@ public class StructureDataProviderImpl implements StructureDataProvider {
             if (Files.exists(originalPath)) {
                 return Files.newInputStream(originalPath);
             } else {
-                return getCifFetchUrl(structureIdentifier).openStream();
+                return fetch(structureIdentifier);
             }
         } catch (IOException e) {
             throw new UncheckedIOException(e);
@@ -111,6 +135,11 @@ public class StructureDataProviderImpl implements StructureDataProvider {
         return structureReader.readFromInputStream(inputStream, selection);
     }
 
+    @Override
+    public Structure readFromMmCifFile(MmCifFile mmCifFile, Collection<? extends ResidueSelection> selection) {
+        return structureReader.readFromMmCifFile(mmCifFile, selection);
+    }
+
     @Override
     public Structure readRenumbered(StructureIdentifier structureIdentifier, Collection<? extends ResidueSelection> selection) {
         return readFromInputStream(getRenumberedInputStream(structureIdentifier), selection);
@@ -129,10 +158,10 @@ public class StructureDataProviderImpl implements StructureDataProvider {
         } catch (IOException e1) {
             try {
                 Path renumberedPath = getRenumberedStructurePath(structureIdentifier);
-                return readFromInputStream(Files.newInputStream(renumberedPath), selection);
+                return readFromInputStream(codec.decode(Files.newInputStream(renumberedPath)), selection);
             } catch (IOException e2) {
                 try {
-                    return readFromInputStream(getCifFetchUrl(structureIdentifier).openStream(), selection);
+                    return readFromInputStream(fetch(structureIdentifier), selection);
                 } catch (IOException e) {
                     throw new UncheckedIOException(e);
                 }
@@ -145,15 +174,64 @@ public class StructureDataProviderImpl implements StructureDataProvider {
         renumberedStructureWriter.write(mmCifFile, getRenumberedStructurePath(structureIdentifier));
     }
 
+    @Override
+    public MmCifFile renumber(MmCifFile mmCifFile) {
+        return renumberedStructureWriter.renumber(mmCifFile);
+    }
+
+    @Override
+    public void writeRenumberedData(StructureIdentifier structureIdentifier, MmCifFile renumbered) {
+        renumberedStructureWriter.encode(renumbered, getRenumberedStructurePath(structureIdentifier));
+    }
+
     @Override
     public void deleteRenumbered(StructureIdentifier structureIdentifier) {
         try {
-            Path renumberedPath = getRenumberedStructurePath(structureIdentifier);
-            if (Files.exists(renumberedPath)) {
-                Files.delete(getRenumberedStructurePath(structureIdentifier));
+            // remove data of any compression, an archive might be in the middle of a migration
+            for (RenumberedCompression compression : RenumberedCompression.values()) {
+                Files.deleteIfExists(getRenumberedStructurePath(structureIdentifier, Codec.of(compression)));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public boolean migrateRenumbered(StructureIdentifier structureIdentifier) {
+        try {
+            Path destination = getRenumberedStructurePath(structureIdentifier);
+            for (RenumberedCompression compression : RenumberedCompression.values()) {
+                Codec sourceCodec = Codec.of(compression);
+                Path source = getRenumberedStructurePath(structureIdentifier, sourceCodec);
+                // files written with renumbered-gzip=false used to be gzipped nevertheless
+                boolean legacy = sourceCodec == codec && compression == RenumberedCompression.NONE && isGzipped(source);
+                if ((sourceCodec == codec && !legacy) || !Files.exists(source)) {
+                    continue;
+                }
+
+                Path temp = destination.resolveSibling(destination.getFileName() + ".tmp");
+                try (InputStream inputStream = sourceCodec.decode(Files.newInputStream(source));
+                     OutputStream outputStream = codec.encode(Files.newOutputStream(temp))) {
+                    inputStream.transferTo(outputStream);
+                }
+                Files.move(temp, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                if (!source.equals(destination)) {
+                    Files.delete(source);
+                }
+                return true;
             }
+            return false;
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
+
+    private static boolean isGzipped(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return false;
+        }
+        try (InputStream inputStream = Files.newInputStream(path)) {
+            return inputStream.read() == 0x1f && inputStream.read() == 0x8b;
+        }
+    }
 }
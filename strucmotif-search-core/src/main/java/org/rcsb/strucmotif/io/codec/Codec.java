@@ -0,0 +1,58 @@
+package org.rcsb.strucmotif.io.codec;
+
+import org.rcsb.strucmotif.config.RenumberedCompression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Compresses and decompresses renumbered structure data.
+ */
+public interface Codec {
+    /**
+     * The codec that handles a certain compression.
+     * @param compression the compression
+     * @return the corresponding codec
+     */
+    static Codec of(RenumberedCompression compression) {
+        switch (compression) {
+            case NONE:
+                return NoOperationCodec.INSTANCE;
+            case GZIP:
+                return GzipCodec.INSTANCE;
+            case LZ4:
+                return Lz4Codec.INSTANCE;
+            default:
+                throw new IllegalArgumentException("Unknown compression: " + compression);
+        }
+    }
+
+    /**
+     * The compression handled by this codec.
+     * @return a {@link RenumberedCompression}
+     */
+    RenumberedCompression getCompression();
+
+    /**
+     * The file extension of data written by this codec, including the leading dot.
+     * @return a String
+     */
+    String getExtension();
+
+    /**
+     * Wrap a stream of compressed data.
+     * @param inputStream the source
+     * @return a stream of decompressed data
+     * @throws IOException if reading fails
+     */
+    InputStream decode(InputStream inputStream) throws IOException;
+
+    /**
+     * Wrap a stream that will receive compressed data. Closing the returned stream closes the original stream.
+     * @param outputStream the destination
+     * @return a stream that accepts decompressed data
+     * @throws IOException if writing fails
+     */
+    OutputStream encode(OutputStream outputStream) throws IOException;
+}
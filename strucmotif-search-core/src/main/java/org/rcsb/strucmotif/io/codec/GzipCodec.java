@@ -0,0 +1,40 @@
+package org.rcsb.strucmotif.io.codec;
+
+import org.rcsb.strucmotif.config.RenumberedCompression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzipped BinaryCIF.
+ */
+public class GzipCodec implements Codec {
+    static final GzipCodec INSTANCE = new GzipCodec();
+    private static final int BUFFER_SIZE = 65536;
+
+    private GzipCodec() {
+    }
+
+    @Override
+    public RenumberedCompression getCompression() {
+        return RenumberedCompression.GZIP;
+    }
+
+    @Override
+    public String getExtension() {
+        return ".bcif.gz";
+    }
+
+    @Override
+    public InputStream decode(InputStream inputStream) throws IOException {
+        return new GZIPInputStream(inputStream, BUFFER_SIZE);
+    }
+
+    @Override
+    public OutputStream encode(OutputStream outputStream) throws IOException {
+        return new GZIPOutputStream(outputStream, BUFFER_SIZE);
+    }
+}
@@ -0,0 +1,412 @@
+package org.rcsb.strucmotif.io.codec;
+
+import org.rcsb.strucmotif.config.RenumberedCompression;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * BinaryCIF compressed by an LZ4-style block codec. Data is split into blocks of 64 KiB which are compressed using the
+ * LZ4 block format (greedy matching, no entropy coding), so decompression is merely a sequence of array copies.
+ * <p>Layout: 4 magic bytes, then for each block its raw length, its stored length (highest bit set if the block is
+ * stored uncompressed), and the payload. A raw length of 0 terminates the stream. Integers are big-endian.
+ * <p>Input that does not start with the magic bytes is passed through as is, which keeps archives readable while they
+ * are being migrated.
+ */
+public class Lz4Codec implements Codec {
+    static final Lz4Codec INSTANCE = new Lz4Codec();
+    static final byte[] MAGIC = { 'S', 'M', 'L', 'Z' };
+    static final int BLOCK_SIZE = 65536;
+    private static final int UNCOMPRESSED_FLAG = 0x80000000;
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 65535;
+    // the last 5 bytes are always literals, the last match starts at least 12 bytes before the end
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int HASH_LOG = 14;
+
+    private Lz4Codec() {
+    }
+
+    @Override
+    public RenumberedCompression getCompression() {
+        return RenumberedCompression.LZ4;
+    }
+
+    @Override
+    public String getExtension() {
+        return ".bcif.lz4";
+    }
+
+    @Override
+    public InputStream decode(InputStream inputStream) throws IOException {
+        BufferedInputStream bufferedInputStream = new BufferedInputStream(inputStream);
+        bufferedInputStream.mark(MAGIC.length);
+        byte[] magic = bufferedInputStream.readNBytes(MAGIC.length);
+        if (!Arrays.equals(MAGIC, magic)) {
+            bufferedInputStream.reset();
+            return bufferedInputStream;
+        }
+        return new Lz4InputStream(bufferedInputStream);
+    }
+
+    @Override
+    public OutputStream encode(OutputStream outputStream) throws IOException {
+        outputStream.write(MAGIC);
+        return new Lz4OutputStream(outputStream);
+    }
+
+    /**
+     * The maximum size of compressed data.
+     * @param length the number of bytes to compress
+     * @return an upper bound of the compressed size
+     */
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compress a block.
+     * @param src the source
+     * @param srcOffset where to start reading
+     * @param length the number of bytes to compress
+     * @param dst the destination, must provide {@link #maxCompressedLength(int)} bytes
+     * @param dstOffset where to start writing
+     * @param hashTable a scratch table of size 2^14
+     * @return the number of bytes written
+     */
+    static int compress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, int[] hashTable) {
+        int srcEnd = srcOffset + length;
+        int matchLimit = srcEnd - LAST_LITERALS;
+        int mfLimit = srcEnd - MF_LIMIT;
+        int anchor = srcOffset;
+        int ip = srcOffset;
+        int dp = dstOffset;
+
+        if (length > MF_LIMIT) {
+            Arrays.fill(hashTable, -1);
+            while (ip <= mfLimit) {
+                int sequence = readInt(src, ip);
+                int hash = hash(sequence);
+                int ref = hashTable[hash];
+                hashTable[hash] = ip;
+                if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                    // skip faster through incompressible regions
+                    ip += 1 + ((ip - anchor) >>> 6);
+                    continue;
+                }
+
+                // extend backwards and forwards
+                while (ip > anchor && ref > srcOffset && src[ip - 1] == src[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+                int matchLength = MIN_MATCH;
+                while (ip + matchLength < matchLimit && src[ip + matchLength] == src[ref + matchLength]) {
+                    matchLength++;
+                }
+
+                dp = writeSequence(src, anchor, ip - anchor, ip - ref, matchLength, dst, dp);
+                ip += matchLength;
+                anchor = ip;
+            }
+        }
+
+        // remaining literals
+        return writeSequence(src, anchor, srcEnd - anchor, 0, 0, dst, dp) - dstOffset;
+    }
+
+    private static int writeSequence(byte[] src, int literalOffset, int literalLength, int offset, int matchLength, byte[] dst, int dp) {
+        int tokenPosition = dp++;
+        int token;
+        if (literalLength >= 15) {
+            token = 15 << 4;
+            dp = writeLength(literalLength - 15, dst, dp);
+        } else {
+            token = literalLength << 4;
+        }
+        System.arraycopy(src, literalOffset, dst, dp, literalLength);
+        dp += literalLength;
+
+        if (matchLength > 0) {
+            dst[dp++] = (byte) offset;
+            dst[dp++] = (byte) (offset >>> 8);
+            int remainder = matchLength - MIN_MATCH;
+            if (remainder >= 15) {
+                token |= 15;
+                dp = writeLength(remainder - 15, dst, dp);
+            } else {
+                token |= remainder;
+            }
+        }
+
+        dst[tokenPosition] = (byte) token;
+        return dp;
+    }
+
+    private static int writeLength(int length, byte[] dst, int dp) {
+        while (length >= 255) {
+            dst[dp++] = (byte) 255;
+            length -= 255;
+        }
+        dst[dp++] = (byte) length;
+        return dp;
+    }
+
+    /**
+     * Decompress a block.
+     * @param src the compressed data
+     * @param srcOffset where to start reading
+     * @param length the number of compressed bytes
+     * @param dst the destination
+     * @param dstOffset where to start writing
+     * @param dstLength the number of bytes the block decompresses to
+     * @throws IOException if the block is malformed
+     */
+    static void decompress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, int dstLength) throws IOException {
+        int sp = srcOffset;
+        int srcEnd = srcOffset + length;
+        int dp = dstOffset;
+        int dstEnd = dstOffset + dstLength;
+
+        while (sp < srcEnd) {
+            int token = src[sp++] & 0xFF;
+
+            int literalLength = token >>> 4;
+            if (literalLength == 15) {
+                int b;
+                do {
+                    if (sp >= srcEnd) {
+                        throw corrupt();
+                    }
+                    b = src[sp++] & 0xFF;
+                    literalLength += b;
+                } while (b == 255);
+            }
+            if (literalLength > srcEnd - sp || literalLength > dstEnd - dp) {
+                throw corrupt();
+            }
+            System.arraycopy(src, sp, dst, dp, literalLength);
+            sp += literalLength;
+            dp += literalLength;
+
+            // last sequence has no match
+            if (sp == srcEnd) {
+                break;
+            }
+
+            if (srcEnd - sp < 2) {
+                throw corrupt();
+            }
+            int offset = (src[sp] & 0xFF) | ((src[sp + 1] & 0xFF) << 8);
+            sp += 2;
+            int matchLength = token & 15;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    if (sp >= srcEnd) {
+                        throw corrupt();
+                    }
+                    b = src[sp++] & 0xFF;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+
+            int ref = dp - offset;
+            if (offset == 0 || ref < dstOffset || matchLength > dstEnd - dp) {
+                throw corrupt();
+            }
+            if (offset >= matchLength) {
+                System.arraycopy(dst, ref, dst, dp, matchLength);
+            } else {
+                // overlapping match: copy byte by byte to repeat the pattern
+                for (int i = 0; i < matchLength; i++) {
+                    dst[dp + i] = dst[ref + i];
+                }
+            }
+            dp += matchLength;
+        }
+
+        if (dp != dstEnd) {
+            throw corrupt();
+        }
+    }
+
+    private static IOException corrupt() {
+        return new IOException("corrupt LZ4 block");
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xFF) |
+                ((buffer[offset + 1] & 0xFF) << 8) |
+                ((buffer[offset + 2] & 0xFF) << 16) |
+                ((buffer[offset + 3] & 0xFF) << 24);
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    static class Lz4OutputStream extends OutputStream {
+        private final DataOutputStream outputStream;
+        private final byte[] buffer;
+        private final byte[] compressed;
+        private final int[] hashTable;
+        private int position;
+        private boolean closed;
+
+        Lz4OutputStream(OutputStream outputStream) {
+            this.outputStream = new DataOutputStream(outputStream);
+            this.buffer = new byte[BLOCK_SIZE];
+            this.compressed = new byte[maxCompressedLength(BLOCK_SIZE)];
+            this.hashTable = new int[1 << HASH_LOG];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (position == BLOCK_SIZE) {
+                writeBlock();
+            }
+            buffer[position++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (position == BLOCK_SIZE) {
+                    writeBlock();
+                }
+                int chunk = Math.min(len, BLOCK_SIZE - position);
+                System.arraycopy(b, off, buffer, position, chunk);
+                position += chunk;
+                off += chunk;
+                len -= chunk;
+            }
+        }
+
+        private void writeBlock() throws IOException {
+            if (position == 0) {
+                return;
+            }
+
+            int compressedLength = compress(buffer, 0, position, compressed, 0, hashTable);
+            outputStream.writeInt(position);
+            if (compressedLength < position) {
+                outputStream.writeInt(compressedLength);
+                outputStream.write(compressed, 0, compressedLength);
+            } else {
+                outputStream.writeInt(position | UNCOMPRESSED_FLAG);
+                outputStream.write(buffer, 0, position);
+            }
+            position = 0;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writeBlock();
+            outputStream.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                writeBlock();
+                outputStream.writeInt(0);
+            } finally {
+                outputStream.close();
+            }
+        }
+    }
+
+    static class Lz4InputStream extends InputStream {
+        private final DataInputStream inputStream;
+        private final byte[] buffer;
+        private final byte[] compressed;
+        private int position;
+        private int limit;
+        private boolean finished;
+
+        Lz4InputStream(InputStream inputStream) {
+            this.inputStream = new DataInputStream(inputStream);
+            this.buffer = new byte[BLOCK_SIZE];
+            this.compressed = new byte[maxCompressedLength(BLOCK_SIZE)];
+        }
+
+        private boolean readBlock() throws IOException {
+            if (finished) {
+                return false;
+            }
+
+            int rawLength;
+            try {
+                rawLength = inputStream.readInt();
+            } catch (EOFException e) {
+                throw new IOException("truncated LZ4 stream", e);
+            }
+            if (rawLength == 0) {
+                finished = true;
+                return false;
+            }
+
+            int storedLength = inputStream.readInt();
+            boolean uncompressed = (storedLength & UNCOMPRESSED_FLAG) != 0;
+            storedLength &= ~UNCOMPRESSED_FLAG;
+            if (rawLength < 0 || rawLength > BLOCK_SIZE || storedLength > compressed.length || (uncompressed && storedLength != rawLength)) {
+                throw corrupt();
+            }
+
+            if (uncompressed) {
+                inputStream.readFully(buffer, 0, rawLength);
+            } else {
+                inputStream.readFully(compressed, 0, storedLength);
+                decompress(compressed, 0, storedLength, buffer, 0, rawLength);
+            }
+            position = 0;
+            limit = rawLength;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position == limit && !readBlock()) {
+                return -1;
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position == limit && !readBlock()) {
+                return -1;
+            }
+            int chunk = Math.min(len, limit - position);
+            System.arraycopy(buffer, position, b, off, chunk);
+            position += chunk;
+            return chunk;
+        }
+
+        @Override
+        public int available() {
+            return limit - position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            inputStream.close();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package org.rcsb.strucmotif.io.codec;
+
+import org.rcsb.strucmotif.config.RenumberedCompression;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Plain BinaryCIF. Gzipped data (as written by earlier versions regardless of the <code>renumbered-gzip</code> flag) is
+ * detected and decompressed.
+ */
+public class NoOperationCodec implements Codec {
+    static final NoOperationCodec INSTANCE = new NoOperationCodec();
+
+    private NoOperationCodec() {
+    }
+
+    @Override
+    public RenumberedCompression getCompression() {
+        return RenumberedCompression.NONE;
+    }
+
+    @Override
+    public String getExtension() {
+        return ".bcif";
+    }
+
+    @Override
+    public InputStream decode(InputStream inputStream) throws IOException {
+        BufferedInputStream bufferedInputStream = new BufferedInputStream(inputStream);
+        bufferedInputStream.mark(2);
+        boolean gzipped = bufferedInputStream.read() == 0x1f && bufferedInputStream.read() == 0x8b;
+        bufferedInputStream.reset();
+        return gzipped ? new GZIPInputStream(bufferedInputStream) : bufferedInputStream;
+    }
+
+    @Override
+    public OutputStream encode(OutputStream outputStream) {
+        return outputStream;
+    }
+}
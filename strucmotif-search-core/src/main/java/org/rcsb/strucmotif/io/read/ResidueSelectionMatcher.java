@@ -0,0 +1,83 @@
+package org.rcsb.strucmotif.io.read;
+
+import org.rcsb.strucmotif.domain.selection.LabelSelection;
+import org.rcsb.strucmotif.domain.selection.ResidueSelection;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A selection of residues compiled into a hashed lookup. {@link LabelSelection} instances are indexed by label_asym_id
+ * and label_seq_id, any other implementation (e.g. based on the index of a residue) is tested one by one. Not
+ * thread-safe.
+ */
+class ResidueSelectionMatcher {
+    private final Map<String, BitSet> labelSeqIds;
+    private final List<ResidueSelection> others;
+    private final int size;
+    // rows of a chain are consecutive: remember last lookup
+    private String lastLabelAsymId;
+    private BitSet lastLabelSeqIds;
+
+    /**
+     * Compile a selection. The struct_oper_id of selections is ignored.
+     * @param selection the selection
+     */
+    ResidueSelectionMatcher(Collection<? extends ResidueSelection> selection) {
+        this.labelSeqIds = new HashMap<>();
+        this.others = new ArrayList<>();
+
+        int size = 0;
+        for (ResidueSelection residueSelection : selection) {
+            if (residueSelection instanceof LabelSelection && ((LabelSelection) residueSelection).getLabelSeqId() >= 0) {
+                LabelSelection labelSelection = (LabelSelection) residueSelection;
+                BitSet bitSet = labelSeqIds.computeIfAbsent(labelSelection.getLabelAsymId(), k -> new BitSet());
+                if (!bitSet.get(labelSelection.getLabelSeqId())) {
+                    bitSet.set(labelSelection.getLabelSeqId());
+                    size++;
+                }
+            } else {
+                others.add(residueSelection);
+                size++;
+            }
+        }
+        this.size = size;
+    }
+
+    /**
+     * The number of distinct residues described by this selection (ignoring the struct_oper_id).
+     * @return an int
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Test whether a residue is selected.
+     * @param labelAsymId the label_asym_id
+     * @param labelSeqId the label_seq_id
+     * @param index the index of the residue
+     * @return true if any selection matches
+     */
+    boolean test(String labelAsymId, int labelSeqId, int index) {
+        if (!labelAsymId.equals(lastLabelAsymId)) {
+            lastLabelAsymId = labelAsymId;
+            lastLabelSeqIds = labelSeqIds.get(labelAsymId);
+        }
+
+        if (lastLabelSeqIds != null && labelSeqId >= 0 && lastLabelSeqIds.get(labelSeqId)) {
+            return true;
+        }
+
+        for (ResidueSelection residueSelection : others) {
+            if (residueSelection.test(labelAsymId, labelSeqId, index)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
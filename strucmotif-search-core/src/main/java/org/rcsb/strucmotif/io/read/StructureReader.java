@@ -1,5 +1,6 @@
 package org.rcsb.strucmotif.io.read;
 
+import org.rcsb.cif.schema.mm.MmCifFile;
 import org.rcsb.strucmotif.domain.selection.ResidueSelection;
 import org.rcsb.strucmotif.domain.structure.Residue;
 import org.rcsb.strucmotif.domain.structure.Structure;
@@ -27,4 +28,12 @@ public interface StructureReader {
     default Structure readFromInputStream(InputStream inputStream) {
         return readFromInputStream(inputStream, null);
     }
+
+    /**
+     * Read a selected range of {@link Residue} instances from structure data that has already been parsed.
+     * @param mmCifFile the source of data
+     * @param selection a collection of {@link ResidueSelection} instances - null will return whole structure
+     * @return the corresponding {@link Structure}
+     */
+    Structure readFromMmCifFile(MmCifFile mmCifFile, Collection<? extends ResidueSelection> selection);
 }
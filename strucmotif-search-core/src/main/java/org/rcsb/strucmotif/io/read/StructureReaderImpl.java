@@ -9,14 +9,13 @@ import org.rcsb.cif.schema.mm.PdbxStructAssemblyGen;
 import org.rcsb.cif.schema.mm.PdbxStructOperList;
 import org.rcsb.strucmotif.domain.Transformation;
 import org.rcsb.strucmotif.domain.Pair;
-import org.rcsb.strucmotif.domain.identifier.AtomIdentifier;
+import org.rcsb.strucmotif.domain.identifier.AtomNameRegistry;
 import org.rcsb.strucmotif.domain.identifier.ChainIdentifier;
 import org.rcsb.strucmotif.domain.identifier.ResidueIdentifier;
 import org.rcsb.strucmotif.domain.identifier.StructureIdentifier;
 import org.rcsb.strucmotif.domain.selection.ResidueSelection;
-import org.rcsb.strucmotif.domain.structure.Atom;
 import org.rcsb.strucmotif.domain.structure.Chain;
-import org.rcsb.strucmotif.domain.structure.Residue;
+import org.rcsb.strucmotif.domain.structure.ChainColumns;
 import org.rcsb.strucmotif.domain.structure.Structure;
 import org.rcsb.strucmotif.domain.structure.StructureFactory;
 import org.springframework.stereotype.Service;
@@ -26,11 +25,11 @@ import java.io.InputStream;
 import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -45,12 +44,17 @@ public class StructureReaderImpl implements StructureReader {
     public Structure readFromInputStream(InputStream inputStream, Collection<? extends ResidueSelection> selection) {
         try {
             MmCifFile mmCifFile = CifIO.readFromInputStream(inputStream).as(StandardSchemata.MMCIF);
-            return new StructureReaderState(mmCifFile, selection).build();
+            return readFromMmCifFile(mmCifFile, selection);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
 
+    @Override
+    public Structure readFromMmCifFile(MmCifFile mmCifFile, Collection<? extends ResidueSelection> selection) {
+        return new StructureReaderState(mmCifFile, selection).build();
+    }
+
     static class StructureReaderState {
         private static final Pattern LIST = Pattern.compile(",");
 
@@ -75,10 +79,14 @@ public class StructureReaderImpl implements StructureReader {
 
         // the 'state'
         private ResidueIdentifier currentResidueIdentifier;
-        private List<Atom> atomBuffer;
         private String currentChain;
-        private List<Residue> residueBuffer;
-        private final List<Pair<ChainIdentifier, List<Residue>>> chains;
+        private final ChainColumns.Builder chainBuilder;
+        private final List<Pair<ChainIdentifier, ChainColumns>> chains;
+        private final Map<String, ResidueSelectionMatcher> operatorMatchers;
+        // id of each operator to its row in pdbx_struct_oper_list, created on first use
+        private Map<String, Integer> operatorRows;
+        // rows of pdbx_struct_assembly_gen frequently share the same oper_expression
+        private final Map<String, List<String[]>> operatorExpressions;
 
         /**
          * Initialize a new reading operation.
@@ -106,26 +114,29 @@ public class StructureReaderImpl implements StructureReader {
 
             if (selection == null) {
                 this.selectedAssemblies = null;
-                this.atomBuffer = new ArrayList<>(20);
-                this.residueBuffer = new ArrayList<>(100);
             } else {
                 this.selectedAssemblies = selection.stream()
                         .map(ResidueSelection::getStructOperId)
                         .collect(Collectors.toSet());
-                this.atomBuffer = new ArrayList<>(20);
-                this.residueBuffer = new ArrayList<>(selection.size());
             }
+            // a selection will usually be small, otherwise expect a large chain
+            this.chainBuilder = new ChainColumns.Builder(selection == null ? 5000 : 20 * selection.size());
             this.chains = new ArrayList<>();
+            this.operatorMatchers = new HashMap<>();
+            this.operatorExpressions = new HashMap<>();
             this.selection = selection;
         }
 
         private Structure build() {
             int atomId = 0;
 
+            // selection is compiled into a hashed lookup
+            ResidueSelectionMatcher matcher = selection == null ? null : new ResidueSelectionMatcher(selection);
+
             // keep track of fulfilled selections - if all present, break loop to save time
             int fulfilledCount = 0;
             boolean fulfilled = false;
-            int target = selection == null ? 0 : selection.size();
+            int target = matcher == null ? 0 : matcher.size();
 
             String lastMatchedChainId = null;
             String lastChainId = null;
@@ -143,20 +154,13 @@ public class StructureReaderImpl implements StructureReader {
                 }
 
                 if (target > 0) {
-                    boolean match = false;
-                    for (ResidueSelection selector : selection) {
-                        if (selector.test(labelAsymId, labelSeqId, residueIndex)) {
-                            match = true;
-
-                            if (!labelAsymId.equals(lastMatchedChainId) || labelSeqId != lastMatchedSeqId) {
-                                lastMatchedChainId = labelAsymId;
-                                lastMatchedSeqId = labelSeqId;
-                                fulfilledCount++;
-                                if (fulfilledCount == target) {
-                                    fulfilled = true;
-                                }
-                            }
-                            break;
+                    boolean match = matcher.test(labelAsymId, labelSeqId, residueIndex);
+                    if (match && (!labelAsymId.equals(lastMatchedChainId) || labelSeqId != lastMatchedSeqId)) {
+                        lastMatchedChainId = labelAsymId;
+                        lastMatchedSeqId = labelSeqId;
+                        fulfilledCount++;
+                        if (fulfilledCount == target) {
+                            fulfilled = true;
                         }
                     }
 
@@ -171,104 +175,84 @@ public class StructureReaderImpl implements StructureReader {
                     }
                 }
 
-                // handle atom level
-                double[] coord = new double[] {
-                        cartnX[row],
-                        cartnY[row],
-                        cartnZ[row]
-                };
-                AtomIdentifier atomIdentifier = new AtomIdentifier(labelAtomId[row], ++atomId);
-                Atom atom = StructureFactory.createAtom(atomIdentifier, coord);
-
-                boolean chainChange = !labelAsymId.equals(currentChain);
-
-                // handle entity level
-                ResidueIdentifier residueIdentifier = new ResidueIdentifier(labelCompId[row], labelSeqId, residueIndex);
-                // we have to update the entity if the chain changed
-                if (chainChange || !residueIdentifier.equals(currentResidueIdentifier)) {
-                    atomBuffer = addResidue();
-                    currentResidueIdentifier = residueIdentifier;
-                }
+                // intern atom names to allow for code-based lookup later on
+                int code = AtomNameRegistry.register(labelAtomId[row]);
+                atomId++;
 
                 // handle chain level
+                boolean chainChange = !labelAsymId.equals(currentChain);
                 if (chainChange) {
-                    residueBuffer = addChain();
+                    addChain();
                     currentChain = labelAsymId;
                 }
 
-                if (atomBuffer.stream().noneMatch(a -> a.getAtomIdentifier().describeSameAtom(atomIdentifier))) {
-                    atomBuffer.add(atom);
+                // handle entity level - we have to update the entity if the chain changed
+                if (chainChange || labelSeqId != currentResidueIdentifier.getLabelSeqId() || residueIndex != currentResidueIdentifier.getIndex()) {
+                    currentResidueIdentifier = new ResidueIdentifier(labelCompId[row], labelSeqId, residueIndex);
+                    chainBuilder.addResidue(currentResidueIdentifier.getResidueType(), labelSeqId, residueIndex);
                 }
+
+                // handle atom level: atoms with names already present in this residue are ignored
+                chainBuilder.addAtom(code, atomId, cartnX[row], cartnY[row], cartnZ[row]);
             }
 
-            addResidue();
             addChain();
 
             return StructureFactory.createStructure(structureIdentifier, buildAssemblies(chains, selection));
         }
 
         /**
-         * Processes all 'buffered' atoms and creates a residue from it. Clears the buffer.
-         * @return the cleared buffer
+         * Processes all 'buffered' residues and atoms and creates the columns of a chain from it. Clears the buffer.
          */
-        private List<Atom> addResidue() {
-            if (atomBuffer.size() > 0) {
-                residueBuffer.add(StructureFactory.createResidue(currentResidueIdentifier,
-                        atomBuffer,
-                        Transformation.IDENTITY_MATRIX_4D));
-                return new ArrayList<>();
+        private void addChain() {
+            if (!chainBuilder.isEmpty()) {
+                chains.add(new Pair<>(new ChainIdentifier(currentChain, "1"), chainBuilder.build()));
+                chainBuilder.clear();
             }
-            return atomBuffer;
         }
 
+        private static final Pattern OPERATION_PATTERN = Pattern.compile("\\)\\(");
         /**
-         * Processes all 'buffered' residues and creates a chain from it. Clears the buffer.
-         * @return the cleared buffer
+         * Parse an oper_expression of pdbx_struct_assembly_gen into all operator combinations it describes, e.g.
+         * '(1-3)(5)' yields [1, 5], [2, 5], and [3, 5].
+         * @param operations the oper_expression
+         * @return each element holds the ids of the operators to compose, in order of the expression
          */
-        private List<Residue> addChain() {
-            if (residueBuffer.size() > 0) {
-                chains.add(new Pair<>(new ChainIdentifier(currentChain, "1"), residueBuffer));
-                return new ArrayList<>();
-            }
-            return residueBuffer;
-        }
-
-        private static final Pattern OPERATION_PATTERN = Pattern.compile("\\)\\(");
-        private Map<String, double[][]> getTransformations(Map<String, double[][]> transformations, String operations) {
-            Map<String, double[][]> composedTransformations = new LinkedHashMap<>();
-
+        static List<String[]> parseOperatorExpression(String operations) {
+            // use set to retain order but to avoid duplicates
+            Map<String, String[]> operators = new LinkedHashMap<>();
             String[] split = OPERATION_PATTERN.split(operations);
             if (split.length > 1) {
                 List<String> ids1 = extractTransformationIds(split[0]);
                 List<String> ids2 = extractTransformationIds(split[1]);
                 for (String id1 : ids1) {
                     for (String id2 : ids2) {
-                        composedTransformations.put(id1 + "x" + id2, multiply4d(transformations.get(id1), transformations.get(id2)));
+                        operators.put(id1 + "x" + id2, new String[] { id1, id2 });
                     }
                 }
             } else {
                 List<String> ids = extractTransformationIds(operations);
                 for (String id : ids) {
-                    composedTransformations.put(id, transformations.get(id));
+                    operators.put(id, new String[] { id });
                 }
             }
 
-            return composedTransformations;
+            return List.copyOf(operators.values());
         }
 
         private static final Pattern COMMA_PATTERN = Pattern.compile(",");
-        private List<String> extractTransformationIds(String rawOperation) {
+        private static List<String> extractTransformationIds(String rawOperation) {
             String prepared = rawOperation.replace("(", "")
                     .replace(")", "")
                     .replace("'", "");
 
             return COMMA_PATTERN.splitAsStream(prepared)
-                    .flatMap(this::extractTransformationRanges)
+                    .flatMap(StructureReaderState::extractTransformationRanges)
                     .collect(Collectors.toList());
         }
 
         private static final Pattern RANGE_PATTERN = Pattern.compile("-");
-        private Stream<String> extractTransformationRanges(String raw) {
+        private static Stream<String> extractTransformationRanges(String raw) {
             String[] s = RANGE_PATTERN.split(raw);
             if (s.length == 1) {
                 return Stream.of(raw);
@@ -279,25 +263,57 @@ public class StructureReaderImpl implements StructureReader {
         }
 
         /**
-         * Construct bioassemblies from parsed chains and registered operations.
+         * The transformation of an operator combination. Matrices are only created for operators that are actually
+         * requested.
+         * @param operator the ids of the operators to compose
+         * @return a 4x4 transformation matrix
+         */
+        private double[][] getTransformation(String[] operator) {
+            if (operatorRows == null) {
+                operatorRows = new HashMap<>();
+                for (int row = 0; row < pdbxStructOperList.getRowCount(); row++) {
+                    operatorRows.putIfAbsent(pdbxStructOperList.getId().get(row), row);
+                }
+            }
+
+            double[][] transformation = getMatrix(operator[0]);
+            for (int i = 1; i < operator.length; i++) {
+                transformation = multiply4d(transformation, getMatrix(operator[i]));
+            }
+            return transformation;
+        }
+
+        private double[][] getMatrix(String id) {
+            Integer row = operatorRows.get(id);
+            if (row == null) {
+                throw new IllegalArgumentException("Operator " + id + " referenced by pdbx_struct_assembly_gen is missing from pdbx_struct_oper_list of " + structureIdentifier.getPdbId());
+            }
+
+            return new double[][] {
+                    { pdbxStructOperList.getMatrix11().get(row), pdbxStructOperList.getMatrix12().get(row),
+                            pdbxStructOperList.getMatrix13().get(row), pdbxStructOperList.getVector1().get(row) },
+                    { pdbxStructOperList.getMatrix21().get(row), pdbxStructOperList.getMatrix22().get(row),
+                            pdbxStructOperList.getMatrix23().get(row), pdbxStructOperList.getVector2().get(row) },
+                    { pdbxStructOperList.getMatrix31().get(row), pdbxStructOperList.getMatrix32().get(row),
+                            pdbxStructOperList.getMatrix33().get(row), pdbxStructOperList.getVector3().get(row) },
+                    { 0, 0, 0, 1 }
+            };
+        }
+
+        /**
+         * Construct bioassemblies from parsed chains and registered operations. If the selection references specific
+         * operators, only these are evaluated.
          * @param asymChains 'raw' chains - mere mapping between identifiers and all components
          * @param selection nullable selection of residues - need this to omit duplicates when residues in non-identity chains are selected
          * @return all constructed chains
          */
-        private List<Chain> buildAssemblies(List<Pair<ChainIdentifier, List<Residue>>> asymChains, Collection<? extends ResidueSelection> selection) {
+        private List<Chain> buildAssemblies(List<Pair<ChainIdentifier, ChainColumns>> asymChains, Collection<? extends ResidueSelection> selection) {
             List<Chain> chains = new ArrayList<>();
-            Map<String, double[][]> matrices = IntStream.range(0, pdbxStructOperList.getRowCount())
-                    .boxed()
-                    .collect(Collectors.toMap(row -> pdbxStructOperList.getId().get(row),
-                            row -> new double[][] {
-                                    { pdbxStructOperList.getMatrix11().get(row), pdbxStructOperList.getMatrix12().get(row),
-                                            pdbxStructOperList.getMatrix13().get(row), pdbxStructOperList.getVector1().get(row) },
-                                    { pdbxStructOperList.getMatrix21().get(row), pdbxStructOperList.getMatrix22().get(row),
-                                            pdbxStructOperList.getMatrix23().get(row), pdbxStructOperList.getVector2().get(row) },
-                                    { pdbxStructOperList.getMatrix31().get(row), pdbxStructOperList.getMatrix32().get(row),
-                                            pdbxStructOperList.getMatrix33().get(row), pdbxStructOperList.getVector3().get(row) },
-                                    { 0, 0, 0, 1 }
-                            }));
+            Map<String, Pair<ChainIdentifier, ChainColumns>> asymChainLookup = new HashMap<>();
+            for (Pair<ChainIdentifier, ChainColumns> asymChain : asymChains) {
+                asymChainLookup.putIfAbsent(asymChain.getFirst().getLabelAsymId(), asymChain);
+            }
+            boolean selective = selectedAssemblies != null && selectedAssemblies.size() > 0;
 
             // use set to ensure chains get only moved to one bioassembly - usually the first one should cover all
             // chains - in cases such as 2y5b, chains are transformed by 2 distinct operations
@@ -308,32 +324,33 @@ public class StructureReaderImpl implements StructureReader {
                     List<String> asymIds = LIST.splitAsStream(pdbxStructAssemblyGen.getAsymIdList().get(row))
                             .collect(Collectors.toList());
 
-                    Map<String, double[][]> transformations = getTransformations(matrices, operExpression);
-                    for (Map.Entry<String, double[][]> transformation : transformations.entrySet()) {
+                    for (String[] operator : operatorExpressions.computeIfAbsent(operExpression, StructureReaderState::parseOperatorExpression)) {
+                        String operKey = String.join("x", operator);
+                        // skip operators not referenced by the selection before creating any matrix
+                        if (selective && !selectedAssemblies.contains(operKey)) {
+                            continue;
+                        }
+
+                        double[][] transformation = null;
                         for (String asymId : asymIds) {
                             if (row > 0 && coveredAsymIds.contains(asymId)) {
                                 continue;
                             }
 
-                            String operKey = transformation.getKey();
-                            if (selectedAssemblies != null && selectedAssemblies.size() > 0 && !selectedAssemblies.contains(operKey)) {
+                            Pair<ChainIdentifier, ChainColumns> originalChain = asymChainLookup.get(asymId);
+                            // happens for non-polymer chains
+                            if (originalChain == null) {
                                 continue;
                             }
 
-                            Optional<Pair<ChainIdentifier, List<Residue>>> originalChainOptional = asymChains.stream()
-                                    .filter(pair -> pair.getFirst().getLabelAsymId().equals(asymId))
-                                    .findFirst();
-
-                            // happens for non-polymer chains
-                            if (originalChainOptional.isEmpty()) {
-                                continue;
+                            if (transformation == null) {
+                                transformation = getTransformation(operator);
                             }
-                            Pair<ChainIdentifier, List<Residue>> originalChain = originalChainOptional.get();
 
                             ChainIdentifier chainIdentifier = new ChainIdentifier(originalChain.getFirst().getLabelAsymId(), operKey);
                             chains.add(StructureFactory.createChain(chainIdentifier,
                                     filter(chainIdentifier, originalChain.getSecond(), selection),
-                                    transformation.getValue()));
+                                    transformation));
                             coveredAsymIds.add(asymId);
                         }
                     }
@@ -348,21 +365,22 @@ public class StructureReaderImpl implements StructureReader {
             return chains;
         }
 
-        private List<Residue> filter(ChainIdentifier chainIdentifier, List<Residue> raw, Collection<? extends ResidueSelection> selection) {
+        private ChainColumns filter(ChainIdentifier chainIdentifier, ChainColumns raw, Collection<? extends ResidueSelection> selection) {
             if (selection == null) {
                 return raw;
             } else {
                 // must be correct struct_oper_id
-                Collection<? extends ResidueSelection> subselection = selection.stream()
-                        .filter(s -> s.getStructOperId().equals(chainIdentifier.getStructOperId()))
-                        .collect(Collectors.toList());
-                return raw.stream()
+                ResidueSelectionMatcher matcher = operatorMatchers.computeIfAbsent(chainIdentifier.getStructOperId(),
+                        structOperId -> new ResidueSelectionMatcher(selection.stream()
+                                .filter(s -> s.getStructOperId().equals(structOperId))
+                                .collect(Collectors.toList())));
+                int[] residues = IntStream.range(0, raw.getResidueCount())
                         // must match residue-specific props (label_asym_id, label_seq_id, index)
-                        .filter(residue -> subselection.stream()
-                                .anyMatch(s -> s.test(chainIdentifier.getLabelAsymId(),
-                                                residue.getResidueIdentifier().getLabelSeqId(),
-                                                residue.getResidueIdentifier().getIndex())))
-                        .collect(Collectors.toList());
+                        .filter(residue -> matcher.test(chainIdentifier.getLabelAsymId(),
+                                raw.getLabelSeqId(residue),
+                                raw.getResidueIndex(residue)))
+                        .toArray();
+                return raw.subset(residues);
             }
         }
     }
@@ -10,10 +10,27 @@ import java.nio.file.Path;
  * {@link org.rcsb.strucmotif.domain.selection.LabelSelection}.
  */
 public interface RenumberedStructureWriter {
+    /**
+     * Create the sparse representation of a structure in memory. Reading the result yields the same structure as
+     * reading the file written by {@link #write(MmCifFile, Path)}.
+     * @param source a MmCifFile to process
+     * @return the renumbered structure data
+     */
+    MmCifFile renumber(MmCifFile source);
+
+    /**
+     * Write structure data that has already been renumbered to the file system.
+     * @param renumbered a MmCifFile obtained by {@link #renumber(MmCifFile)}
+     * @param destination where to write data
+     */
+    void encode(MmCifFile renumbered, Path destination);
+
     /**
      * Write structure data to the file system.
      * @param source a MmCifFile to process
      * @param destination where to write data
      */
-    void write(MmCifFile source, Path destination);
+    default void write(MmCifFile source, Path destination) {
+        encode(renumber(source), destination);
+    }
 }
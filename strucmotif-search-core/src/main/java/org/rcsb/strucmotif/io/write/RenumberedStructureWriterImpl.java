@@ -3,7 +3,6 @@ package org.rcsb.strucmotif.io.write;
 import org.rcsb.cif.CifBuilder;
 import org.rcsb.cif.CifIO;
 import org.rcsb.cif.CifOptions;
-import org.rcsb.cif.model.CifFile;
 import org.rcsb.cif.model.FloatColumnBuilder;
 import org.rcsb.cif.model.IntColumnBuilder;
 import org.rcsb.cif.model.StrColumnBuilder;
@@ -19,10 +18,13 @@ import org.rcsb.cif.schema.mm.PdbxStructAssemblyGen;
 import org.rcsb.cif.schema.mm.PdbxStructOperList;
 import org.rcsb.cif.schema.mm.Struct;
 import org.rcsb.strucmotif.config.MotifSearchConfig;
+import org.rcsb.strucmotif.io.codec.Codec;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 
 /**
@@ -42,10 +44,14 @@ import java.nio.file.Path;
  *     <li>non-polymer groups</li>
  *     <li>2nd and all subsequent alt locs</li>
  * </ul>
+ * <p>Coordinates are rounded to <code>renumbered-coordinate-precision</code> digits, output is compressed according to
+ * <code>renumbered-compression</code>.
  */
 @Service
 public class RenumberedStructureWriterImpl implements RenumberedStructureWriter {
     private final CifOptions options;
+    private final Codec codec;
+    private final double factor;
 
     public RenumberedStructureWriterImpl(MotifSearchConfig motifSearchConfig) {
         int precision = motifSearchConfig.getRenumberedCoordinatePrecision();
@@ -53,12 +59,13 @@ public class RenumberedStructureWriterImpl implements RenumberedStructureWriter
                 .encodingStrategyHint("atom_site", "Cartn_x", "delta", precision)
                 .encodingStrategyHint("atom_site", "Cartn_y", "delta", precision)
                 .encodingStrategyHint("atom_site", "Cartn_z", "delta", precision)
-                .gzip(true)
                 .build();
+        this.codec = Codec.of(motifSearchConfig.getRenumberedCompression());
+        this.factor = Math.pow(10, precision);
     }
 
     @Override
-    public void write(MmCifFile source, Path destination) {
+    public MmCifFile renumber(MmCifFile source) {
         MmCifBlock block = source.getFirstBlock();
         PdbxStructAssemblyGen pdbxStructAssemblyGen = block.getPdbxStructAssemblyGen();
         PdbxStructOperList pdbxStructOperList = block.getPdbxStructOperList();
@@ -139,15 +146,30 @@ public class RenumberedStructureWriterImpl implements RenumberedStructureWriter
             labelCompId.add(atomSite.getLabelCompId().get(row));
             labelAsymId.add(currentLabelAsymId);
             labelSeqId.add(currentLabelSeqId);
-            cartnX.add(atomSite.getCartnX().get(row));
-            cartnY.add(atomSite.getCartnY().get(row));
-            cartnZ.add(atomSite.getCartnZ().get(row));
+            cartnX.add(round(atomSite.getCartnX().get(row)));
+            cartnY.add(round(atomSite.getCartnY().get(row)));
+            cartnZ.add(round(atomSite.getCartnZ().get(row)));
         }
         atomSiteBuilder.leaveCategory();
-        CifFile outputFile = outputBuilder.leaveBlock().leaveFile();
+        return outputBuilder.leaveBlock().leaveFile();
+    }
+
+    /**
+     * Round a coordinate like fixed-point encoding and decoding with the configured precision does.
+     * @param coordinate the original value
+     * @return the value that will be read back from the written file
+     */
+    private double round(double coordinate) {
+        return Math.round(coordinate * factor) * (1 / factor);
+    }
 
+    @Override
+    public void encode(MmCifFile renumbered, Path destination) {
         try {
-            CifIO.writeBinary(outputFile, destination, options);
+            byte[] bytes = CifIO.writeBinary(renumbered, options);
+            try (OutputStream outputStream = codec.encode(Files.newOutputStream(destination))) {
+                outputStream.write(bytes);
+            }
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
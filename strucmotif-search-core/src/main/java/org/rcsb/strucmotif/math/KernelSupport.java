@@ -0,0 +1,43 @@
+package org.rcsb.strucmotif.math;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Selects the {@link Kernels} implementation. Vector kernels are used if the <code>jdk.incubator.vector</code> module
+ * is present (run with <code>--add-modules jdk.incubator.vector</code>), unless disabled by setting the system property
+ * <code>strucmotif.vector</code> to <code>false</code>.
+ * <p>Vector kernels are only compiled when building with JDK 17 and must never be loaded otherwise.
+ */
+class KernelSupport {
+    private static final Logger logger = LoggerFactory.getLogger(KernelSupport.class);
+    static final Kernels KERNELS = select(Boolean.parseBoolean(System.getProperty("strucmotif.vector", "true")),
+            ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent());
+
+    private KernelSupport() {
+    }
+
+    /**
+     * Select the kernels to use.
+     * @param enabled false if vector kernels were disabled
+     * @param vectorModulePresent whether the <code>jdk.incubator.vector</code> module is present
+     * @return vector kernels if enabled, present, and loadable - scalar kernels otherwise
+     */
+    static Kernels select(boolean enabled, boolean vectorModulePresent) {
+        if (!enabled || !vectorModulePresent) {
+            return new ScalarKernels();
+        }
+
+        try {
+            // load reflectively: class must not be resolved if the module is absent
+            Kernels kernels = (Kernels) Class.forName("org.rcsb.strucmotif.math.VectorKernels")
+                    .getDeclaredConstructor()
+                    .newInstance();
+            logger.info("Using vector kernels");
+            return kernels;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            logger.warn("Vector kernels unavailable - falling back to scalar kernels", e);
+            return new ScalarKernels();
+        }
+    }
+}
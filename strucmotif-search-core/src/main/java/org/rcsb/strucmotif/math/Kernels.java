@@ -0,0 +1,88 @@
+package org.rcsb.strucmotif.math;
+
+/**
+ * Batch operations on flat coordinate arrays. Implementations use SIMD instructions where available (via the vector API
+ * on Java 17+ if the <code>jdk.incubator.vector</code> module is added) and scalar code otherwise. Element-wise
+ * operations produce identical results in all implementations, reductions (inner products, centroids) may differ in the
+ * last bits due to a different order of summation.
+ * <p>Two layouts are used: 'interleaved' arrays store x, y, z of each point consecutively, 'blocks' store all
+ * x-coordinates, then all y-coordinates, then all z-coordinates of a set of points.
+ */
+public interface Kernels {
+    /**
+     * The kernels of this runtime.
+     * @return the fastest implementation available
+     */
+    static Kernels getInstance() {
+        return KernelSupport.KERNELS;
+    }
+
+    /**
+     * Squared distances between a point and a contiguous range of points.
+     * @param x x-coordinates
+     * @param y y-coordinates
+     * @param z z-coordinates
+     * @param px x-coordinate of the point
+     * @param py y-coordinate of the point
+     * @param pz z-coordinate of the point
+     * @param from first point (inclusive)
+     * @param to last point (exclusive)
+     * @param result receives the distance to point <code>from + k</code> at index k
+     */
+    void squaredDistances(double[] x, double[] y, double[] z, double px, double py, double pz, int from, int to, double[] result);
+
+    /**
+     * Squared distances between a point and a set of points referenced by index.
+     * @param x x-coordinates
+     * @param y y-coordinates
+     * @param z z-coordinates
+     * @param px x-coordinate of the point
+     * @param py y-coordinate of the point
+     * @param pz z-coordinate of the point
+     * @param indices the indices of the points
+     * @param from first index to consider (inclusive)
+     * @param to last index to consider (exclusive)
+     * @param result receives the distance to point <code>indices[from + k]</code> at index k
+     */
+    void squaredDistances(double[] x, double[] y, double[] z, double px, double py, double pz, int[] indices, int from, int to, double[] result);
+
+    /**
+     * Inner products of a centered reference block and a candidate block of the same size. The candidate does not
+     * need to be centered.
+     * @param reference the centered reference block
+     * @param candidates the array holding the candidate block
+     * @param offset the start of the candidate block
+     * @param size the number of points
+     * @param result receives 13 values: the 3x3 cross product matrix (row-major, reference in rows), the sum of
+     *               x-, y-, and z-coordinates of the candidate, and the inner product of the candidate with itself
+     */
+    void innerProduct(double[] reference, double[] candidates, int offset, int size, double[] result);
+
+    /**
+     * Centers a block in place.
+     * @param block the array holding the block
+     * @param offset the start of the block
+     * @param size the number of points
+     * @param centroid receives the centroid of the block
+     */
+    void center(double[] block, int offset, int size, double[] centroid);
+
+    /**
+     * Left-multiplies interleaved points with a 4x4 matrix. Identical to {@link Algebra#multiply4d(double[][], double[])}
+     * for each point.
+     * @param matrix4d the 4x4 matrix
+     * @param source the points
+     * @param destination receives the transformed points, may be the source
+     * @param count the number of points
+     */
+    void transform(double[][] matrix4d, double[] source, double[] destination, int count);
+
+    /**
+     * Normalized difference vectors of interleaved points, i.e. <code>normalize(to[i] - from[i])</code>.
+     * @param from the start points
+     * @param to the end points
+     * @param result receives the interleaved normal vectors, may be one of the inputs
+     * @param count the number of points
+     */
+    void normalVectors(double[] from, double[] to, double[] result, int count);
+}
@@ -0,0 +1,121 @@
+package org.rcsb.strucmotif.math;
+
+/**
+ * Scalar implementation of all kernels. Performs arithmetic in the same order as the corresponding methods of
+ * {@link Algebra}.
+ */
+class ScalarKernels implements Kernels {
+    @Override
+    public void squaredDistances(double[] x, double[] y, double[] z, double px, double py, double pz, int from, int to, double[] result) {
+        for (int i = from; i < to; i++) {
+            double dx = px - x[i];
+            double dy = py - y[i];
+            double dz = pz - z[i];
+            result[i - from] = dx * dx + dy * dy + dz * dz;
+        }
+    }
+
+    @Override
+    public void squaredDistances(double[] x, double[] y, double[] z, double px, double py, double pz, int[] indices, int from, int to, double[] result) {
+        for (int k = from; k < to; k++) {
+            int i = indices[k];
+            double dx = px - x[i];
+            double dy = py - y[i];
+            double dz = pz - z[i];
+            result[k - from] = dx * dx + dy * dy + dz * dz;
+        }
+    }
+
+    @Override
+    public void innerProduct(double[] reference, double[] candidates, int offset, int size, double[] result) {
+        int yOffset = offset + size;
+        int zOffset = yOffset + size;
+
+        double sxx = 0, sxy = 0, sxz = 0;
+        double syx = 0, syy = 0, syz = 0;
+        double szx = 0, szy = 0, szz = 0;
+        double sx = 0, sy = 0, sz = 0;
+        double ss = 0;
+        for (int i = 0; i < size; i++) {
+            double cx = candidates[offset + i];
+            double cy = candidates[yOffset + i];
+            double cz = candidates[zOffset + i];
+            double rx = reference[i];
+            double ry = reference[size + i];
+            double rz = reference[2 * size + i];
+
+            sxx += rx * cx;
+            sxy += rx * cy;
+            sxz += rx * cz;
+            syx += ry * cx;
+            syy += ry * cy;
+            syz += ry * cz;
+            szx += rz * cx;
+            szy += rz * cy;
+            szz += rz * cz;
+
+            sx += cx;
+            sy += cy;
+            sz += cz;
+            ss += cx * cx + cy * cy + cz * cz;
+        }
+
+        result[0] = sxx;
+        result[1] = sxy;
+        result[2] = sxz;
+        result[3] = syx;
+        result[4] = syy;
+        result[5] = syz;
+        result[6] = szx;
+        result[7] = szy;
+        result[8] = szz;
+        result[9] = sx;
+        result[10] = sy;
+        result[11] = sz;
+        result[12] = ss;
+    }
+
+    @Override
+    public void center(double[] block, int offset, int size, double[] centroid) {
+        for (int dimension = 0; dimension < 3; dimension++) {
+            int start = offset + dimension * size;
+            double sum = 0;
+            for (int i = start; i < start + size; i++) {
+                sum += block[i];
+            }
+            double mean = sum / size;
+            for (int i = start; i < start + size; i++) {
+                block[i] -= mean;
+            }
+            centroid[dimension] = mean;
+        }
+    }
+
+    @Override
+    public void transform(double[][] matrix4d, double[] source, double[] destination, int count) {
+        double m00 = matrix4d[0][0], m01 = matrix4d[0][1], m02 = matrix4d[0][2], m03 = matrix4d[0][3];
+        double m10 = matrix4d[1][0], m11 = matrix4d[1][1], m12 = matrix4d[1][2], m13 = matrix4d[1][3];
+        double m20 = matrix4d[2][0], m21 = matrix4d[2][1], m22 = matrix4d[2][2], m23 = matrix4d[2][3];
+        for (int i = 0; i < 3 * count; i += 3) {
+            double x = source[i];
+            double y = source[i + 1];
+            double z = source[i + 2];
+            destination[i] = m00 * x + m01 * y + m02 * z + m03;
+            destination[i + 1] = m10 * x + m11 * y + m12 * z + m13;
+            destination[i + 2] = m20 * x + m21 * y + m22 * z + m23;
+        }
+    }
+
+    @Override
+    public void normalVectors(double[] from, double[] to, double[] result, int count) {
+        for (int i = 0; i < 3 * count; i += 3) {
+            double dx = to[i] - from[i];
+            double dy = to[i + 1] - from[i + 1];
+            double dz = to[i + 2] - from[i + 2];
+            double norm = Math.sqrt(dx * dx + dy * dy + dz * dz);
+            result[i] = dx / norm;
+            result[i + 1] = dy / norm;
+            result[i + 2] = dz / norm;
+        }
+    }
+}
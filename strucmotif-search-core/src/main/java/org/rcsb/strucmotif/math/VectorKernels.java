@@ -0,0 +1,160 @@
+package org.rcsb.strucmotif.math;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernels based on the vector API. Operations without (or with rather trivial) SIMD benefit are inherited from the
+ * scalar implementation.
+ */
+class VectorKernels extends ScalarKernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public void squaredDistances(double[] x, double[] y, double[] z, double px, double py, double pz, int from, int to, double[] result) {
+        DoubleVector vx = DoubleVector.broadcast(SPECIES, px);
+        DoubleVector vy = DoubleVector.broadcast(SPECIES, py);
+        DoubleVector vz = DoubleVector.broadcast(SPECIES, pz);
+        int i = from;
+        int upperBound = from + SPECIES.loopBound(to - from);
+        for (; i < upperBound; i += SPECIES.length()) {
+            DoubleVector dx = vx.sub(DoubleVector.fromArray(SPECIES, x, i));
+            DoubleVector dy = vy.sub(DoubleVector.fromArray(SPECIES, y, i));
+            DoubleVector dz = vz.sub(DoubleVector.fromArray(SPECIES, z, i));
+            dx.mul(dx).add(dy.mul(dy)).add(dz.mul(dz)).intoArray(result, i - from);
+        }
+        for (; i < to; i++) {
+            double dx = px - x[i];
+            double dy = py - y[i];
+            double dz = pz - z[i];
+            result[i - from] = dx * dx + dy * dy + dz * dz;
+        }
+    }
+
+    @Override
+    public void squaredDistances(double[] x, double[] y, double[] z, double px, double py, double pz, int[] indices, int from, int to, double[] result) {
+        DoubleVector vx = DoubleVector.broadcast(SPECIES, px);
+        DoubleVector vy = DoubleVector.broadcast(SPECIES, py);
+        DoubleVector vz = DoubleVector.broadcast(SPECIES, pz);
+        int k = from;
+        int upperBound = from + SPECIES.loopBound(to - from);
+        for (; k < upperBound; k += SPECIES.length()) {
+            // gather
+            DoubleVector dx = vx.sub(DoubleVector.fromArray(SPECIES, x, 0, indices, k));
+            DoubleVector dy = vy.sub(DoubleVector.fromArray(SPECIES, y, 0, indices, k));
+            DoubleVector dz = vz.sub(DoubleVector.fromArray(SPECIES, z, 0, indices, k));
+            dx.mul(dx).add(dy.mul(dy)).add(dz.mul(dz)).intoArray(result, k - from);
+        }
+        for (; k < to; k++) {
+            int i = indices[k];
+            double dx = px - x[i];
+            double dy = py - y[i];
+            double dz = pz - z[i];
+            result[k - from] = dx * dx + dy * dy + dz * dz;
+        }
+    }
+
+    @Override
+    public void innerProduct(double[] reference, double[] candidates, int offset, int size, double[] result) {
+        int yOffset = offset + size;
+        int zOffset = yOffset + size;
+
+        DoubleVector sxx = DoubleVector.zero(SPECIES), sxy = sxx, sxz = sxx;
+        DoubleVector syx = sxx, syy = sxx, syz = sxx;
+        DoubleVector szx = sxx, szy = sxx, szz = sxx;
+        DoubleVector sx = sxx, sy = sxx, sz = sxx;
+        DoubleVector ss = sxx;
+        int i = 0;
+        int upperBound = SPECIES.loopBound(size);
+        for (; i < upperBound; i += SPECIES.length()) {
+            DoubleVector cx = DoubleVector.fromArray(SPECIES, candidates, offset + i);
+            DoubleVector cy = DoubleVector.fromArray(SPECIES, candidates, yOffset + i);
+            DoubleVector cz = DoubleVector.fromArray(SPECIES, candidates, zOffset + i);
+            DoubleVector rx = DoubleVector.fromArray(SPECIES, reference, i);
+            DoubleVector ry = DoubleVector.fromArray(SPECIES, reference, size + i);
+            DoubleVector rz = DoubleVector.fromArray(SPECIES, reference, 2 * size + i);
+
+            sxx = sxx.add(rx.mul(cx));
+            sxy = sxy.add(rx.mul(cy));
+            sxz = sxz.add(rx.mul(cz));
+            syx = syx.add(ry.mul(cx));
+            syy = syy.add(ry.mul(cy));
+            syz = syz.add(ry.mul(cz));
+            szx = szx.add(rz.mul(cx));
+            szy = szy.add(rz.mul(cy));
+            szz = szz.add(rz.mul(cz));
+
+            sx = sx.add(cx);
+            sy = sy.add(cy);
+            sz = sz.add(cz);
+            ss = ss.add(cx.mul(cx).add(cy.mul(cy)).add(cz.mul(cz)));
+        }
+
+        result[0] = sxx.reduceLanes(VectorOperators.ADD);
+        result[1] = sxy.reduceLanes(VectorOperators.ADD);
+        result[2] = sxz.reduceLanes(VectorOperators.ADD);
+        result[3] = syx.reduceLanes(VectorOperators.ADD);
+        result[4] = syy.reduceLanes(VectorOperators.ADD);
+        result[5] = syz.reduceLanes(VectorOperators.ADD);
+        result[6] = szx.reduceLanes(VectorOperators.ADD);
+        result[7] = szy.reduceLanes(VectorOperators.ADD);
+        result[8] = szz.reduceLanes(VectorOperators.ADD);
+        result[9] = sx.reduceLanes(VectorOperators.ADD);
+        result[10] = sy.reduceLanes(VectorOperators.ADD);
+        result[11] = sz.reduceLanes(VectorOperators.ADD);
+        result[12] = ss.reduceLanes(VectorOperators.ADD);
+
+        // tail
+        for (; i < size; i++) {
+            double cx = candidates[offset + i];
+            double cy = candidates[yOffset + i];
+            double cz = candidates[zOffset + i];
+            double rx = reference[i];
+            double ry = reference[size + i];
+            double rz = reference[2 * size + i];
+
+            result[0] += rx * cx;
+            result[1] += rx * cy;
+            result[2] += rx * cz;
+            result[3] += ry * cx;
+            result[4] += ry * cy;
+            result[5] += ry * cz;
+            result[6] += rz * cx;
+            result[7] += rz * cy;
+            result[8] += rz * cz;
+
+            result[9] += cx;
+            result[10] += cy;
+            result[11] += cz;
+            result[12] += cx * cx + cy * cy + cz * cz;
+        }
+    }
+
+    @Override
+    public void center(double[] block, int offset, int size, double[] centroid) {
+        int upperBound = SPECIES.loopBound(size);
+        for (int dimension = 0; dimension < 3; dimension++) {
+            int start = offset + dimension * size;
+            DoubleVector sums = DoubleVector.zero(SPECIES);
+            int i = 0;
+            for (; i < upperBound; i += SPECIES.length()) {
+                sums = sums.add(DoubleVector.fromArray(SPECIES, block, start + i));
+            }
+            double sum = sums.reduceLanes(VectorOperators.ADD);
+            for (; i < size; i++) {
+                sum += block[start + i];
+            }
+
+            double mean = sum / size;
+            i = 0;
+            for (; i < upperBound; i += SPECIES.length()) {
+                DoubleVector.fromArray(SPECIES, block, start + i).sub(mean).intoArray(block, start + i);
+            }
+            for (; i < size; i++) {
+                block[start + i] -= mean;
+            }
+            centroid[dimension] = mean;
+        }
+    }
+}
@@ -20,10 +20,15 @@ import java.io.InputStream;
 import java.io.UncheckedIOException;
 import java.nio.file.FileVisitOption;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -34,30 +39,30 @@ import java.util.stream.Stream;
 
 /**
  * The naive file-system-based implementation of the inverted index.
+ * <p>Staged indices are written to a sibling directory of <code>index</code>. Committing replaces <code>index</code> by
+ * a symbolic link to that directory, an existing link is replaced atomically.
  */
 @Service
 public class FileSystemInvertedIndex implements InvertedIndex {
     private static final Logger logger = LoggerFactory.getLogger(FileSystemInvertedIndex.class);
     private static final Map<String, ResidueType> OLC_LOOKUP = Stream.of(ResidueType.values())
             .collect(Collectors.toMap(ResidueType::getOneLetterCode, Function.identity()));
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private final Path rootPath;
     private final Path basePath;
+    private volatile Path stagingPath;
 
     public FileSystemInvertedIndex(MotifSearchConfig motifSearchConfig) {
-        this.basePath = Paths.get(motifSearchConfig.getRootPath()).resolve(MotifSearchConfig.INDEX_DIRECTORY);
+        this.rootPath = Paths.get(motifSearchConfig.getRootPath());
+        this.basePath = rootPath.resolve(MotifSearchConfig.INDEX_DIRECTORY);
 
-        ensureDirectoriesExist();
+        ensureDirectoriesExist(basePath);
     }
 
     @Override
     public void insert(ResiduePairDescriptor residuePairDescriptor, Map<StructureIdentifier, Collection<ResiduePairIdentifier>> residuePairOccurrences) {
         try {
-            Map<String, Object> data = residuePairOccurrences.entrySet()
-                    .stream()
-                    .collect(Collectors.toMap(entry -> entry.getKey().getPdbId(),
-                            entry -> entry.getValue()
-                                    .stream()
-                                    .map(this::createObjectArray)
-                                    .toArray()));
+            Map<String, Object> data = createData(residuePairOccurrences);
 
             Map<String, Object> map = getMap(residuePairDescriptor);
 
@@ -66,14 +71,206 @@ public class FileSystemInvertedIndex implements InvertedIndex {
 
             // serialize message
             byte[] bytes = MessagePackCodec.encode(data);
-            Path path = getPath(residuePairDescriptor);
+            Path path = getPath(basePath, residuePairDescriptor);
 
-            Files.write(path, bytes);
+            write(path, bytes);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
 
+    /**
+     * Replace a bin atomically: an interrupted write must not leave a truncated bin, which would be read as empty and
+     * lose the data of all other structures once the bin is written again.
+     * @param path the bin
+     * @param bytes its content
+     * @throws IOException if writing fails
+     */
+    private void write(Path path, byte[] bytes) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + TEMPORARY_SUFFIX);
+        Files.write(temporary, bytes);
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Map<String, Object> createData(Map<StructureIdentifier, Collection<ResiduePairIdentifier>> residuePairOccurrences) {
+        return residuePairOccurrences.entrySet()
+                .stream()
+                .collect(Collectors.toMap(entry -> entry.getKey().getPdbId(),
+                        entry -> entry.getValue()
+                                .stream()
+                                .map(this::createObjectArray)
+                                .toArray()));
+    }
+
+    @Override
+    public void insertStaged(ResiduePairDescriptor residuePairDescriptor, Map<StructureIdentifier, Collection<ResiduePairIdentifier>> residuePairOccurrences) {
+        try {
+            byte[] bytes = MessagePackCodec.encode(createData(residuePairOccurrences));
+            Files.write(getPath(getStagingPath(), residuePairDescriptor), bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void insertStagedSegments(Collection<Path> segments) {
+        Path stagingPath = getStagingPath();
+        List<Path> segmentPaths = segments.stream()
+                .map(segment -> segment.resolve(MotifSearchConfig.INDEX_DIRECTORY))
+                .collect(Collectors.toList());
+        logger.info("Merging {} index segments", segmentPaths.size());
+
+        try (Stream<Path> uberbins = Files.list(stagingPath)) {
+            AtomicInteger counter = new AtomicInteger();
+            // structures of segments are disjoint: the bins of all segments are combined without looking at their content
+            uberbins.collect(Collectors.toList())
+                    .parallelStream()
+                    .forEach(uberbin -> {
+                        String name = uberbin.getFileName().toString();
+                        Map<String, List<Path>> bins = new HashMap<>();
+                        for (Path segmentPath : segmentPaths) {
+                            Path directory = segmentPath.resolve(name);
+                            if (!Files.isDirectory(directory)) {
+                                continue;
+                            }
+                            try (Stream<Path> paths = Files.list(directory)) {
+                                paths.filter(path -> path.toString().endsWith(".msg"))
+                                        .forEach(path -> bins.computeIfAbsent(path.getFileName().toString(), k -> new ArrayList<>()).add(path));
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        }
+
+                        for (Map.Entry<String, List<Path>> bin : bins.entrySet()) {
+                            mergeBin(bin.getValue(), uberbin.resolve(bin.getKey()));
+                        }
+                        if (counter.incrementAndGet() % 100 == 0) {
+                            logger.info("{} directories of inverted index merged",
+                                    counter.get());
+                        }
+                    });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void mergeBin(List<Path> sources, Path destination) {
+        try {
+            if (sources.size() == 1) {
+                Files.copy(sources.get(0), destination, StandardCopyOption.REPLACE_EXISTING);
+                return;
+            }
+
+            Map<String, Object> data = new HashMap<>();
+            for (Path source : sources) {
+                try (InputStream inputStream = new BufferedInputStream(Files.newInputStream(source), 65536)) {
+                    data.putAll(MessagePackCodec.decode(inputStream));
+                }
+            }
+            Files.write(destination, MessagePackCodec.encode(data));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Path getStagingPath() {
+        Path stagingPath = this.stagingPath;
+        if (stagingPath != null) {
+            return stagingPath;
+        }
+
+        synchronized (this) {
+            if (this.stagingPath == null) {
+                Path current = getCurrentPath();
+                // remove leftovers of staged indices that were never committed
+                try (Stream<Path> siblings = Files.list(rootPath)) {
+                    for (Path sibling : (Iterable<Path>) siblings::iterator) {
+                        if (isStagingPath(sibling) && !sibling.equals(current)) {
+                            deleteRecursively(sibling);
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+
+                Path path = rootPath.resolve(MotifSearchConfig.INDEX_DIRECTORY + "-" + System.currentTimeMillis());
+                ensureDirectoriesExist(path);
+                logger.info("Staging inverted index at {}", path);
+                this.stagingPath = path;
+            }
+            return this.stagingPath;
+        }
+    }
+
+    private boolean isStagingPath(Path path) {
+        return path.getFileName().toString().startsWith(MotifSearchConfig.INDEX_DIRECTORY + "-") && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS);
+    }
+
+    /**
+     * The directory that holds the bins of the index.
+     * @return the target of the link or the directory itself
+     */
+    private Path getCurrentPath() {
+        try {
+            return Files.isSymbolicLink(basePath) ? rootPath.resolve(Files.readSymbolicLink(basePath)) : basePath;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void commitStaged() {
+        commitStaged(getStagedName());
+    }
+
+    @Override
+    public String getStagedName() {
+        return getStagingPath().getFileName().toString();
+    }
+
+    @Override
+    public synchronized void commitStaged(String stagedName) {
+        Path stagingPath = rootPath.resolve(stagedName);
+        try {
+            Path previous = getCurrentPath();
+            if (previous.equals(stagingPath)) {
+                logger.info("Staged inverted index {} is already committed", stagingPath);
+                this.stagingPath = null;
+                return;
+            }
+            if (!isStagingPath(stagingPath)) {
+                throw new IllegalStateException("No staged inverted index at " + stagingPath);
+            }
+
+            Path link = rootPath.resolve(MotifSearchConfig.INDEX_DIRECTORY + ".link");
+            Files.deleteIfExists(link);
+            Files.createSymbolicLink(link, stagingPath.getFileName());
+
+            if (!Files.isSymbolicLink(basePath) && Files.exists(basePath)) {
+                // a directory cannot be replaced atomically: this happens once when moving away from a plain directory
+                previous = rootPath.resolve(MotifSearchConfig.INDEX_DIRECTORY + "-" + System.currentTimeMillis() + "-previous");
+                Files.move(basePath, previous);
+            }
+            Files.move(link, basePath, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Committed staged inverted index {}", stagingPath);
+
+            if (!previous.equals(basePath)) {
+                deleteRecursively(previous);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.stagingPath = null;
+    }
+
+    private void deleteRecursively(Path path) throws IOException {
+        try (Stream<Path> paths = Files.walk(path)) {
+            for (Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+
     @Override
     public Stream<Pair<StructureIdentifier, ResiduePairIdentifier[]>> select(ResiduePairDescriptor residuePairDescriptor) {
         try {
@@ -137,14 +334,14 @@ public class FileSystemInvertedIndex implements InvertedIndex {
     }
 
     protected InputStream getInputStream(ResiduePairDescriptor residuePairDescriptor) throws IOException {
-        Path path = getPath(residuePairDescriptor);
+        Path path = getPath(basePath, residuePairDescriptor);
         return new BufferedInputStream(Files.newInputStream(path), 65536);
     }
 
-    private Path getPath(ResiduePairDescriptor residuePairDescriptor) {
+    private Path getPath(Path directory, ResiduePairDescriptor residuePairDescriptor) {
         String bin = residuePairDescriptor.toString();
         String uberbin = bin.substring(0, 2);
-        return basePath.resolve(uberbin).resolve(bin + ".msg");
+        return directory.resolve(uberbin).resolve(bin + ".msg");
     }
 
     private Map<String, Object> getMap(ResiduePairDescriptor residuePairDescriptor) {
@@ -166,8 +363,8 @@ public class FileSystemInvertedIndex implements InvertedIndex {
             // walk whole lookup
             Files.walk(basePath, FileVisitOption.FOLLOW_LINKS)
                     .parallel()
-                    // ignore directories
-                    .filter(path -> !Files.isDirectory(path))
+                    // ignore directories and leftovers of interrupted writes
+                    .filter(path -> !Files.isDirectory(path) && path.toString().endsWith(".msg"))
                     .peek(path -> {
                         if (counter.incrementAndGet() % 10000 == 0) {
                             logger.info("{} bins of inverted index cleaned",
@@ -181,6 +378,18 @@ public class FileSystemInvertedIndex implements InvertedIndex {
         }
     }
 
+    @Override
+    public void delete(Map<ResiduePairDescriptor, Collection<StructureIdentifier>> removals) {
+        logger.info("Removing structures from {} bins of inverted index", removals.size());
+
+        removals.entrySet()
+                .parallelStream()
+                .forEach(entry -> delete(entry.getKey(), entry.getValue()
+                        .stream()
+                        .map(StructureIdentifier::getPdbId)
+                        .collect(Collectors.toSet())));
+    }
+
     private ResiduePairDescriptor createResiduePairDescriptor(Path path) {
         String name = path.toFile().getName();
         String[] split = name.split("\\.")[0].split("-");
@@ -210,15 +419,15 @@ public class FileSystemInvertedIndex implements InvertedIndex {
 
             // serialize message
             byte[] bytes = MessagePackCodec.encode(filteredMap);
-            Path path = getPath(residuePairDescriptor);
+            Path path = getPath(basePath, residuePairDescriptor);
 
-            Files.write(path, bytes);
+            write(path, bytes);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
 
-    private void ensureDirectoriesExist() {
+    private void ensureDirectoriesExist(Path basePath) {
         try {
             List<String> oneLetterCodes = Stream.of(ResidueType.values())
                     .map(ResidueType::getOneLetterCode)
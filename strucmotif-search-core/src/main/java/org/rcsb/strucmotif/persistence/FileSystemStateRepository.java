@@ -4,125 +4,301 @@ import org.rcsb.strucmotif.config.MotifSearchConfig;
 import org.rcsb.strucmotif.domain.Pair;
 import org.rcsb.strucmotif.domain.Revision;
 import org.rcsb.strucmotif.domain.identifier.StructureIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
-import java.io.FileWriter;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+/**
+ * Keeps the state in memory and persists it as snapshot plus append-only log. The snapshot consists of the
+ * <code>known.list</code> and <code>dirty.list</code> files. Each modification appends its operations followed by a
+ * commit marker to <code>state.log</code> and is synced before it is applied, so batches are atomic: operations without
+ * commit marker (e.g. of an interrupted write) are ignored when the log is replayed. A failed write leaves such
+ * operations behind, so each modification first truncates the log to the end of the last committed batch. Once the log
+ * grows large, a new snapshot is written and the log is truncated.
+ * <p>Operations are idempotent, replaying the log over a snapshot that already contains some of its operations yields
+ * the same state. State is loaded on first access.
+ */
 @Service
 public class FileSystemStateRepository implements StateRepository {
+    private static final Logger logger = LoggerFactory.getLogger(FileSystemStateRepository.class);
     private static final String DELIMITER = ",";
+    private static final String INSERT_KNOWN = "K+";
+    private static final String DELETE_KNOWN = "K-";
+    private static final String INSERT_DIRTY = "D+";
+    private static final String DELETE_DIRTY = "D-";
+    private static final String COMMIT = "C";
+    private static final int COMPACTION_THRESHOLD = 100000;
     private final Path knownPath;
     private final Path dirtyPath;
+    private final Path logPath;
+    private Map<StructureIdentifier, Revision> known;
+    private Set<StructureIdentifier> dirty;
+    private int logSize;
+    private long logLength;
 
     public FileSystemStateRepository(MotifSearchConfig motifSearchConfig) {
         Path rootPath = Paths.get(motifSearchConfig.getRootPath());
         this.knownPath = rootPath.resolve(MotifSearchConfig.STATE_KNOWN_LIST);
         this.dirtyPath = rootPath.resolve(MotifSearchConfig.STATE_DIRTY_LIST);
+        this.logPath = rootPath.resolve(MotifSearchConfig.STATE_LOG);
     }
 
     @Override
-    public Collection<Pair<StructureIdentifier, Revision>> selectKnown() {
-        try {
-            return Files.lines(knownPath)
-                    .map(line -> line.split(DELIMITER))
-                    .map(split -> new Pair<>(new StructureIdentifier(split[0]), new Revision(Integer.parseInt(split[1]), Integer.parseInt(split[2]))))
-                    .collect(Collectors.toSet());
-        } catch (IOException e) {
-            return Collections.emptySet();
-        }
+    public synchronized Collection<Pair<StructureIdentifier, Revision>> selectKnown() {
+        ensureLoaded();
+        return known.entrySet()
+                .stream()
+                .map(entry -> new Pair<>(entry.getKey(), entry.getValue()))
+                .collect(Collectors.toList());
     }
 
     @Override
-    public Collection<StructureIdentifier> selectDirty() {
-        if (Files.exists(dirtyPath)) {
-            return select(dirtyPath);
-        } else {
-            return Collections.emptySet();
-        }
+    public synchronized boolean isKnown(StructureIdentifier structureIdentifier) {
+        ensureLoaded();
+        return known.containsKey(structureIdentifier);
     }
 
-    private Set<StructureIdentifier> select(Path source) {
-        try {
-            return Files.lines(source)
-                    .map(StructureIdentifier::new)
-                    .collect(Collectors.toSet());
-        } catch (IOException e) {
-            return Collections.emptySet();
-        }
+    @Override
+    public synchronized Collection<StructureIdentifier> selectDirty() {
+        ensureLoaded();
+        return new ArrayList<>(dirty);
     }
 
     @Override
     public void insertKnown(Collection<Pair<StructureIdentifier, Revision>> additions) {
-        try {
-            FileWriter writer = new FileWriter(knownPath.toFile(), true);
-            for (Pair<StructureIdentifier, Revision> addition : additions) {
-                // let's concat externally in case 'append' invocation from multiple threads race
-                String update = addition.getFirst().getPdbId() + DELIMITER + addition.getSecond().getMajor() + DELIMITER + addition.getSecond().getMinor() + "\n";
-                writer.append(update);
+        commit(insertKnownOperations(additions));
+    }
+
+    @Override
+    public void insertDirty(Collection<StructureIdentifier> additions) {
+        commit(operations(INSERT_DIRTY, additions));
+    }
+
+    @Override
+    public void deleteKnown(Collection<StructureIdentifier> removals) {
+        commit(operations(DELETE_KNOWN, removals));
+    }
+
+    @Override
+    public void deleteDirty(Collection<StructureIdentifier> removals) {
+        commit(operations(DELETE_DIRTY, removals));
+    }
+
+    @Override
+    public void delete(Collection<StructureIdentifier> removals) {
+        List<String> operations = operations(DELETE_KNOWN, removals);
+        operations.addAll(operations(DELETE_DIRTY, removals));
+        commit(operations);
+    }
+
+    @Override
+    public synchronized void replaceKnown(Collection<Pair<StructureIdentifier, Revision>> known) {
+        ensureLoaded();
+        List<String> operations = operations(DELETE_KNOWN, this.known.keySet());
+        operations.addAll(operations(DELETE_DIRTY, dirty));
+        operations.addAll(insertKnownOperations(known));
+        commit(operations);
+    }
+
+    private List<String> insertKnownOperations(Collection<Pair<StructureIdentifier, Revision>> additions) {
+        return additions.stream()
+                .map(addition -> INSERT_KNOWN + DELIMITER + addition.getFirst().getPdbId() + DELIMITER + addition.getSecond().getMajor() + DELIMITER + addition.getSecond().getMinor())
+                .collect(Collectors.toList());
+    }
+
+    private List<String> operations(String type, Collection<StructureIdentifier> structureIdentifiers) {
+        return structureIdentifiers.stream()
+                .map(structureIdentifier -> type + DELIMITER + structureIdentifier.getPdbId())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Append a batch of operations to the log, then apply them.
+     * @param operations the batch
+     */
+    private synchronized void commit(List<String> operations) {
+        if (operations.isEmpty()) {
+            return;
+        }
+
+        ensureLoaded();
+        StringBuilder batch = new StringBuilder();
+        for (String operation : operations) {
+            batch.append(operation).append("\n");
+        }
+        batch.append(COMMIT).append("\n");
+
+        try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // drop remains of a failed write: they were never applied and would become part of this batch
+            if (channel.size() > logLength) {
+                logger.warn("Discarding {} bytes of failed write to state log",
+                        channel.size() - logLength);
+                channel.truncate(logLength);
+            }
+            channel.position(channel.size());
+            ByteBuffer byteBuffer = ByteBuffer.wrap(batch.toString().getBytes(StandardCharsets.UTF_8));
+            while (byteBuffer.hasRemaining()) {
+                channel.write(byteBuffer);
             }
-            writer.close();
+            channel.force(false);
+            logLength = channel.position();
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
+
+        for (String operation : operations) {
+            apply(operation);
+        }
+        logSize += operations.size();
+        if (logSize > Math.max(COMPACTION_THRESHOLD, known.size())) {
+            compact();
+        }
     }
 
-    @Override
-    public void insertDirty(Collection<StructureIdentifier> additions) {
-        insert(additions, dirtyPath);
+    private void apply(String operation) {
+        String[] split = operation.split(DELIMITER);
+        StructureIdentifier structureIdentifier = new StructureIdentifier(split[1]);
+        switch (split[0]) {
+            case INSERT_KNOWN:
+                known.put(structureIdentifier, new Revision(Integer.parseInt(split[2]), Integer.parseInt(split[3])));
+                break;
+            case DELETE_KNOWN:
+                known.remove(structureIdentifier);
+                break;
+            case INSERT_DIRTY:
+                dirty.add(structureIdentifier);
+                break;
+            case DELETE_DIRTY:
+                dirty.remove(structureIdentifier);
+                break;
+            default:
+                throw new IllegalStateException("Unknown operation in state log: " + operation);
+        }
     }
 
-    private void insert(Collection<StructureIdentifier> additions, Path destination) {
+    private void ensureLoaded() {
+        if (known != null) {
+            return;
+        }
+
+        known = new LinkedHashMap<>();
+        dirty = new LinkedHashSet<>();
         try {
-            FileWriter writer = new FileWriter(destination.toFile(), true);
-            for (StructureIdentifier structureIdentifier : additions) {
-                // let's concat externally in case 'append' invocation from multiple threads race
-                String update = structureIdentifier.getPdbId() + "\n";
-                writer.append(update);
+            if (Files.exists(knownPath)) {
+                try (BufferedReader reader = Files.newBufferedReader(knownPath)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.isEmpty()) {
+                            continue;
+                        }
+                        String[] split = line.split(DELIMITER);
+                        known.put(new StructureIdentifier(split[0]), new Revision(Integer.parseInt(split[1]), Integer.parseInt(split[2])));
+                    }
+                }
+            }
+            if (Files.exists(dirtyPath)) {
+                try (BufferedReader reader = Files.newBufferedReader(dirtyPath)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (!line.isEmpty()) {
+                            dirty.add(new StructureIdentifier(line));
+                        }
+                    }
+                }
+            }
+            if (Files.exists(logPath)) {
+                replay();
             }
-            writer.close();
         } catch (IOException e) {
+            known = null;
+            dirty = null;
             throw new UncheckedIOException(e);
         }
     }
 
-    @Override
-    public void deleteKnown(Collection<StructureIdentifier> removals) {
-        delete(removals, knownPath);
-    }
-
-    @Override
-    public void deleteDirty(Collection<StructureIdentifier> removals) {
-        if (Files.exists(dirtyPath)) {
-            delete(removals, dirtyPath);
-        } else {
-            try {
-                Files.createFile(dirtyPath);
-            } catch (IOException e) {
-                throw new UncheckedIOException(e);
+    private void replay() throws IOException {
+        List<String> batch = new ArrayList<>();
+        int batches = 0;
+        try (BufferedReader reader = Files.newBufferedReader(logPath)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.equals(COMMIT)) {
+                    batch.forEach(this::apply);
+                    logSize += batch.size();
+                    batch.clear();
+                    batches++;
+                } else {
+                    batch.add(line);
+                }
             }
         }
+
+        if (!batch.isEmpty()) {
+            logger.warn("Ignoring {} uncommitted operations of state log",
+                    batch.size());
+        }
+        logger.info("Replayed {} batches of state log",
+                batches);
+        // start with fresh log, which also drops uncommitted operations
+        compact();
     }
 
-    private void delete(Collection<StructureIdentifier> removals, Path destination) {
-        Set<String> identifiers = removals.stream()
-                .map(StructureIdentifier::getPdbId)
-                .collect(Collectors.toSet());
+    /**
+     * Write a new snapshot and truncate the log. Each file is replaced atomically, the log is only truncated once both
+     * are replaced.
+     */
+    private void compact() {
         try {
-            String output = Files.lines(destination)
-                    .filter(line -> identifiers.stream().noneMatch(line::startsWith))
-                    .collect(Collectors.joining("\n", "", "\n"));
-            Files.write(destination, output.getBytes());
+            writeSnapshot(knownPath, known.entrySet()
+                    .stream()
+                    .map(entry -> entry.getKey().getPdbId() + DELIMITER + entry.getValue().getMajor() + DELIMITER + entry.getValue().getMinor())
+                    .collect(Collectors.toList()));
+            writeSnapshot(dirtyPath, dirty.stream()
+                    .map(StructureIdentifier::getPdbId)
+                    .collect(Collectors.toList()));
+            Files.deleteIfExists(logPath);
+            logSize = 0;
+            logLength = 0;
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
+
+    private void writeSnapshot(Path path, List<String> lines) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileOutputStream fileOutputStream = new FileOutputStream(temporary.toFile());
+             Writer writer = new BufferedWriter(new OutputStreamWriter(fileOutputStream, StandardCharsets.UTF_8))) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write("\n");
+            }
+            writer.flush();
+            fileOutputStream.getFD().sync();
+        }
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
 }
@@ -5,6 +5,7 @@ import org.rcsb.strucmotif.domain.identifier.StructureIdentifier;
 import org.rcsb.strucmotif.domain.motif.ResiduePairDescriptor;
 import org.rcsb.strucmotif.domain.motif.ResiduePairIdentifier;
 
+import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Map;
 import java.util.stream.Stream;
@@ -15,7 +16,8 @@ import java.util.stream.Stream;
  */
 public interface InvertedIndex {
     /**
-     * Insert operation for new data.
+     * Insert operation for new data. Present data of a structure wins: occurrences of structures that are already
+     * part of this bin are ignored, so inserting the same data again leaves the bin unchanged.
      * @param residuePairDescriptor the bin for which new data should be written
      * @param residuePairOccurrences the data to append to this bin - keys are pdbIds, values are all words of this descriptor
      */
@@ -33,4 +35,46 @@ public interface InvertedIndex {
      * @param structureIdentifiers what to remove
      */
     void delete(Collection<StructureIdentifier> structureIdentifiers);
+
+    /**
+     * Removes structures from a known set of bins. Other than {@link #delete(Collection)}, only the given bins are
+     * touched, so all bins which reference a structure must be provided.
+     * @param removals the affected bins and the structures to remove from each of them
+     */
+    void delete(Map<ResiduePairDescriptor, Collection<StructureIdentifier>> removals);
+
+    /**
+     * Write a bin of a new index that is built from scratch (e.g. for a complete rebuild). The new index is invisible
+     * until {@link #commitStaged()} is called. Other than {@link #insert(ResiduePairDescriptor, Map)}, present data is
+     * not read: each bin must be written at most once.
+     * @param residuePairDescriptor the bin
+     * @param residuePairOccurrences all data of this bin - keys are pdbIds, values are all words of this descriptor
+     */
+    void insertStaged(ResiduePairDescriptor residuePairDescriptor, Map<StructureIdentifier, Collection<ResiduePairIdentifier>> residuePairOccurrences);
+
+    /**
+     * Stage the union of indices that were built independently for disjoint sets of structures (e.g. by several
+     * processes). Each bin is written once, the result is invisible until {@link #commitStaged()} is called.
+     * @param segments root paths of the indices, which must have been written by the same implementation
+     */
+    void insertStagedSegments(Collection<Path> segments);
+
+    /**
+     * Atomically replace this index by all bins written by {@link #insertStaged(ResiduePairDescriptor, Map)}.
+     */
+    void commitStaged();
+
+    /**
+     * Identifies the staged index. The name remains valid across processes, so a commit that was interrupted can be
+     * completed by {@link #commitStaged(String)}.
+     * @return the name of the staged index
+     */
+    String getStagedName();
+
+    /**
+     * Atomically replace this index by a staged index, which may have been written by another process. Does nothing if
+     * that index is already the current one.
+     * @param stagedName the name of the staged index, see {@link #getStagedName()}
+     */
+    void commitStaged(String stagedName);
 }
@@ -12,6 +12,7 @@ import java.util.Collection;
  *     <li><b>known:</b> entries that have been processed (might become invalid if e.g. alpha carbon trace)</li>
  *     <li><b>dirty:</b> all identifiers that could cause a corrupted state (if update fails during inverted index writing) - useful to recover</li>
  * </ul>
+ * Each modification is atomic: either all or none of its ids are inserted or removed.
  */
 public interface StateRepository {
     /**
@@ -20,6 +21,13 @@ public interface StateRepository {
      */
     Collection<Pair<StructureIdentifier, Revision>> selectKnown();
 
+    /**
+     * Check whether an entry is registered.
+     * @param structureIdentifier the id
+     * @return true if this id is part of the 'known' collection
+     */
+    boolean isKnown(StructureIdentifier structureIdentifier);
+
     /**
      * The set of currently 'dirty' ids. Will be populated when update starts and emptied upon successful completion.
      * Problematic if not the empty set after an update.
@@ -50,4 +58,17 @@ public interface StateRepository {
      * @param removals a collection of ids
      */
     void deleteDirty(Collection<StructureIdentifier> removals);
+
+    /**
+     * Remove from both 'known' and 'dirty' collection in a single modification.
+     * @param removals a collection of ids
+     */
+    void delete(Collection<StructureIdentifier> removals);
+
+    /**
+     * Replace the whole state in a single modification: afterwards, exactly the given entries are 'known' and the
+     * 'dirty' collection is empty (e.g. once a rebuilt index replaced the previous one).
+     * @param known all ids and their corresponding revision
+     */
+    void replaceKnown(Collection<Pair<StructureIdentifier, Revision>> known);
 }
@@ -5,6 +5,7 @@ import org.junit.jupiter.api.Test;
 import org.rcsb.strucmotif.Helpers;
 import org.rcsb.strucmotif.domain.AlignmentResult;
 import org.rcsb.strucmotif.domain.AtomPairingScheme;
+import org.rcsb.strucmotif.domain.AtomPairingTemplate;
 import org.rcsb.strucmotif.domain.identifier.AtomIdentifier;
 import org.rcsb.strucmotif.domain.identifier.ResidueIdentifier;
 import org.rcsb.strucmotif.domain.selection.LabelSelection;
@@ -17,6 +18,7 @@ import org.rcsb.strucmotif.io.read.StructureReaderImpl;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
@@ -69,6 +71,42 @@ public class QuaternionAlignmentTest {
         assertEquals(0.719106, alignmentResult.getRootMeanSquareDeviation().value(), Helpers.DELTA);
     }
 
+    @Test
+    public void whenPreparedReference_thenBatchMatchesSingleAlignments() {
+        List<double[]> reference = List.of(new double[] { -2.803, -15.373, 24.556 },
+                new double[] { 0.893, -16.062, 25.147 },
+                new double[] { 1.368, -12.371, 25.885 },
+                new double[] { -1.651, -12.153, 28.177 },
+                new double[] { -0.440, -15.218, 30.068 },
+                new double[] { 2.551, -13.273, 31.372 },
+                new double[] { 0.105, -11.330, 33.567 });
+        List<double[]> candidate = List.of(new double[] { -14.739, -18.673, 15.040 },
+                new double[] { -12.473, -15.810, 16.074 },
+                new double[] { -14.802, -13.307, 14.408 },
+                new double[] { -17.782, -14.852, 16.171 },
+                new double[] { -16.124, -14.617, 19.584 },
+                new double[] { -15.029, -11.037, 18.902 },
+                new double[] { -18.577, -10.001, 17.996 });
+
+        // batch of 2: the candidate and the reference itself
+        int size = reference.size();
+        double[] batch = new double[6 * size];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < 3; j++) {
+                batch[j * size + i] = candidate.get(i)[j];
+                batch[3 * size + j * size + i] = reference.get(i)[j];
+            }
+        }
+
+        PreparedReference preparedReference = alignmentService.prepare(reference);
+        double[] rmsds = preparedReference.rootMeanSquareDeviations(batch);
+        assertEquals(0.719106, rmsds[0], Helpers.DELTA);
+        assertEquals(0.0, rmsds[1], Helpers.DELTA);
+
+        double[] transformation = flatten(preparedReference.align(batch).get(1).getFirst().getTransformationMatrix());
+        assertArrayEquals(flatten(IDENTITY_MATRIX_4D), transformation, Helpers.DELTA);
+    }
+
     @Test
     public void whenSelfAlign_thenRmsdIsZeroAndTransformationIsIdentity() {
         List<Residue> container1 = List.of(create("HIS", new double[] { 6.994, 8.354, 42.405 }),
@@ -148,6 +186,38 @@ public class QuaternionAlignmentTest {
         assertEquals(2.211, result.getRootMeanSquareDeviation().value(), Helpers.DELTA);
     }
 
+    @Test
+    public void whenAminopeptidaseExampleWithTemplate_thenRmsdMatches() {
+        Structure structure1 = structureReader.readFromInputStream(getOriginalBcif("1lap"),
+                List.of(new LabelSelection("A", "1", 250),
+                        new LabelSelection("A", "1", 255),
+                        new LabelSelection("A", "1", 273),
+                        new LabelSelection("A", "1", 332),
+                        new LabelSelection("A", "1", 334)));
+        Structure structure2 = structureReader.readFromInputStream(getOriginalBcif("3pei"),
+                List.of(new LabelSelection("A", "1", 251),
+                        new LabelSelection("A", "1", 256),
+                        new LabelSelection("A", "1", 274),
+                        new LabelSelection("A", "1", 333),
+                        new LabelSelection("A", "1", 335)));
+
+        List<Residue> residues1 = structure1.getChains().stream().map(Chain::getResidues).flatMap(Collection::stream).collect(Collectors.toList());
+        List<Residue> residues2 = structure2.getChains().stream().map(Chain::getResidues).flatMap(Collection::stream).collect(Collectors.toList());
+
+        // values of the implementation prior to templates
+        Map<AtomPairingScheme, Double> expected = Map.of(AtomPairingScheme.ALL, 2.2105,
+                AtomPairingScheme.ALPHA_CARBON, 1.2797,
+                AtomPairingScheme.BETA_CARBON, 2.2305,
+                AtomPairingScheme.BACKBONE, 1.2549,
+                AtomPairingScheme.SIDE_CHAIN, 3.0729,
+                AtomPairingScheme.PSEUDO_ATOMS, 1.8468);
+        for (AtomPairingScheme atomPairingScheme : AtomPairingScheme.values()) {
+            AtomPairingTemplate atomPairingTemplate = new AtomPairingTemplate(residues1, atomPairingScheme);
+            AlignmentResult actual = alignmentService.align(atomPairingTemplate, residues2);
+            assertEquals(expected.get(atomPairingScheme), actual.getRootMeanSquareDeviation().value(), Helpers.DELTA, atomPairingScheme.name());
+        }
+    }
+
     private double[] flatten(double[][] transformation) {
         double[] re = new double[16];
 
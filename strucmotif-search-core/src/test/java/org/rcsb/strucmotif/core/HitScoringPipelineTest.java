@@ -0,0 +1,201 @@
+package org.rcsb.strucmotif.core;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.rcsb.strucmotif.config.MotifSearchConfig;
+import org.rcsb.strucmotif.domain.AtomPairingScheme;
+import org.rcsb.strucmotif.domain.identifier.StructureIdentifier;
+import org.rcsb.strucmotif.domain.motif.ResiduePairIdentifier;
+import org.rcsb.strucmotif.domain.result.Hit;
+import org.rcsb.strucmotif.domain.result.SimpleHit;
+import org.rcsb.strucmotif.domain.result.TransformedHit;
+import org.rcsb.strucmotif.domain.score.RootMeanSquareDeviation;
+import org.rcsb.strucmotif.domain.structure.Structure;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntPredicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HitScoringPipelineTest {
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+    private static final double RMSD_CUTOFF = 1;
+    private static final int PREFETCH_SIZE = 4;
+    private ThreadPool threadPool;
+
+    @BeforeEach
+    public void init() {
+        MotifSearchConfig motifSearchConfig = new MotifSearchConfig();
+        motifSearchConfig.setNumberThreads(4);
+        motifSearchConfig.setPrefetchThreads(4);
+        threadPool = new ThreadPoolImpl(motifSearchConfig);
+    }
+
+    private static List<SimpleHit> createCandidates(int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> new SimpleHit(new StructureIdentifier(String.format("%dabc", i)), List.of(), null, new ResiduePairIdentifier[0]))
+                .collect(Collectors.toList());
+    }
+
+    private static List<String> getPdbIds(List<? extends Hit> hits) {
+        return hits.stream()
+                .map(hit -> hit.getStructureIdentifier().getPdbId())
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void whenScoringCompletesOutOfOrder_thenHitsAreReportedInCandidateOrder() throws Exception {
+        List<SimpleHit> candidates = createCandidates(20);
+        // earlier candidates take longer, odd candidates are rejected
+        StubHitScorer hitScorer = new StubHitScorer(candidates, i -> i % 2 == 1, -1) {
+            @Override
+            void read(int index) throws InterruptedException {
+                Thread.sleep(2L * (candidates.size() - index));
+            }
+        };
+
+        List<TransformedHit> hits = assertTimeoutPreemptively(TIMEOUT, () -> new HitScoringPipeline(threadPool, hitScorer, PREFETCH_SIZE).score(candidates, RMSD_CUTOFF, Integer.MAX_VALUE));
+
+        assertEquals(getPdbIds(IntStream.range(0, candidates.size())
+                .filter(i -> i % 2 == 0)
+                .mapToObj(candidates::get)
+                .collect(Collectors.toList())), getPdbIds(hits));
+        assertEquals(candidates.size(), hitScorer.reads.get());
+    }
+
+    @Test
+    public void whenLimitIsReached_thenNoFurtherStructuresAreRead() throws Exception {
+        List<SimpleHit> candidates = createCandidates(100);
+        // the first candidate is rejected, so 4 candidates must be scored
+        StubHitScorer hitScorer = new StubHitScorer(candidates, i -> i == 0, -1) {
+            @Override
+            void read(int index) throws InterruptedException {
+                Thread.sleep(1);
+            }
+        };
+
+        List<TransformedHit> hits = assertTimeoutPreemptively(TIMEOUT, () -> new HitScoringPipeline(threadPool, hitScorer, PREFETCH_SIZE).score(candidates, RMSD_CUTOFF, 3));
+
+        assertEquals(List.of("1abc", "2abc", "3abc"), getPdbIds(hits));
+        // candidates in flight once the limit is reached are read anyway (a few more if scoring completes out of
+        // order), but reading stops long before all candidates are read
+        assertTrue(hitScorer.reads.get() >= 4, "read " + hitScorer.reads.get());
+        assertTrue(hitScorer.reads.get() <= 4 * PREFETCH_SIZE, "read " + hitScorer.reads.get());
+    }
+
+    @Test
+    public void whenReadingFails_thenExecutionExceptionIsThrownOnceHitsInFlightAreDone() {
+        List<SimpleHit> candidates = createCandidates(50);
+        StubHitScorer hitScorer = new StubHitScorer(candidates, i -> false, 7);
+        HitScoringPipeline hitScoringPipeline = new HitScoringPipeline(threadPool, hitScorer, PREFETCH_SIZE);
+
+        ExecutionException exception = assertTimeoutPreemptively(TIMEOUT, () -> assertThrows(ExecutionException.class, () -> hitScoringPipeline.score(candidates, RMSD_CUTOFF, Integer.MAX_VALUE)));
+        assertTrue(exception.getCause() instanceof IllegalStateException, exception.getCause().toString());
+        // reading stops after the failure
+        assertTrue(hitScorer.reads.get() < candidates.size(), "read " + hitScorer.reads.get());
+
+        // all permits were returned: the pipeline does not hang on the next search
+        assertEquals(10, assertTimeoutPreemptively(TIMEOUT, () -> hitScoringPipeline.score(candidates.subList(10, 20), RMSD_CUTOFF, Integer.MAX_VALUE)).size());
+    }
+
+    @Test
+    public void whenTaskIsRejected_thenExceptionIsThrownWithoutHanging() {
+        List<SimpleHit> candidates = createCandidates(20);
+        StubHitScorer hitScorer = new StubHitScorer(candidates, i -> false, -1);
+        AtomicInteger submitted = new AtomicInteger();
+        ThreadPool rejectingThreadPool = new ThreadPool() {
+            @Override
+            public <R> Future<R> submit(Callable<R> task) {
+                return threadPool.submit(task);
+            }
+
+            @Override
+            public void execute(Runnable task) {
+                threadPool.execute(task);
+            }
+
+            @Override
+            public void executeIo(Runnable task) {
+                if (submitted.incrementAndGet() > 5) {
+                    throw new RejectedExecutionException("shut down");
+                }
+                threadPool.executeIo(task);
+            }
+        };
+
+        assertTimeoutPreemptively(TIMEOUT, () -> assertThrows(RejectedExecutionException.class, () -> new HitScoringPipeline(rejectingThreadPool, hitScorer, PREFETCH_SIZE).score(candidates, RMSD_CUTOFF, Integer.MAX_VALUE)));
+        assertEquals(5, hitScorer.reads.get());
+    }
+
+    /**
+     * Scores candidates by their position, without reading structure data.
+     */
+    private static class StubHitScorer implements HitScorer {
+        private final List<SimpleHit> candidates;
+        private final IntPredicate rejected;
+        private final int failing;
+        private final AtomicInteger reads = new AtomicInteger();
+
+        /**
+         * Construct a stub.
+         * @param candidates all candidates
+         * @param rejected which candidates exceed the RMSD cutoff
+         * @param failing the candidate whose structure cannot be read, negative if none
+         */
+        StubHitScorer(List<SimpleHit> candidates, IntPredicate rejected, int failing) {
+            this.candidates = candidates;
+            this.rejected = rejected;
+            this.failing = failing;
+        }
+
+        /**
+         * Simulates reading the structure of a candidate, instant by default.
+         * @param index the position of the candidate
+         * @throws InterruptedException if interrupted while reading
+         */
+        void read(int index) throws InterruptedException {
+        }
+
+        @Override
+        public Structure readTargetStructure(SimpleHit simpleHit) {
+            int index = candidates.indexOf(simpleHit);
+            reads.incrementAndGet();
+            if (index == failing) {
+                throw new IllegalStateException("unreadable structure " + simpleHit.getStructureIdentifier());
+            }
+            try {
+                read(index);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }
+
+        @Override
+        public TransformedHit score(SimpleHit simpleHit, Structure targetStructure) {
+            double rmsd = rejected.test(candidates.indexOf(simpleHit)) ? 2 * RMSD_CUTOFF : RMSD_CUTOFF / 2;
+            return new TransformedHit(simpleHit, List.of(), new RootMeanSquareDeviation(rmsd), null);
+        }
+
+        @Override
+        public Structure getQueryStructure() {
+            return null;
+        }
+
+        @Override
+        public AtomPairingScheme getAtomPairingScheme() {
+            return null;
+        }
+    }
+}
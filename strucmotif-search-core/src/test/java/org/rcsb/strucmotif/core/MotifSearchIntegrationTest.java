@@ -6,11 +6,18 @@ import org.mockito.Mockito;
 import org.rcsb.strucmotif.Helpers;
 import org.rcsb.strucmotif.align.AlignmentService;
 import org.rcsb.strucmotif.config.MotifSearchConfig;
+import org.rcsb.strucmotif.domain.AtomPairingScheme;
 import org.rcsb.strucmotif.domain.identifier.StructureIdentifier;
+import org.rcsb.strucmotif.domain.motif.DistanceType;
 import org.rcsb.strucmotif.domain.motif.ResiduePairDescriptor;
+import org.rcsb.strucmotif.domain.motif.ResiduePairIdentifier;
+import org.rcsb.strucmotif.domain.query.MotifSearchQuery;
 import org.rcsb.strucmotif.domain.query.QueryBuilder;
+import org.rcsb.strucmotif.domain.query.QueryStructure;
 import org.rcsb.strucmotif.domain.query.ScoringStrategy;
+import org.rcsb.strucmotif.domain.result.Hit;
 import org.rcsb.strucmotif.domain.result.MotifSearchResult;
+import org.rcsb.strucmotif.domain.result.SimpleHit;
 import org.rcsb.strucmotif.domain.result.TransformedHit;
 import org.rcsb.strucmotif.domain.selection.LabelSelection;
 import org.rcsb.strucmotif.domain.structure.ResidueType;
@@ -28,12 +35,15 @@ import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.when;
 import static org.rcsb.strucmotif.Helpers.getOriginalBcif;
 
-@SpringBootTest
+// structures are provided by mocks, nothing is fetched that would need to be cached in root-path
+@SpringBootTest(properties = "strucmotif.fetch-cache-size=0")
 public class MotifSearchIntegrationTest {
     @Autowired
     private StructureReader structureReader;
@@ -47,6 +57,7 @@ public class MotifSearchIntegrationTest {
     private MotifSearchConfig motifSearchConfig;
     @Autowired
     private AlignmentService alignmentService;
+    private StructureDataProvider structureDataProvider;
     private QueryBuilder queryBuilder;
 
     @BeforeEach
@@ -64,7 +75,7 @@ public class MotifSearchIntegrationTest {
             }
         };
 
-        StructureDataProvider structureDataProvider = Mockito.mock(StructureDataProvider.class);
+        structureDataProvider = Mockito.mock(StructureDataProvider.class);
         when(structureDataProvider.readRenumbered(any(), any())).thenAnswer(invocation -> {
             StructureIdentifier structureIdentifier = invocation.getArgument(0, StructureIdentifier.class);
             @SuppressWarnings("unchecked")
@@ -113,4 +124,151 @@ public class MotifSearchIntegrationTest {
 
         assertFalse(observedExchanges.isEmpty(), "didn't observe exchange");
     }
+
+    @Test
+    public void whenRmsdCutoffSpecified_thenLowerBoundDoesNotDropHits() {
+        Structure structure = structureReader.readFromInputStream(getOriginalBcif("2mnr"),
+                Set.of(new LabelSelection("A", "1", 162), // K
+                        new LabelSelection("A", "1", 193), // D
+                        new LabelSelection("A", "1", 219), // E
+                        new LabelSelection("A", "1", 245), // E
+                        new LabelSelection("A", "1", 295))); // H
+        double rmsdCutoff = 0.5;
+
+        List<Double> expected = queryBuilder.defineByStructure(structure)
+                .scoringStrategy(ScoringStrategy.ALIGNMENT)
+                .atomPairingScheme(AtomPairingScheme.ALPHA_CARBON)
+                .buildParameters()
+                .buildQuery()
+                .run()
+                .getHits()
+                .stream()
+                .map(TransformedHit.class::cast)
+                .map(hit -> hit.getRootMeanSquareDeviation().value())
+                .filter(rmsd -> rmsd < rmsdCutoff)
+                .sorted()
+                .collect(Collectors.toList());
+        List<Double> actual = queryBuilder.defineByStructure(structure)
+                .scoringStrategy(ScoringStrategy.ALIGNMENT)
+                .atomPairingScheme(AtomPairingScheme.ALPHA_CARBON)
+                .rmsdCutoff(rmsdCutoff)
+                .buildParameters()
+                .buildQuery()
+                .run()
+                .getHits()
+                .stream()
+                .map(TransformedHit.class::cast)
+                .map(hit -> hit.getRootMeanSquareDeviation().value())
+                .sorted()
+                .collect(Collectors.toList());
+
+        assertFalse(expected.isEmpty(), "didn't observe hits below cutoff");
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void whenLimitSpecified_thenReportBestHits() {
+        Structure structure = structureReader.readFromInputStream(getOriginalBcif("2mnr"),
+                Set.of(new LabelSelection("A", "1", 162), // K
+                        new LabelSelection("A", "1", 193), // D
+                        new LabelSelection("A", "1", 219), // E
+                        new LabelSelection("A", "1", 245), // E
+                        new LabelSelection("A", "1", 295))); // H
+        int limit = 5;
+
+        List<Double> expected = queryBuilder.defineByStructure(structure)
+                .scoringStrategy(ScoringStrategy.ALIGNMENT)
+                .buildParameters()
+                .buildQuery()
+                .run()
+                .getHits()
+                .stream()
+                .map(TransformedHit.class::cast)
+                .map(hit -> hit.getRootMeanSquareDeviation().value())
+                .sorted()
+                .limit(limit)
+                .collect(Collectors.toList());
+        List<Double> actual = queryBuilder.defineByStructure(structure)
+                .scoringStrategy(ScoringStrategy.ALIGNMENT)
+                .limitResults(limit)
+                .buildParameters()
+                .buildQuery()
+                .run()
+                .getHits()
+                .stream()
+                .map(TransformedHit.class::cast)
+                .map(hit -> hit.getRootMeanSquareDeviation().value())
+                .collect(Collectors.toList());
+
+        assertEquals(expected, actual);
+    }
+
+    private Structure readEnolaseMotif() {
+        return structureReader.readFromInputStream(getOriginalBcif("2mnr"),
+                Set.of(new LabelSelection("A", "1", 162), // K
+                        new LabelSelection("A", "1", 193), // D
+                        new LabelSelection("A", "1", 219), // E
+                        new LabelSelection("A", "1", 245), // E
+                        new LabelSelection("A", "1", 295))); // H
+    }
+
+    @Test
+    public void whenPathDeviatesFromQuery_thenLowerBoundRejectsHit() {
+        MotifSearchQuery query = queryBuilder.defineByStructure(readEnolaseMotif())
+                .atomPairingScheme(AtomPairingScheme.ALPHA_CARBON)
+                .buildParameters()
+                .buildQuery();
+        QueryStructure queryStructure = query.getQueryStructure();
+        RootMeanSquareDeviationLowerBound lowerBound = new RootMeanSquareDeviationLowerBound(query);
+
+        // the query itself and a copy whose residues are 4 A further apart in every step
+        List<ResiduePairIdentifier> residuePairIdentifiers = queryStructure.getResiduePairIdentifiers();
+        ResiduePairIdentifier[] exact = new ResiduePairIdentifier[residuePairIdentifiers.size()];
+        ResiduePairIdentifier[] distorted = new ResiduePairIdentifier[residuePairIdentifiers.size()];
+        for (int i = 0; i < residuePairIdentifiers.size(); i++) {
+            ResiduePairIdentifier residuePairIdentifier = residuePairIdentifiers.get(i);
+            ResiduePairDescriptor residuePairDescriptor = queryStructure.getResiduePairDescriptors().get(i);
+            exact[i] = new ResiduePairIdentifier(residuePairIdentifier.getLabelSelection1(), residuePairIdentifier.getLabelSelection2(), residuePairDescriptor);
+            distorted[i] = new ResiduePairIdentifier(residuePairIdentifier.getLabelSelection1(), residuePairIdentifier.getLabelSelection2(),
+                    new ResiduePairDescriptor(residuePairDescriptor.getResidueType1(),
+                            residuePairDescriptor.getResidueType2(),
+                            shift(residuePairDescriptor.getBackboneDistance(), 4),
+                            shift(residuePairDescriptor.getSideChainDistance(), 4),
+                            residuePairDescriptor.getAngle(),
+                            null));
+        }
+
+        StructureIdentifier structureIdentifier = new StructureIdentifier("2mnr");
+        assertEquals(0, lowerBound.estimate(new SimpleHit(structureIdentifier, queryStructure.getLabelSelections(), null, exact)), Helpers.DELTA);
+        assertTrue(lowerBound.estimate(new SimpleHit(structureIdentifier, queryStructure.getLabelSelections(), null, distorted)) > 1);
+    }
+
+    @Test
+    public void whenAligningHits_thenLowerBoundNeverExceedsRmsd() {
+        MotifSearchResult result = queryBuilder.defineByStructure(readEnolaseMotif())
+                .scoringStrategy(ScoringStrategy.DESCRIPTOR)
+                .atomPairingScheme(AtomPairingScheme.ALPHA_CARBON)
+                .buildParameters()
+                .buildQuery()
+                .run();
+        RootMeanSquareDeviationLowerBound lowerBound = new RootMeanSquareDeviationLowerBound(result.getQuery());
+        HitScorer hitScorer = new RootMeanSquareDeviationHitScorer(result.getQuery(), alignmentService, structureDataProvider);
+
+        int bounded = 0;
+        for (Hit hit : result.getHits()) {
+            SimpleHit simpleHit = (SimpleHit) hit;
+            double estimate = lowerBound.estimate(simpleHit);
+            double rmsd = hitScorer.score(simpleHit).getRootMeanSquareDeviation().value();
+            assertTrue(estimate <= rmsd + Helpers.DELTA, "lower bound " + estimate + " exceeds RMSD " + rmsd + " of " + simpleHit.getStructureIdentifier());
+            if (estimate > 0) {
+                bounded++;
+            }
+        }
+        assertTrue(bounded > 0, "lower bound is trivial for all hits");
+    }
+
+    private static DistanceType shift(DistanceType distanceType, int bins) {
+        DistanceType[] values = DistanceType.values();
+        return values[Math.min(distanceType.ordinal() + bins, values.length - 1)];
+    }
 }
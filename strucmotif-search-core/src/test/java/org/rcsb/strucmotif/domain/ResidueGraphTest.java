@@ -251,4 +251,18 @@ public class ResidueGraphTest {
             assertEquals(a1, a2, 0.001, "order of angle calculation must not matter");
         }
     }
+
+    @Test
+    public void whenCompactingValueNextToBinBoundary_thenBinRetained() {
+        // closest doubles to the boundary between bins round to a float on the boundary
+        double below = Math.nextDown(4.5);
+        double above = Math.nextUp(4.5);
+        assertEquals(4.5f, (float) below);
+        assertEquals(DistanceType.ofDistance(below), DistanceType.ofDistance(ResidueGraph.compact(below, ResidueGraph.DISTANCE_BIN)));
+        assertEquals(DistanceType.ofDistance(above), DistanceType.ofDistance(ResidueGraph.compact(above, ResidueGraph.DISTANCE_BIN)));
+        assertEquals(AngleType.ofAngle(Math.nextDown(30.0)), AngleType.ofAngle(ResidueGraph.compact(Math.nextDown(30.0), ResidueGraph.ANGLE_BIN)));
+
+        // values within a bin are merely rounded
+        assertEquals(3.7f, ResidueGraph.compact(3.7, ResidueGraph.DISTANCE_BIN));
+    }
 }
@@ -3,11 +3,18 @@ package org.rcsb.strucmotif.domain.structure;
 import org.junit.jupiter.api.Test;
 import org.rcsb.strucmotif.domain.Transformation;
 import org.rcsb.strucmotif.domain.identifier.AtomIdentifier;
+import org.rcsb.strucmotif.domain.identifier.AtomNameRegistry;
 import org.rcsb.strucmotif.domain.identifier.ResidueIdentifier;
+import org.rcsb.strucmotif.math.Algebra;
 
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class ResidueTest {
     @Test
@@ -22,4 +29,59 @@ public class ResidueTest {
         double[] betaCarbon = glycine.getSideChainCoordinates();
         assertArrayEquals(new double[] { 1.204, -0.620, 1.296 }, betaCarbon, 0.01);
     }
+
+    @Test
+    public void whenBuildingChainColumns_thenResidueViewsMatch() {
+        ChainColumns chainColumns = new ChainColumns.Builder(4)
+                .addResidue(ResidueType.GLYCINE, 1, 0)
+                .addResidue(ResidueType.ALANINE, 2, 1)
+                .build();
+        assertEquals(0, chainColumns.getResidueCount(), "empty residues must be dropped");
+
+        ChainColumns.Builder builder = new ChainColumns.Builder(4);
+        builder.addResidue(ResidueType.ALANINE, 1, 0);
+        builder.addAtom(AtomNameRegistry.CA, 1, 1, 2, 3);
+        assertFalse(builder.addAtom(AtomNameRegistry.CA, 2, 4, 5, 6), "duplicated atom names must be ignored");
+        builder.addAtom(AtomNameRegistry.CB, 3, 7, 8, 9);
+        builder.addResidue(ResidueType.ALANINE, 2, 1);
+        builder.addAtom(AtomNameRegistry.CA, 4, 10, 11, 12);
+        chainColumns = builder.build();
+
+        assertEquals(2, chainColumns.getResidueCount());
+        assertEquals(3, chainColumns.getAtomCount());
+        assertTrue(chainColumns.hasRepresentatives(0));
+        assertFalse(chainColumns.hasRepresentatives(1));
+
+        Residue residue = StructureFactory.createResidue(chainColumns.subset(new int[] { 0 }), 0);
+        assertEquals(2, residue.getAtoms().size());
+        assertArrayEquals(new double[] { 1, 2, 3 }, residue.getBackboneCoordinates());
+        assertArrayEquals(new double[] { 7, 8, 9 }, residue.getSideChainCoordinates());
+        assertArrayEquals(new double[] { 7, 8, 9 }, residue.findAtom("CB").orElseThrow().getCoord());
+    }
+
+    @Test
+    public void whenTransformingChainColumns_thenCoordinatesAreTransformedOnDemand() {
+        ChainColumns.Builder builder = new ChainColumns.Builder(4);
+        builder.addResidue(ResidueType.ALANINE, 1, 0);
+        builder.addAtom(AtomNameRegistry.CA, 1, 1, 2, 3);
+        builder.addAtom(AtomNameRegistry.CB, 2, 4, 5, 6);
+        ChainColumns chainColumns = builder.build();
+
+        double[][] transformation = new double[][] {
+                { 0, -1, 0, 10 },
+                { 1, 0, 0, 20 },
+                { 0, 0, 1, 30 },
+                { 0, 0, 0, 1 }
+        };
+        ChainColumns transformed = chainColumns.transform(transformation);
+        assertTrue(transformed.isTransformed());
+        assertArrayEquals(Algebra.multiply4d(transformation, new double[] { 1, 2, 3 }), transformed.getAtomCoordinates(0));
+        assertArrayEquals(Algebra.multiply4d(transformation, new double[] { 4, 5, 6 }), StructureFactory.createResidue(transformed, 0).getSideChainCoordinates());
+
+        double[] buffer = new double[12];
+        assertSame(buffer, transformed.getCoordinates(buffer));
+        assertArrayEquals(new double[] { 8, 21, 33, 5, 24, 36 }, Arrays.copyOf(buffer, 6));
+        // original remains untouched
+        assertArrayEquals(new double[] { 1, 2, 3, 4, 5, 6 }, chainColumns.getCoordinates(null));
+    }
 }
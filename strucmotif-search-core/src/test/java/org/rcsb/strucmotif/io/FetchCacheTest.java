@@ -0,0 +1,164 @@
+package org.rcsb.strucmotif.io;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FetchCacheTest {
+    private static final int BODY_SIZE = 100;
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+    @TempDir
+    Path directory;
+
+    @BeforeEach
+    public void init() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        // respond with the path repeated to a fixed length, slowly so that requests overlap
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                // before responding: the client only releases its fetch permit once the response has been read
+                active.decrementAndGet();
+            }
+            byte[] body = body(exchange.getRequestURI().getPath());
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(body);
+            }
+        });
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.start();
+    }
+
+    @AfterEach
+    public void shutdown() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    private static byte[] body(String path) {
+        byte[] body = new byte[BODY_SIZE];
+        byte[] pattern = path.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < body.length; i++) {
+            body[i] = pattern[i % pattern.length];
+        }
+        return body;
+    }
+
+    private URL url(String path) throws IOException {
+        return new URL("http", "localhost", server.getAddress().getPort(), path);
+    }
+
+    private static byte[] read(FetchCache fetchCache, URL url) {
+        try (InputStream inputStream = fetchCache.open(url)) {
+            return inputStream.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Test
+    public void whenRequestingSameUrlConcurrently_thenFetchedOnce() throws Exception {
+        FetchCache fetchCache = new FetchCache(directory, 10 * BODY_SIZE, 4);
+        URL url = url("/1acj.bcif");
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<byte[]>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executorService.submit(() -> read(fetchCache, url)));
+            }
+            for (Future<byte[]> future : futures) {
+                assertTrue(Arrays.equals(body("/1acj.bcif"), future.get()));
+            }
+        } finally {
+            executorService.shutdown();
+        }
+
+        assertEquals(1, requests.get());
+        // subsequent requests are served from disk
+        assertTrue(Arrays.equals(body("/1acj.bcif"), read(fetchCache, url)));
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void whenCapacityExceeded_thenLeastRecentlyUsedIsEvicted() throws IOException {
+        FetchCache fetchCache = new FetchCache(directory, 2 * BODY_SIZE + BODY_SIZE / 2, 4);
+        read(fetchCache, url("/a"));
+        read(fetchCache, url("/b"));
+        // touch a, b is now least recently used
+        read(fetchCache, url("/a"));
+        read(fetchCache, url("/c"));
+
+        assertTrue(fetchCache.contains(url("/a")));
+        assertFalse(fetchCache.contains(url("/b")));
+        assertTrue(fetchCache.contains(url("/c")));
+        assertEquals(2 * BODY_SIZE, fetchCache.getSize());
+        assertEquals(3, requests.get());
+
+        // state is recovered from disk
+        FetchCache reopened = new FetchCache(directory, 2 * BODY_SIZE + BODY_SIZE / 2, 4);
+        assertTrue(Arrays.equals(body("/c"), read(reopened, url("/c"))));
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    public void whenFetchingManyUrls_thenConcurrencyPerHostIsLimited() throws Exception {
+        FetchCache fetchCache = new FetchCache(directory, 10 * BODY_SIZE, 2);
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<byte[]>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                URL url = url("/" + i);
+                futures.add(executorService.submit(() -> read(fetchCache, url)));
+            }
+            for (Future<byte[]> future : futures) {
+                assertEquals(BODY_SIZE, future.get().length);
+            }
+        } finally {
+            executorService.shutdown();
+        }
+
+        assertEquals(8, requests.get());
+        assertTrue(maxActive.get() <= 2, "more than 2 concurrent fetches: " + maxActive.get());
+    }
+
+    @Test
+    public void whenFileExceedsCapacity_thenServedWithoutRetaining() throws IOException {
+        FetchCache fetchCache = new FetchCache(directory, BODY_SIZE / 2, 4);
+        assertTrue(Arrays.equals(body("/large"), read(fetchCache, url("/large"))));
+        assertFalse(fetchCache.contains(url("/large")));
+        assertEquals(0, fetchCache.getSize());
+    }
+}
@@ -0,0 +1,101 @@
+package org.rcsb.strucmotif.io.codec;
+
+import org.junit.jupiter.api.Test;
+import org.rcsb.cif.CifIO;
+import org.rcsb.cif.schema.StandardSchemata;
+import org.rcsb.cif.schema.mm.MmCifFile;
+import org.rcsb.strucmotif.config.RenumberedCompression;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.rcsb.strucmotif.Helpers.getResource;
+
+public class CodecTest {
+    private static byte[] encode(Codec codec, byte[] data) throws IOException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        try (OutputStream outputStream = codec.encode(byteArrayOutputStream)) {
+            outputStream.write(data);
+        }
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    private static byte[] decode(Codec codec, byte[] data) throws IOException {
+        try (InputStream inputStream = codec.decode(new ByteArrayInputStream(data))) {
+            return inputStream.readAllBytes();
+        }
+    }
+
+    private static byte[] getRenumbered(String pdbId) throws IOException {
+        try (InputStream inputStream = new GZIPInputStream(getResource("renum/" + pdbId + ".bcif.gz"))) {
+            return inputStream.readAllBytes();
+        }
+    }
+
+    @Test
+    public void whenRoundTrippingStructureData_thenBytesAndContentMatch() throws IOException {
+        byte[] original = getRenumbered("1mdl");
+        for (RenumberedCompression compression : RenumberedCompression.values()) {
+            Codec codec = Codec.of(compression);
+            byte[] encoded = encode(codec, original);
+            assertArrayEquals(original, decode(codec, encoded), "round trip failed for " + compression);
+
+            MmCifFile mmCifFile = CifIO.readFromInputStream(codec.decode(new ByteArrayInputStream(encoded))).as(StandardSchemata.MMCIF);
+            assertEquals("1MDL", mmCifFile.getFirstBlock().getBlockHeader());
+        }
+    }
+
+    @Test
+    public void whenEncodingWithLz4_thenBlocksAreCompressed() throws IOException {
+        // repetitive, larger than a block, with overlapping matches
+        byte[] repetitive = new byte[3 * Lz4Codec.BLOCK_SIZE + 17];
+        for (int i = 0; i < repetitive.length; i++) {
+            repetitive[i] = (byte) (i % 7 == 0 ? i : 'a');
+        }
+        byte[] encoded = encode(Lz4Codec.INSTANCE, repetitive);
+        assertTrue(encoded.length < repetitive.length / 2);
+        assertArrayEquals(repetitive, decode(Lz4Codec.INSTANCE, encoded));
+
+        // incompressible data is stored as is
+        byte[] random = new byte[Lz4Codec.BLOCK_SIZE + 1000];
+        new Random(42).nextBytes(random);
+        encoded = encode(Lz4Codec.INSTANCE, random);
+        assertTrue(encoded.length <= random.length + 32);
+        assertArrayEquals(random, decode(Lz4Codec.INSTANCE, encoded));
+
+        // tiny and empty input
+        byte[] tiny = { 1, 2, 3 };
+        assertArrayEquals(tiny, decode(Lz4Codec.INSTANCE, encode(Lz4Codec.INSTANCE, tiny)));
+        assertArrayEquals(new byte[0], decode(Lz4Codec.INSTANCE, encode(Lz4Codec.INSTANCE, new byte[0])));
+    }
+
+    @Test
+    public void whenDecodingLegacyData_thenDataIsReadable() throws IOException {
+        byte[] original = getRenumbered("1mdl");
+        byte[] gzipped = encode(GzipCodec.INSTANCE, original);
+        // plain codec detects gzip, LZ4 codec passes through data without its magic bytes
+        assertArrayEquals(original, decode(NoOperationCodec.INSTANCE, gzipped));
+        assertArrayEquals(original, decode(Lz4Codec.INSTANCE, original));
+    }
+
+    @Test
+    public void whenDecodingCorruptLz4Data_thenFail() throws IOException {
+        byte[] encoded = encode(Lz4Codec.INSTANCE, getRenumbered("1mdl"));
+        byte[] truncated = new byte[encoded.length / 2];
+        System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+        assertThrows(IOException.class, () -> decode(Lz4Codec.INSTANCE, truncated));
+
+        // offsets pointing before the start of the block
+        byte[] invalid = new byte[] { (byte) 0x10, 'a', (byte) 0xFF, (byte) 0xFF, 'b' };
+        assertThrows(IOException.class, () -> Lz4Codec.decompress(invalid, 0, invalid.length, new byte[100], 0, 10));
+    }
+}
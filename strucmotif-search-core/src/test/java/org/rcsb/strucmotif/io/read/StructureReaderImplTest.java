@@ -2,7 +2,12 @@ package org.rcsb.strucmotif.io.read;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rcsb.cif.CifIO;
+import org.rcsb.cif.schema.StandardSchemata;
+import org.rcsb.cif.schema.mm.MmCifFile;
 import org.rcsb.strucmotif.Helpers;
+import org.rcsb.strucmotif.config.MotifSearchConfig;
 import org.rcsb.strucmotif.domain.selection.LabelSelection;
 import org.rcsb.strucmotif.domain.structure.Atom;
 import org.rcsb.strucmotif.domain.structure.Chain;
@@ -10,9 +15,16 @@ import org.rcsb.strucmotif.domain.structure.Residue;
 import org.rcsb.strucmotif.domain.structure.ResidueType;
 import org.rcsb.strucmotif.domain.structure.Structure;
 import org.rcsb.strucmotif.io.GenericTextStructureWriter;
+import org.rcsb.strucmotif.io.write.RenumberedStructureWriter;
+import org.rcsb.strucmotif.io.write.RenumberedStructureWriterImpl;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
@@ -258,6 +270,99 @@ public class StructureReaderImplTest {
         assertEquals(3 * 1680 * 3231, atomCount(structure));
     }
 
+    @Test
+    public void whenParsingOperatorExpressions_thenCombinationsMatch() {
+        List<String> composed = StructureReaderImpl.StructureReaderState.parseOperatorExpression("(1-3)(5)")
+                .stream()
+                .map(operator -> String.join("x", operator))
+                .collect(Collectors.toList());
+        assertEquals(List.of("1x5", "2x5", "3x5"), composed);
+
+        List<String> simple = StructureReaderImpl.StructureReaderState.parseOperatorExpression("1,2,2,4-5")
+                .stream()
+                .map(operator -> String.join("x", operator))
+                .collect(Collectors.toList());
+        assertEquals(List.of("1", "2", "4", "5"), simple);
+    }
+
+    @Test
+    public void whenOperatorIsMissing_thenExceptionNamesIt() throws IOException {
+        String cif = "data_1XYZ\n" +
+                "loop_\n" +
+                "_atom_site.label_atom_id\n" +
+                "_atom_site.label_comp_id\n" +
+                "_atom_site.label_asym_id\n" +
+                "_atom_site.label_seq_id\n" +
+                "_atom_site.Cartn_x\n" +
+                "_atom_site.Cartn_y\n" +
+                "_atom_site.Cartn_z\n" +
+                "CA ALA A 1 0.0 0.0 0.0\n" +
+                "#\n" +
+                "_pdbx_struct_assembly_gen.assembly_id 1\n" +
+                "_pdbx_struct_assembly_gen.oper_expression 9\n" +
+                "_pdbx_struct_assembly_gen.asym_id_list A\n" +
+                "#\n" +
+                "_pdbx_struct_oper_list.id 1\n" +
+                "_pdbx_struct_oper_list.matrix[1][1] 1.0\n" +
+                "_pdbx_struct_oper_list.matrix[1][2] 0.0\n" +
+                "_pdbx_struct_oper_list.matrix[1][3] 0.0\n" +
+                "_pdbx_struct_oper_list.vector[1] 0.0\n" +
+                "_pdbx_struct_oper_list.matrix[2][1] 0.0\n" +
+                "_pdbx_struct_oper_list.matrix[2][2] 1.0\n" +
+                "_pdbx_struct_oper_list.matrix[2][3] 0.0\n" +
+                "_pdbx_struct_oper_list.vector[2] 0.0\n" +
+                "_pdbx_struct_oper_list.matrix[3][1] 0.0\n" +
+                "_pdbx_struct_oper_list.matrix[3][2] 0.0\n" +
+                "_pdbx_struct_oper_list.matrix[3][3] 1.0\n" +
+                "_pdbx_struct_oper_list.vector[3] 0.0\n" +
+                "#\n";
+        MmCifFile mmCifFile = CifIO.readFromInputStream(new ByteArrayInputStream(cif.getBytes(StandardCharsets.UTF_8))).as(StandardSchemata.MMCIF);
+
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class, () -> structureReader.readFromMmCifFile(mmCifFile, null));
+        assertTrue(exception.getMessage().contains("Operator 9"));
+        assertTrue(exception.getMessage().contains("1xyz"));
+    }
+
+    @Test
+    public void whenSelectionReferencesOperators_thenOnlyTheseAreExpanded() {
+        Structure structure = structureReader.readFromInputStream(getOriginalBcif("2bfu"),
+                List.of(new LabelSelection("A", "1", 1), new LabelSelection("A", "5", 1)));
+        assertEquals(Set.of("1", "5"), structure.getChains()
+                .stream()
+                .map(chain -> chain.getChainIdentifier().getStructOperId())
+                .collect(Collectors.toSet()));
+    }
+
+    @Test
+    public void whenReadingRenumberedDataInMemory_thenIdenticalToWrittenFile(@TempDir Path directory) throws IOException {
+        for (String pdbId : List.of("1acj", "2bfu")) {
+            RenumberedStructureWriter renumberedStructureWriter = new RenumberedStructureWriterImpl(new MotifSearchConfig());
+            MmCifFile mmCifFile = CifIO.readFromInputStream(getOriginalBcif(pdbId)).as(StandardSchemata.MMCIF);
+            MmCifFile renumbered = renumberedStructureWriter.renumber(mmCifFile);
+            Path path = directory.resolve(pdbId + ".bcif");
+            renumberedStructureWriter.encode(renumbered, path);
+
+            Structure inMemory = structureReader.readFromMmCifFile(renumbered, null);
+            Structure written = structureReader.readFromInputStream(Files.newInputStream(path));
+            assertEquals(inMemory.getStructureIdentifier(), written.getStructureIdentifier());
+            assertEquals(chainCount(written), chainCount(inMemory));
+            assertEquals(residueCount(written), residueCount(inMemory));
+            assertArrayEquals(coordinates(written), coordinates(inMemory), "coordinates must match exactly for " + pdbId);
+        }
+    }
+
+    private double[] coordinates(Structure structure) {
+        return structure.getChains()
+                .stream()
+                .map(Chain::getResidues)
+                .flatMap(Collection::stream)
+                .map(Residue::getAtoms)
+                .flatMap(Collection::stream)
+                .map(Atom::getCoord)
+                .flatMapToDouble(Arrays::stream)
+                .toArray();
+    }
+
     private long chainCount(Structure structure) {
         return structure.getChains().size();
     }
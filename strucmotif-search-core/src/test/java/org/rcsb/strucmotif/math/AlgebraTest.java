@@ -0,0 +1,19 @@
+package org.rcsb.strucmotif.math;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+public class AlgebraTest {
+    @Test
+    public void whenComposingTransformations_thenEqualToSequentialApplication() {
+        // both rotations mix in the z-column, which the composition dropped
+        double[][] first = Algebra.composeTransformationMatrix(new double[][] {{ 1, 0, 0 }, { 0, 0, -1 }, { 0, 1, 0 }}, new double[] { 1, 2, 3 });
+        double[][] second = Algebra.composeTransformationMatrix(new double[][] {{ 0, 0, 1 }, { 0, 1, 0 }, { -1, 0, 0 }}, new double[] { -4, 5, 6 });
+        double[] point = new double[] { 1.5, -2.0, 3.25 };
+
+        double[] sequential = Algebra.multiply4d(first, Algebra.multiply4d(second, point));
+        assertArrayEquals(sequential, Algebra.multiply4d(Algebra.multiply4d(first, second), point), 1e-9);
+        assertArrayEquals(new double[] { 0, 0, 0, 1 }, Algebra.multiply4d(first, second)[3], 1e-9);
+    }
+}
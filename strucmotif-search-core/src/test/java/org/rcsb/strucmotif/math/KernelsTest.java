@@ -0,0 +1,144 @@
+package org.rcsb.strucmotif.math;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class KernelsTest {
+    // covers sizes below, at, and above common vector lengths
+    private static final int[] SIZES = { 0, 1, 2, 3, 4, 5, 7, 8, 9, 15, 16, 17, 31, 33, 100 };
+    private static final double REDUCTION_DELTA = 1e-9;
+    private final Kernels scalarKernels = new ScalarKernels();
+    private Kernels vectorKernels;
+    private Random random;
+
+    @BeforeEach
+    public void init() {
+        random = new Random(42);
+        Kernels selected = KernelSupport.select(true, ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent());
+        // vector kernels extend the scalar ones
+        vectorKernels = selected.getClass() == ScalarKernels.class ? null : selected;
+    }
+
+    private double[] coordinates(int length) {
+        double[] coordinates = new double[length];
+        for (int i = 0; i < length; i++) {
+            coordinates[i] = 100 * random.nextDouble() - 50;
+        }
+        return coordinates;
+    }
+
+    @Test
+    public void whenDisabled_thenScalarKernelsSelected() {
+        assertEquals(ScalarKernels.class, KernelSupport.select(false, true).getClass());
+    }
+
+    @Test
+    public void whenVectorModuleAbsent_thenScalarKernelsSelected() {
+        assertEquals(ScalarKernels.class, KernelSupport.select(true, false).getClass());
+    }
+
+    @Test
+    public void whenVectorModulePresent_thenVectorKernelsSelected() {
+        assumeTrue(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent());
+        assertEquals("org.rcsb.strucmotif.math.VectorKernels", KernelSupport.select(true, true).getClass().getName());
+    }
+
+    @Test
+    public void whenComputingSquaredDistances_thenVectorIdenticalToScalar() {
+        assumeTrue(vectorKernels != null);
+        for (int size : SIZES) {
+            double[] x = coordinates(size + 3);
+            double[] y = coordinates(size + 3);
+            double[] z = coordinates(size + 3);
+            double[] expected = new double[size];
+            double[] actual = new double[size];
+
+            scalarKernels.squaredDistances(x, y, z, 1.5, -2.5, 3.5, 3, size + 3, expected);
+            vectorKernels.squaredDistances(x, y, z, 1.5, -2.5, 3.5, 3, size + 3, actual);
+            assertArrayEquals(expected, actual, "size " + size);
+
+            int[] indices = new int[size + 2];
+            for (int i = 0; i < indices.length; i++) {
+                indices[i] = random.nextInt(size + 3);
+            }
+            scalarKernels.squaredDistances(x, y, z, 1.5, -2.5, 3.5, indices, 2, size + 2, expected);
+            vectorKernels.squaredDistances(x, y, z, 1.5, -2.5, 3.5, indices, 2, size + 2, actual);
+            assertArrayEquals(expected, actual, "size " + size);
+        }
+    }
+
+    @Test
+    public void whenComputingInnerProduct_thenVectorMatchesScalar() {
+        assumeTrue(vectorKernels != null);
+        for (int size : SIZES) {
+            double[] reference = coordinates(3 * size);
+            scalarKernels.center(reference, 0, size, new double[3]);
+            // candidate block at an offset
+            double[] candidates = coordinates(5 + 3 * size);
+            double[] expected = new double[13];
+            double[] actual = new double[13];
+
+            scalarKernels.innerProduct(reference, candidates, 5, size, expected);
+            vectorKernels.innerProduct(reference, candidates, 5, size, actual);
+            // reductions may sum in a different order
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(expected[i], actual[i], REDUCTION_DELTA * Math.max(1, Math.abs(expected[i])), "size " + size + ", value " + i);
+            }
+        }
+    }
+
+    @Test
+    public void whenCentering_thenVectorMatchesScalar() {
+        assumeTrue(vectorKernels != null);
+        for (int size : SIZES) {
+            double[] expected = coordinates(4 + 3 * size);
+            double[] actual = expected.clone();
+            double[] expectedCentroid = new double[3];
+            double[] actualCentroid = new double[3];
+
+            scalarKernels.center(expected, 4, size, expectedCentroid);
+            vectorKernels.center(actual, 4, size, actualCentroid);
+            assertArrayEquals(expectedCentroid, actualCentroid, REDUCTION_DELTA, "size " + size);
+            assertArrayEquals(expected, actual, REDUCTION_DELTA, "size " + size);
+        }
+    }
+
+    @Test
+    public void whenTransformingAndNormalizing_thenVectorIdenticalToScalar() {
+        assumeTrue(vectorKernels != null);
+        double[][] matrix = Algebra.composeTransformationMatrix(new double[][] {{ 0, 0, 1 }, { 0, 1, 0 }, { -1, 0, 0 }}, new double[] { -4, 5, 6 });
+        for (int size : SIZES) {
+            double[] source = coordinates(3 * size);
+            double[] expected = new double[3 * size];
+            double[] actual = new double[3 * size];
+
+            scalarKernels.transform(matrix, source, expected, size);
+            vectorKernels.transform(matrix, source, actual, size);
+            assertArrayEquals(expected, actual, "size " + size);
+
+            double[] to = coordinates(3 * size);
+            scalarKernels.normalVectors(source, to, expected, size);
+            vectorKernels.normalVectors(source, to, actual, size);
+            assertArrayEquals(expected, actual, "size " + size);
+        }
+    }
+
+    @Test
+    public void whenTransforming_thenIdenticalToAlgebra() {
+        double[][] matrix = Algebra.composeTransformationMatrix(new double[][] {{ 1, 0, 0 }, { 0, 0, -1 }, { 0, 1, 0 }}, new double[] { 1, 2, 3 });
+        double[] source = coordinates(3 * 17);
+        double[] transformed = new double[source.length];
+        Kernels.getInstance().transform(matrix, source, transformed, 17);
+        for (int i = 0; i < 17; i++) {
+            double[] expected = Algebra.multiply4d(matrix, new double[] { source[3 * i], source[3 * i + 1], source[3 * i + 2] });
+            assertArrayEquals(new double[] { expected[0], expected[1], expected[2] },
+                    new double[] { transformed[3 * i], transformed[3 * i + 1], transformed[3 * i + 2] });
+        }
+    }
+}
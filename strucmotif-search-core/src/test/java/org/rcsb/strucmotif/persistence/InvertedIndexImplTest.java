@@ -3,17 +3,29 @@ package org.rcsb.strucmotif.persistence;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.rcsb.strucmotif.config.MotifSearchConfig;
+import org.junit.jupiter.api.io.TempDir;
 import org.rcsb.strucmotif.domain.Pair;
+import org.rcsb.strucmotif.domain.identifier.StructureIdentifier;
 import org.rcsb.strucmotif.domain.motif.AngleType;
 import org.rcsb.strucmotif.domain.motif.DistanceType;
 import org.rcsb.strucmotif.domain.motif.ResiduePairDescriptor;
 import org.rcsb.strucmotif.domain.motif.ResiduePairIdentifier;
+import org.rcsb.strucmotif.domain.selection.LabelSelection;
 import org.rcsb.strucmotif.domain.structure.ResidueType;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class InvertedIndexImplTest {
@@ -50,4 +62,116 @@ public class InvertedIndexImplTest {
                 .flatMap(ResiduePairIdentifier::labelSelections)
                 .anyMatch(indexSelector -> !indexSelector.getStructOperId().equals("1")));
     }
+
+    @Test
+    public void whenCommittingStagedIndex_thenIndexIsReplaced(@TempDir Path rootPath) throws IOException {
+        MotifSearchConfig motifSearchConfig = new MotifSearchConfig();
+        motifSearchConfig.setRootPath(rootPath.toString());
+        InvertedIndex fileSystemInvertedIndex = new FileSystemInvertedIndex(motifSearchConfig);
+        StructureIdentifier old = new StructureIdentifier("1old");
+        StructureIdentifier staged = new StructureIdentifier("1new");
+        ResiduePairIdentifier residuePairIdentifier = new ResiduePairIdentifier(new LabelSelection("A", "1", 1), new LabelSelection("B", "1", 2));
+        fileSystemInvertedIndex.insert(BIN_WITH_ASSEMBLY, Map.of(old, List.of(residuePairIdentifier)));
+
+        // staged data is invisible until committed, twice to replace plain directory and link
+        for (int i = 0; i < 2; i++) {
+            fileSystemInvertedIndex.insertStaged(BIN_WITH_ASSEMBLY, Map.of(staged, List.of(residuePairIdentifier)));
+            assertEquals(i == 0 ? old : staged, fileSystemInvertedIndex.select(BIN_WITH_ASSEMBLY).findFirst().orElseThrow().getFirst());
+            fileSystemInvertedIndex.commitStaged();
+
+            List<Pair<StructureIdentifier, ResiduePairIdentifier[]>> selected = fileSystemInvertedIndex.select(BIN_WITH_ASSEMBLY).collect(Collectors.toList());
+            assertEquals(1, selected.size());
+            assertEquals(staged, selected.get(0).getFirst());
+            assertEquals(residuePairIdentifier.getLabelSelection2(), selected.get(0).getSecond()[0].getLabelSelection2());
+        }
+
+        // no leftovers
+        assertTrue(Files.isSymbolicLink(rootPath.resolve(MotifSearchConfig.INDEX_DIRECTORY)));
+        try (Stream<Path> paths = Files.list(rootPath)) {
+            assertEquals(2, paths.count());
+        }
+    }
+
+    @Test
+    public void whenCommittingStagedIndexByName_thenOtherProcessCompletesCommit(@TempDir Path rootPath) {
+        MotifSearchConfig motifSearchConfig = new MotifSearchConfig();
+        motifSearchConfig.setRootPath(rootPath.toString());
+        InvertedIndex staging = new FileSystemInvertedIndex(motifSearchConfig);
+        StructureIdentifier staged = new StructureIdentifier("1new");
+        ResiduePairIdentifier residuePairIdentifier = new ResiduePairIdentifier(new LabelSelection("A", "1", 1), new LabelSelection("B", "1", 2));
+        staging.insertStaged(BIN_WITH_ASSEMBLY, Map.of(staged, List.of(residuePairIdentifier)));
+        String stagedName = staging.getStagedName();
+
+        // e.g. the staging process was interrupted before committing
+        InvertedIndex fileSystemInvertedIndex = new FileSystemInvertedIndex(motifSearchConfig);
+        assertThrows(IllegalStateException.class, () -> fileSystemInvertedIndex.commitStaged(MotifSearchConfig.INDEX_DIRECTORY + "-0"));
+        fileSystemInvertedIndex.commitStaged(stagedName);
+        // committing again does nothing
+        fileSystemInvertedIndex.commitStaged(stagedName);
+
+        assertEquals(List.of(staged), fileSystemInvertedIndex.select(BIN_WITH_ASSEMBLY)
+                .map(Pair::getFirst)
+                .collect(Collectors.toList()));
+        assertTrue(Files.isDirectory(rootPath.resolve(stagedName)));
+    }
+
+    @Test
+    public void whenInsertingPresentStructure_thenPresentDataIsRetained(@TempDir Path rootPath) {
+        MotifSearchConfig motifSearchConfig = new MotifSearchConfig();
+        motifSearchConfig.setRootPath(rootPath.toString());
+        InvertedIndex fileSystemInvertedIndex = new FileSystemInvertedIndex(motifSearchConfig);
+        StructureIdentifier present = new StructureIdentifier("1pre");
+        StructureIdentifier added = new StructureIdentifier("1add");
+        ResiduePairIdentifier presentIdentifier = new ResiduePairIdentifier(new LabelSelection("A", "1", 1), new LabelSelection("B", "1", 2));
+        ResiduePairIdentifier otherIdentifier = new ResiduePairIdentifier(new LabelSelection("C", "1", 3), new LabelSelection("D", "1", 4));
+        fileSystemInvertedIndex.insert(BIN_WITH_ASSEMBLY, Map.of(present, List.of(presentIdentifier)));
+
+        // e.g. when an interrupted update writes a bin again
+        fileSystemInvertedIndex.insert(BIN_WITH_ASSEMBLY, Map.of(present, List.of(otherIdentifier), added, List.of(otherIdentifier)));
+
+        Map<StructureIdentifier, ResiduePairIdentifier[]> selected = fileSystemInvertedIndex.select(BIN_WITH_ASSEMBLY)
+                .collect(Collectors.toMap(Pair::getFirst, Pair::getSecond));
+        assertEquals(Set.of(present, added), selected.keySet());
+        assertEquals(1, selected.get(present).length);
+        assertEquals(presentIdentifier.getLabelSelection1(), selected.get(present)[0].getLabelSelection1());
+        assertEquals(otherIdentifier.getLabelSelection1(), selected.get(added)[0].getLabelSelection1());
+    }
+
+    @Test
+    public void whenDeletingFromBins_thenOnlyGivenStructuresAreRemoved(@TempDir Path rootPath) {
+        MotifSearchConfig motifSearchConfig = new MotifSearchConfig();
+        motifSearchConfig.setRootPath(rootPath.toString());
+        InvertedIndex fileSystemInvertedIndex = new FileSystemInvertedIndex(motifSearchConfig);
+        StructureIdentifier removed = new StructureIdentifier("1rem");
+        StructureIdentifier retained = new StructureIdentifier("1ret");
+        ResiduePairIdentifier residuePairIdentifier = new ResiduePairIdentifier(new LabelSelection("A", "1", 1), new LabelSelection("B", "1", 2));
+        fileSystemInvertedIndex.insert(BIN_WITH_ASSEMBLY, Map.of(removed, List.of(residuePairIdentifier), retained, List.of(residuePairIdentifier)));
+
+        fileSystemInvertedIndex.delete(Map.of(BIN_WITH_ASSEMBLY, List.of(removed)));
+
+        assertEquals(Set.of(retained), fileSystemInvertedIndex.select(BIN_WITH_ASSEMBLY)
+                .map(Pair::getFirst)
+                .collect(Collectors.toSet()));
+    }
+
+    @Test
+    public void whenMergingSegments_thenBinsAreCombined(@TempDir Path rootPath) {
+        ResiduePairIdentifier residuePairIdentifier = new ResiduePairIdentifier(new LabelSelection("A", "1", 1), new LabelSelection("B", "1", 2));
+        List<Path> segments = List.of(rootPath.resolve("segment-1"), rootPath.resolve("segment-2"));
+        for (int i = 0; i < segments.size(); i++) {
+            MotifSearchConfig segmentConfig = new MotifSearchConfig();
+            segmentConfig.setRootPath(segments.get(i).toString());
+            new FileSystemInvertedIndex(segmentConfig).insert(BIN_WITH_ASSEMBLY, Map.of(new StructureIdentifier("1ab" + i), List.of(residuePairIdentifier)));
+        }
+
+        MotifSearchConfig motifSearchConfig = new MotifSearchConfig();
+        motifSearchConfig.setRootPath(rootPath.resolve("merged").toString());
+        InvertedIndex merged = new FileSystemInvertedIndex(motifSearchConfig);
+        merged.insertStagedSegments(segments);
+        merged.commitStaged();
+
+        assertEquals(Set.of("1ab0", "1ab1"), merged.select(BIN_WITH_ASSEMBLY)
+                .map(pair -> pair.getFirst().getPdbId())
+                .collect(Collectors.toSet()));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,115 @@
+package org.rcsb.strucmotif.persistence;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rcsb.strucmotif.config.MotifSearchConfig;
+import org.rcsb.strucmotif.domain.Pair;
+import org.rcsb.strucmotif.domain.Revision;
+import org.rcsb.strucmotif.domain.identifier.StructureIdentifier;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StateRepositoryImplTest {
+    private static final StructureIdentifier ID_1 = new StructureIdentifier("1acj");
+    private static final StructureIdentifier ID_2 = new StructureIdentifier("4hhb");
+    private static final StructureIdentifier ID_3 = new StructureIdentifier("1exr");
+
+    private static StateRepository createStateRepository(Path rootPath) {
+        MotifSearchConfig motifSearchConfig = new MotifSearchConfig();
+        motifSearchConfig.setRootPath(rootPath.toString());
+        return new FileSystemStateRepository(motifSearchConfig);
+    }
+
+    private static Map<StructureIdentifier, Revision> toMap(Collection<Pair<StructureIdentifier, Revision>> known) {
+        return known.stream().collect(Collectors.toMap(Pair::getFirst, Pair::getSecond));
+    }
+
+    @Test
+    public void whenModifyingState_thenStateSurvivesReload(@TempDir Path rootPath) {
+        StateRepository stateRepository = createStateRepository(rootPath);
+        stateRepository.insertKnown(List.of(new Pair<>(ID_1, new Revision(1, 2)), new Pair<>(ID_2, new Revision(1, 0))));
+        stateRepository.insertKnown(List.of(new Pair<>(ID_1, new Revision(1, 3))));
+        stateRepository.deleteKnown(List.of(ID_2));
+        stateRepository.insertDirty(List.of(ID_1, ID_2));
+        stateRepository.deleteDirty(List.of(ID_1));
+
+        StateRepository reloaded = createStateRepository(rootPath);
+        assertTrue(reloaded.isKnown(ID_1));
+        assertFalse(reloaded.isKnown(ID_2));
+        assertEquals(List.of(new Revision(1, 3)), reloaded.selectKnown().stream().map(Pair::getSecond).collect(Collectors.toList()));
+        assertEquals(Set.of(ID_2), Set.copyOf(reloaded.selectDirty()));
+    }
+
+    @Test
+    public void whenDeleting_thenKnownAndDirtyAreRemoved(@TempDir Path rootPath) {
+        StateRepository stateRepository = createStateRepository(rootPath);
+        stateRepository.insertKnown(List.of(new Pair<>(ID_1, new Revision(1, 0)), new Pair<>(ID_2, new Revision(1, 0))));
+        stateRepository.insertDirty(List.of(ID_1, ID_2));
+        stateRepository.delete(List.of(ID_1));
+
+        StateRepository reloaded = createStateRepository(rootPath);
+        assertFalse(reloaded.isKnown(ID_1));
+        assertTrue(reloaded.isKnown(ID_2));
+        assertEquals(List.of(ID_2), List.copyOf(reloaded.selectDirty()));
+    }
+
+    @Test
+    public void whenReplacingKnown_thenPreviousKnownAndDirtyAreDropped(@TempDir Path rootPath) throws IOException {
+        StateRepository stateRepository = createStateRepository(rootPath);
+        stateRepository.insertKnown(List.of(new Pair<>(ID_1, new Revision(1, 0)), new Pair<>(ID_2, new Revision(1, 0))));
+        stateRepository.insertDirty(List.of(ID_1, ID_3));
+        stateRepository.replaceKnown(List.of(new Pair<>(ID_2, new Revision(2, 0)), new Pair<>(ID_3, new Revision(1, 0))));
+
+        assertEquals(Map.of(ID_2, new Revision(2, 0), ID_3, new Revision(1, 0)), toMap(stateRepository.selectKnown()));
+        assertTrue(stateRepository.selectDirty().isEmpty());
+        // one batch per modification
+        assertEquals(3, Files.readAllLines(rootPath.resolve(MotifSearchConfig.STATE_LOG)).stream().filter("C"::equals).count());
+
+        StateRepository reloaded = createStateRepository(rootPath);
+        assertEquals(toMap(stateRepository.selectKnown()), toMap(reloaded.selectKnown()));
+        assertTrue(reloaded.selectDirty().isEmpty());
+    }
+
+    @Test
+    public void whenLogEndsWithUncommittedOperations_thenTheyAreIgnored(@TempDir Path rootPath) throws IOException {
+        // legacy lists (with a blank line) are read as snapshot
+        Files.writeString(rootPath.resolve(MotifSearchConfig.STATE_KNOWN_LIST), "\n1acj,1,2\n");
+        Files.writeString(rootPath.resolve(MotifSearchConfig.STATE_LOG), "K+,4hhb,1,0\nC\nK-,1acj\nD+,1acj\n", StandardOpenOption.CREATE);
+
+        StateRepository stateRepository = createStateRepository(rootPath);
+        assertTrue(stateRepository.isKnown(ID_1));
+        assertTrue(stateRepository.isKnown(ID_2));
+        assertTrue(stateRepository.selectDirty().isEmpty());
+        // replay writes a new snapshot
+        assertFalse(Files.exists(rootPath.resolve(MotifSearchConfig.STATE_LOG)));
+        assertEquals(2, Files.readAllLines(rootPath.resolve(MotifSearchConfig.STATE_KNOWN_LIST)).size());
+    }
+
+    @Test
+    public void whenWriteLeftTornTail_thenNextBatchDiscardsIt(@TempDir Path rootPath) throws IOException {
+        StateRepository stateRepository = createStateRepository(rootPath);
+        stateRepository.insertKnown(List.of(new Pair<>(ID_1, new Revision(1, 0))));
+        // e.g. a write that failed on a full disk: never applied in memory, ends in the middle of an operation
+        Files.writeString(rootPath.resolve(MotifSearchConfig.STATE_LOG), "K-,1acj\nD+,4h", StandardOpenOption.APPEND);
+
+        stateRepository.insertKnown(List.of(new Pair<>(ID_2, new Revision(1, 0))));
+        assertEquals(Map.of(ID_1, new Revision(1, 0), ID_2, new Revision(1, 0)), toMap(stateRepository.selectKnown()));
+        assertEquals(List.of("K+,1acj,1,0", "C", "K+,4hhb,1,0", "C"), Files.readAllLines(rootPath.resolve(MotifSearchConfig.STATE_LOG)));
+
+        StateRepository reloaded = createStateRepository(rootPath);
+        assertEquals(toMap(stateRepository.selectKnown()), toMap(reloaded.selectKnown()));
+        assertTrue(reloaded.selectDirty().isEmpty());
+    }
+}
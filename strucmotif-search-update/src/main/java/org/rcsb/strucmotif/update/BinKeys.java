@@ -0,0 +1,87 @@
+package org.rcsb.strucmotif.update;
+
+import org.rcsb.strucmotif.domain.identifier.StructureIdentifier;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * The bins which reference each indexed structure, as keys of their descriptors (see
+ * {@link OccurrenceBuffer#encode(org.rcsb.strucmotif.domain.motif.ResiduePairDescriptor)}). Recorded when a structure is
+ * indexed, so removal rewrites exactly these bins - independent of how the current code and config would describe the
+ * structure. One file per structure, structures without residue pairs have an empty file.
+ */
+class BinKeys {
+    private static final String EXTENSION = ".keys";
+    private final Path directory;
+
+    /**
+     * Construct bin keys.
+     * @param directory where to keep the files
+     */
+    BinKeys(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Record the bins of a structure, replacing a previous record.
+     * @param structureIdentifier the structure
+     * @param keys the keys of all bins which reference the structure
+     */
+    void write(StructureIdentifier structureIdentifier, int[] keys) {
+        Path path = getPath(structureIdentifier);
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(directory);
+            try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                outputStream.writeInt(keys.length);
+                for (int key : keys) {
+                    outputStream.writeInt(key);
+                }
+            }
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The bins of a structure.
+     * @param structureIdentifier the structure
+     * @return the keys of all bins which reference the structure
+     * @throws IOException if no bins were recorded (e.g. for structures indexed by an older version) or the record
+     * cannot be read
+     */
+    int[] read(StructureIdentifier structureIdentifier) throws IOException {
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(getPath(structureIdentifier))))) {
+            int[] keys = new int[inputStream.readInt()];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = inputStream.readInt();
+            }
+            return keys;
+        }
+    }
+
+    /**
+     * Remove the record of a structure.
+     * @param structureIdentifier the structure
+     */
+    void delete(StructureIdentifier structureIdentifier) {
+        try {
+            Files.deleteIfExists(getPath(structureIdentifier));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Path getPath(StructureIdentifier structureIdentifier) {
+        return directory.resolve(structureIdentifier.getPdbId().toLowerCase() + EXTENSION);
+    }
+}
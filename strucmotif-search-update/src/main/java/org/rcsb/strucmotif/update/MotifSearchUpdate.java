@@ -3,17 +3,12 @@ package org.rcsb.strucmotif.update;
 import com.google.gson.Gson;
 import org.rcsb.cif.CifIO;
 import org.rcsb.cif.schema.StandardSchemata;
-import org.rcsb.cif.schema.mm.MmCifFile;
-import org.rcsb.cif.schema.mm.PdbxAuditRevisionHistory;
 import org.rcsb.strucmotif.config.MotifSearchConfig;
 import org.rcsb.strucmotif.core.ThreadPool;
 import org.rcsb.strucmotif.domain.Pair;
-import org.rcsb.strucmotif.domain.ResidueGraph;
 import org.rcsb.strucmotif.domain.Revision;
 import org.rcsb.strucmotif.domain.identifier.StructureIdentifier;
 import org.rcsb.strucmotif.domain.motif.ResiduePairDescriptor;
-import org.rcsb.strucmotif.domain.motif.ResiduePairIdentifier;
-import org.rcsb.strucmotif.domain.structure.Structure;
 import org.rcsb.strucmotif.io.StructureDataProvider;
 import org.rcsb.strucmotif.persistence.InvertedIndex;
 import org.rcsb.strucmotif.persistence.StateRepository;
@@ -31,17 +26,20 @@ import org.springframework.context.annotation.ComponentScan;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.UncheckedIOException;
 import java.net.URL;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
@@ -51,6 +49,7 @@ import java.util.stream.Collectors;
 @EntityScan("org.rcsb.strucmotif")
 public class MotifSearchUpdate implements CommandLineRunner {
     private static final Logger logger = LoggerFactory.getLogger(MotifSearchUpdate.class);
+    private static final Set<Operation> BUILD_OPERATIONS = EnumSet.of(Operation.BULK_BUILD, Operation.PLAN_SHARDS, Operation.BUILD_SHARDS, Operation.MERGE_SHARDS);
 
     public static void main(String[] args) {
         SpringApplication.run(MotifSearchUpdate.class, args);
@@ -61,14 +60,16 @@ public class MotifSearchUpdate implements CommandLineRunner {
     private final InvertedIndex invertedIndex;
     private final MotifSearchConfig motifSearchConfig;
     private final ThreadPool threadPool;
+    private final UpdateMetrics updateMetrics;
 
     @Autowired
-    public MotifSearchUpdate(StateRepository stateRepository, StructureDataProvider structureDataProvider, InvertedIndex invertedIndex, MotifSearchConfig motifSearchConfig, ThreadPool threadPool) {
+    public MotifSearchUpdate(StateRepository stateRepository, StructureDataProvider structureDataProvider, InvertedIndex invertedIndex, MotifSearchConfig motifSearchConfig, ThreadPool threadPool, UpdateMetrics updateMetrics) {
         this.stateRepository = stateRepository;
         this.structureDataProvider = structureDataProvider;
         this.invertedIndex = invertedIndex;
         this.motifSearchConfig = motifSearchConfig;
         this.threadPool = threadPool;
+        this.updateMetrics = updateMetrics;
     }
 
     public void run(String[] args) throws Exception {
@@ -77,8 +78,11 @@ public class MotifSearchUpdate implements CommandLineRunner {
             System.out.println("Usage: java -Xmx12G -jar update.jar operation ...");
             System.out.println("Valid operation values: " + Arrays.toString(Operation.values()));
             System.out.println("Optionally: list of entry ids - (no argument performs null operation, use single argument 'full' for complete update)");
-            System.out.println("If you want to update entries you have to explicitly remove them first");
+            System.out.println("UPDATE adds new entries and reindexes known entries whose revision changed, ADD ignores known entries");
             System.out.println("Example: java -Xmx12G -jar update.jar ADD 1acj 1exr 4hhb");
+            System.out.println("MIGRATE re-encodes renumbered structures using the configured 'renumbered-compression' (all known entries if no ids are provided)");
+            System.out.println("BULK_BUILD builds a new index from the provided entries (use 'full' for the complete archive) and replaces the current index once done");
+            System.out.println("Distributed build: PLAN_SHARDS splits the provided entries into 'update-shard-count' shards, any number of processes sharing 'root-path' run BUILD_SHARDS, MERGE_SHARDS replaces the current index once all shards are built");
             return;
         }
 
@@ -93,8 +97,14 @@ public class MotifSearchUpdate implements CommandLineRunner {
             requested = Arrays.stream(ids).map(StructureIdentifier::new).collect(Collectors.toList());
         }
 
-        // check for sanity of internal state
-        if (operation != Operation.RECOVER) {
+        // finish interrupted index writes and replacements, anything not covered by the journal is dirty - distributed
+        // builds only touch the index when merging
+        if (operation != Operation.PLAN_SHARDS && operation != Operation.BUILD_SHARDS) {
+            createPipeline().resume();
+        }
+
+        // check for sanity of internal state - builds replace the index and thus all dirty entries
+        if (operation != Operation.RECOVER && !BUILD_OPERATIONS.contains(operation)) {
             Collection<StructureIdentifier> dirtyStructureIdentifiers = stateRepository.selectDirty();
             if (dirtyStructureIdentifiers.size() > 0) {
                 logger.warn("Update state is dirty - problematic identifiers:\n{}",
@@ -118,180 +128,235 @@ public class MotifSearchUpdate implements CommandLineRunner {
             case ADD:
                 add(getDeltaPlusIdentifiers(requested));
                 break;
+            case UPDATE:
+                update(requested);
+                break;
             case REMOVE:
                 remove(getDeltaMinusIdentifiers(requested));
                 break;
             case RECOVER:
                 remove(stateRepository.selectDirty());
                 break;
+            case MIGRATE:
+                migrate(requested.isEmpty() ? stateRepository.selectKnown().stream().map(Pair::getFirst).collect(Collectors.toList()) : requested);
+                break;
+            case BULK_BUILD:
+                bulkBuild(requested);
+                break;
+            case PLAN_SHARDS:
+                createShardedBuild().plan(requested);
+                break;
+            case BUILD_SHARDS:
+                createShardedBuild().build();
+                break;
+            case MERGE_SHARDS:
+                createShardedBuild().merge();
+                break;
         }
 
         logger.info("Finished update operation");
     }
 
-    public void add(Collection<StructureIdentifier> identifiers) throws ExecutionException, InterruptedException {
-        long target = identifiers.size();
-        logger.info("{} files to process in total", target);
-
-        Partition<StructureIdentifier> partitions = new Partition<>(identifiers, motifSearchConfig.getUpdateChunkSize());
-        logger.info("Formed {} partitions of {} structures",
-                partitions.size(),
-                motifSearchConfig.getUpdateChunkSize());
-
-        Context context = new Context();
-
-        // split into partitions and process
-        for (int i = 0; i < partitions.size(); i++) {
-            context.partitionContext = (i + 1) + " / " + partitions.size();
-
-            List<StructureIdentifier> partition = partitions.get(i);
-            logger.info("[{}] Start processing partition", context.partitionContext);
+    private UpdatePipeline createPipeline() {
+        return new UpdatePipeline(stateRepository, structureDataProvider, invertedIndex, motifSearchConfig, threadPool, updateMetrics, Paths.get(motifSearchConfig.getRootPath()));
+    }
 
-            context.structureCounter = new AtomicInteger();
-            context.buffer = new ConcurrentHashMap<>();
-            threadPool.submit(() -> {
-                partition.parallelStream().forEach(id -> handleStructureIdentifier(id, context));
-                return null;
-            }).get();
+    private ShardedBuild createShardedBuild() {
+        return new ShardedBuild(stateRepository, structureDataProvider, invertedIndex, motifSearchConfig, threadPool, updateMetrics);
+    }
 
-            // mark as dirty only around index update
-            stateRepository.insertDirty(partition);
-            persist(context);
-        }
+    public void add(Collection<StructureIdentifier> identifiers) throws ExecutionException, InterruptedException {
+        logger.info("{} files to process in total", identifiers.size());
+        createPipeline().run(identifiers);
     }
 
-    static class Context {
-        final Set<Pair<StructureIdentifier, Revision>> processed;
-        String partitionContext;
-        Map<ResiduePairDescriptor, Map<StructureIdentifier, Collection<ResiduePairIdentifier>>> buffer;
-        AtomicInteger structureCounter;
+    /**
+     * Add new structures and reindex known structures whose revision changed. This happens in two separate steps:
+     * revised structures are removed first, then they are added together with the new ones. A crash between both steps
+     * leaves the revised structures unknown (they are neither indexed nor part of the state), so the next update adds
+     * them as new structures. Structures whose source cannot be read keep their indexed data.
+     * @param requested the requested update
+     */
+    public void update(Collection<StructureIdentifier> requested) throws ExecutionException, InterruptedException {
+        Map<StructureIdentifier, Revision> known = stateRepository.selectKnown().stream()
+                .collect(Collectors.toMap(Pair::getFirst, Pair::getSecond, (r1, r2) -> r2));
+        Set<StructureIdentifier> added = requested.stream()
+                .filter(id -> !known.containsKey(id))
+                .collect(Collectors.toSet());
+        Collection<StructureIdentifier> revised = getRevisedIdentifiers(requested.stream()
+                .filter(known::containsKey)
+                .collect(Collectors.toSet()), known);
+        logger.info("{} new and {} revised entries",
+                added.size(),
+                revised.size());
+
+        // not atomic: revised entries that fail to be added again are reported as new by subsequent updates
+        remove(revised);
+        added.addAll(revised);
+        add(added);
+    }
 
-        public Context() {
-            this.processed = Collections.synchronizedSet(new HashSet<>());
-        }
+    /**
+     * Determine all known IDs whose source files report another revision than the indexed one.
+     * @param candidates the IDs to check
+     * @param known the indexed revisions
+     * @return all revised IDs
+     */
+    public Collection<StructureIdentifier> getRevisedIdentifiers(Collection<StructureIdentifier> candidates, Map<StructureIdentifier, Revision> known) throws ExecutionException, InterruptedException {
+        logger.info("Checking revisions of {} known entries", candidates.size());
+        AtomicInteger counter = new AtomicInteger();
+        return threadPool.submit(() -> candidates.parallelStream()
+                .filter(structureIdentifier -> {
+                    int count = counter.incrementAndGet();
+                    if (count % 10000 == 0) {
+                        logger.info("{} / {}",
+                                count,
+                                candidates.size());
+                    }
+
+                    Revision revision;
+                    try (InputStream inputStream = structureDataProvider.getOriginalInputStream(structureIdentifier)) {
+                        revision = UpdatePipeline.getRevision(CifIO.readFromInputStream(inputStream).as(StandardSchemata.MMCIF));
+                    } catch (IOException | RuntimeException e) {
+                        // e.g. unreachable, unparsable, or without revision history
+                        logger.warn("[{}] Failed to determine revision - keeping indexed data",
+                                structureIdentifier.getPdbId(),
+                                e);
+                        return false;
+                    }
+                    return !revision.equals(known.get(structureIdentifier));
+                })
+                .collect(Collectors.toSet())).get();
     }
 
-    private void handleStructureIdentifier(StructureIdentifier structureIdentifier, Context context) {
-        int count = context.structureCounter.incrementAndGet();
-        String structureContext = count + " / " + motifSearchConfig.getUpdateChunkSize() + "] [" + structureIdentifier.getPdbId();
-
-        try {
-            // write renumbered structure
-            MmCifFile mmCifFile = CifIO.readFromInputStream(structureDataProvider.getOriginalInputStream(structureIdentifier)).as(StandardSchemata.MMCIF);
-            Revision revision = getRevision(mmCifFile);
-            structureDataProvider.writeRenumbered(structureIdentifier, mmCifFile);
-            context.processed.add(new Pair<>(structureIdentifier, revision));
-        } catch (IOException e) {
-            throw new UncheckedIOException("cif parsing failed for " + structureIdentifier, e);
-        }
+    /**
+     * Build the index from scratch for the given structures, each bin is written once. The current index remains
+     * searchable until it is replaced by the new one.
+     * @param identifiers all structures of the new index
+     */
+    public void bulkBuild(Collection<StructureIdentifier> identifiers) throws ExecutionException, InterruptedException {
+        logger.info("{} files to process in total", identifiers.size());
+        createPipeline().rebuild(new HashSet<>(identifiers));
+    }
 
-        // fails when file is missing (should not happen) or does not contain valid polymer chain
-        Structure structure;
-        try {
-            structure = structureDataProvider.readRenumbered(structureIdentifier);
-        } catch (UncheckedIOException e) {
-            // can 'safely' happen when obsolete entry was dropped from bcif data but still lingers in list
-            logger.warn("[{}] [{}] Source file missing unexpectedly - obsolete entry?",
-                    context.partitionContext,
-                    structureContext,
-                    e);
-            return;
-        } catch (UnsupportedOperationException e) {
-            logger.warn("[{}] [{}] No valid polymer chains",
-                    context.partitionContext,
-                    structureContext);
+    /**
+     * Remove structures from renumbered data, index, and state. The bins which reference a structure were recorded when
+     * it was indexed, so only these bins are rewritten. Structures without record (e.g. indexed by an older version)
+     * are removed by cleaning the whole index instead. State is written once, after all data is removed.
+     * @param identifiers the structures to remove
+     */
+    public void remove(Collection<StructureIdentifier> identifiers) throws ExecutionException, InterruptedException {
+        if (identifiers.isEmpty()) {
+            logger.info("Finished removal operation - no structures to remove");
             return;
         }
 
-        try {
-            ResidueGraph residueGraph = new ResidueGraph(structure, motifSearchConfig.getSquaredDistanceCutoff());
+        List<StructureIdentifier> removals = new ArrayList<>(new LinkedHashSet<>(identifiers));
+        logger.info("Removing {} structures",
+                removals.size());
+
+        // bin keys are deleted after the index, an interrupted removal can be repeated
+        BinKeys binKeys = createBinKeys();
+        Set<StructureIdentifier> unresolved = ConcurrentHashMap.newKeySet();
+        int chunkSize = motifSearchConfig.getUpdateChunkSize();
+        for (int from = 0; from < removals.size(); from += chunkSize) {
+            List<StructureIdentifier> chunk = removals.subList(from, Math.min(from + chunkSize, removals.size()));
+            Map<ResiduePairDescriptor, Collection<StructureIdentifier>> bins = getBins(binKeys, chunk, unresolved);
+            threadPool.submit(() -> {
+                invertedIndex.delete(bins);
+                return null;
+            }).get();
+            logger.info("[{} / {}] Removed structures from {} bins",
+                    from + chunk.size(),
+                    removals.size(),
+                    bins.size());
+        }
 
-            // extract motifs
-            AtomicInteger structureMotifCounter = new AtomicInteger();
+        if (!unresolved.isEmpty()) {
+            logger.warn("Bins of {} structures were not recorded, cleaning whole index",
+                    unresolved.size());
             threadPool.submit(() -> {
-                residueGraph.residuePairOccurrencesParallel()
-                        .forEach(motifOccurrence -> {
-                            ResiduePairDescriptor motifDescriptor = motifOccurrence.getResiduePairDescriptor();
-                            ResiduePairIdentifier targetIdentifier = motifOccurrence.getResidueIdentifier();
-
-                            Map<StructureIdentifier, Collection<ResiduePairIdentifier>> groupedTargetIdentifiers = context.buffer.computeIfAbsent(motifDescriptor, k -> Collections.synchronizedMap(new HashMap<>()));
-                            Collection<ResiduePairIdentifier> targetIdentifiers = groupedTargetIdentifiers.computeIfAbsent(structureIdentifier, k -> Collections.synchronizedSet(new HashSet<>()));
-                            targetIdentifiers.add(targetIdentifier);
-                            structureMotifCounter.incrementAndGet();
-                        });
+                invertedIndex.delete(unresolved);
                 return null;
             }).get();
-            logger.info("[{}] [{}] Extracted {} residue pairs",
-                    context.partitionContext,
-                    structureContext,
-                    structureMotifCounter.get());
-        } catch (Exception e) {
-            logger.warn("[{}] [{}] Residue graph determination failed",
-                    context.partitionContext,
-                    structureContext,
-                    e);
-            // fail complete update
-            throw new RuntimeException(e);
         }
-    }
 
-    private Revision getRevision(MmCifFile mmCifFile) {
-        PdbxAuditRevisionHistory pdbxAuditRevisionHistory = mmCifFile.getFirstBlock().getPdbxAuditRevisionHistory();
-        int last = pdbxAuditRevisionHistory.getRowCount() - 1;
-        return new Revision(pdbxAuditRevisionHistory.getMajorRevision().get(last), pdbxAuditRevisionHistory.getMinorRevision().get(last));
+        threadPool.submit(() -> {
+            removals.parallelStream().forEach(structureIdentifier -> {
+                structureDataProvider.deleteRenumbered(structureIdentifier);
+                binKeys.delete(structureIdentifier);
+            });
+            return null;
+        }).get();
+
+        stateRepository.delete(removals);
+        logger.info("Finished removal operation");
     }
 
-    private void persist(Context context) throws ExecutionException, InterruptedException {
-        logger.info("[{}] Persisting {} unique residue pair descriptors",
-                context.partitionContext,
-                context.buffer.size());
+    private BinKeys createBinKeys() {
+        return new BinKeys(Paths.get(motifSearchConfig.getRootPath()).resolve(MotifSearchConfig.BIN_KEYS_DIRECTORY));
+    }
 
-        final int bufferTotal = context.buffer.size();
-        AtomicInteger bufferCount = new AtomicInteger();
+    /**
+     * Determine the bins which reference some structures, as recorded when they were indexed.
+     * @param binKeys the recorded bins
+     * @param structureIdentifiers the structures
+     * @param unresolved collects structures whose bins were not recorded
+     * @return the bins and the structures they reference
+     */
+    private Map<ResiduePairDescriptor, Collection<StructureIdentifier>> getBins(BinKeys binKeys, Collection<StructureIdentifier> structureIdentifiers, Set<StructureIdentifier> unresolved) throws ExecutionException, InterruptedException {
+        Map<Integer, Collection<StructureIdentifier>> keys = new ConcurrentHashMap<>();
         threadPool.submit(() -> {
-            context.buffer.entrySet().parallelStream().forEach(entry -> {
-                ResiduePairDescriptor full = entry.getKey();
-                Map<StructureIdentifier, Collection<ResiduePairIdentifier>> output = entry.getValue();
-
-                if (bufferCount.incrementAndGet() % 100000 == 0) {
-                    logger.info("[{}] {} / {}",
-                            context.partitionContext,
-                            bufferCount,
-                            bufferTotal);
+            structureIdentifiers.parallelStream().forEach(structureIdentifier -> {
+                int[] structureKeys;
+                try {
+                    structureKeys = binKeys.read(structureIdentifier);
+                } catch (IOException e) {
+                    logger.warn("[{}] No bins recorded",
+                            structureIdentifier.getPdbId());
+                    unresolved.add(structureIdentifier);
+                    return;
                 }
 
-                invertedIndex.insert(full, output);
-
-                // writing takes additional heap - ease burden by dropping processed output bins
-                output.clear();
+                for (int key : structureKeys) {
+                    keys.computeIfAbsent(key, k -> new ConcurrentLinkedQueue<>()).add(structureIdentifier);
+                }
             });
             return null;
         }).get();
 
-        context.buffer.clear();
-
-        // processed contains all StructureIdentifiers + corresponding revision
-        stateRepository.insertKnown(context.processed);
-        stateRepository.deleteDirty(context.processed.stream().map(Pair::getFirst).collect(Collectors.toSet()));
-        context.processed.clear();
+        Map<ResiduePairDescriptor, Collection<StructureIdentifier>> bins = new HashMap<>();
+        keys.forEach((key, value) -> bins.put(OccurrenceBuffer.decode(key), value));
+        return bins;
     }
 
-    public void remove(Collection<StructureIdentifier> identifiers) {
+    /**
+     * Re-encode renumbered structures that were written with another compression than the configured one.
+     * @param identifiers the structures to migrate
+     */
+    public void migrate(Collection<StructureIdentifier> identifiers) throws ExecutionException, InterruptedException {
+        logger.info("Migrating {} renumbered structures to {}",
+                identifiers.size(),
+                motifSearchConfig.getRenumberedCompression());
+
         AtomicInteger counter = new AtomicInteger();
-        for (StructureIdentifier structureIdentifier : identifiers) {
-            logger.info("[{}] Removing renumbered structure for entry: {}",
-                    counter.incrementAndGet() + " / " + identifiers.size(),
-                    structureIdentifier);
-            structureDataProvider.deleteRenumbered(structureIdentifier);
-        }
+        AtomicInteger migrated = new AtomicInteger();
+        threadPool.submit(() -> {
+            identifiers.parallelStream().forEach(structureIdentifier -> {
+                if (structureDataProvider.migrateRenumbered(structureIdentifier)) {
+                    migrated.incrementAndGet();
+                }
 
-        // inverted index is expensive and should be done as batch
-        if (identifiers.size() > 0) {
-            invertedIndex.delete(identifiers);
-            stateRepository.deleteKnown(identifiers);
-            stateRepository.deleteDirty(identifiers);
-        }
-        logger.info("Finished removal operation");
+                int count = counter.incrementAndGet();
+                if (count % 10000 == 0) {
+                    logger.info("{} / {}",
+                            count,
+                            identifiers.size());
+                }
+            });
+            return null;
+        }).get();
+        logger.info("Finished migration operation - re-encoded {} structures", migrated.get());
     }
 
     public List<StructureIdentifier> getAllIdentifiers() throws IOException {
@@ -336,15 +401,9 @@ public class MotifSearchUpdate implements CommandLineRunner {
      * @return array of IDs that need to be processed for the given context
      */
     public Collection<StructureIdentifier> getDeltaPlusIdentifiers(Collection<StructureIdentifier> requested) {
-        Collection<StructureIdentifier> known = stateRepository.selectKnown().stream().map(Pair::getFirst).collect(Collectors.toSet());
-        if (known.isEmpty()) {
-            logger.warn("No existing data - starting from scratch");
-            return requested;
-        } else {
-            return requested.stream()
-                    .filter(id -> !known.contains(id))
-                    .collect(Collectors.toSet());
-        }
+        return requested.stream()
+                .filter(id -> !stateRepository.isKnown(id))
+                .collect(Collectors.toSet());
     }
 
     /**
@@ -353,14 +412,8 @@ public class MotifSearchUpdate implements CommandLineRunner {
      * @return array of IDs that need to be remove for the given context
      */
     public Collection<StructureIdentifier> getDeltaMinusIdentifiers(Collection<StructureIdentifier> requested) {
-        Collection<StructureIdentifier> known = stateRepository.selectKnown().stream().map(Pair::getFirst).collect(Collectors.toSet());
-        if (known.isEmpty()) {
-            logger.warn("No existing data - no need for cleanup of obsolete entries");
-            return Collections.emptySet();
-        } else {
-            return known.stream()
-                    .filter(requested::contains)
-                    .collect(Collectors.toSet());
-        }
+        return requested.stream()
+                .filter(stateRepository::isKnown)
+                .collect(Collectors.toSet());
     }
 }
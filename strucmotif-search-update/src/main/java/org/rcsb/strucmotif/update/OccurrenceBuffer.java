@@ -0,0 +1,512 @@
+package org.rcsb.strucmotif.update;
+
+import org.rcsb.strucmotif.domain.identifier.StructureIdentifier;
+import org.rcsb.strucmotif.domain.motif.AngleType;
+import org.rcsb.strucmotif.domain.motif.DistanceType;
+import org.rcsb.strucmotif.domain.motif.ResiduePairDescriptor;
+import org.rcsb.strucmotif.domain.motif.ResiduePairIdentifier;
+import org.rcsb.strucmotif.domain.selection.LabelSelection;
+import org.rcsb.strucmotif.domain.structure.ResidueType;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Buffers residue pair occurrences of several structures as fixed-size records of 8 ints: descriptor key, structure,
+ * and both label selections (seq ids and codes of asym ids and struct_oper_ids). Once the records exceed the memory
+ * budget, they are sorted by descriptor key and spilled as a run to disk. {@link #merge()} reads all runs (including
+ * the records still in memory) in a k-way merge and reports the occurrences of one descriptor at a time, so memory is
+ * bounded by the budget and the largest bin rather than by the number of structures.
+ * <p>Records of a structure are added at once and structures are numbered consecutively, so each run and the merge
+ * report structures in the order they were added. Not thread-safe.
+ */
+class OccurrenceBuffer implements Closeable {
+    private static final int RECORD_SIZE = 8;
+    private static final int RECORD_BYTES = RECORD_SIZE * Integer.BYTES;
+    private static final int IO_BUFFER_SIZE = 65536;
+    private static final ResidueType[] RESIDUE_TYPES = ResidueType.values();
+    private static final DistanceType[] DISTANCE_TYPES = DistanceType.values();
+    private static final AngleType[] ANGLE_TYPES = AngleType.values();
+    private final Path spillDirectory;
+    private final int maxRecords;
+    private final List<StructureIdentifier> structureIdentifiers;
+    private final Map<String, Integer> codes;
+    private final List<String> strings;
+    private final List<Path> runs;
+    private int[] records;
+    private int recordCount;
+    private long totalRecordCount;
+    // read by other threads to report memory usage
+    private volatile long recordMemoryUsage;
+    private volatile long mergeMemoryUsage;
+
+    /**
+     * Construct a buffer.
+     * @param spillDirectory where to write runs
+     * @param memoryBudget the number of bytes of records to hold in memory
+     */
+    OccurrenceBuffer(Path spillDirectory, long memoryBudget) {
+        this.spillDirectory = spillDirectory;
+        this.maxRecords = (int) Math.max(1, Math.min(Integer.MAX_VALUE / RECORD_SIZE, memoryBudget / RECORD_BYTES));
+        this.structureIdentifiers = new ArrayList<>();
+        this.codes = new HashMap<>();
+        this.strings = new ArrayList<>();
+        this.runs = new ArrayList<>();
+        setRecords(new int[RECORD_SIZE * Math.min(maxRecords, 1024)]);
+    }
+
+    /**
+     * Restore a buffer from runs of an interrupted update. No records can be added.
+     * @param structureIdentifiers the structures, in order of their numbers in the runs
+     * @param strings the dictionary of the runs
+     * @param runs the runs
+     * @return a buffer that can be merged
+     * @throws IOException if runs cannot be accessed
+     */
+    static OccurrenceBuffer restore(List<StructureIdentifier> structureIdentifiers, List<String> strings, List<Path> runs) throws IOException {
+        OccurrenceBuffer buffer = new OccurrenceBuffer(null, 0);
+        buffer.structureIdentifiers.addAll(structureIdentifiers);
+        buffer.strings.addAll(strings);
+        buffer.runs.addAll(runs);
+        for (Path run : runs) {
+            buffer.totalRecordCount += Files.size(run) / RECORD_BYTES;
+        }
+        return buffer;
+    }
+
+    /**
+     * Encode a descriptor as int, equal descriptors (and only those) have equal keys.
+     * @param residuePairDescriptor the descriptor
+     * @return the key
+     */
+    static int encode(ResiduePairDescriptor residuePairDescriptor) {
+        int key = residuePairDescriptor.getResidueType1().ordinal();
+        key = key * RESIDUE_TYPES.length + residuePairDescriptor.getResidueType2().ordinal();
+        key = key * DISTANCE_TYPES.length + residuePairDescriptor.getBackboneDistance().ordinal();
+        key = key * DISTANCE_TYPES.length + residuePairDescriptor.getSideChainDistance().ordinal();
+        return key * ANGLE_TYPES.length + residuePairDescriptor.getAngle().ordinal();
+    }
+
+    /**
+     * Decode a descriptor.
+     * @param key the output of {@link #encode(ResiduePairDescriptor)}
+     * @return the descriptor
+     */
+    static ResiduePairDescriptor decode(int key) {
+        AngleType angle = ANGLE_TYPES[key % ANGLE_TYPES.length];
+        key /= ANGLE_TYPES.length;
+        DistanceType sideChainDistance = DISTANCE_TYPES[key % DISTANCE_TYPES.length];
+        key /= DISTANCE_TYPES.length;
+        DistanceType backboneDistance = DISTANCE_TYPES[key % DISTANCE_TYPES.length];
+        key /= DISTANCE_TYPES.length;
+        ResidueType residueType2 = RESIDUE_TYPES[key % RESIDUE_TYPES.length];
+        ResidueType residueType1 = RESIDUE_TYPES[key / RESIDUE_TYPES.length];
+        return new ResiduePairDescriptor(residueType1, residueType2, backboneDistance, sideChainDistance, angle, null);
+    }
+
+    /**
+     * Add the occurrences of a structure. Spills a run if the memory budget is exhausted afterwards.
+     * @param structureIdentifier the structure
+     * @param structureRecords its occurrences
+     */
+    void add(StructureIdentifier structureIdentifier, StructureRecords structureRecords) {
+        int structure = structureIdentifiers.size();
+        structureIdentifiers.add(structureIdentifier);
+
+        // translate codes of the structure to codes of this buffer
+        int[] translation = new int[structureRecords.strings.size()];
+        for (int i = 0; i < translation.length; i++) {
+            translation[i] = codes.computeIfAbsent(structureRecords.strings.get(i), string -> {
+                strings.add(string);
+                return strings.size() - 1;
+            });
+        }
+
+        ensureCapacity(recordCount + structureRecords.count);
+        int[] source = structureRecords.records;
+        for (int i = 0; i < structureRecords.count; i++) {
+            int from = i * StructureRecords.RECORD_SIZE;
+            int to = recordCount * RECORD_SIZE;
+            records[to] = source[from];
+            records[to + 1] = structure;
+            records[to + 2] = source[from + 1];
+            records[to + 3] = source[from + 2];
+            records[to + 4] = translation[source[from + 3]];
+            records[to + 5] = translation[source[from + 4]];
+            records[to + 6] = translation[source[from + 5]];
+            records[to + 7] = translation[source[from + 6]];
+            recordCount++;
+        }
+        totalRecordCount += structureRecords.count;
+
+        if (recordCount >= maxRecords) {
+            spill();
+        }
+    }
+
+    private void ensureCapacity(int count) {
+        if (records.length >= RECORD_SIZE * count) {
+            return;
+        }
+
+        int capacity = Math.max(count, Math.min(maxRecords, 2 * records.length / RECORD_SIZE));
+        setRecords(Arrays.copyOf(records, RECORD_SIZE * capacity));
+    }
+
+    private void setRecords(int[] records) {
+        this.records = records;
+        this.recordMemoryUsage = (long) records.length * Integer.BYTES;
+    }
+
+    /**
+     * Sorted positions of the records in memory: ordered by descriptor key, then by position, i.e. structure.
+     */
+    private long[] sortRecords() {
+        long[] order = new long[recordCount];
+        for (int i = 0; i < recordCount; i++) {
+            order[i] = ((long) records[i * RECORD_SIZE] << 32) | i;
+        }
+        Arrays.sort(order);
+        return order;
+    }
+
+    private void spill() {
+        long[] order = sortRecords();
+        try {
+            Path run = Files.createTempFile(spillDirectory, "occurrences-", ".run");
+            runs.add(run);
+            try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), IO_BUFFER_SIZE))) {
+                for (long position : order) {
+                    int offset = (int) position * RECORD_SIZE;
+                    for (int i = 0; i < RECORD_SIZE; i++) {
+                        outputStream.writeInt(records[offset + i]);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        recordCount = 0;
+        setRecords(new int[RECORD_SIZE * Math.min(maxRecords, 1024)]);
+    }
+
+    /**
+     * Spill all records held in memory, afterwards the runs contain all records.
+     */
+    void flush() {
+        if (recordCount > 0) {
+            spill();
+        }
+    }
+
+    /**
+     * The runs written to disk so far.
+     * @return a list of paths
+     */
+    List<Path> getRuns() {
+        return runs;
+    }
+
+    /**
+     * The dictionary of asym ids and struct_oper_ids referenced by records.
+     * @return a list of strings, indexed by code
+     */
+    List<String> getStrings() {
+        return strings;
+    }
+
+    /**
+     * The structures added to this buffer.
+     * @return a collection of identifiers
+     */
+    List<StructureIdentifier> getStructureIdentifiers() {
+        return structureIdentifiers;
+    }
+
+    /**
+     * The number of occurrences added to this buffer.
+     * @return the number of records
+     */
+    long getRecordCount() {
+        return totalRecordCount;
+    }
+
+    /**
+     * The memory held by records which are not spilled yet and, while merging, by the sort order of these records and
+     * the read buffers of all runs. Can be called by any thread.
+     * @return the number of bytes
+     */
+    long getMemoryUsage() {
+        return recordMemoryUsage + mergeMemoryUsage;
+    }
+
+    /**
+     * The number of runs written to disk so far.
+     * @return the number of runs
+     */
+    int getRunCount() {
+        return runs.size();
+    }
+
+    /**
+     * Merge all records. No records can be added afterwards.
+     * @return a merge which reports one descriptor at a time, in order of descriptor keys
+     */
+    Merge merge() {
+        List<Cursor> cursors = new ArrayList<>();
+        try {
+            for (Path run : runs) {
+                cursors.add(new FileCursor(run));
+            }
+        } catch (IOException e) {
+            cursors.forEach(Cursor::close);
+            throw new UncheckedIOException(e);
+        }
+        long[] order = sortRecords();
+        cursors.add(new MemoryCursor(records, order));
+        mergeMemoryUsage = (long) runs.size() * IO_BUFFER_SIZE + (long) order.length * Long.BYTES;
+        return new Merge(cursors);
+    }
+
+    /**
+     * Deletes all runs.
+     */
+    @Override
+    public void close() {
+        for (Path run : runs) {
+            try {
+                Files.deleteIfExists(run);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        runs.clear();
+        setRecords(new int[0]);
+        recordCount = 0;
+    }
+
+    /**
+     * Occurrences of a single structure, with codes of strings local to this structure. Each record consists of
+     * descriptor key, both seq ids, and the codes of both asym ids and both struct_oper_ids.
+     */
+    static class StructureRecords {
+        private static final int RECORD_SIZE = 7;
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        private int[] records = new int[RECORD_SIZE * 64];
+        private int count;
+
+        /**
+         * Add an occurrence.
+         * @param residuePairDescriptor the descriptor
+         * @param residuePairIdentifier the identifier
+         */
+        void add(ResiduePairDescriptor residuePairDescriptor, ResiduePairIdentifier residuePairIdentifier) {
+            if (records.length == RECORD_SIZE * count) {
+                records = Arrays.copyOf(records, 2 * records.length);
+            }
+
+            LabelSelection labelSelection1 = residuePairIdentifier.getLabelSelection1();
+            LabelSelection labelSelection2 = residuePairIdentifier.getLabelSelection2();
+            int offset = RECORD_SIZE * count;
+            records[offset] = encode(residuePairDescriptor);
+            records[offset + 1] = labelSelection1.getLabelSeqId();
+            records[offset + 2] = labelSelection2.getLabelSeqId();
+            records[offset + 3] = code(labelSelection1.getLabelAsymId());
+            records[offset + 4] = code(labelSelection2.getLabelAsymId());
+            records[offset + 5] = code(labelSelection1.getStructOperId());
+            records[offset + 6] = code(labelSelection2.getStructOperId());
+            count++;
+        }
+
+        private int code(String string) {
+            return codes.computeIfAbsent(string, s -> {
+                strings.add(s);
+                return strings.size() - 1;
+            });
+        }
+
+        /**
+         * The number of occurrences.
+         * @return the number of records
+         */
+        int size() {
+            return count;
+        }
+
+        /**
+         * Keys of the descriptors of all bins which reference this structure.
+         * @return distinct keys, in ascending order
+         */
+        int[] getKeys() {
+            int[] keys = new int[count];
+            for (int i = 0; i < count; i++) {
+                keys[i] = records[RECORD_SIZE * i];
+            }
+            return Arrays.stream(keys).sorted().distinct().toArray();
+        }
+    }
+
+    /**
+     * Reads all runs side by side and reports the occurrences of one descriptor at a time.
+     */
+    class Merge implements Closeable {
+        private final PriorityQueue<Cursor> queue;
+        private final List<Cursor> cursors;
+        private ResiduePairDescriptor residuePairDescriptor;
+        private Map<StructureIdentifier, Collection<ResiduePairIdentifier>> occurrences;
+
+        private Merge(List<Cursor> cursors) {
+            this.cursors = cursors;
+            // runs hold disjoint structures: ties of descriptor keys are broken by structure to retain the order
+            this.queue = new PriorityQueue<>(Math.max(1, cursors.size()), (c1, c2) -> {
+                int comparison = Integer.compare(c1.record[0], c2.record[0]);
+                return comparison != 0 ? comparison : Integer.compare(c1.record[1], c2.record[1]);
+            });
+            for (Cursor cursor : cursors) {
+                if (cursor.advance()) {
+                    queue.add(cursor);
+                }
+            }
+        }
+
+        /**
+         * Move to the next descriptor.
+         * @return false if all descriptors have been reported
+         */
+        boolean next() {
+            if (queue.isEmpty()) {
+                residuePairDescriptor = null;
+                occurrences = null;
+                return false;
+            }
+
+            int key = queue.peek().record[0];
+            residuePairDescriptor = decode(key);
+            occurrences = new LinkedHashMap<>();
+            while (!queue.isEmpty() && queue.peek().record[0] == key) {
+                Cursor cursor = queue.poll();
+                boolean hasNext;
+                do {
+                    int[] record = cursor.record;
+                    LabelSelection labelSelection1 = new LabelSelection(strings.get(record[4]), strings.get(record[6]), record[2]);
+                    LabelSelection labelSelection2 = new LabelSelection(strings.get(record[5]), strings.get(record[7]), record[3]);
+                    occurrences.computeIfAbsent(structureIdentifiers.get(record[1]), k -> new ArrayList<>())
+                            .add(new ResiduePairIdentifier(labelSelection1, labelSelection2));
+                    hasNext = cursor.advance();
+                } while (hasNext && cursor.record[0] == key);
+
+                if (hasNext) {
+                    queue.add(cursor);
+                }
+            }
+            return true;
+        }
+
+        /**
+         * The current descriptor.
+         * @return a descriptor
+         */
+        ResiduePairDescriptor getResiduePairDescriptor() {
+            return residuePairDescriptor;
+        }
+
+        /**
+         * Occurrences of the current descriptor, grouped by structure.
+         * @return a map that can be modified by the caller
+         */
+        Map<StructureIdentifier, Collection<ResiduePairIdentifier>> getOccurrences() {
+            return occurrences;
+        }
+
+        @Override
+        public void close() {
+            cursors.forEach(Cursor::close);
+            mergeMemoryUsage = 0;
+        }
+    }
+
+    private abstract static class Cursor {
+        final int[] record = new int[RECORD_SIZE];
+
+        abstract boolean advance();
+
+        void close() {
+        }
+    }
+
+    private static class MemoryCursor extends Cursor {
+        private final int[] records;
+        private final long[] order;
+        private int position;
+
+        MemoryCursor(int[] records, long[] order) {
+            this.records = records;
+            this.order = order;
+        }
+
+        @Override
+        boolean advance() {
+            if (position == order.length) {
+                return false;
+            }
+
+            System.arraycopy(records, (int) order[position++] * RECORD_SIZE, record, 0, RECORD_SIZE);
+            return true;
+        }
+    }
+
+    private static class FileCursor extends Cursor {
+        private final DataInputStream inputStream;
+
+        FileCursor(Path run) throws IOException {
+            this.inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), IO_BUFFER_SIZE));
+        }
+
+        @Override
+        boolean advance() {
+            try {
+                record[0] = inputStream.readInt();
+            } catch (EOFException e) {
+                return false;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            try {
+                for (int i = 1; i < RECORD_SIZE; i++) {
+                    record[i] = inputStream.readInt();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("truncated run", e);
+            }
+            return true;
+        }
+
+        @Override
+        void close() {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
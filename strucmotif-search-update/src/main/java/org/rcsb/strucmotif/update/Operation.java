@@ -5,8 +5,14 @@ import java.util.NoSuchElementException;
 
 public enum Operation {
     ADD,
+    UPDATE,
     REMOVE,
-    RECOVER;
+    RECOVER,
+    MIGRATE,
+    BULK_BUILD,
+    PLAN_SHARDS,
+    BUILD_SHARDS,
+    MERGE_SHARDS;
 
     public static Operation resolve(String s) {
         String uc = s.toUpperCase();
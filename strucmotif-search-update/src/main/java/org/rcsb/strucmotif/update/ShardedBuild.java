@@ -0,0 +1,252 @@
+package org.rcsb.strucmotif.update;
+
+import org.rcsb.strucmotif.config.MotifSearchConfig;
+import org.rcsb.strucmotif.core.ThreadPool;
+import org.rcsb.strucmotif.domain.Pair;
+import org.rcsb.strucmotif.domain.Revision;
+import org.rcsb.strucmotif.domain.identifier.StructureIdentifier;
+import org.rcsb.strucmotif.io.StructureDataProvider;
+import org.rcsb.strucmotif.persistence.FileSystemInvertedIndex;
+import org.rcsb.strucmotif.persistence.FileSystemStateRepository;
+import org.rcsb.strucmotif.persistence.InvertedIndex;
+import org.rcsb.strucmotif.persistence.StateRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Builds the index with several processes that share <code>root-path</code>, e.g. on different machines with shared
+ * storage. Coordination is file-based, all files reside in <code>root-path/build</code>:
+ * <ul>
+ *     <li><b>plan:</b> the entry list is split into <code>update-shard-count</code> shards
+ *     (<code>shard-0001.list</code>)</li>
+ *     <li><b>build:</b> workers claim shards by atomically creating <code>shard-0001.claim</code>. Each shard is built
+ *     like a bulk build into an independent index segment (<code>segment-0001</code>), renumbered structures are written
+ *     to the shared renumbered directory. <code>shard-0001.done</code> marks a finished segment.</li>
+ *     <li><b>merge:</b> once all segments are done, their bins are combined into a staged index which replaces the
+ *     current index</li>
+ * </ul>
+ * If a worker fails, the claim of its shard can be deleted to make the shard available again.
+ */
+class ShardedBuild {
+    private static final Logger logger = LoggerFactory.getLogger(ShardedBuild.class);
+    private static final String SHARD_PREFIX = "shard-";
+    private static final String LIST_SUFFIX = ".list";
+    private static final String CLAIM_SUFFIX = ".claim";
+    private static final String DONE_SUFFIX = ".done";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private final StateRepository stateRepository;
+    private final StructureDataProvider structureDataProvider;
+    private final InvertedIndex invertedIndex;
+    private final MotifSearchConfig motifSearchConfig;
+    private final ThreadPool threadPool;
+    private final UpdateMetrics updateMetrics;
+    private final Path buildDirectory;
+
+    ShardedBuild(StateRepository stateRepository, StructureDataProvider structureDataProvider, InvertedIndex invertedIndex, MotifSearchConfig motifSearchConfig, ThreadPool threadPool, UpdateMetrics updateMetrics) {
+        this.stateRepository = stateRepository;
+        this.structureDataProvider = structureDataProvider;
+        this.invertedIndex = invertedIndex;
+        this.motifSearchConfig = motifSearchConfig;
+        this.threadPool = threadPool;
+        this.updateMetrics = updateMetrics;
+        this.buildDirectory = Paths.get(motifSearchConfig.getRootPath()).resolve(MotifSearchConfig.BUILD_DIRECTORY);
+    }
+
+    /**
+     * Split structures into shards.
+     * @param identifiers all structures of the new index
+     */
+    void plan(Collection<StructureIdentifier> identifiers) {
+        if (!getShards().isEmpty()) {
+            throw new IllegalStateException("A distributed build is in progress - merge it or delete " + buildDirectory);
+        }
+
+        List<StructureIdentifier> pending = new ArrayList<>(identifiers);
+        // shuffle to distribute large structures evenly
+        Collections.shuffle(pending);
+        int shardCount = Math.max(1, Math.min(motifSearchConfig.getUpdateShardCount(), pending.size()));
+        try {
+            Files.createDirectories(buildDirectory);
+            for (int shard = 0; shard < shardCount; shard++) {
+                List<String> lines = new ArrayList<>();
+                for (int i = shard; i < pending.size(); i += shardCount) {
+                    lines.add(pending.get(i).getPdbId());
+                }
+
+                // workers must not see incomplete lists
+                Path list = buildDirectory.resolve(getShardName(shard + 1) + LIST_SUFFIX);
+                Path temporary = buildDirectory.resolve(getShardName(shard + 1) + LIST_SUFFIX + ".tmp");
+                Files.write(temporary, lines);
+                Files.move(temporary, list, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        logger.info("Split {} structures into {} shards in {}",
+                pending.size(),
+                shardCount,
+                buildDirectory);
+    }
+
+    /**
+     * Claim and build shards until none are left.
+     * @throws ExecutionException if processing any structure or writing a segment failed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void build() throws ExecutionException, InterruptedException {
+        int built = 0;
+        for (String shard : getShards()) {
+            if (!claim(shard)) {
+                continue;
+            }
+
+            Path segment = buildDirectory.resolve(SEGMENT_PREFIX + shard.substring(SHARD_PREFIX.length()));
+            List<StructureIdentifier> identifiers;
+            try {
+                // leftovers of a failed worker
+                if (Files.exists(segment)) {
+                    deleteRecursively(segment);
+                }
+                Files.createDirectories(segment);
+                identifiers = Files.readAllLines(buildDirectory.resolve(shard + LIST_SUFFIX))
+                        .stream()
+                        .filter(line -> !line.isEmpty())
+                        .map(StructureIdentifier::new)
+                        .collect(Collectors.toList());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            logger.info("[{}] Building segment of {} structures",
+                    shard,
+                    identifiers.size());
+            MotifSearchConfig segmentConfig = createSegmentConfig(segment);
+            new UpdatePipeline(new FileSystemStateRepository(segmentConfig), structureDataProvider, new FileSystemInvertedIndex(segmentConfig), motifSearchConfig, threadPool, updateMetrics, segment)
+                    .rebuild(identifiers);
+
+            try {
+                Files.createFile(buildDirectory.resolve(shard + DONE_SUFFIX));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            logger.info("[{}] Finished segment",
+                    shard);
+            built++;
+        }
+        logger.info("Built {} segments, no shards left to claim",
+                built);
+    }
+
+    private boolean claim(String shard) {
+        try {
+            // atomic, also on shared storage: exactly one worker succeeds
+            Path claim = Files.createFile(buildDirectory.resolve(shard + CLAIM_SUFFIX));
+            Files.write(claim, ManagementFactory.getRuntimeMXBean().getName().getBytes());
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Combine all segments into the index, replacing its current content. Fails if any shard is not done.
+     */
+    void merge() {
+        List<String> shards = getShards();
+        if (shards.isEmpty()) {
+            throw new IllegalStateException("No distributed build in " + buildDirectory);
+        }
+        List<String> pending = shards.stream()
+                .filter(shard -> !Files.exists(buildDirectory.resolve(shard + DONE_SUFFIX)))
+                .collect(Collectors.toList());
+        if (!pending.isEmpty()) {
+            throw new IllegalStateException("Shards are not built yet: " + pending);
+        }
+
+        List<Path> segments = shards.stream()
+                .map(shard -> buildDirectory.resolve(SEGMENT_PREFIX + shard.substring(SHARD_PREFIX.length())))
+                .collect(Collectors.toList());
+        invertedIndex.insertStagedSegments(segments);
+
+        List<Pair<StructureIdentifier, Revision>> processed = new ArrayList<>();
+        for (Path segment : segments) {
+            processed.addAll(new FileSystemStateRepository(createSegmentConfig(segment)).selectKnown());
+        }
+        Path rootPath = Paths.get(motifSearchConfig.getRootPath());
+        UpdateJournal journal = new UpdateJournal(rootPath.resolve(MotifSearchConfig.JOURNAL_DIRECTORY), rootPath.resolve(MotifSearchConfig.RUN_DIRECTORY));
+        UpdatePipeline.replaceIndex(stateRepository, invertedIndex, journal, processed);
+
+        try {
+            deleteRecursively(buildDirectory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        logger.info("Merged {} segments with {} structures",
+                segments.size(),
+                processed.size());
+    }
+
+    /**
+     * Segments are written with all settings of this build, only their location differs.
+     * @param segment the root path of the segment
+     * @return a copy of the config
+     */
+    MotifSearchConfig createSegmentConfig(Path segment) {
+        MotifSearchConfig segmentConfig = new MotifSearchConfig();
+        BeanUtils.copyProperties(motifSearchConfig, segmentConfig);
+        segmentConfig.setRootPath(segment.toString());
+        return segmentConfig;
+    }
+
+    private String getShardName(int shard) {
+        return SHARD_PREFIX + String.format("%04d", shard);
+    }
+
+    /**
+     * Names of all planned shards.
+     * @return shard names, without suffix
+     */
+    private List<String> getShards() {
+        if (!Files.isDirectory(buildDirectory)) {
+            return Collections.emptyList();
+        }
+
+        try (Stream<Path> paths = Files.list(buildDirectory)) {
+            return paths.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SHARD_PREFIX) && name.endsWith(LIST_SUFFIX))
+                    .map(name -> name.substring(0, name.length() - LIST_SUFFIX.length()))
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void deleteRecursively(Path path) throws IOException {
+        try (Stream<Path> paths = Files.walk(path)) {
+            for (Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package org.rcsb.strucmotif.update;
+
+import org.rcsb.strucmotif.domain.Pair;
+import org.rcsb.strucmotif.domain.Revision;
+import org.rcsb.strucmotif.domain.identifier.StructureIdentifier;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Write-ahead journal of the index writes of a batch. Before the first bin of a batch is written, the batch is recorded
+ * in a header: its structures and the runs which hold all of its residue pairs (see {@link OccurrenceBuffer}). The
+ * header is committed atomically, afterwards the descriptor key of each written bin is appended.
+ * <p>An interrupted batch is resumed from the journal by merging its runs again and writing only bins which are missing
+ * from the journal. Writing a bin again is harmless as inserts retain present data of a structure, so the journal is
+ * only flushed every {@value #FLUSH_INTERVAL} bins. Only one batch is written at a time.
+ * <p>Likewise, the replacement of the index by a staged index is recorded before it is committed, so that an
+ * interrupted replacement is completed instead of leaving state that does not describe the current index.
+ */
+class UpdateJournal implements Closeable {
+    private static final String HEADER = "batch.header";
+    private static final String BINS = "batch.bins";
+    private static final String REPLACEMENT = "replacement";
+    private static final int FLUSH_INTERVAL = 1000;
+    private final Path journalDirectory;
+    private final Path spillDirectory;
+    private DataOutputStream bins;
+    private int unflushed;
+
+    /**
+     * Construct a journal.
+     * @param journalDirectory where to write the journal
+     * @param spillDirectory where runs are written
+     */
+    UpdateJournal(Path journalDirectory, Path spillDirectory) {
+        this.journalDirectory = journalDirectory;
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Record a batch before its bins are written. All records of the buffer must have been flushed to runs.
+     * @param number the number of the batch
+     * @param processed the structures of the batch and their revisions, in the order they were added to the buffer
+     * @param buffer the buffer
+     */
+    void begin(int number, List<Pair<StructureIdentifier, Revision>> processed, OccurrenceBuffer buffer) {
+        try {
+            Files.createDirectories(journalDirectory);
+            // runs are part of the journal and must survive a crash just like the header
+            for (Path run : buffer.getRuns()) {
+                sync(run);
+            }
+
+            Path temporary = journalDirectory.resolve(HEADER + ".tmp");
+            try (FileOutputStream fileOutputStream = new FileOutputStream(temporary.toFile());
+                 DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(fileOutputStream))) {
+                outputStream.writeInt(number);
+                writeProcessed(outputStream, processed);
+                outputStream.writeInt(buffer.getStrings().size());
+                for (String string : buffer.getStrings()) {
+                    outputStream.writeUTF(string);
+                }
+                outputStream.writeInt(buffer.getRuns().size());
+                for (Path run : buffer.getRuns()) {
+                    outputStream.writeUTF(run.getFileName().toString());
+                }
+                outputStream.flush();
+                fileOutputStream.getFD().sync();
+            }
+
+            // bins of a previous batch are void without its header
+            Files.deleteIfExists(journalDirectory.resolve(BINS));
+            Files.move(temporary, journalDirectory.resolve(HEADER), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            openBins();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Continue to record written bins of an interrupted batch.
+     */
+    void resume() {
+        try {
+            openBins();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void openBins() throws IOException {
+        close();
+        bins = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalDirectory.resolve(BINS).toFile(), true)));
+        unflushed = 0;
+    }
+
+    /**
+     * Record that a bin was written.
+     * @param key the key of the descriptor of the bin
+     */
+    synchronized void complete(int key) {
+        try {
+            bins.writeInt(key);
+            if (++unflushed == FLUSH_INTERVAL) {
+                bins.flush();
+                unflushed = 0;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Read the journal of an interrupted batch.
+     * @return the batch or null if no batch was interrupted
+     * @throws IOException if the journal cannot be read
+     */
+    Entry read() throws IOException {
+        Path header = journalDirectory.resolve(HEADER);
+        if (!Files.exists(header)) {
+            return null;
+        }
+
+        Entry entry;
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(header)))) {
+            int number = inputStream.readInt();
+            List<Pair<StructureIdentifier, Revision>> processed = readProcessed(inputStream);
+            int stringCount = inputStream.readInt();
+            List<String> strings = new ArrayList<>(stringCount);
+            for (int i = 0; i < stringCount; i++) {
+                strings.add(inputStream.readUTF());
+            }
+            int runCount = inputStream.readInt();
+            List<Path> runs = new ArrayList<>(runCount);
+            for (int i = 0; i < runCount; i++) {
+                runs.add(spillDirectory.resolve(inputStream.readUTF()));
+            }
+            entry = new Entry(number, processed, strings, runs);
+        }
+
+        Path bins = journalDirectory.resolve(BINS);
+        if (Files.exists(bins)) {
+            try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(bins)))) {
+                while (true) {
+                    entry.completed.add(inputStream.readInt());
+                }
+            } catch (EOFException e) {
+                // end of journal - the last key may be incomplete
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Discard the journal once all bins of a batch are written and the batch is known.
+     */
+    void clear() {
+        try {
+            close();
+            // the header goes first: bins without header are ignored
+            Files.deleteIfExists(journalDirectory.resolve(HEADER));
+            Files.deleteIfExists(journalDirectory.resolve(BINS));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Record the replacement of the index by a staged index before it is committed. All bins must have been staged.
+     * @param stagedName the name of the staged index
+     * @param processed all structures of the staged index and their revisions
+     */
+    void beginReplacement(String stagedName, Collection<Pair<StructureIdentifier, Revision>> processed) {
+        try {
+            Files.createDirectories(journalDirectory);
+            Path temporary = journalDirectory.resolve(REPLACEMENT + ".tmp");
+            try (FileOutputStream fileOutputStream = new FileOutputStream(temporary.toFile());
+                 DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(fileOutputStream))) {
+                outputStream.writeUTF(stagedName);
+                writeProcessed(outputStream, processed);
+                outputStream.flush();
+                fileOutputStream.getFD().sync();
+            }
+            Files.move(temporary, journalDirectory.resolve(REPLACEMENT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Read the journal of an interrupted replacement.
+     * @return the replacement or null if no replacement was interrupted
+     * @throws IOException if the journal cannot be read
+     */
+    Replacement readReplacement() throws IOException {
+        Path replacement = journalDirectory.resolve(REPLACEMENT);
+        if (!Files.exists(replacement)) {
+            return null;
+        }
+
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(replacement)))) {
+            String stagedName = inputStream.readUTF();
+            return new Replacement(stagedName, readProcessed(inputStream));
+        }
+    }
+
+    /**
+     * Discard the journal once the staged index is committed and its structures are known.
+     */
+    void clearReplacement() {
+        try {
+            Files.deleteIfExists(journalDirectory.resolve(REPLACEMENT));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeProcessed(DataOutputStream outputStream, Collection<Pair<StructureIdentifier, Revision>> processed) throws IOException {
+        outputStream.writeInt(processed.size());
+        for (Pair<StructureIdentifier, Revision> pair : processed) {
+            outputStream.writeUTF(pair.getFirst().getPdbId());
+            outputStream.writeInt(pair.getSecond().getMajor());
+            outputStream.writeInt(pair.getSecond().getMinor());
+        }
+    }
+
+    private static List<Pair<StructureIdentifier, Revision>> readProcessed(DataInputStream inputStream) throws IOException {
+        int structureCount = inputStream.readInt();
+        List<Pair<StructureIdentifier, Revision>> processed = new ArrayList<>(structureCount);
+        for (int i = 0; i < structureCount; i++) {
+            StructureIdentifier structureIdentifier = new StructureIdentifier(inputStream.readUTF());
+            processed.add(new Pair<>(structureIdentifier, new Revision(inputStream.readInt(), inputStream.readInt())));
+        }
+        return processed;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (bins != null) {
+            bins.close();
+            bins = null;
+        }
+    }
+
+    private static void sync(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * An interrupted batch.
+     */
+    static class Entry {
+        private final int number;
+        private final List<Pair<StructureIdentifier, Revision>> processed;
+        private final List<String> strings;
+        private final List<Path> runs;
+        private final Set<Integer> completed;
+
+        Entry(int number, List<Pair<StructureIdentifier, Revision>> processed, List<String> strings, List<Path> runs) {
+            this.number = number;
+            this.processed = processed;
+            this.strings = strings;
+            this.runs = runs;
+            this.completed = new HashSet<>();
+        }
+
+        int getNumber() {
+            return number;
+        }
+
+        List<Pair<StructureIdentifier, Revision>> getProcessed() {
+            return processed;
+        }
+
+        List<String> getStrings() {
+            return strings;
+        }
+
+        List<Path> getRuns() {
+            return runs;
+        }
+
+        /**
+         * Keys of the descriptors of all bins which were written before the batch was interrupted.
+         * @return a set of keys
+         */
+        Set<Integer> getCompleted() {
+            return completed;
+        }
+    }
+
+    /**
+     * An interrupted replacement of the index.
+     */
+    static class Replacement {
+        private final String stagedName;
+        private final List<Pair<StructureIdentifier, Revision>> processed;
+
+        Replacement(String stagedName, List<Pair<StructureIdentifier, Revision>> processed) {
+            this.stagedName = stagedName;
+            this.processed = processed;
+        }
+
+        String getStagedName() {
+            return stagedName;
+        }
+
+        List<Pair<StructureIdentifier, Revision>> getProcessed() {
+            return processed;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package org.rcsb.strucmotif.update;
+
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Collects metrics of update operations: counters (e.g. structures parsed, bins written), timers of update stages, and
+ * gauges which are sampled regularly (e.g. queue depths, buffer memory). The default implementation reports them to
+ * the log and <code>update-metrics.json</code>, declare another implementation as <code>@Primary</code> bean to export
+ * them elsewhere.
+ */
+public interface UpdateMetrics {
+    /**
+     * Start a new report, all metrics are reset.
+     */
+    void reset();
+
+    /**
+     * Increment a counter.
+     * @param name the name of the counter
+     * @param amount the increment
+     */
+    void count(String name, long amount);
+
+    /**
+     * Record the duration of an operation.
+     * @param name the name of the timer
+     * @param nanos the duration in nanoseconds
+     */
+    void time(String name, long nanos);
+
+    /**
+     * Register a gauge, replaces any gauge of the same name.
+     * @param name the name of the gauge
+     * @param value reports the current value, must be thread-safe
+     */
+    void gauge(String name, LongSupplier value);
+
+    /**
+     * Sample all gauges.
+     */
+    void sample();
+
+    /**
+     * Summarize all metrics since the last reset: counters report their total and rate per second, timers their count,
+     * total, mean, and maximum, gauges the mean and maximum of their samples.
+     * @return a map of metric names and their statistics
+     */
+    Map<String, Map<String, Number>> report();
+}
@@ -0,0 +1,110 @@
+package org.rcsb.strucmotif.update;
+
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps metrics in memory.
+ */
+@Service
+public class UpdateMetricsImpl implements UpdateMetrics {
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, Gauge> gauges = new ConcurrentHashMap<>();
+    private volatile long start = System.nanoTime();
+
+    @Override
+    public void reset() {
+        counters.clear();
+        timers.clear();
+        gauges.clear();
+        start = System.nanoTime();
+    }
+
+    @Override
+    public void count(String name, long amount) {
+        counters.computeIfAbsent(name, k -> new LongAdder()).add(amount);
+    }
+
+    @Override
+    public void time(String name, long nanos) {
+        Timer timer = timers.computeIfAbsent(name, k -> new Timer());
+        timer.count.increment();
+        timer.total.add(nanos);
+        timer.max.accumulate(nanos);
+    }
+
+    @Override
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, new Gauge(value));
+    }
+
+    @Override
+    public void sample() {
+        for (Gauge gauge : gauges.values()) {
+            long value = gauge.value.getAsLong();
+            gauge.samples.increment();
+            gauge.sum.add(value);
+            gauge.max.accumulate(value);
+        }
+    }
+
+    @Override
+    public Map<String, Map<String, Number>> report() {
+        double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+        Map<String, Map<String, Number>> report = new TreeMap<>();
+        counters.forEach((name, counter) -> {
+            Map<String, Number> statistics = new LinkedHashMap<>();
+            long count = counter.sum();
+            statistics.put("count", count);
+            statistics.put("perSecond", round(count / seconds));
+            report.put(name, statistics);
+        });
+        timers.forEach((name, timer) -> {
+            Map<String, Number> statistics = new LinkedHashMap<>();
+            long count = timer.count.sum();
+            long total = timer.total.sum();
+            statistics.put("count", count);
+            statistics.put("totalSeconds", round(total / 1e9));
+            statistics.put("meanMillis", round(count == 0 ? 0 : total / 1e6 / count));
+            statistics.put("maxMillis", round(timer.max.get() / 1e6));
+            report.put(name, statistics);
+        });
+        gauges.forEach((name, gauge) -> {
+            Map<String, Number> statistics = new LinkedHashMap<>();
+            long samples = gauge.samples.sum();
+            statistics.put("mean", round(samples == 0 ? 0 : (double) gauge.sum.sum() / samples));
+            statistics.put("max", samples == 0 ? 0 : gauge.max.get());
+            report.put(name, statistics);
+        });
+        return report;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    private static class Timer {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+    }
+
+    private static class Gauge {
+        private final LongSupplier value;
+        private final LongAdder samples = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+        Gauge(LongSupplier value) {
+            this.value = value;
+        }
+    }
+}
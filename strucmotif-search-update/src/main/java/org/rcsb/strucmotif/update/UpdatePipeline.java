@@ -0,0 +1,672 @@
+package org.rcsb.strucmotif.update;
+
+import com.google.gson.GsonBuilder;
+import org.rcsb.cif.CifIO;
+import org.rcsb.cif.schema.StandardSchemata;
+import org.rcsb.cif.schema.mm.MmCifFile;
+import org.rcsb.cif.schema.mm.PdbxAuditRevisionHistory;
+import org.rcsb.strucmotif.config.MotifSearchConfig;
+import org.rcsb.strucmotif.core.ThreadPool;
+import org.rcsb.strucmotif.domain.Pair;
+import org.rcsb.strucmotif.domain.ResidueGraph;
+import org.rcsb.strucmotif.domain.Revision;
+import org.rcsb.strucmotif.domain.identifier.StructureIdentifier;
+import org.rcsb.strucmotif.domain.motif.ResiduePairDescriptor;
+import org.rcsb.strucmotif.domain.motif.ResiduePairIdentifier;
+import org.rcsb.strucmotif.domain.structure.Structure;
+import org.rcsb.strucmotif.io.StructureDataProvider;
+import org.rcsb.strucmotif.persistence.InvertedIndex;
+import org.rcsb.strucmotif.persistence.StateRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Adds structures to the index in stages that run concurrently and are connected by bounded queues:
+ * <ul>
+ *     <li><b>parse:</b> <code>update-parse-threads</code> threads fetch, parse, and renumber structure data</li>
+ *     <li><b>graph:</b> <code>update-graph-threads</code> threads build structures, extract their residue pairs, and
+ *     record the bins of each structure in {@link BinKeys} (renumbered files are written on the I/O threads of the
+ *     {@link ThreadPool} meanwhile)</li>
+ *     <li><b>collect:</b> one thread adds residue pairs to batches of <code>update-chunk-size</code> structures, which
+ *     spill sorted runs to disk once they exceed <code>update-buffer-size</code> bytes (see {@link OccurrenceBuffer})</li>
+ *     <li><b>write:</b> one thread merges the runs of a batch and writes the bins to the inverted index using the
+ *     shared {@link ThreadPool}, written bins are recorded in the {@link UpdateJournal}</li>
+ * </ul>
+ * A stage waits once the queue to its successor holds <code>update-queue-size</code> elements (or one batch for the
+ * write stage), so memory is bounded by backpressure while the next batch is assembled during writing.
+ * <p>Full rebuilds ({@link #rebuild(Collection)}) process all structures as one batch and write each bin once to a
+ * staged index, which avoids rewriting popular bins once per batch.
+ */
+class UpdatePipeline {
+    private static final Logger logger = LoggerFactory.getLogger(UpdatePipeline.class);
+    private static final long POLL_INTERVAL = 100;
+    private static final Object END = new Object();
+    private static final long PROGRESS_INTERVAL = TimeUnit.SECONDS.toNanos(60);
+    private static final String STRUCTURES_PARSED = "update.structures.parsed";
+    private static final String RESIDUE_PAIRS_EXTRACTED = "update.residue-pairs.extracted";
+    private static final String BINS_WRITTEN = "update.bins.written";
+    private static final String OCCURRENCES_WRITTEN = "update.occurrences.written";
+    private static final String PARSE_TIME = "update.parse.time";
+    private static final String GRAPH_TIME = "update.graph.time";
+    private static final String WRITE_RENUMBERED_TIME = "update.write-renumbered.time";
+    private static final String PERSIST_TIME = "update.persist.time";
+    private static final String PARSED_QUEUE = "update.queue.parsed";
+    private static final String EXTRACTED_QUEUE = "update.queue.extracted";
+    private static final String BUFFER_BYTES = "update.buffer.bytes";
+    private final StateRepository stateRepository;
+    private final StructureDataProvider structureDataProvider;
+    private final InvertedIndex invertedIndex;
+    private final MotifSearchConfig motifSearchConfig;
+    private final ThreadPool threadPool;
+    private final UpdateMetrics updateMetrics;
+    private final AtomicReference<Throwable> failure;
+    private final Path workingDirectory;
+    private final UpdateJournal journal;
+    private final BinKeys binKeys;
+
+    /**
+     * Construct a pipeline.
+     * @param stateRepository the state to update
+     * @param structureDataProvider reads and writes structure data
+     * @param invertedIndex the index to update
+     * @param motifSearchConfig the config
+     * @param threadPool the thread pool
+     * @param updateMetrics collects metrics of processing
+     * @param workingDirectory where to write runs, the journal, and the metrics report, usually the root path
+     */
+    UpdatePipeline(StateRepository stateRepository, StructureDataProvider structureDataProvider, InvertedIndex invertedIndex, MotifSearchConfig motifSearchConfig, ThreadPool threadPool, UpdateMetrics updateMetrics, Path workingDirectory) {
+        this.stateRepository = stateRepository;
+        this.structureDataProvider = structureDataProvider;
+        this.invertedIndex = invertedIndex;
+        this.motifSearchConfig = motifSearchConfig;
+        this.threadPool = threadPool;
+        this.updateMetrics = updateMetrics;
+        this.failure = new AtomicReference<>();
+        this.workingDirectory = workingDirectory;
+        this.journal = new UpdateJournal(workingDirectory.resolve(MotifSearchConfig.JOURNAL_DIRECTORY), workingDirectory.resolve(MotifSearchConfig.RUN_DIRECTORY));
+        // like renumbered structures, bin keys are shared by all segments of a distributed build
+        this.binKeys = new BinKeys(Paths.get(motifSearchConfig.getRootPath()).resolve(MotifSearchConfig.BIN_KEYS_DIRECTORY));
+    }
+
+    /**
+     * Finish a replacement of the index or writing a batch that was interrupted, as recorded by the journal. Must be
+     * called before any other operation modifies the index or the runs. If the runs of the batch cannot be read, its
+     * structures are marked as dirty instead.
+     * @throws ExecutionException if writing the index failed, the journal is retained
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void resume() throws ExecutionException, InterruptedException {
+        UpdateJournal.Replacement replacement;
+        UpdateJournal.Entry entry;
+        try {
+            replacement = journal.readReplacement();
+            entry = journal.read();
+        } catch (IOException e) {
+            throw new UncheckedIOException("unreadable update journal", e);
+        }
+        if (replacement != null) {
+            logger.info("Resuming interrupted replacement of index by {} with {} structures",
+                    replacement.getStagedName(),
+                    replacement.getProcessed().size());
+            commitReplacement(stateRepository, invertedIndex, journal, replacement.getStagedName(), replacement.getProcessed());
+        }
+        if (entry == null) {
+            return;
+        }
+
+        String batchContext = "batch " + entry.getNumber();
+        List<StructureIdentifier> structureIdentifiers = entry.getProcessed().stream()
+                .map(Pair::getFirst)
+                .collect(Collectors.toList());
+        Set<Integer> completed = entry.getCompleted();
+        logger.info("[{}] Resuming interrupted index write of {} structures, {} bins were already written",
+                batchContext,
+                structureIdentifiers.size(),
+                completed.size());
+
+        OccurrenceBuffer buffer = null;
+        try {
+            buffer = OccurrenceBuffer.restore(structureIdentifiers, entry.getStrings(), entry.getRuns());
+            journal.resume();
+            writeBins(buffer, batchContext, (residuePairDescriptor, occurrences) -> {
+                int key = OccurrenceBuffer.encode(residuePairDescriptor);
+                if (completed.contains(key)) {
+                    return;
+                }
+
+                invertedIndex.insert(residuePairDescriptor, occurrences);
+                journal.complete(key);
+            });
+        } catch (IOException | UncheckedIOException e) {
+            logger.warn("[{}] Runs of interrupted batch are unreadable - marking structures as dirty",
+                    batchContext,
+                    e);
+            stateRepository.insertDirty(structureIdentifiers);
+            journal.clear();
+            if (buffer != null) {
+                buffer.close();
+            }
+            return;
+        }
+
+        // the batch may have become known right before the interruption, registering it again is harmless
+        stateRepository.insertKnown(entry.getProcessed());
+        journal.clear();
+        buffer.close();
+        logger.info("[{}] Resumed index write",
+                batchContext);
+    }
+
+    /**
+     * Process structures and add them to the index. Returns once all structures have been written or the first stage
+     * failed.
+     * @param identifiers the structures to add
+     * @throws ExecutionException if processing any structure or writing the index failed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void run(Collection<StructureIdentifier> identifiers) throws ExecutionException, InterruptedException {
+        process(identifiers, Math.max(1, motifSearchConfig.getUpdateChunkSize()), this::persist);
+    }
+
+    /**
+     * Build a new index from scratch that replaces the current one. All structures form a single batch whose
+     * residue pairs are spilled to sorted runs, so each bin is written exactly once to a staging directory. The staged
+     * index is swapped in once complete, the previous index stays searchable until then.
+     * @param identifiers all structures of the new index
+     * @throws ExecutionException if processing any structure or writing the index failed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void rebuild(Collection<StructureIdentifier> identifiers) throws ExecutionException, InterruptedException {
+        process(identifiers, Integer.MAX_VALUE, this::persistStaged);
+    }
+
+    private void process(Collection<StructureIdentifier> identifiers, int chunkSize, BatchWriter batchWriter) throws ExecutionException, InterruptedException {
+        List<StructureIdentifier> pending = new ArrayList<>(identifiers);
+        // shuffle to prevent troublemakers such as ribosome and virus capsids occurring in the same batch
+        Collections.shuffle(pending);
+
+        int parseThreads = Math.max(1, motifSearchConfig.getUpdateParseThreads());
+        int graphThreads = Math.max(1, motifSearchConfig.getUpdateGraphThreads());
+        int queueSize = Math.max(1, motifSearchConfig.getUpdateQueueSize());
+        long bufferSize = motifSearchConfig.getUpdateBufferSize();
+        Path spillDirectory = prepareSpillDirectory();
+        logger.info("Processing {} structures with {} parse and {} graph threads, writing batches of {} structures",
+                pending.size(),
+                parseThreads,
+                graphThreads,
+                Math.min(chunkSize, pending.size()));
+
+        BlockingQueue<Object> parsed = new ArrayBlockingQueue<>(queueSize);
+        BlockingQueue<Object> extracted = new ArrayBlockingQueue<>(queueSize);
+        BlockingQueue<Object> batches = new ArrayBlockingQueue<>(1);
+        // batches being collected, queued, and written
+        Set<OccurrenceBuffer> buffers = ConcurrentHashMap.newKeySet();
+        updateMetrics.reset();
+        updateMetrics.gauge(PARSED_QUEUE, parsed::size);
+        updateMetrics.gauge(EXTRACTED_QUEUE, extracted::size);
+        updateMetrics.gauge(BUFFER_BYTES, () -> buffers.stream()
+                .mapToLong(OccurrenceBuffer::getMemoryUsage)
+                .sum());
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger activeParsers = new AtomicInteger(parseThreads);
+        AtomicInteger activeGraphs = new AtomicInteger(graphThreads);
+        int total = pending.size();
+
+        // stages stop as soon as any of them failed, otherwise the last thread of a stage signals the end to its successors
+        ExecutorService executorService = Executors.newFixedThreadPool(parseThreads + graphThreads + 2, createThreadFactory());
+        for (int i = 0; i < parseThreads; i++) {
+            executorService.execute(stage(() -> {
+                int index;
+                while ((index = next.getAndIncrement()) < total) {
+                    put(parsed, parse(pending.get(index), index + 1, total));
+                }
+                if (activeParsers.decrementAndGet() == 0) {
+                    for (int j = 0; j < graphThreads; j++) {
+                        put(parsed, END);
+                    }
+                }
+            }));
+        }
+        for (int i = 0; i < graphThreads; i++) {
+            executorService.execute(stage(() -> {
+                Object element;
+                while ((element = take(parsed)) != END) {
+                    put(extracted, extract((ParsedStructure) element));
+                }
+                if (activeGraphs.decrementAndGet() == 0) {
+                    put(extracted, END);
+                }
+            }));
+        }
+        executorService.execute(stage(() -> {
+            Batch batch = new Batch(1, spillDirectory, bufferSize);
+            buffers.add(batch.buffer);
+            Object element;
+            while ((element = take(extracted)) != END) {
+                batch.add((ExtractedStructure) element);
+                if (batch.processed.size() == chunkSize) {
+                    put(batches, batch);
+                    batch = new Batch(batch.number + 1, spillDirectory, bufferSize);
+                    buffers.add(batch.buffer);
+                }
+            }
+            if (!batch.processed.isEmpty()) {
+                put(batches, batch);
+            }
+            put(batches, END);
+        }));
+        executorService.execute(stage(() -> {
+            Object element;
+            while ((element = take(batches)) != END) {
+                long start = System.nanoTime();
+                batchWriter.write((Batch) element);
+                buffers.remove(((Batch) element).buffer);
+                updateMetrics.time(PERSIST_TIME, System.nanoTime() - start);
+            }
+        }));
+        executorService.shutdown();
+
+        try {
+            long lastProgress = System.nanoTime();
+            while (!executorService.awaitTermination(POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+                if (failure.get() != null) {
+                    executorService.shutdownNow();
+                }
+
+                updateMetrics.sample();
+                if (System.nanoTime() - lastProgress > PROGRESS_INTERVAL) {
+                    lastProgress = System.nanoTime();
+                    logger.info("Progress: {}",
+                            updateMetrics.report());
+                }
+            }
+        } catch (InterruptedException e) {
+            executorService.shutdownNow();
+            throw e;
+        } finally {
+            report();
+        }
+
+        Throwable throwable = failure.get();
+        if (throwable != null) {
+            throw new ExecutionException(throwable);
+        }
+    }
+
+    /**
+     * Log the metrics of this run and write them to the working directory.
+     */
+    private void report() {
+        Map<String, Map<String, Number>> report = updateMetrics.report();
+        logger.info("Update metrics:");
+        report.forEach((name, statistics) -> logger.info("{}: {}",
+                name,
+                statistics));
+
+        Path path = workingDirectory.resolve(MotifSearchConfig.UPDATE_METRICS_FILE);
+        try {
+            Files.write(path, new GsonBuilder().setPrettyPrinting().create().toJson(report).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            logger.warn("Failed to write metrics to {}",
+                    path,
+                    e);
+        }
+    }
+
+    /**
+     * Runs are deleted once written to the index. Leftovers of failed updates are removed here.
+     * @return the directory
+     */
+    private Path prepareSpillDirectory() {
+        Path spillDirectory = workingDirectory.resolve(MotifSearchConfig.RUN_DIRECTORY);
+        try {
+            Files.createDirectories(spillDirectory);
+            try (Stream<Path> runs = Files.list(spillDirectory)) {
+                for (Path run : (Iterable<Path>) runs::iterator) {
+                    Files.delete(run);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return spillDirectory;
+    }
+
+    private static ThreadFactory createThreadFactory() {
+        AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "strucmotif-update-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Wraps the body of a stage, its failure stops all other stages.
+     * @param body what to do
+     * @return a runnable
+     */
+    private Runnable stage(StageBody body) {
+        return () -> {
+            try {
+                body.run();
+            } catch (PipelineStoppedException e) {
+                // another stage failed
+            } catch (ExecutionException e) {
+                failure.compareAndSet(null, e.getCause());
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        };
+    }
+
+    @FunctionalInterface
+    private interface StageBody {
+        void run() throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface BatchWriter {
+        void write(Batch batch) throws ExecutionException, InterruptedException;
+    }
+
+    @FunctionalInterface
+    private interface BinWriter {
+        void write(ResiduePairDescriptor residuePairDescriptor, Map<StructureIdentifier, Collection<ResiduePairIdentifier>> occurrences);
+    }
+
+    /**
+     * Signals that a stage stopped because another one failed.
+     */
+    private static class PipelineStoppedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        PipelineStoppedException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private void put(BlockingQueue<Object> queue, Object element) throws InterruptedException {
+        while (!queue.offer(element, POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+            if (failure.get() != null) {
+                throw new PipelineStoppedException();
+            }
+        }
+    }
+
+    private Object take(BlockingQueue<Object> queue) throws InterruptedException {
+        Object element;
+        while ((element = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS)) == null) {
+            if (failure.get() != null) {
+                throw new PipelineStoppedException();
+            }
+        }
+        return element;
+    }
+
+    private ParsedStructure parse(StructureIdentifier structureIdentifier, int count, int total) {
+        String structureContext = count + " / " + total + "] [" + structureIdentifier.getPdbId();
+        MmCifFile renumbered;
+        Revision revision;
+        long start = System.nanoTime();
+        try {
+            MmCifFile mmCifFile = CifIO.readFromInputStream(structureDataProvider.getOriginalInputStream(structureIdentifier)).as(StandardSchemata.MMCIF);
+            revision = getRevision(mmCifFile);
+            renumbered = structureDataProvider.renumber(mmCifFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException("cif parsing failed for " + structureIdentifier, e);
+        }
+        updateMetrics.time(PARSE_TIME, System.nanoTime() - start);
+        updateMetrics.count(STRUCTURES_PARSED, 1);
+
+        return new ParsedStructure(structureIdentifier, structureContext, revision, renumbered);
+    }
+
+    /**
+     * The most recent revision of an entry, as reported by its <code>pdbx_audit_revision_history</code>.
+     * @param mmCifFile the source data
+     * @return the revision
+     */
+    static Revision getRevision(MmCifFile mmCifFile) {
+        PdbxAuditRevisionHistory pdbxAuditRevisionHistory = mmCifFile.getFirstBlock().getPdbxAuditRevisionHistory();
+        int last = pdbxAuditRevisionHistory.getRowCount() - 1;
+        return new Revision(pdbxAuditRevisionHistory.getMajorRevision().get(last), pdbxAuditRevisionHistory.getMinorRevision().get(last));
+    }
+
+    private ExtractedStructure extract(ParsedStructure parsedStructure) {
+        StructureIdentifier structureIdentifier = parsedStructure.structureIdentifier;
+        OccurrenceBuffer.StructureRecords structureRecords = new OccurrenceBuffer.StructureRecords();
+
+        // fails when structure does not contain valid polymer chain
+        Structure structure = null;
+        try {
+            structure = structureDataProvider.readFromMmCifFile(parsedStructure.renumbered);
+        } catch (UnsupportedOperationException e) {
+            logger.warn("[{}] No valid polymer chains",
+                    parsedStructure.structureContext);
+        }
+
+        // write renumbered structure on I/O threads while residue pairs are extracted - not before the structure was
+        // read: reading absent categories modifies the MmCifFile
+        CompletableFuture<Void> write = CompletableFuture.runAsync(() -> {
+            long writeStart = System.nanoTime();
+            structureDataProvider.writeRenumberedData(structureIdentifier, parsedStructure.renumbered);
+            updateMetrics.time(WRITE_RENUMBERED_TIME, System.nanoTime() - writeStart);
+        }, threadPool::executeIo);
+
+        if (structure != null) {
+            try {
+                long start = System.nanoTime();
+                ResidueGraph residueGraph = new ResidueGraph(structure, motifSearchConfig.getSquaredDistanceCutoff());
+
+                // extract motifs - structures are processed in parallel, residue pairs of a structure sequentially
+                residueGraph.residuePairOccurrencesSequential()
+                        .forEach(motifOccurrence -> structureRecords.add(motifOccurrence.getResiduePairDescriptor(), motifOccurrence.getResidueIdentifier()));
+                updateMetrics.time(GRAPH_TIME, System.nanoTime() - start);
+                updateMetrics.count(RESIDUE_PAIRS_EXTRACTED, structureRecords.size());
+                logger.info("[{}] Extracted {} residue pairs",
+                        parsedStructure.structureContext,
+                        structureRecords.size());
+            } catch (Exception e) {
+                logger.warn("[{}] Residue graph determination failed",
+                        parsedStructure.structureContext,
+                        e);
+                // fail complete update
+                throw new RuntimeException(e);
+            }
+        }
+
+        binKeys.write(structureIdentifier, structureRecords.getKeys());
+
+        // only once its renumbered structure is written, a structure is considered processed
+        try {
+            write.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw (UncheckedIOException) cause;
+            }
+            throw new RuntimeException("writing renumbered structure failed for " + structureIdentifier, cause);
+        }
+        return new ExtractedStructure(new Pair<>(structureIdentifier, parsedStructure.revision), structureRecords);
+    }
+
+    private void persist(Batch batch) throws ExecutionException, InterruptedException {
+        String batchContext = "batch " + batch.number;
+        logger.info("[{}] Persisting {} residue pairs of {} structures ({} runs spilled to disk)",
+                batchContext,
+                batch.buffer.getRecordCount(),
+                batch.processed.size(),
+                batch.buffer.getRunCount());
+
+        // all residue pairs go to disk and are journaled, so an interrupted write can be resumed at bin granularity
+        batch.buffer.flush();
+        journal.begin(batch.number, batch.processed, batch.buffer);
+        writeBins(batch.buffer, batchContext, (residuePairDescriptor, occurrences) -> {
+            invertedIndex.insert(residuePairDescriptor, occurrences);
+            journal.complete(OccurrenceBuffer.encode(residuePairDescriptor));
+        });
+
+        // processed contains all StructureIdentifiers + corresponding revision
+        stateRepository.insertKnown(batch.processed);
+        journal.clear();
+        batch.buffer.close();
+    }
+
+    private void persistStaged(Batch batch) throws ExecutionException, InterruptedException {
+        String batchContext = "bulk build";
+        logger.info("[{}] Writing {} residue pairs of {} structures ({} runs spilled to disk) to staged index",
+                batchContext,
+                batch.buffer.getRecordCount(),
+                batch.processed.size(),
+                batch.buffer.getRunCount());
+
+        // staged bins are not visible to searches, a failure leaves the current index untouched
+        try {
+            writeBins(batch.buffer, batchContext, invertedIndex::insertStaged);
+        } finally {
+            batch.buffer.close();
+        }
+        replaceIndex(stateRepository, invertedIndex, journal, batch.processed);
+        logger.info("[{}] Replaced index",
+                batchContext);
+    }
+
+    /**
+     * Commit a staged index and register exactly its structures. A crash between both steps would leave state that
+     * does not describe the committed index, so the replacement is journaled beforehand: {@link #resume()} completes an
+     * interrupted replacement by committing the staged index (unless that already happened) and registering its
+     * structures.
+     * @param stateRepository the state
+     * @param invertedIndex the index whose staged bins are committed
+     * @param journal the journal of the root path
+     * @param processed all structures of the new index and their revisions
+     */
+    static void replaceIndex(StateRepository stateRepository, InvertedIndex invertedIndex, UpdateJournal journal, Collection<Pair<StructureIdentifier, Revision>> processed) {
+        String stagedName = invertedIndex.getStagedName();
+        journal.beginReplacement(stagedName, processed);
+        commitReplacement(stateRepository, invertedIndex, journal, stagedName, processed);
+    }
+
+    private static void commitReplacement(StateRepository stateRepository, InvertedIndex invertedIndex, UpdateJournal journal, String stagedName, Collection<Pair<StructureIdentifier, Revision>> processed) {
+        invertedIndex.commitStaged(stagedName);
+        // clears all dirty entries
+        stateRepository.replaceKnown(processed);
+        journal.clearReplacement();
+    }
+
+    private void writeBins(OccurrenceBuffer buffer, String batchContext, BinWriter binWriter) throws ExecutionException, InterruptedException {
+        // bins are merged one at a time and written concurrently, the number of bins in flight is bounded
+        int maxBinsInFlight = 2 * Math.max(1, motifSearchConfig.getNumberThreads());
+        Semaphore permits = new Semaphore(maxBinsInFlight);
+        AtomicReference<Throwable> insertFailure = new AtomicReference<>();
+        int binCount = 0;
+        try (OccurrenceBuffer.Merge merge = buffer.merge()) {
+            while (insertFailure.get() == null && merge.next()) {
+                ResiduePairDescriptor residuePairDescriptor = merge.getResiduePairDescriptor();
+                Map<StructureIdentifier, Collection<ResiduePairIdentifier>> occurrences = merge.getOccurrences();
+                permits.acquire();
+                threadPool.execute(() -> {
+                    try {
+                        binWriter.write(residuePairDescriptor, occurrences);
+                        updateMetrics.count(BINS_WRITTEN, 1);
+                        updateMetrics.count(OCCURRENCES_WRITTEN, occurrences.values()
+                                .stream()
+                                .mapToInt(Collection::size)
+                                .sum());
+                    } catch (Throwable t) {
+                        insertFailure.compareAndSet(null, t);
+                    } finally {
+                        permits.release();
+                    }
+                });
+
+                if (++binCount % 100000 == 0) {
+                    logger.info("[{}] {} bins written",
+                            batchContext,
+                            binCount);
+                }
+            }
+        } finally {
+            // wait for bins in flight
+            permits.acquireUninterruptibly(maxBinsInFlight);
+        }
+
+        Throwable throwable = insertFailure.get();
+        if (throwable != null) {
+            throw new ExecutionException(throwable);
+        }
+    }
+
+    private static class ParsedStructure {
+        private final StructureIdentifier structureIdentifier;
+        private final String structureContext;
+        private final Revision revision;
+        private final MmCifFile renumbered;
+
+        ParsedStructure(StructureIdentifier structureIdentifier, String structureContext, Revision revision, MmCifFile renumbered) {
+            this.structureIdentifier = structureIdentifier;
+            this.structureContext = structureContext;
+            this.revision = revision;
+            this.renumbered = renumbered;
+        }
+    }
+
+    private static class ExtractedStructure {
+        private final Pair<StructureIdentifier, Revision> processed;
+        private final OccurrenceBuffer.StructureRecords structureRecords;
+
+        ExtractedStructure(Pair<StructureIdentifier, Revision> processed, OccurrenceBuffer.StructureRecords structureRecords) {
+            this.processed = processed;
+            this.structureRecords = structureRecords;
+        }
+    }
+
+    /**
+     * Residue pairs of several structures. Only accessed by one stage at a time.
+     */
+    private static class Batch {
+        private final int number;
+        private final List<Pair<StructureIdentifier, Revision>> processed;
+        private final OccurrenceBuffer buffer;
+
+        Batch(int number, Path spillDirectory, long memoryBudget) {
+            this.number = number;
+            this.processed = new ArrayList<>();
+            this.buffer = new OccurrenceBuffer(spillDirectory, memoryBudget);
+        }
+
+        void add(ExtractedStructure extractedStructure) {
+            processed.add(extractedStructure.processed);
+            buffer.add(extractedStructure.processed.getFirst(), extractedStructure.structureRecords);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package org.rcsb.strucmotif.update;
+
+import org.rcsb.cif.binary.codec.MessagePackCodec;
+import org.rcsb.strucmotif.config.MotifSearchConfig;
+import org.rcsb.strucmotif.domain.Revision;
+import org.rcsb.strucmotif.domain.identifier.StructureIdentifier;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+public class Helpers {
+    private static final String[] RESIDUES = { "ALA", "SER", "CYS", "THR" };
+
+    /**
+     * A config that keeps all data in a directory and reads structures from it.
+     * @param rootPath the directory
+     * @return the config
+     */
+    public static MotifSearchConfig createConfig(Path rootPath) {
+        MotifSearchConfig motifSearchConfig = new MotifSearchConfig();
+        motifSearchConfig.setRootPath(rootPath.toString());
+        motifSearchConfig.setDataSource(rootPath.resolve("{id}.cif").toString());
+        motifSearchConfig.setFetchCacheSize(0);
+        motifSearchConfig.setNumberThreads(2);
+        motifSearchConfig.setPrefetchThreads(2);
+        motifSearchConfig.setUpdateParseThreads(2);
+        motifSearchConfig.setUpdateGraphThreads(2);
+        motifSearchConfig.setUpdateQueueSize(2);
+        return motifSearchConfig;
+    }
+
+    public static List<StructureIdentifier> createIdentifiers(int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> new StructureIdentifier(String.format("%dxy%s", 1 + i / 26, (char) ('a' + i % 26))))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Write a synthetic structure with a single chain of small residues to the data source of a config.
+     * @param motifSearchConfig the config
+     * @param structureIdentifier the structure
+     * @param residueCount number of residues
+     */
+    public static void writeStructure(MotifSearchConfig motifSearchConfig, StructureIdentifier structureIdentifier, int residueCount) {
+        writeStructure(motifSearchConfig, structureIdentifier, residueCount, new Revision(1, 0));
+    }
+
+    /**
+     * Write a synthetic structure with a single chain of small residues to the data source of a config.
+     * @param motifSearchConfig the config
+     * @param structureIdentifier the structure
+     * @param residueCount number of residues
+     * @param revision the revision reported in <code>pdbx_audit_revision_history</code>
+     */
+    public static void writeStructure(MotifSearchConfig motifSearchConfig, StructureIdentifier structureIdentifier, int residueCount, Revision revision) {
+        Random random = new Random(structureIdentifier.getPdbId().hashCode());
+        StringBuilder cif = new StringBuilder("data_" + structureIdentifier.getPdbId().toUpperCase() + "\n" +
+                "#\n" +
+                "_pdbx_audit_revision_history.ordinal 1\n" +
+                "_pdbx_audit_revision_history.major_revision " + revision.getMajor() + "\n" +
+                "_pdbx_audit_revision_history.minor_revision " + revision.getMinor() + "\n" +
+                "#\n" +
+                "loop_\n" +
+                "_atom_site.group_PDB\n" +
+                "_atom_site.id\n" +
+                "_atom_site.type_symbol\n" +
+                "_atom_site.label_atom_id\n" +
+                "_atom_site.label_alt_id\n" +
+                "_atom_site.label_comp_id\n" +
+                "_atom_site.label_asym_id\n" +
+                "_atom_site.label_seq_id\n" +
+                "_atom_site.Cartn_x\n" +
+                "_atom_site.Cartn_y\n" +
+                "_atom_site.Cartn_z\n" +
+                "_atom_site.pdbx_PDB_model_num\n");
+
+        // random walk of alpha carbons, other atoms are placed around them
+        double[] ca = new double[3];
+        int id = 1;
+        for (int seq = 1; seq <= residueCount; seq++) {
+            double[] step = direction(random, 3.8);
+            for (int i = 0; i < 3; i++) {
+                ca[i] += step[i];
+            }
+
+            String residue = RESIDUES[random.nextInt(RESIDUES.length)];
+            double[] cb = offset(ca, direction(random, 1.5));
+            id = atom(cif, id, "N", "N", residue, seq, offset(ca, direction(random, 1.5)));
+            id = atom(cif, id, "C", "CA", residue, seq, ca);
+            id = atom(cif, id, "C", "C", residue, seq, offset(ca, direction(random, 1.5)));
+            id = atom(cif, id, "O", "O", residue, seq, offset(ca, direction(random, 2.4)));
+            id = atom(cif, id, "C", "CB", residue, seq, cb);
+            switch (residue) {
+                case "SER":
+                    id = atom(cif, id, "O", "OG", residue, seq, offset(cb, direction(random, 1.4)));
+                    break;
+                case "CYS":
+                    id = atom(cif, id, "S", "SG", residue, seq, offset(cb, direction(random, 1.8)));
+                    break;
+                case "THR":
+                    id = atom(cif, id, "O", "OG1", residue, seq, offset(cb, direction(random, 1.4)));
+                    id = atom(cif, id, "C", "CG2", residue, seq, offset(cb, direction(random, 1.5)));
+                    break;
+                default:
+                    break;
+            }
+        }
+        cif.append("#\n");
+
+        try {
+            Files.write(getStructurePath(motifSearchConfig, structureIdentifier), cif.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Write content to the data source of a structure that cannot be parsed.
+     * @param motifSearchConfig the config
+     * @param structureIdentifier the structure
+     */
+    public static void writeCorruptStructure(MotifSearchConfig motifSearchConfig, StructureIdentifier structureIdentifier) {
+        try {
+            Files.write(getStructurePath(motifSearchConfig, structureIdentifier), "data_\n_atom_site.id\n".getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Path getStructurePath(MotifSearchConfig motifSearchConfig, StructureIdentifier structureIdentifier) {
+        return Path.of(motifSearchConfig.getDataSource().replace("{id}", structureIdentifier.getPdbId()));
+    }
+
+    private static double[] direction(Random random, double length) {
+        double[] direction = { random.nextGaussian(), random.nextGaussian(), random.nextGaussian() };
+        double norm = Math.sqrt(direction[0] * direction[0] + direction[1] * direction[1] + direction[2] * direction[2]);
+        for (int i = 0; i < 3; i++) {
+            direction[i] *= length / norm;
+        }
+        return direction;
+    }
+
+    private static double[] offset(double[] point, double[] offset) {
+        return new double[] { point[0] + offset[0], point[1] + offset[1], point[2] + offset[2] };
+    }
+
+    private static int atom(StringBuilder cif, int id, String typeSymbol, String atomName, String residue, int seq, double[] coordinates) {
+        cif.append(String.format("ATOM %d %s %s . %s A %d %.3f %.3f %.3f 1\n", id, typeSymbol, atomName, residue, seq, coordinates[0], coordinates[1], coordinates[2]));
+        return id + 1;
+    }
+
+    /**
+     * The content of all non-empty bins of the index in a root path, independent of the order of occurrences.
+     * @param rootPath the root path
+     * @return the name of each bin and the occurrences of each structure in it
+     */
+    public static Map<String, Map<String, Set<List<Object>>>> readIndex(Path rootPath) {
+        Map<String, Map<String, Set<List<Object>>>> index = new TreeMap<>();
+        try (Stream<Path> paths = Files.walk(rootPath.resolve(MotifSearchConfig.INDEX_DIRECTORY), FileVisitOption.FOLLOW_LINKS)) {
+            for (Path path : (Iterable<Path>) paths.filter(path -> path.toString().endsWith(".msg"))::iterator) {
+                Map<String, Object> data;
+                try (InputStream inputStream = Files.newInputStream(path)) {
+                    data = MessagePackCodec.decode(inputStream);
+                }
+                if (data.isEmpty()) {
+                    continue;
+                }
+
+                Map<String, Set<List<Object>>> bin = new TreeMap<>();
+                data.forEach((pdbId, occurrences) -> bin.put(pdbId, Arrays.stream((Object[]) occurrences)
+                        .map(occurrence -> Arrays.asList((Object[]) occurrence))
+                        .collect(Collectors.toCollection(HashSet::new))));
+                index.put(path.getFileName().toString(), bin);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return index;
+    }
+
+    /**
+     * The structures that occur anywhere in an index.
+     * @param index the content of an index
+     * @return all structures
+     */
+    public static Set<String> getStructures(Map<String, Map<String, Set<List<Object>>>> index) {
+        return index.values()
+                .stream()
+                .map(Map::keySet)
+                .flatMap(Collection::stream)
+                .collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,157 @@
+package org.rcsb.strucmotif.update;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.rcsb.strucmotif.config.MotifSearchConfig;
+import org.rcsb.strucmotif.core.ThreadPool;
+import org.rcsb.strucmotif.core.ThreadPoolImpl;
+import org.rcsb.strucmotif.domain.Pair;
+import org.rcsb.strucmotif.domain.Revision;
+import org.rcsb.strucmotif.domain.identifier.StructureIdentifier;
+import org.rcsb.strucmotif.io.StructureDataProvider;
+import org.rcsb.strucmotif.io.StructureDataProviderImpl;
+import org.rcsb.strucmotif.io.read.StructureReaderImpl;
+import org.rcsb.strucmotif.io.write.RenumberedStructureWriterImpl;
+import org.rcsb.strucmotif.persistence.FileSystemInvertedIndex;
+import org.rcsb.strucmotif.persistence.FileSystemStateRepository;
+import org.rcsb.strucmotif.persistence.StateRepository;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.rcsb.strucmotif.update.Helpers.createConfig;
+import static org.rcsb.strucmotif.update.Helpers.createIdentifiers;
+import static org.rcsb.strucmotif.update.Helpers.getStructures;
+import static org.rcsb.strucmotif.update.Helpers.readIndex;
+import static org.rcsb.strucmotif.update.Helpers.writeCorruptStructure;
+import static org.rcsb.strucmotif.update.Helpers.writeStructure;
+
+public class MotifSearchUpdateTest {
+    private static final Duration TIMEOUT = Duration.ofSeconds(60);
+    @TempDir
+    Path rootPath;
+    private MotifSearchConfig motifSearchConfig;
+    private StructureDataProvider structureDataProvider;
+    private ThreadPool threadPool;
+
+    @BeforeEach
+    public void init() {
+        motifSearchConfig = createConfig(rootPath);
+        structureDataProvider = new StructureDataProviderImpl(new StructureReaderImpl(), new RenumberedStructureWriterImpl(motifSearchConfig), motifSearchConfig);
+        threadPool = new ThreadPoolImpl(motifSearchConfig);
+    }
+
+    private Path getBinKeysPath(StructureIdentifier structureIdentifier) {
+        return rootPath.resolve(MotifSearchConfig.BIN_KEYS_DIRECTORY).resolve(structureIdentifier.getPdbId() + ".keys");
+    }
+
+    @Test
+    public void whenRemovingWithOtherGraphConfig_thenStructuresAreRemovedFromIndex() throws Exception {
+        List<StructureIdentifier> structureIdentifiers = createIdentifiers(4);
+        for (StructureIdentifier structureIdentifier : structureIdentifiers) {
+            writeStructure(motifSearchConfig, structureIdentifier, 30);
+        }
+        StateRepository stateRepository = new FileSystemStateRepository(motifSearchConfig);
+        assertTimeoutPreemptively(TIMEOUT, () -> new UpdatePipeline(stateRepository, structureDataProvider, new FileSystemInvertedIndex(motifSearchConfig), motifSearchConfig, threadPool, new UpdateMetricsImpl(), rootPath).run(structureIdentifiers));
+        for (StructureIdentifier structureIdentifier : structureIdentifiers) {
+            assertTrue(Files.exists(getBinKeysPath(structureIdentifier)));
+        }
+        // e.g. indexed by an older version: no bins recorded
+        Files.delete(getBinKeysPath(structureIdentifiers.get(1)));
+
+        // graphs of the current config miss most residue pairs of the index
+        MotifSearchConfig removalConfig = createConfig(rootPath);
+        removalConfig.setDistanceCutoff(5);
+        MotifSearchUpdate motifSearchUpdate = new MotifSearchUpdate(stateRepository, structureDataProvider, new FileSystemInvertedIndex(removalConfig), removalConfig, threadPool, new UpdateMetricsImpl());
+        assertTimeoutPreemptively(TIMEOUT, () -> motifSearchUpdate.remove(structureIdentifiers.subList(0, 2)));
+
+        assertEquals(Set.of(structureIdentifiers.get(2).getPdbId(), structureIdentifiers.get(3).getPdbId()), getStructures(readIndex(rootPath)));
+        assertEquals(Set.copyOf(structureIdentifiers.subList(2, 4)), stateRepository.selectKnown().stream().map(Pair::getFirst).collect(Collectors.toSet()));
+        assertFalse(Files.exists(getBinKeysPath(structureIdentifiers.get(0))));
+        assertTrue(Files.exists(getBinKeysPath(structureIdentifiers.get(2))));
+    }
+
+    /**
+     * The occurrences of a structure in an index.
+     * @param index the content of an index
+     * @param pdbId the structure
+     * @return the occurrences in each bin which references the structure
+     */
+    private static Map<String, Set<List<Object>>> getOccurrences(Map<String, Map<String, Set<List<Object>>>> index, String pdbId) {
+        Map<String, Set<List<Object>>> occurrences = new TreeMap<>();
+        index.forEach((bin, structures) -> {
+            if (structures.containsKey(pdbId)) {
+                occurrences.put(bin, structures.get(pdbId));
+            }
+        });
+        return occurrences;
+    }
+
+    @Test
+    public void whenUpdating_thenRevisedStructuresAreReindexedAndOthersRetained() throws Exception {
+        // major revision, minor revision, unchanged, unreadable, new
+        List<StructureIdentifier> structureIdentifiers = createIdentifiers(5);
+        List<StructureIdentifier> indexed = structureIdentifiers.subList(0, 4);
+        for (StructureIdentifier structureIdentifier : indexed) {
+            writeStructure(motifSearchConfig, structureIdentifier, 30);
+        }
+        StructureDataProvider spy = Mockito.spy(structureDataProvider);
+        StateRepository stateRepository = new FileSystemStateRepository(motifSearchConfig);
+        MotifSearchUpdate motifSearchUpdate = new MotifSearchUpdate(stateRepository, spy, new FileSystemInvertedIndex(motifSearchConfig), motifSearchConfig, threadPool, new UpdateMetricsImpl());
+        assertTimeoutPreemptively(TIMEOUT, () -> motifSearchUpdate.add(indexed));
+        Map<String, Map<String, Set<List<Object>>>> before = readIndex(rootPath);
+
+        writeStructure(motifSearchConfig, structureIdentifiers.get(0), 40, new Revision(2, 0));
+        writeStructure(motifSearchConfig, structureIdentifiers.get(1), 40, new Revision(1, 1));
+        writeCorruptStructure(motifSearchConfig, structureIdentifiers.get(3));
+        writeStructure(motifSearchConfig, structureIdentifiers.get(4), 30);
+        Mockito.clearInvocations(spy);
+        assertTimeoutPreemptively(TIMEOUT, () -> motifSearchUpdate.update(structureIdentifiers));
+
+        StateRepository reloaded = new FileSystemStateRepository(motifSearchConfig);
+        assertEquals(Map.of(structureIdentifiers.get(0), new Revision(2, 0),
+                structureIdentifiers.get(1), new Revision(1, 1),
+                structureIdentifiers.get(2), new Revision(1, 0),
+                structureIdentifiers.get(3), new Revision(1, 0),
+                structureIdentifiers.get(4), new Revision(1, 0)), reloaded.selectKnown().stream().collect(Collectors.toMap(Pair::getFirst, Pair::getSecond)));
+        assertTrue(reloaded.selectDirty().isEmpty());
+        verify(spy, never()).writeRenumberedData(eq(structureIdentifiers.get(2)), any());
+        verify(spy, never()).writeRenumberedData(eq(structureIdentifiers.get(3)), any());
+
+        // revised and new structures are indexed like a fresh index of the current data
+        Path referenceRootPath = rootPath.resolve("reference");
+        MotifSearchConfig referenceConfig = createConfig(referenceRootPath);
+        referenceConfig.setDataSource(motifSearchConfig.getDataSource());
+        new UpdatePipeline(new FileSystemStateRepository(referenceConfig), structureDataProvider, new FileSystemInvertedIndex(referenceConfig), referenceConfig, threadPool, new UpdateMetricsImpl(), referenceRootPath)
+                .run(List.of(structureIdentifiers.get(0), structureIdentifiers.get(1), structureIdentifiers.get(4)));
+        Map<String, Map<String, Set<List<Object>>>> reference = readIndex(referenceRootPath);
+        Map<String, Map<String, Set<List<Object>>>> after = readIndex(rootPath);
+        for (int i : new int[] { 0, 1, 4 }) {
+            String pdbId = structureIdentifiers.get(i).getPdbId();
+            assertEquals(getOccurrences(reference, pdbId), getOccurrences(after, pdbId), pdbId);
+        }
+        assertNotEquals(getOccurrences(before, structureIdentifiers.get(0).getPdbId()), getOccurrences(after, structureIdentifiers.get(0).getPdbId()));
+        // unchanged and unreadable structures keep their data
+        for (int i : new int[] { 2, 3 }) {
+            String pdbId = structureIdentifiers.get(i).getPdbId();
+            assertEquals(getOccurrences(before, pdbId), getOccurrences(after, pdbId), pdbId);
+        }
+    }
+}
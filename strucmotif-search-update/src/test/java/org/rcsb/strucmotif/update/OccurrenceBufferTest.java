@@ -0,0 +1,163 @@
+package org.rcsb.strucmotif.update;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rcsb.strucmotif.domain.identifier.StructureIdentifier;
+import org.rcsb.strucmotif.domain.motif.AngleType;
+import org.rcsb.strucmotif.domain.motif.DistanceType;
+import org.rcsb.strucmotif.domain.motif.ResiduePairDescriptor;
+import org.rcsb.strucmotif.domain.motif.ResiduePairIdentifier;
+import org.rcsb.strucmotif.domain.selection.LabelSelection;
+import org.rcsb.strucmotif.domain.structure.ResidueType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OccurrenceBufferTest {
+    private static final String[] ASYM_IDS = { "A", "B", "AA" };
+    private static final String[] STRUCT_OPER_IDS = { "1", "2", "1x5" };
+    @TempDir
+    Path spillDirectory;
+
+    @Test
+    public void whenEncodingDescriptors_thenDecodingRestoresThemAndKeysAreUnique() {
+        BitSet keys = new BitSet();
+        int count = 0;
+        for (ResidueType residueType1 : ResidueType.values()) {
+            for (ResidueType residueType2 : ResidueType.values()) {
+                // descriptors are stored in flipped order, keys cannot tell both orders apart
+                if (residueType1.getOneLetterCode().compareTo(residueType2.getOneLetterCode()) > 0) {
+                    continue;
+                }
+
+                for (DistanceType backboneDistance : DistanceType.values()) {
+                    for (DistanceType sideChainDistance : DistanceType.values()) {
+                        for (AngleType angle : AngleType.values()) {
+                            ResiduePairDescriptor residuePairDescriptor = new ResiduePairDescriptor(residueType1, residueType2, backboneDistance, sideChainDistance, angle, null);
+                            int key = OccurrenceBuffer.encode(residuePairDescriptor);
+                            assertTrue(key >= 0);
+                            assertFalse(keys.get(key), "duplicate key for " + residuePairDescriptor);
+                            keys.set(key);
+                            count++;
+
+                            assertEquals(residuePairDescriptor, OccurrenceBuffer.decode(key));
+                        }
+                    }
+                }
+            }
+        }
+        assertEquals(count, keys.cardinality());
+    }
+
+    @Test
+    public void whenEncodingFlippedDescriptor_thenKeyOfUnflippedDescriptor() {
+        ResiduePairDescriptor flipped = new ResiduePairDescriptor(ResidueType.SERINE, ResidueType.ALANINE, DistanceType.D5, DistanceType.D7, AngleType.A60, null);
+        ResiduePairDescriptor unflipped = new ResiduePairDescriptor(ResidueType.ALANINE, ResidueType.SERINE, DistanceType.D5, DistanceType.D7, AngleType.A60, null);
+        assertTrue(flipped.isFlipped());
+        assertEquals(OccurrenceBuffer.encode(unflipped), OccurrenceBuffer.encode(flipped));
+        assertEquals(unflipped, OccurrenceBuffer.decode(OccurrenceBuffer.encode(flipped)));
+    }
+
+    @Test
+    public void whenMergingSpilledAndBufferedRecords_thenBinsMatchExpectation() throws IOException {
+        Random random = new Random(7);
+        List<ResiduePairDescriptor> descriptors = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            descriptors.add(new ResiduePairDescriptor(ResidueType.values()[random.nextInt(20)],
+                    ResidueType.values()[random.nextInt(20)],
+                    DistanceType.values()[random.nextInt(DistanceType.values().length)],
+                    DistanceType.values()[random.nextInt(DistanceType.values().length)],
+                    AngleType.values()[random.nextInt(AngleType.values().length)],
+                    null));
+        }
+
+        // room for 100 records: structures spill several runs, the last ones stay in memory
+        OccurrenceBuffer buffer = new OccurrenceBuffer(spillDirectory, 100 * 8 * Integer.BYTES);
+        Map<Integer, Map<StructureIdentifier, Collection<ResiduePairIdentifier>>> expected = new TreeMap<>();
+        for (StructureIdentifier structureIdentifier : Helpers.createIdentifiers(30)) {
+            OccurrenceBuffer.StructureRecords structureRecords = new OccurrenceBuffer.StructureRecords();
+            int occurrenceCount = random.nextInt(60);
+            for (int i = 0; i < occurrenceCount; i++) {
+                ResiduePairDescriptor residuePairDescriptor = descriptors.get(random.nextInt(descriptors.size()));
+                ResiduePairIdentifier residuePairIdentifier = new ResiduePairIdentifier(createLabelSelection(random), createLabelSelection(random));
+                structureRecords.add(residuePairDescriptor, residuePairIdentifier);
+                expected.computeIfAbsent(OccurrenceBuffer.encode(residuePairDescriptor), k -> new LinkedHashMap<>())
+                        .computeIfAbsent(structureIdentifier, k -> new ArrayList<>())
+                        .add(residuePairIdentifier);
+            }
+            buffer.add(structureIdentifier, structureRecords);
+        }
+        assertTrue(buffer.getRunCount() > 2);
+        long spilledRecords = 0;
+        for (Path run : buffer.getRuns()) {
+            spilledRecords += Files.size(run) / (8 * Integer.BYTES);
+        }
+        assertTrue(spilledRecords < buffer.getRecordCount());
+        assertEquals(expected.values().stream().flatMap(bin -> bin.values().stream()).mapToInt(Collection::size).sum(), buffer.getRecordCount());
+
+        Map<Integer, Map<StructureIdentifier, Collection<ResiduePairIdentifier>>> actual = new TreeMap<>();
+        List<Integer> order = new ArrayList<>();
+        try (OccurrenceBuffer.Merge merge = buffer.merge()) {
+            while (merge.next()) {
+                int key = OccurrenceBuffer.encode(merge.getResiduePairDescriptor());
+                order.add(key);
+                actual.put(key, merge.getOccurrences());
+            }
+        }
+
+        // each bin is reported once and in order, occurrences retain the order in which structures were added
+        assertEquals(new ArrayList<>(expected.keySet()), order);
+        assertEquals(expected, actual);
+        for (Integer key : expected.keySet()) {
+            assertEquals(new ArrayList<>(expected.get(key).keySet()), new ArrayList<>(actual.get(key).keySet()));
+        }
+
+        buffer.close();
+        try (Stream<Path> runs = Files.list(spillDirectory)) {
+            assertEquals(0, runs.count());
+        }
+    }
+
+    @Test
+    public void whenMerging_thenMemoryUsageIncludesMerge() {
+        OccurrenceBuffer buffer = new OccurrenceBuffer(spillDirectory, 2 * 8 * Integer.BYTES);
+        for (StructureIdentifier structureIdentifier : Helpers.createIdentifiers(3)) {
+            OccurrenceBuffer.StructureRecords structureRecords = new OccurrenceBuffer.StructureRecords();
+            structureRecords.add(new ResiduePairDescriptor(ResidueType.ALANINE, ResidueType.SERINE, DistanceType.D5, DistanceType.D7, AngleType.A60, null),
+                    new ResiduePairIdentifier(new LabelSelection("A", "1", 1), new LabelSelection("B", "1", 2)));
+            buffer.add(structureIdentifier, structureRecords);
+        }
+        long recordMemoryUsage = buffer.getMemoryUsage();
+        assertTrue(recordMemoryUsage > 0);
+
+        // records still held in memory and read buffers of runs
+        try (OccurrenceBuffer.Merge merge = buffer.merge()) {
+            assertTrue(buffer.getMemoryUsage() > recordMemoryUsage + buffer.getRunCount() * 1024L);
+            while (merge.next()) {
+                assertEquals(3, merge.getOccurrences().size());
+            }
+        }
+        assertEquals(recordMemoryUsage, buffer.getMemoryUsage());
+
+        buffer.close();
+        assertEquals(0, buffer.getMemoryUsage());
+    }
+
+    private static LabelSelection createLabelSelection(Random random) {
+        return new LabelSelection(ASYM_IDS[random.nextInt(ASYM_IDS.length)], STRUCT_OPER_IDS[random.nextInt(STRUCT_OPER_IDS.length)], 1 + random.nextInt(500));
+    }
+}
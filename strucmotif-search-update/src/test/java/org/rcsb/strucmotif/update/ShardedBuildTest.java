@@ -0,0 +1,160 @@
+package org.rcsb.strucmotif.update;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rcsb.strucmotif.config.MotifSearchConfig;
+import org.rcsb.strucmotif.core.ThreadPool;
+import org.rcsb.strucmotif.core.ThreadPoolImpl;
+import org.rcsb.strucmotif.domain.Pair;
+import org.rcsb.strucmotif.domain.identifier.StructureIdentifier;
+import org.rcsb.strucmotif.io.StructureDataProvider;
+import org.rcsb.strucmotif.io.StructureDataProviderImpl;
+import org.rcsb.strucmotif.io.read.StructureReaderImpl;
+import org.rcsb.strucmotif.io.write.RenumberedStructureWriterImpl;
+import org.rcsb.strucmotif.persistence.FileSystemInvertedIndex;
+import org.rcsb.strucmotif.persistence.FileSystemStateRepository;
+import org.rcsb.strucmotif.persistence.StateRepository;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.rcsb.strucmotif.update.Helpers.createConfig;
+import static org.rcsb.strucmotif.update.Helpers.createIdentifiers;
+import static org.rcsb.strucmotif.update.Helpers.readIndex;
+import static org.rcsb.strucmotif.update.Helpers.writeStructure;
+
+public class ShardedBuildTest {
+    private static final Duration TIMEOUT = Duration.ofSeconds(60);
+    @TempDir
+    Path rootPath;
+    private MotifSearchConfig motifSearchConfig;
+    private StructureDataProvider structureDataProvider;
+    private ThreadPool threadPool;
+    private List<StructureIdentifier> structureIdentifiers;
+
+    @BeforeEach
+    public void init() {
+        motifSearchConfig = createConfig(rootPath);
+        motifSearchConfig.setUpdateShardCount(3);
+        structureDataProvider = new StructureDataProviderImpl(new StructureReaderImpl(), new RenumberedStructureWriterImpl(motifSearchConfig), motifSearchConfig);
+        threadPool = new ThreadPoolImpl(motifSearchConfig);
+        structureIdentifiers = createIdentifiers(6);
+        for (StructureIdentifier structureIdentifier : structureIdentifiers) {
+            writeStructure(motifSearchConfig, structureIdentifier, 30);
+        }
+    }
+
+    private ShardedBuild createShardedBuild(StateRepository stateRepository) {
+        return new ShardedBuild(stateRepository, structureDataProvider, new FileSystemInvertedIndex(motifSearchConfig), motifSearchConfig, threadPool, new UpdateMetricsImpl());
+    }
+
+    private Path getBuildDirectory() {
+        return rootPath.resolve(MotifSearchConfig.BUILD_DIRECTORY);
+    }
+
+    /**
+     * The index of a bulk build of all structures.
+     * @return the bins
+     */
+    private Map<String, Map<String, Set<List<Object>>>> createReferenceIndex() throws Exception {
+        Path referenceRootPath = rootPath.resolve("reference");
+        MotifSearchConfig referenceConfig = createConfig(referenceRootPath);
+        referenceConfig.setDataSource(motifSearchConfig.getDataSource());
+        new UpdatePipeline(new FileSystemStateRepository(referenceConfig),
+                structureDataProvider,
+                new FileSystemInvertedIndex(referenceConfig),
+                referenceConfig,
+                threadPool,
+                new UpdateMetricsImpl(),
+                referenceRootPath).rebuild(structureIdentifiers);
+        return readIndex(referenceRootPath);
+    }
+
+    @Test
+    public void whenShardIsClaimed_thenOtherWorkersSkipItAndMergeFails() throws Exception {
+        StateRepository stateRepository = new FileSystemStateRepository(motifSearchConfig);
+        ShardedBuild shardedBuild = createShardedBuild(stateRepository);
+        shardedBuild.plan(structureIdentifiers);
+        assertThrows(IllegalStateException.class, () -> shardedBuild.plan(structureIdentifiers));
+        // claimed by another worker that has not finished
+        Files.createFile(getBuildDirectory().resolve("shard-0002.claim"));
+
+        assertTimeoutPreemptively(TIMEOUT, shardedBuild::build);
+        assertTrue(Files.exists(getBuildDirectory().resolve("shard-0001.done")));
+        assertFalse(Files.exists(getBuildDirectory().resolve("shard-0002.done")));
+        assertFalse(Files.exists(getBuildDirectory().resolve("segment-0002")));
+        assertTrue(Files.exists(getBuildDirectory().resolve("shard-0003.done")));
+        IllegalStateException exception = assertThrows(IllegalStateException.class, shardedBuild::merge);
+        assertTrue(exception.getMessage().contains("shard-0002"), exception.getMessage());
+        assertTrue(stateRepository.selectKnown().isEmpty());
+
+        // the other worker failed: its claim is released and the shard is built by the next worker
+        Files.delete(getBuildDirectory().resolve("shard-0002.claim"));
+        assertTimeoutPreemptively(TIMEOUT, createShardedBuild(stateRepository)::build);
+        assertTrue(Files.exists(getBuildDirectory().resolve("shard-0002.done")));
+        shardedBuild.merge();
+
+        assertEquals(createReferenceIndex(), readIndex(rootPath));
+        assertEquals(Set.copyOf(structureIdentifiers), stateRepository.selectKnown().stream().map(Pair::getFirst).collect(Collectors.toSet()));
+        assertFalse(Files.exists(getBuildDirectory()));
+    }
+
+    @Test
+    public void whenWorkersBuildConcurrently_thenMergedIndexEqualsBulkBuild() throws Exception {
+        StateRepository stateRepository = new FileSystemStateRepository(motifSearchConfig);
+        stateRepository.insertDirty(List.of(new StructureIdentifier("9zzz")));
+        createShardedBuild(stateRepository).plan(structureIdentifiers);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> worker1 = executorService.submit(() -> {
+                createShardedBuild(new FileSystemStateRepository(motifSearchConfig)).build();
+                return null;
+            });
+            Future<?> worker2 = executorService.submit(() -> {
+                createShardedBuild(new FileSystemStateRepository(motifSearchConfig)).build();
+                return null;
+            });
+            assertTimeoutPreemptively(TIMEOUT, () -> {
+                worker1.get();
+                worker2.get();
+            });
+        } finally {
+            executorService.shutdownNow();
+        }
+        createShardedBuild(stateRepository).merge();
+
+        assertEquals(createReferenceIndex(), readIndex(rootPath));
+        assertEquals(Set.copyOf(structureIdentifiers), stateRepository.selectKnown().stream().map(Pair::getFirst).collect(Collectors.toSet()));
+        assertTrue(stateRepository.selectDirty().isEmpty());
+    }
+
+    @Test
+    public void whenCreatingSegmentConfig_thenSettingsOfBuildAreRetained() {
+        motifSearchConfig.setDistanceCutoff(12);
+        motifSearchConfig.setUpdateChunkSize(17);
+        Path segment = getBuildDirectory().resolve("segment-0001");
+
+        MotifSearchConfig segmentConfig = createShardedBuild(new FileSystemStateRepository(motifSearchConfig)).createSegmentConfig(segment);
+
+        assertEquals(segment.toString(), segmentConfig.getRootPath());
+        assertEquals(12, segmentConfig.getDistanceCutoff());
+        assertEquals(17, segmentConfig.getUpdateChunkSize());
+        assertEquals(motifSearchConfig.getDataSource(), segmentConfig.getDataSource());
+        assertEquals(rootPath.toString(), motifSearchConfig.getRootPath());
+    }
+}
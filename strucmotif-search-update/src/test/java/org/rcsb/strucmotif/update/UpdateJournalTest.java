@@ -0,0 +1,89 @@
+package org.rcsb.strucmotif.update;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rcsb.strucmotif.config.MotifSearchConfig;
+import org.rcsb.strucmotif.domain.Pair;
+import org.rcsb.strucmotif.domain.Revision;
+import org.rcsb.strucmotif.domain.identifier.StructureIdentifier;
+import org.rcsb.strucmotif.domain.motif.AngleType;
+import org.rcsb.strucmotif.domain.motif.DistanceType;
+import org.rcsb.strucmotif.domain.motif.ResiduePairDescriptor;
+import org.rcsb.strucmotif.domain.motif.ResiduePairIdentifier;
+import org.rcsb.strucmotif.domain.selection.LabelSelection;
+import org.rcsb.strucmotif.domain.structure.ResidueType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class UpdateJournalTest {
+    @TempDir
+    Path workingDirectory;
+
+    private UpdateJournal createJournal() {
+        return new UpdateJournal(workingDirectory.resolve(MotifSearchConfig.JOURNAL_DIRECTORY), workingDirectory.resolve(MotifSearchConfig.RUN_DIRECTORY));
+    }
+
+    private OccurrenceBuffer createBuffer(List<Pair<StructureIdentifier, Revision>> processed) throws IOException {
+        Files.createDirectories(workingDirectory.resolve(MotifSearchConfig.RUN_DIRECTORY));
+        OccurrenceBuffer buffer = new OccurrenceBuffer(workingDirectory.resolve(MotifSearchConfig.RUN_DIRECTORY), 1 << 20);
+        ResiduePairDescriptor residuePairDescriptor = new ResiduePairDescriptor(ResidueType.ALANINE, ResidueType.SERINE, DistanceType.D5, DistanceType.D7, AngleType.A60, null);
+        for (Pair<StructureIdentifier, Revision> pair : processed) {
+            OccurrenceBuffer.StructureRecords structureRecords = new OccurrenceBuffer.StructureRecords();
+            structureRecords.add(residuePairDescriptor, new ResiduePairIdentifier(new LabelSelection("A", "1", 1), new LabelSelection("B", "1", 2)));
+            buffer.add(pair.getFirst(), structureRecords);
+        }
+        buffer.flush();
+        return buffer;
+    }
+
+    @Test
+    public void whenLastKeyIsTorn_thenCompleteKeysAreRead() throws IOException {
+        List<Pair<StructureIdentifier, Revision>> processed = Helpers.createIdentifiers(3)
+                .stream()
+                .map(structureIdentifier -> new Pair<>(structureIdentifier, new Revision(1, 2)))
+                .collect(Collectors.toList());
+        OccurrenceBuffer buffer = createBuffer(processed);
+        UpdateJournal journal = createJournal();
+        journal.begin(4, processed, buffer);
+        journal.complete(17);
+        journal.complete(23);
+        journal.close();
+        // interrupted while appending the next key
+        Files.write(workingDirectory.resolve(MotifSearchConfig.JOURNAL_DIRECTORY).resolve("batch.bins"), new byte[] { 0, 1 }, StandardOpenOption.APPEND);
+
+        UpdateJournal.Entry entry = createJournal().read();
+        assertNotNull(entry);
+        assertEquals(4, entry.getNumber());
+        assertEquals(Set.of(17, 23), entry.getCompleted());
+        assertEquals(processed.stream().map(Pair::getFirst).collect(Collectors.toList()), entry.getProcessed().stream().map(Pair::getFirst).collect(Collectors.toList()));
+        assertEquals(new Revision(1, 2), entry.getProcessed().get(0).getSecond());
+        assertEquals(buffer.getStrings(), entry.getStrings());
+        assertEquals(buffer.getRuns(), entry.getRuns());
+        buffer.close();
+    }
+
+    @Test
+    public void whenOnlyBinsArePresent_thenNoBatchWasInterrupted() throws IOException {
+        List<Pair<StructureIdentifier, Revision>> processed = List.of(new Pair<>(new StructureIdentifier("1abc"), new Revision(1, 0)));
+        OccurrenceBuffer buffer = createBuffer(processed);
+        UpdateJournal journal = createJournal();
+        journal.begin(1, processed, buffer);
+        journal.complete(17);
+        journal.clear();
+        // e.g. interrupted while clearing
+        Files.write(workingDirectory.resolve(MotifSearchConfig.JOURNAL_DIRECTORY).resolve("batch.bins"), new byte[] { 0, 0, 0, 17 });
+
+        assertNull(createJournal().read());
+        buffer.close();
+    }
+}
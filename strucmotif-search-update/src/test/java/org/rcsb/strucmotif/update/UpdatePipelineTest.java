@@ -0,0 +1,352 @@
+package org.rcsb.strucmotif.update;
+
+import com.google.gson.Gson;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.rcsb.cif.ParsingException;
+import org.rcsb.strucmotif.config.MotifSearchConfig;
+import org.rcsb.strucmotif.core.ThreadPool;
+import org.rcsb.strucmotif.core.ThreadPoolImpl;
+import org.rcsb.strucmotif.domain.Pair;
+import org.rcsb.strucmotif.domain.Revision;
+import org.rcsb.strucmotif.domain.identifier.StructureIdentifier;
+import org.rcsb.strucmotif.domain.motif.AngleType;
+import org.rcsb.strucmotif.domain.motif.DistanceType;
+import org.rcsb.strucmotif.domain.motif.ResiduePairDescriptor;
+import org.rcsb.strucmotif.domain.motif.ResiduePairIdentifier;
+import org.rcsb.strucmotif.domain.selection.LabelSelection;
+import org.rcsb.strucmotif.domain.structure.ResidueType;
+import org.rcsb.strucmotif.io.StructureDataProvider;
+import org.rcsb.strucmotif.io.StructureDataProviderImpl;
+import org.rcsb.strucmotif.io.read.StructureReaderImpl;
+import org.rcsb.strucmotif.io.write.RenumberedStructureWriterImpl;
+import org.rcsb.strucmotif.persistence.FileSystemInvertedIndex;
+import org.rcsb.strucmotif.persistence.FileSystemStateRepository;
+import org.rcsb.strucmotif.persistence.InvertedIndex;
+import org.rcsb.strucmotif.persistence.StateRepository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.rcsb.strucmotif.update.Helpers.createConfig;
+import static org.rcsb.strucmotif.update.Helpers.createIdentifiers;
+import static org.rcsb.strucmotif.update.Helpers.getStructures;
+import static org.rcsb.strucmotif.update.Helpers.readIndex;
+import static org.rcsb.strucmotif.update.Helpers.writeCorruptStructure;
+import static org.rcsb.strucmotif.update.Helpers.writeStructure;
+
+public class UpdatePipelineTest {
+    private static final Duration TIMEOUT = Duration.ofSeconds(60);
+    private static final ResiduePairDescriptor BIN = new ResiduePairDescriptor(ResidueType.ALANINE, ResidueType.SERINE, DistanceType.D5, DistanceType.D7, AngleType.A60, null);
+    @TempDir
+    Path rootPath;
+    private MotifSearchConfig motifSearchConfig;
+    private StructureDataProvider structureDataProvider;
+    private ThreadPool threadPool;
+
+    @BeforeEach
+    public void init() {
+        motifSearchConfig = createConfig(rootPath);
+        structureDataProvider = new StructureDataProviderImpl(new StructureReaderImpl(), new RenumberedStructureWriterImpl(motifSearchConfig), motifSearchConfig);
+        threadPool = new ThreadPoolImpl(motifSearchConfig);
+    }
+
+    private UpdatePipeline createPipeline(StateRepository stateRepository, InvertedIndex invertedIndex) {
+        return new UpdatePipeline(stateRepository, structureDataProvider, invertedIndex, motifSearchConfig, threadPool, new UpdateMetricsImpl(), rootPath);
+    }
+
+    @Test
+    public void whenParsingFails_thenExecutionExceptionWithoutHanging() {
+        List<StructureIdentifier> structureIdentifiers = createIdentifiers(20);
+        for (StructureIdentifier structureIdentifier : structureIdentifiers) {
+            writeStructure(motifSearchConfig, structureIdentifier, 20);
+        }
+        writeCorruptStructure(motifSearchConfig, structureIdentifiers.get(7));
+        // small queues: stages block on each other when the failure happens
+        motifSearchConfig.setUpdateQueueSize(1);
+        motifSearchConfig.setUpdateChunkSize(3);
+        StateRepository stateRepository = new FileSystemStateRepository(motifSearchConfig);
+        UpdatePipeline updatePipeline = createPipeline(stateRepository, new FileSystemInvertedIndex(motifSearchConfig));
+
+        ExecutionException exception = assertTimeoutPreemptively(TIMEOUT, () -> assertThrows(ExecutionException.class, () -> updatePipeline.run(structureIdentifiers)));
+        assertTrue(exception.getCause() instanceof ParsingException, exception.getCause().toString());
+        // the corrupt structure never becomes known
+        assertTrue(stateRepository.selectKnown().stream().noneMatch(known -> known.getFirst().equals(structureIdentifiers.get(7))));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void whenChunkSizeIsSmall_thenSeveralBatchesAreWritten() throws Exception {
+        List<StructureIdentifier> structureIdentifiers = createIdentifiers(5);
+        for (StructureIdentifier structureIdentifier : structureIdentifiers) {
+            writeStructure(motifSearchConfig, structureIdentifier, 30);
+        }
+        motifSearchConfig.setUpdateChunkSize(2);
+        StateRepository stateRepository = Mockito.spy(new FileSystemStateRepository(motifSearchConfig));
+
+        assertTimeoutPreemptively(TIMEOUT, () -> createPipeline(stateRepository, new FileSystemInvertedIndex(motifSearchConfig)).run(structureIdentifiers));
+
+        ArgumentCaptor<Collection<Pair<StructureIdentifier, Revision>>> batches = ArgumentCaptor.forClass(Collection.class);
+        verify(stateRepository, times(3)).insertKnown(batches.capture());
+        assertEquals(List.of(2, 2, 1), batches.getAllValues()
+                .stream()
+                .map(Collection::size)
+                .collect(Collectors.toList()));
+        Set<String> pdbIds = structureIdentifiers.stream()
+                .map(StructureIdentifier::getPdbId)
+                .collect(Collectors.toSet());
+        assertEquals(pdbIds, getStructures(readIndex(rootPath)));
+
+        // batches add up to the same index as a single batch
+        Path singleBatchRootPath = rootPath.resolve("single");
+        MotifSearchConfig singleBatchConfig = createConfig(singleBatchRootPath);
+        singleBatchConfig.setDataSource(motifSearchConfig.getDataSource());
+        singleBatchConfig.setUpdateChunkSize(100);
+        UpdatePipeline singleBatchPipeline = new UpdatePipeline(new FileSystemStateRepository(singleBatchConfig),
+                structureDataProvider,
+                new FileSystemInvertedIndex(singleBatchConfig),
+                singleBatchConfig,
+                threadPool,
+                new UpdateMetricsImpl(),
+                singleBatchRootPath);
+        singleBatchPipeline.run(structureIdentifiers);
+        assertEquals(readIndex(singleBatchRootPath), readIndex(rootPath));
+    }
+
+    private UpdateJournal createJournal() {
+        return new UpdateJournal(rootPath.resolve(MotifSearchConfig.JOURNAL_DIRECTORY), rootPath.resolve(MotifSearchConfig.RUN_DIRECTORY));
+    }
+
+    /**
+     * Stage an index which holds a single bin of some structures.
+     * @param invertedIndex the index
+     * @param processed the structures
+     */
+    private static void stage(InvertedIndex invertedIndex, List<Pair<StructureIdentifier, Revision>> processed) {
+        ResiduePairIdentifier residuePairIdentifier = new ResiduePairIdentifier(new LabelSelection("A", "1", 1), new LabelSelection("B", "1", 2));
+        invertedIndex.insertStaged(BIN, processed.stream()
+                .collect(Collectors.toMap(Pair::getFirst, pair -> List.of(residuePairIdentifier))));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void whenRunning_thenMetricsAreReportedAndWritten() throws Exception {
+        List<StructureIdentifier> structureIdentifiers = createIdentifiers(3);
+        for (StructureIdentifier structureIdentifier : structureIdentifiers) {
+            writeStructure(motifSearchConfig, structureIdentifier, 30);
+        }
+        UpdateMetrics updateMetrics = new UpdateMetricsImpl();
+        UpdatePipeline updatePipeline = new UpdatePipeline(new FileSystemStateRepository(motifSearchConfig), structureDataProvider, new FileSystemInvertedIndex(motifSearchConfig), motifSearchConfig, threadPool, updateMetrics, rootPath);
+
+        assertTimeoutPreemptively(TIMEOUT, () -> updatePipeline.run(structureIdentifiers));
+
+        // a single batch: each bin is written once, each residue pair is one occurrence
+        Map<String, Map<String, Set<List<Object>>>> index = readIndex(rootPath);
+        long occurrences = index.values()
+                .stream()
+                .flatMap(bin -> bin.values().stream())
+                .mapToLong(Set::size)
+                .sum();
+        Map<String, Map<String, Number>> report = updateMetrics.report();
+        assertEquals(3L, report.get("update.structures.parsed").get("count"));
+        assertEquals(occurrences, report.get("update.residue-pairs.extracted").get("count"));
+        assertEquals(occurrences, report.get("update.occurrences.written").get("count"));
+        assertEquals((long) index.size(), report.get("update.bins.written").get("count"));
+        assertEquals(3L, report.get("update.parse.time").get("count"));
+        assertEquals(3L, report.get("update.graph.time").get("count"));
+        assertEquals(3L, report.get("update.write-renumbered.time").get("count"));
+        assertEquals(1L, report.get("update.persist.time").get("count"));
+        assertTrue(report.keySet().containsAll(Set.of("update.queue.parsed", "update.queue.extracted", "update.buffer.bytes")));
+
+        Map<String, Map<String, Double>> written = new Gson().fromJson(Files.readString(rootPath.resolve(MotifSearchConfig.UPDATE_METRICS_FILE)), Map.class);
+        assertEquals(report.keySet(), written.keySet());
+        assertEquals(report.get("update.bins.written").keySet(), written.get("update.bins.written").keySet());
+        assertEquals((double) occurrences, written.get("update.occurrences.written").get("count"));
+    }
+
+    @Test
+    public void whenCommittingStagedIndexFails_thenResumeCompletesReplacement() throws Exception {
+        List<StructureIdentifier> structureIdentifiers = createIdentifiers(3);
+        StateRepository stateRepository = new FileSystemStateRepository(motifSearchConfig);
+        stateRepository.insertKnown(List.of(new Pair<>(structureIdentifiers.get(0), new Revision(1, 0)), new Pair<>(structureIdentifiers.get(1), new Revision(1, 0))));
+        InvertedIndex invertedIndex = Mockito.spy(new FileSystemInvertedIndex(motifSearchConfig));
+        Mockito.doThrow(new UncheckedIOException(new IOException("interrupted"))).when(invertedIndex).commitStaged(anyString());
+        List<Pair<StructureIdentifier, Revision>> processed = List.of(new Pair<>(structureIdentifiers.get(1), new Revision(2, 0)), new Pair<>(structureIdentifiers.get(2), new Revision(1, 0)));
+        stage(invertedIndex, processed);
+
+        assertThrows(UncheckedIOException.class, () -> UpdatePipeline.replaceIndex(stateRepository, invertedIndex, createJournal(), processed));
+        // nothing is dirty: a recovery would remove the whole archive
+        StateRepository reloaded = new FileSystemStateRepository(motifSearchConfig);
+        assertTrue(reloaded.selectDirty().isEmpty());
+        assertEquals(Set.copyOf(structureIdentifiers.subList(0, 2)), reloaded.selectKnown().stream().map(Pair::getFirst).collect(Collectors.toSet()));
+
+        createPipeline(reloaded, new FileSystemInvertedIndex(motifSearchConfig)).resume();
+
+        assertEquals(Set.copyOf(structureIdentifiers.subList(1, 3)), reloaded.selectKnown().stream().map(Pair::getFirst).collect(Collectors.toSet()));
+        assertEquals(new Revision(2, 0), reloaded.selectKnown().stream().filter(pair -> pair.getFirst().equals(structureIdentifiers.get(1))).findFirst().orElseThrow().getSecond());
+        assertEquals(Set.copyOf(structureIdentifiers.subList(1, 3)), new FileSystemInvertedIndex(motifSearchConfig).select(BIN).map(Pair::getFirst).collect(Collectors.toSet()));
+        assertNull(createJournal().readReplacement());
+    }
+
+    @Test
+    public void whenRegisteringReplacementFails_thenResumeRegistersStructures() throws Exception {
+        List<StructureIdentifier> structureIdentifiers = createIdentifiers(3);
+        StateRepository stateRepository = Mockito.spy(new FileSystemStateRepository(motifSearchConfig));
+        stateRepository.insertKnown(List.of(new Pair<>(structureIdentifiers.get(0), new Revision(1, 0))));
+        Mockito.doThrow(new UncheckedIOException(new IOException("interrupted"))).when(stateRepository).replaceKnown(any());
+        InvertedIndex invertedIndex = new FileSystemInvertedIndex(motifSearchConfig);
+        List<Pair<StructureIdentifier, Revision>> processed = List.of(new Pair<>(structureIdentifiers.get(1), new Revision(1, 0)), new Pair<>(structureIdentifiers.get(2), new Revision(1, 0)));
+        stage(invertedIndex, processed);
+
+        assertThrows(UncheckedIOException.class, () -> UpdatePipeline.replaceIndex(stateRepository, invertedIndex, createJournal(), processed));
+        // the staged index is already committed
+        assertEquals(Set.copyOf(structureIdentifiers.subList(1, 3)), invertedIndex.select(BIN).map(Pair::getFirst).collect(Collectors.toSet()));
+
+        StateRepository reloaded = new FileSystemStateRepository(motifSearchConfig);
+        createPipeline(reloaded, new FileSystemInvertedIndex(motifSearchConfig)).resume();
+
+        assertEquals(Set.copyOf(structureIdentifiers.subList(1, 3)), reloaded.selectKnown().stream().map(Pair::getFirst).collect(Collectors.toSet()));
+        assertTrue(reloaded.selectDirty().isEmpty());
+        assertEquals(Set.copyOf(structureIdentifiers.subList(1, 3)), new FileSystemInvertedIndex(motifSearchConfig).select(BIN).map(Pair::getFirst).collect(Collectors.toSet()));
+        assertNull(createJournal().readReplacement());
+    }
+
+    @Test
+    public void whenReplacingIndex_thenExactlyNewStructuresAreKnown() throws IOException {
+        List<StructureIdentifier> structureIdentifiers = createIdentifiers(3);
+        StateRepository stateRepository = new FileSystemStateRepository(motifSearchConfig);
+        stateRepository.insertKnown(List.of(new Pair<>(structureIdentifiers.get(0), new Revision(1, 0))));
+        stateRepository.insertDirty(List.of(structureIdentifiers.get(2)));
+        InvertedIndex invertedIndex = Mockito.mock(InvertedIndex.class);
+        Mockito.when(invertedIndex.getStagedName()).thenReturn("index-1");
+
+        UpdatePipeline.replaceIndex(stateRepository, invertedIndex, createJournal(), List.of(new Pair<>(structureIdentifiers.get(1), new Revision(1, 0))));
+        verify(invertedIndex).commitStaged("index-1");
+        StateRepository reloaded = new FileSystemStateRepository(motifSearchConfig);
+        assertEquals(List.of(structureIdentifiers.get(1)), reloaded.selectKnown().stream().map(Pair::getFirst).collect(Collectors.toList()));
+        assertTrue(reloaded.selectDirty().isEmpty());
+        assertNull(createJournal().readReplacement());
+    }
+
+    /**
+     * Run an update whose index writes fail after some bins were written, so its journal and runs are left behind.
+     * @param structureIdentifiers the structures to add
+     * @param written collects the bins which were written
+     * @return the bins of the complete index, as written by an update without failures
+     */
+    private Map<String, Map<String, Set<List<Object>>>> runInterrupted(List<StructureIdentifier> structureIdentifiers, Collection<ResiduePairDescriptor> written) throws Exception {
+        for (StructureIdentifier structureIdentifier : structureIdentifiers) {
+            writeStructure(motifSearchConfig, structureIdentifier, 30);
+        }
+        Path referenceRootPath = rootPath.resolve("reference");
+        MotifSearchConfig referenceConfig = createConfig(referenceRootPath);
+        referenceConfig.setDataSource(motifSearchConfig.getDataSource());
+        new UpdatePipeline(new FileSystemStateRepository(referenceConfig),
+                structureDataProvider,
+                new FileSystemInvertedIndex(referenceConfig),
+                referenceConfig,
+                threadPool,
+                new UpdateMetricsImpl(),
+                referenceRootPath).run(structureIdentifiers);
+
+        InvertedIndex failingInvertedIndex = Mockito.spy(new FileSystemInvertedIndex(motifSearchConfig));
+        AtomicInteger inserts = new AtomicInteger();
+        Mockito.doAnswer(invocation -> {
+            if (inserts.incrementAndGet() > 10) {
+                throw new UncheckedIOException(new IOException("disk full"));
+            }
+            invocation.callRealMethod();
+            written.add(invocation.getArgument(0));
+            return null;
+        }).when(failingInvertedIndex).insert(any(), any());
+        assertThrows(ExecutionException.class, () -> createPipeline(new FileSystemStateRepository(motifSearchConfig), failingInvertedIndex).run(structureIdentifiers));
+        return readIndex(referenceRootPath);
+    }
+
+    @Test
+    public void whenResumingWithRecordedBins_thenOnlyMissingBinsAreWritten() throws Exception {
+        List<StructureIdentifier> structureIdentifiers = createIdentifiers(4);
+        Collection<ResiduePairDescriptor> written = new ConcurrentLinkedQueue<>();
+        Map<String, Map<String, Set<List<Object>>>> expected = runInterrupted(structureIdentifiers, written);
+        assertTrue(written.size() > 0 && written.size() < expected.size());
+
+        // the journal of the interrupted update may not have been flushed, record written bins explicitly
+        UpdateJournal journal = new UpdateJournal(rootPath.resolve(MotifSearchConfig.JOURNAL_DIRECTORY), rootPath.resolve(MotifSearchConfig.RUN_DIRECTORY));
+        journal.resume();
+        Set<Integer> recorded = written.stream()
+                .map(OccurrenceBuffer::encode)
+                .collect(Collectors.toSet());
+        recorded.forEach(journal::complete);
+        journal.close();
+
+        StateRepository stateRepository = new FileSystemStateRepository(motifSearchConfig);
+        InvertedIndex invertedIndex = Mockito.spy(new FileSystemInvertedIndex(motifSearchConfig));
+        createPipeline(stateRepository, invertedIndex).resume();
+
+        verify(invertedIndex, times(expected.size() - recorded.size())).insert(any(), any());
+        for (ResiduePairDescriptor residuePairDescriptor : written) {
+            verify(invertedIndex, never()).insert(eq(residuePairDescriptor), any());
+        }
+        assertEquals(expected, readIndex(rootPath));
+        assertEquals(Set.copyOf(structureIdentifiers), stateRepository.selectKnown().stream().map(Pair::getFirst).collect(Collectors.toSet()));
+        assertNull(journal.read());
+    }
+
+    @Test
+    public void whenResumingWithoutRecordedBins_thenWrittenBinsAreUnchanged() throws Exception {
+        List<StructureIdentifier> structureIdentifiers = createIdentifiers(4);
+        Map<String, Map<String, Set<List<Object>>>> expected = runInterrupted(structureIdentifiers, new ConcurrentLinkedQueue<>());
+
+        // all bins are written again, present data of a structure is retained
+        StateRepository stateRepository = new FileSystemStateRepository(motifSearchConfig);
+        createPipeline(stateRepository, new FileSystemInvertedIndex(motifSearchConfig)).resume();
+
+        assertEquals(expected, readIndex(rootPath));
+        assertEquals(Set.copyOf(structureIdentifiers), stateRepository.selectKnown().stream().map(Pair::getFirst).collect(Collectors.toSet()));
+        assertTrue(stateRepository.selectDirty().isEmpty());
+    }
+
+    @Test
+    public void whenRunsAreUnreadable_thenStructuresAreDirty() throws Exception {
+        List<StructureIdentifier> structureIdentifiers = createIdentifiers(4);
+        runInterrupted(structureIdentifiers, new ConcurrentLinkedQueue<>());
+        try (Stream<Path> runs = Files.list(rootPath.resolve(MotifSearchConfig.RUN_DIRECTORY))) {
+            for (Path run : (Iterable<Path>) runs::iterator) {
+                Files.delete(run);
+            }
+        }
+
+        StateRepository stateRepository = new FileSystemStateRepository(motifSearchConfig);
+        createPipeline(stateRepository, new FileSystemInvertedIndex(motifSearchConfig)).resume();
+
+        assertEquals(Set.copyOf(structureIdentifiers), Set.copyOf(stateRepository.selectDirty()));
+        assertTrue(stateRepository.selectKnown().isEmpty());
+        assertNull(new UpdateJournal(rootPath.resolve(MotifSearchConfig.JOURNAL_DIRECTORY), rootPath.resolve(MotifSearchConfig.RUN_DIRECTORY)).read());
+    }
+}